@@ -790,6 +790,7 @@ SIL_SYS_SOURCES = $(SIL_OPENGL_SOURCES) \
                   sysdep/android/files.c \
                   sysdep/android/graphics.c \
                   sysdep/android/input.c \
+                  sysdep/android/jni.c \
                   sysdep/android/log.c \
                   sysdep/android/main.c \
                   sysdep/android/misc.c \
@@ -799,8 +800,14 @@ SIL_SYS_SOURCES = $(SIL_OPENGL_SOURCES) \
                   sysdep/android/userdata.c \
                   sysdep/linux/debug.c \
                   sysdep/linux/meminfo.c \
+                  sysdep/misc/dynamic-resolution.c \
+                  sysdep/misc/input-latency.c \
+                  sysdep/misc/input-ring.c \
                   sysdep/misc/ioqueue.c \
                   sysdep/misc/movie-none.c \
+                  sysdep/misc/refresh-rate.c \
+                  sysdep/misc/startup-trace.c \
+                  sysdep/misc/thermal-monitor.c \
                   sysdep/posix/condvar.c \
                   sysdep/posix/fileutil.c \
                   sysdep/posix/misc.c \
@@ -812,7 +819,13 @@ SIL_SYS_SOURCES = $(SIL_OPENGL_SOURCES) \
                   sysdep/posix/util.c \
                   $(if $(filter 1,$(SIL_INCLUDE_TESTS)), \
                       test/sysdep/android/misc.c \
+                      test/sysdep/misc/dynamic-resolution.c \
+                      test/sysdep/misc/input-latency.c \
+                      test/sysdep/misc/input-ring.c \
                       test/sysdep/misc/ioqueue.c \
+                      test/sysdep/misc/refresh-rate.c \
+                      test/sysdep/misc/startup-trace.c \
+                      test/sysdep/misc/thermal-monitor.c \
                       test/sysdep/posix/files.c \
                       test/sysdep/posix/fileutil.c \
                       test/sysdep/posix/internal.c \
@@ -1262,10 +1275,21 @@ _expand-boolean = $(CFLAG_DEFINE)$1=$(if $(filter 1,$($1)),true,false)
 _expand-bytearray = $(CFLAG_DEFINE)$1=$(if $($1),'new byte[]{$($1)}',null)
 _expand-string = $(CFLAG_DEFINE)$1=$(if $($1),'"$($1)"',null)
 
-$(JAVA_DIR)/Constants.java: $(SIL_DIR)/src/sysdep/android/Constants.java $(MAKEFILE_DEPS)
+# String resource files whose names are indexed in Constants.java (see
+# getResourceString() in SILActivity.java).
+_STRING_RESOURCE_SOURCES = $(_THISDIR)/strings.xml.in \
+    $(if $(filter 1,$(USE_DOWNLOADER)),$(_THISDIR)/downloader-strings.xml)
+
+$(JAVA_DIR)/Constants.java: $(SIL_DIR)/src/sysdep/android/Constants.java $(_STRING_RESOURCE_SOURCES) $(MAKEFILE_DEPS)
 	$(ECHO) 'Generating $@'
 	$(Q)mkdir -p '$(@D)'
-	$(Q)export flags=(); \
+	$(Q)string_names=$$(sed -n 's/.*<string name="\([^"]*\)".*/\1/p' \
+	    $(_STRING_RESOURCE_SOURCES:%='%') | LC_ALL=C sort -u); \
+	string_name_list=$$(for name in $$string_names; do \
+	    printf '"%s",' "$$name"; done); \
+	string_id_list=$$(for name in $$string_names; do \
+	    printf 'R.string.%s,' "$$name"; done); \
+	export flags=(); \
 	for flag in $(BASE_CFLAGS) $(SIL_CFLAGS) $(EXTRA_CFLAGS) $(CFLAGS) \
 	    $(call _expand-string,DOWNLOADER_BASE64_PUBLIC_KEY) \
 	    $(call _expand-bytearray,DOWNLOADER_SALT) \
@@ -1284,6 +1308,8 @@ $(JAVA_DIR)/Constants.java: $(SIL_DIR)/src/sysdep/android/Constants.java $(MAKEF
 	    | sed \
 	          -e 's/_C_\([^ ]*\) = \1;/\1 = 0;/' \
 	          -e 's/_C_//' \
+	          -e "s/STRING_RESOURCE_NAME_LIST/$$string_name_list/" \
+	          -e "s/STRING_RESOURCE_ID_LIST/$$string_id_list/" \
 	    >'$@'
 
 ifneq ($(USE_DOWNLOADER),1)
@@ -119,9 +119,15 @@ SIL_SYS_SOURCES = $(SIL_OPENGL_SOURCES) \
                   sysdep/linux/sysfont.c \
                   sysdep/linux/thread.c \
                   sysdep/linux/userdata.c \
+                  sysdep/misc/dynamic-resolution.c \
+                  sysdep/misc/input-latency.c \
+                  sysdep/misc/input-ring.c \
                   sysdep/misc/ioqueue.c \
                   sysdep/misc/joystick-db.c \
                   sysdep/misc/log-stdio.c \
+                  sysdep/misc/refresh-rate.c \
+                  sysdep/misc/startup-trace.c \
+                  sysdep/misc/thermal-monitor.c \
                   sysdep/posix/condvar.c \
                   sysdep/posix/files.c \
                   sysdep/posix/fileutil.c \
@@ -153,9 +159,15 @@ SIL_SYS_SOURCES = $(SIL_OPENGL_SOURCES) \
                       test/sysdep/linux/userdata.c \
                       test/sysdep/linux/wrap-io.c \
                       test/sysdep/linux/wrap-x11.c \
+                      test/sysdep/misc/dynamic-resolution.c \
+                      test/sysdep/misc/input-latency.c \
+                      test/sysdep/misc/input-ring.c \
                       test/sysdep/misc/ioqueue.c \
                       test/sysdep/misc/joystick-db.c \
                       test/sysdep/misc/log-stdio.c \
+                      test/sysdep/misc/refresh-rate.c \
+                      test/sysdep/misc/startup-trace.c \
+                      test/sysdep/misc/thermal-monitor.c \
                       test/sysdep/posix/files.c \
                       test/sysdep/posix/fileutil.c \
                       test/sysdep/posix/internal.c \
@@ -61,14 +61,16 @@ extern const char *android_external_mount_point(void);
  * listed in the AndroidManifest file.
  *
  * On Android, permission requests are asynchronous, and may cause the
- * program to be suspended or even terminated.  Accordingly, the caller
- * must loop over this function until it returns a nonnegative value,
- * checking for suspend and quit requests, in a manner such as the
- * following:
+ * program to be suspended or even terminated.  This function does not
+ * block; if the request is still pending, it returns -1 immediately
+ * (without calling into Java), and the caller must check again later,
+ * handling suspend and quit requests in the meantime.  The simplest way
+ * to do this is with android_wait_for_permission(), in a manner such as
+ * the following:
  *
  *     int quit = 0;
  *     int result;
- *     while ((result = android_request_permission(...)) < 0) {
+ *     while ((result = android_wait_for_permission(..., -1)) < 0) {
  *         input_update();
  *         if (input_is_suspend_requested()) {
  *             input_acknowledge_suspend_request();
@@ -85,8 +87,9 @@ extern const char *android_external_mount_point(void);
  *         // Permission was denied
  *     }
  *
- * Behavior is undefined if, after this function returns -1 for a given
- * permission, it is subsequently called with a different permission.
+ * Multiple permissions may be requested at once; the system dialogs will
+ * be shown one at a time.  Once the user has responded to a request, the
+ * result is remembered for the rest of the program's run.
  *
  * [Parameters]
  *     permission: Permission to request (ANDROID_PERMISSION_*).
@@ -103,6 +106,36 @@ typedef enum AndroidPermission {
 } AndroidPermission;
 extern int android_request_permission(AndroidPermission permission);
 
+/**
+ * android_wait_for_permission:  Request a permission from the user as
+ * for android_request_permission(), and wait for the user to respond.
+ *
+ * Note that this function stops waiting and returns -1 as soon as the
+ * program is suspended, and the system normally suspends the program
+ * while it displays the permission dialog, so in practice this function
+ * rarely blocks for long.  The caller must then handle the suspend
+ * request (which will complete after the user responds) and call this
+ * function again, as in the example above; by the time the program is
+ * resumed, the result will normally be available.  The main benefit over
+ * calling android_request_permission() in the same loop is that the
+ * caller does not spin while the request is being started.
+ *
+ * If the system cancels the request (for example, because the dialog was
+ * interrupted), this function returns -1 and the permission reverts to
+ * not having been requested, so the next call to this function or
+ * android_request_permission() will show the dialog again.
+ *
+ * [Parameters]
+ *     permission: Permission to request (ANDROID_PERMISSION_*).
+ *     timeout: Maximum time to wait, in seconds, or a negative value to
+ *         wait indefinitely.
+ * [Return value]
+ *     1 if the permission was granted, 0 if it was denied, or -1 if the
+ *     request is still pending.
+ */
+extern int android_wait_for_permission(AndroidPermission permission,
+                                       double timeout);
+
 /******** graphics.c ********/
 
 /**
@@ -171,6 +204,54 @@ extern const char *android_get_manufacturer(void);
 extern const char *android_get_model(void);
 extern const char *android_get_product(void);
 
+/**
+ * android_thermal_level:  Return a coarse indication of how close the
+ * device is to thermal throttling.  Programs can use this to reduce their
+ * workload (for example, by lowering the rendering resolution or
+ * disabling expensive effects) before the system throttles the device.
+ *
+ * The level is based on the system's thermal headroom estimate (see
+ * android_thermal_headroom()), with hysteresis so that it does not change
+ * rapidly when the headroom hovers around a threshold, and on the system
+ * thermal status (see android_thermal_status()).  The first call to this
+ * or either of those functions starts a background thread which polls
+ * the headroom at a rate which increases as the device heats up (at most
+ * once per second); this function itself only reads the latest result
+ * and is cheap enough to call every frame.
+ *
+ * [Return value]
+ *     Current thermal level (ANDROID_THERMAL_LEVEL_*).
+ */
+typedef enum AndroidThermalLevel {
+    ANDROID_THERMAL_LEVEL_NORMAL = 0,  // No thermal pressure.
+    ANDROID_THERMAL_LEVEL_WARM,        // Approaching throttling.
+    ANDROID_THERMAL_LEVEL_HOT,         // Throttling or about to throttle.
+} AndroidThermalLevel;
+extern int android_thermal_level(void);
+
+/**
+ * android_thermal_headroom:  Return the most recent thermal headroom
+ * estimate from the system, forecast a few seconds ahead.  A value of 1.0
+ * indicates that the device has reached the point of severe throttling;
+ * lower values indicate proportionally more room before that point.
+ * Headroom is only available on Android 11 and later.
+ *
+ * [Return value]
+ *     Thermal headroom, or a negative value if not known.
+ */
+extern float android_thermal_headroom(void);
+
+/**
+ * android_thermal_status:  Return the current system thermal status, one
+ * of the PowerManager.THERMAL_STATUS_* values (0 = none, 1 = light,
+ * 2 = moderate, 3 = severe, 4 = critical, 5 = emergency, 6 = shutdown).
+ * The status is only available on Android 10 and later.
+ *
+ * [Return value]
+ *     Thermal status, or -1 if not known.
+ */
+extern int android_thermal_status(void);
+
 /*************************************************************************/
 /*************************************************************************/
 
@@ -25,6 +25,14 @@ public static final String DOWNLOADER_BASE64_PUBLIC_KEY = null;
 public static final byte[] DOWNLOADER_SALT = null;
 public static final boolean USE_DOWNLOADER = false;
 
+/* Names of string resources and their corresponding resource IDs, sorted
+ * by name.  These are generated from the string resource files at build
+ * time, so that resources can be looked up without reflection. */
+public static final String[] STRING_RESOURCE_NAMES =
+    {STRING_RESOURCE_NAME_LIST};
+public static final int[] STRING_RESOURCE_IDS =
+    {STRING_RESOURCE_ID_LIST};
+
 /*************************************************************************/
 /*************************************************************************/
 
@@ -36,8 +36,13 @@ private AlertDialog.Builder builder;
 /* The AlertDialog created for this instance. */
 private AlertDialog dialog;
 
-/* Code indicating the button pressed (returned from showAndWait()). */
+/* Code indicating the button pressed (returned from showAndWait() and
+ * getResult()), or RESULT_PENDING if no button has been pressed. */
 private int result;
+static final int RESULT_PENDING = -2;
+
+/* Flag indicating whether dismiss() has been called. */
+private boolean dismissed;
 
 /*************************************************************************/
 /*************************** Interface methods ***************************/
@@ -89,7 +94,7 @@ synchronized int showAndWait()
     try {
         wait();
     } catch (InterruptedException e) {}
-    result = -2;
+    result = RESULT_PENDING;
     activity.runOnUiThread(new Runnable() {public void run() {
         dialog.show();
     }});
@@ -99,6 +104,67 @@ synchronized int showAndWait()
     return result;
 }
 
+/*-----------------------------------------------------------------------*/
+
+/**
+ * show:  Display this dialog without waiting for a button to be pressed.
+ * Use isFinished() or getResult() to check for completion.
+ */
+synchronized void show()
+{
+    result = RESULT_PENDING;
+    dismissed = false;
+    activity.runOnUiThread(new Runnable() {public void run() {
+        synchronized(Dialog.this) {
+            if (!dismissed) {
+                setup();
+                dialog.show();
+            }
+        }
+    }});
+}
+
+/**
+ * isFinished:  Return whether a button has been pressed on this dialog.
+ *
+ * [Return value]
+ *     True if a button has been pressed, false if not.
+ */
+synchronized boolean isFinished()
+{
+    return result != RESULT_PENDING;
+}
+
+/**
+ * getResult:  Return the code for the button pressed on this dialog.
+ *
+ * [Return value]
+ *     1 if the positive button was activated; 0 if the negative button was
+ *     activated; -1 if the neutral button was activated; RESULT_PENDING if
+ *     no button has been activated.
+ */
+synchronized int getResult()
+{
+    return result;
+}
+
+/**
+ * dismiss:  Close this dialog if it is still displayed.  The result is
+ * left unchanged.
+ */
+synchronized void dismiss()
+{
+    dismissed = true;
+    activity.runOnUiThread(new Runnable() {public void run() {
+        synchronized(Dialog.this) {
+            if (dialog != null) {
+                dialog.dismiss();
+                dialog = null;
+            }
+        }
+    }});
+}
+
 /*************************************************************************/
 /***************************** Local methods *****************************/
 /*************************************************************************/
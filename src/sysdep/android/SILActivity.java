@@ -22,18 +22,26 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Point;
+import android.hardware.display.DisplayManager;
+import android.hardware.input.InputManager;
 import android.media.AudioManager;
 import android.media.AudioTrack;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Looper;
+import android.os.PerformanceHintManager;
+import android.os.PowerManager;
 import android.os.Process;
 import android.os.SystemClock;
+import android.os.Trace;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.Display;
 import android.view.InputDevice;
 import android.view.InputDevice.MotionRange;
@@ -43,9 +51,18 @@ import android.view.ViewGroup;
 import android.view.Window;
 import android.view.WindowManager;
 import java.io.File;
-import java.util.HashMap;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class SILActivity extends NativeActivity {
@@ -63,29 +80,239 @@ class InputDeviceInfo {
 };
 private SparseArray<InputDeviceInfo> input_device_info;
 
-/* Presence flags for various input device types. */
-private boolean has_joystick, has_keyboard, has_mouse;
+/* Packed copy of input_device_info for native code; see
+ * getInputDeviceTable(). */
+private int[] input_device_table;
+/* Device IDs of joysticks (or D-pads, if no joysticks are present) in
+ * joystick index order; see getJoystickIds(). */
+private int[] joystick_ids;
+/* Flag bits used in input_device_table.  These must match the
+ * INPUT_DEVICE_* values in input.c. */
+private static final int INPUT_DEVICE_DPAD     = 1<<0;
+private static final int INPUT_DEVICE_JOYSTICK = 1<<1;
+private static final int INPUT_DEVICE_KEYBOARD = 1<<2;
+private static final int INPUT_DEVICE_MOUSE    = 1<<3;
+
+/* Capability data for a joystick device, returned by
+ * getJoystickDescriptor() so that native code can set up a joystick with
+ * a single call. */
+public static class JoystickDescriptor {
+    public String name;
+    public int flags;            // INPUT_DEVICE_* flags (see above).
+    public boolean can_rumble;
+    /* Four values per motion range: axis, flat, range, resolution. */
+    public float[] ranges;
+};
+
+/* Whether any joystick-class devices are present (see getJoystickIds()). */
+private boolean has_joystick;
+
+/* Listener for input device add/remove/change events (Jelly Bean and
+ * later only; null on earlier versions). */
+private InputManager.InputDeviceListener input_device_listener;
+/* Counter incremented whenever the listener reports a device change.
+ * Always nonnegative; see getInputDeviceGeneration(). */
+private volatile int input_device_generation;
+/* Flag indicating whether the listener is currently registered. */
+private volatile boolean input_device_listener_active;
+
+/* Native input latency histograms (see setInputLatencyBuffer()), or null
+ * if not yet available. */
+private IntBuffer input_latency;
+/* Dimensions of the input_latency array. */
+private int input_latency_sources, input_latency_stages,
+    input_latency_buckets;
+/* Names of the input latency sources and stages, in the order used by
+ * native code (see AndroidInputLatencySource and AndroidInputLatencyStage
+ * in internal.h). */
+private static final String[] INPUT_LATENCY_SOURCE_NAMES =
+    {"touch", "mouse", "joystick", "key"};
+private static final String[] INPUT_LATENCY_STAGE_NAMES =
+    {"dequeue", "deliver"};
 
 /* Window width and height, set from the UI thread when the window first
- * gains focus. */
+ * gains focus or the content view is first laid out, whichever comes
+ * first.  Only valid once window_size_latch has been released. */
 private int window_width, window_height;
+/* Latch released when window_width and window_height have been set. */
+private CountDownLatch window_size_latch;
+/* Maximum time to wait for the window size to become known, in
+ * milliseconds. */
+private static final long WINDOW_SIZE_TIMEOUT = 1000;
+
+/* Snapshot of display geometry, returned by getDisplayGeometry() so that
+ * native code can retrieve all display parameters with a single call. */
+public static class DisplayGeometry {
+    public int generation;
+    /* Usable size (see getDisplayWidth()), or zero if not yet known. */
+    public int width, height;
+    /* Full display size (see getDisplayFullWidth()). */
+    public int full_width, full_height;
+    public float xdpi, ydpi;
+    public float size_inches;  // See getDisplaySizeInches().
+};
+/* Most recently built display geometry snapshot, or null if none has
+ * been built yet.  The snapshot is stale if its generation does not
+ * match display_geometry_generation. */
+private volatile DisplayGeometry display_geometry;
+/* Counter incremented whenever the display geometry may have changed.
+ * Always nonnegative.  Protected by display_geometry_lock. */
+private volatile int display_geometry_generation;
+private final Object display_geometry_lock = new Object();
+/* Buffer shared with native code for the display geometry generation
+ * (see setDisplayGeometryBuffer()), or null if native code has not
+ * provided one.  Protected by display_geometry_lock. */
+private ByteBuffer display_geometry_buffer;
+/* Listener for display change events (Jelly Bean MR1 and later only; null
+ * on earlier versions). */
+private DisplayManager.DisplayListener display_listener;
+
+/* Snapshot of the environment information needed by native code at
+ * startup, returned by getStartupSnapshot() so that native code can
+ * retrieve it all with a single call. */
+public static class StartupSnapshot {
+    public int api_level;  // See getAPILevel().
+    /* Selected getBuildInfo() strings. */
+    public String manufacturer, model, product, hardware;
+    /* See getInternalDataPath() and getExternalDataPath(). */
+    public String internal_data_path, external_data_path;
+    /* Path of the external storage root, or the empty string if not
+     * available. */
+    public String external_root_path;
+    /* See getExpansionFilePath(); entries may be null. */
+    public String[] expansion_file_paths;
+    public String user_locale;  // See getUserLocale().
+    public int audio_output_rate;  // See getAudioOutputRate().
+    public int audio_frames_per_buffer;  // See getAudioFramesPerBuffer().
+    public int audio_features;  // See getAudioFeatures().
+    /* System.nanoTime() at entry to onCreate(). */
+    public long create_time;
+    /* Time spent building the snapshot, in nanoseconds. */
+    public long build_time;
+};
+/* Startup snapshot, or null if not yet built.  Only valid once
+ * startup_snapshot_thread has terminated. */
+private StartupSnapshot startup_snapshot;
+/* Thread which builds startup_snapshot, or null if the thread could not
+ * be started. */
+private Thread startup_snapshot_thread;
+
+/* Startup trace events recorded by traceStartup(), one per line (see
+ * takeStartupTrace()), or null if native code has already taken them.
+ * Protected by startup_trace_lock. */
+private StringBuilder startup_trace;
+private final Object startup_trace_lock = new Object();
+
+/* Buffer shared with native code for vsync timing (see setVsyncBuffer()),
+ * or null if native code has not provided one.  Only accessed on the UI
+ * thread. */
+private ByteBuffer vsync_buffer;
+/* Frame callback which records vsync timing (Jelly Bean and later only;
+ * null on earlier versions). */
+private Choreographer.FrameCallback vsync_callback;
+/* Flag indicating whether vsync_callback is currently posted. */
+private boolean vsync_callback_active;
+/* Flag indicating whether the activity is between onResume() and
+ * onPause(). */
+private boolean activity_resumed;
+/* Timestamp of the most recent vsync (in System.nanoTime() units), or 0
+ * if none has been seen since the callback was started, and the current
+ * estimate of the vsync period in nanoseconds (0 if unknown). */
+private long vsync_last_time, vsync_period;
+/* Sequence counter for updates to vsync_buffer. */
+private long vsync_sequence;
+/* Dummy field used by vsyncFence(). */
+private volatile int vsync_fence;
 
 /* Receiver object for headphones-removed events. */
 private BroadcastReceiver audio_became_noisy_receiver;
-/* Flag set when a headphones-removed event is received. */
-private boolean audio_became_noisy;
+/* Buffer shared with native code for the headphones-removed flag (see
+ * setAudioBecameNoisyBuffer()), or null if native code has not provided
+ * one.  Only accessed on the UI thread. */
+private ByteBuffer audio_became_noisy_buffer;
+
+/* Cached content view found by getContentView(), or null if not yet
+ * looked up.  Cleared when the window's content changes. */
+private volatile WeakReference<View> content_view_ref;
 
 /* Flag to store the system UI visibility state (since input dialogs can
- * clobber it). */
+ * clobber it).  Protected by ui_command_lock. */
 private boolean system_ui_visible;
 
-/* Run lock for the UI thread. */
+/* UI state changes queued by queueKeepScreenOn() and similar methods,
+ * to be applied on the UI thread by flushUiCommands().  All of these
+ * fields are protected by ui_command_lock.  ui_command_mask holds the
+ * UI_COMMAND_* bits for state which differs from what was last applied;
+ * the ui_applied_* fields hold the state last applied on the UI thread
+ * (1 or 0), or -1 if unknown. */
+private Object ui_command_lock;
+private int ui_command_mask;
+private static final int UI_COMMAND_KEEP_SCREEN_ON = 1<<0;
+private static final int UI_COMMAND_SYSTEM_UI_VISIBLE = 1<<1;
+private boolean keep_screen_on;
+private int ui_applied_keep_screen_on;
+private int ui_applied_system_ui_visible;
+/* Flag indicating whether ui_command_runner has been posted but has not
+ * yet started running. */
+private boolean ui_command_posted;
+/* Runnable which applies queued UI commands, reused for every flush. */
+private Runnable ui_command_runner;
+
+/* Power manager service, for performance and thermal queries. */
+private PowerManager power_manager;
+/* Buffer shared with native code for the thermal status (see
+ * setThermalStatusBuffer()), or null if native code has not provided one.
+ * Only accessed on the UI thread. */
+private ByteBuffer thermal_buffer;
+/* Listener for thermal status changes (Android 10 and later only; null
+ * on earlier versions). */
+private PowerManager.OnThermalStatusChangedListener thermal_listener;
+/* Flag indicating whether thermal_listener is currently registered. */
+private boolean thermal_listener_active;
+
+/* Performance hint session for the native render thread (Android 12 and
+ * later only), or null if none, and the thread ID the session was
+ * created for.  Only accessed from the native game thread. */
+private PerformanceHintManager.Session hint_session;
+private int hint_session_tid;
+
+/* Run lock for the UI thread, held by the thread which has locked the
+ * UI thread (see lockUiThread()). */
 private ReentrantLock ui_thread_lock;
-
-/* List of known granted/denied permissions. */
-private HashMap<String,Boolean> requested_permissions;
-/* Flag indicating whether a permission request is in progress. */
-private boolean reqperm_waiting;
+/* State of the UI thread park handshake (one of the UI_PARK_* constants
+ * below). */
+private AtomicInteger ui_park_state;
+private static final int UI_PARK_IDLE = 0;
+private static final int UI_PARK_REQUESTED = 1;
+private static final int UI_PARK_PARKED = 2;
+/* Semaphores signalled when the UI thread has parked and when it may
+ * resume. */
+private Semaphore ui_parked;
+private Semaphore ui_resume;
+/* Runnable which parks the UI thread, reused for every lock request. */
+private Runnable ui_parker;
+
+/* Permission status values stored in permission_buffer. */
+private static final int PERMISSION_NOT_REQUESTED = -2;
+private static final int PERMISSION_PENDING = -1;
+private static final int PERMISSION_DENIED = 0;
+private static final int PERMISSION_GRANTED = 1;
+/* Buffer shared with native code for permission request results (see
+ * setPermissionBuffer()), or null if native code has not provided one.
+ * Writes are performed while holding permission_lock. */
+private ByteBuffer permission_buffer;
+/* System permission names corresponding to each slot in permission_buffer
+ * (null for names which could not be resolved). */
+private String[] permission_ids;
+/* Lock for permission_buffer, also notified when a request completes or
+ * the activity is paused. */
+private Object permission_lock;
+/* Indices of permissions waiting to be requested.  Only accessed on the
+ * UI thread. */
+private ArrayDeque<Integer> permission_queue;
+/* Flag indicating whether a permission request is in progress.  Only
+ * accessed on the UI thread. */
+private boolean permission_request_active;
 
 /*************************************************************************/
 /*************************** Callback methods ****************************/
@@ -94,16 +321,126 @@ private boolean reqperm_waiting;
 @Override
 protected void onCreate(Bundle savedInstanceState)
 {
+    /* Start gathering the startup snapshot right away so that it can
+     * proceed in parallel with the rest of activity creation (notably
+     * loading the native library).  Native code will wait for it in
+     * getStartupSnapshot() if necessary. */
+    final long create_time = System.nanoTime();
+    startup_trace = new StringBuilder();
+    traceStartup('B', "SILActivity.onCreate", create_time);
+    startup_snapshot = null;
+    startup_snapshot_thread = new Thread(new Runnable() {public void run() {
+        startup_snapshot = buildStartupSnapshot(create_time);
+    }}, "SILStartupSnapshot");
+    try {
+        startup_snapshot_thread.start();
+    } catch (OutOfMemoryError e) {  // Thrown if the thread can't be created.
+        startup_snapshot_thread = null;
+    }
+
     input_device_info = new SparseArray<InputDeviceInfo>(16);
+    input_device_table = new int[0];
+    joystick_ids = new int[0];
     audio_became_noisy_receiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            audio_became_noisy = true;
+            if (audio_became_noisy_buffer != null) {
+                audio_became_noisy_buffer.putInt(0, 1);
+            }
         }
     };
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+        input_device_listener = new InputManager.InputDeviceListener() {
+            @Override
+            public void onInputDeviceAdded(int id) {
+                bumpInputDeviceGeneration();
+            }
+            @Override
+            public void onInputDeviceChanged(int id) {
+                bumpInputDeviceGeneration();
+            }
+            @Override
+            public void onInputDeviceRemoved(int id) {
+                bumpInputDeviceGeneration();
+            }
+        };
+    }
+    input_device_generation = 0;
+    input_device_listener_active = false;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+        display_listener = new DisplayManager.DisplayListener() {
+            @Override
+            public void onDisplayAdded(int id) {}
+            @Override
+            public void onDisplayChanged(int id) {
+                if (id == Display.DEFAULT_DISPLAY) {
+                    invalidateDisplayGeometry();
+                    seedVsyncPeriod();
+                }
+            }
+            @Override
+            public void onDisplayRemoved(int id) {}
+        };
+    }
+    display_geometry = null;
+    display_geometry_generation = 0;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+        vsync_callback = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long time) {
+                if (vsync_callback_active) {
+                    recordVsync(time);
+                    Choreographer.getInstance().postFrameCallback(this);
+                }
+            }
+        };
+    }
+    vsync_buffer = null;
+    vsync_callback_active = false;
+    power_manager = (PowerManager)getSystemService(Context.POWER_SERVICE);
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+        thermal_listener = new PowerManager.OnThermalStatusChangedListener() {
+            @Override
+            public void onThermalStatusChanged(int status) {
+                if (thermal_buffer != null) {
+                    thermal_buffer.putInt(0, status);
+                }
+            }
+        };
+    }
+    thermal_buffer = null;
+    thermal_listener_active = false;
+    activity_resumed = false;
+    window_size_latch = new CountDownLatch(1);
     system_ui_visible = false;
+    ui_command_lock = new Object();
+    ui_command_mask = 0;
+    keep_screen_on = false;
+    ui_applied_keep_screen_on = 0;
+    ui_applied_system_ui_visible = -1;
+    ui_command_posted = false;
+    ui_command_runner = new Runnable() {public void run() {
+        runUiCommands();
+    }};
     ui_thread_lock = new ReentrantLock();
-    requested_permissions = new HashMap<String,Boolean>();
+    ui_park_state = new AtomicInteger(UI_PARK_IDLE);
+    ui_parked = new Semaphore(0);
+    ui_resume = new Semaphore(0);
+    ui_parker = new Runnable() {public void run() {
+        /* If the request was cancelled by a timeout, there's nothing to
+         * do.  If a new request was made after the timeout, we park for
+         * that request instead, and the Runnable posted for the new
+         * request will return immediately. */
+        if (!ui_park_state.compareAndSet(UI_PARK_REQUESTED, UI_PARK_PARKED)) {
+            return;
+        }
+        ui_parked.release();
+        ui_resume.acquireUninterruptibly();
+        /* If a new request has already been made, leave its state alone. */
+        ui_park_state.compareAndSet(UI_PARK_PARKED, UI_PARK_IDLE);
+    }};
+    permission_lock = new Object();
+    permission_queue = new ArrayDeque<Integer>();
 
     try {
         Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
@@ -114,7 +451,33 @@ protected void onCreate(Bundle savedInstanceState)
         WindowManager.LayoutParams.FLAG_FULLSCREEN,
         (WindowManager.LayoutParams.FLAG_FULLSCREEN
          | WindowManager.LayoutParams.FLAG_FORCE_NOT_FULLSCREEN));
+    traceStartup('B', "NativeActivity.onCreate", System.nanoTime());
     super.onCreate(savedInstanceState);
+    traceStartup('E', "NativeActivity.onCreate", System.nanoTime());
+
+    /* The content view is normally laid out before the window gains
+     * focus, so watch for that as well to pick up the window size as
+     * early as possible. */
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+        View content_view = getContentView();
+        if (content_view != null) {
+            content_view.addOnLayoutChangeListener(
+                new View.OnLayoutChangeListener() {
+                    @Override
+                    public void onLayoutChange(
+                        View view, int left, int top, int right, int bottom,
+                        int old_left, int old_top, int old_right,
+                        int old_bottom)
+                    {
+                        if (setWindowSize(right - left, bottom - top)) {
+                            view.removeOnLayoutChangeListener(this);
+                        }
+                    }
+                });
+        }
+    }
+
+    traceStartup('E', "SILActivity.onCreate", System.nanoTime());
 }
 
 /*-----------------------------------------------------------------------*/
@@ -122,7 +485,27 @@ protected void onCreate(Bundle savedInstanceState)
 @Override
 protected void onPause()
 {
+    dumpInputLatency();
     unregisterReceiver(audio_became_noisy_receiver);
+    if (input_device_listener != null) {
+        input_device_listener_active = false;
+        InputManager input_manager =
+            (InputManager)getSystemService(Context.INPUT_SERVICE);
+        input_manager.unregisterInputDeviceListener(input_device_listener);
+    }
+    if (display_listener != null) {
+        DisplayManager display_manager =
+            (DisplayManager)getSystemService(Context.DISPLAY_SERVICE);
+        display_manager.unregisterDisplayListener(display_listener);
+    }
+    synchronized (permission_lock) {
+        activity_resumed = false;
+        /* Release any thread blocked in waitForPermission() so it can
+         * respond to the suspend request. */
+        permission_lock.notifyAll();
+    }
+    stopVsyncCallback();
+    stopThermalListener();
     super.onPause();
 }
 
@@ -134,12 +517,50 @@ protected void onResume()
     registerReceiver(
         audio_became_noisy_receiver,
         new IntentFilter(AudioManager.ACTION_AUDIO_BECOMING_NOISY));
-    setSystemUiVisible(system_ui_visible);
+    if (input_device_listener != null) {
+        InputManager input_manager =
+            (InputManager)getSystemService(Context.INPUT_SERVICE);
+        input_manager.registerInputDeviceListener(input_device_listener, null);
+        /* We weren't listening while paused, so assume something changed. */
+        bumpInputDeviceGeneration();
+        input_device_listener_active = true;
+    }
+    if (display_listener != null) {
+        DisplayManager display_manager =
+            (DisplayManager)getSystemService(Context.DISPLAY_SERVICE);
+        display_manager.registerDisplayListener(display_listener, null);
+    }
+    /* The display may have changed while we were paused. */
+    invalidateDisplayGeometry();
+    synchronized (permission_lock) {
+        activity_resumed = true;
+    }
+    startVsyncCallback();
+    startThermalListener();
+    refreshSystemUiVisible();
     super.onResume();
 }
 
 /*-----------------------------------------------------------------------*/
 
+@Override
+public void onContentChanged()
+{
+    super.onContentChanged();
+    content_view_ref = null;
+}
+
+/*-----------------------------------------------------------------------*/
+
+@Override
+public void onConfigurationChanged(Configuration new_config)
+{
+    super.onConfigurationChanged(new_config);
+    invalidateDisplayGeometry();
+}
+
+/*-----------------------------------------------------------------------*/
+
 /**
  * onKeyDown:  Event handler for keypresses.  We intercept KEYCODE_BACK to
  * prevent the app from being terminated by a Back button press.
@@ -164,12 +585,16 @@ public boolean onKeyDown(int keyCode, KeyEvent event)
 public void onRequestPermissionsResult(int requestCode, String[] permissions,
                                        int[] grantResults)
 {
-    for (int i = 0; i < permissions.length; i++) {
-        requested_permissions.put(
-            permissions[i],
-            grantResults[i] == PackageManager.PERMISSION_GRANTED);
-    }
-    reqperm_waiting = false;
+    /* An empty result means the request was cancelled; reset the status
+     * so that the permission can be requested again if the program wants
+     * to (native code does not do so automatically). */
+    final int status =
+        grantResults.length == 0 ? PERMISSION_NOT_REQUESTED :
+        grantResults[0] == PackageManager.PERMISSION_GRANTED
+            ? PERMISSION_GRANTED : PERMISSION_DENIED;
+    setPermissionStatus(requestCode, status);
+    permission_request_active = false;
+    startNextPermissionRequest();
 }
 
 /*-----------------------------------------------------------------------*/
@@ -182,11 +607,12 @@ public void onRequestPermissionsResult(int requestCode, String[] permissions,
 @Override
 public void onWindowFocusChanged(boolean hasFocus)
 {
-    if (window_width == 0) {
-        window_width = getContentView().getWidth();
+    if (hasFocus) {
+        traceStartup('M', "window focused", System.nanoTime());
     }
-    if (window_height == 0) {
-        window_height = getContentView().getHeight();
+    View content_view = getContentView();
+    if (content_view != null) {
+        setWindowSize(content_view.getWidth(), content_view.getHeight());
     }
 }
 
@@ -234,6 +660,11 @@ public String getArgs()
  * getAPILevel:  Return the Android API level (from Build.VERSION_CODES)
  * implemented by the runtime environment.
  *
+ * Like the other methods called by buildStartupSnapshot(), this may be
+ * called on a background thread before super.onCreate() has run, so
+ * overrides must be thread-safe and must not rely on any state set up in
+ * onCreate().
+ *
  * [Return value]
  *     Runtime API level.
  */
@@ -315,6 +746,10 @@ public String getBuildInfo(int id)
  * getExternalFilesDir(null).getAbsolutePath(), respectively, and are
  * provided mainly to simplify native code.
  *
+ * Both are called from buildStartupSnapshot(), possibly on a background
+ * thread before super.onCreate() has run; overrides (including overrides
+ * of getFilesDir() and getExternalFilesDir()) must be safe to call there.
+ *
  * [Return value]
  *     Absolute path of the data directory, or the empty string if not
  *     available.
@@ -350,6 +785,11 @@ public String getExternalDataPath()
  * getExpansionFilePath:  Return the path of an expansion file downloaded
  * separately from the application.
  *
+ * Called from buildStartupSnapshot(), possibly on a background thread
+ * before super.onCreate() has run.  The default implementation only needs
+ * the application context, which is available at that point; overrides
+ * must likewise not depend on state set up in onCreate().
+ *
  * [Parameters]
  *     index: File index.  For Google Play, 0 is the "main" file and 1 is
  *         the "patch" file.
@@ -363,11 +803,154 @@ public String getExpansionFilePath(int index)
 
 /*-----------------------------------------------------------------------*/
 
+/**
+ * getStartupSnapshot:  Return a snapshot of the environment information
+ * needed by native code at startup.  The snapshot is gathered on a
+ * separate thread started at the beginning of onCreate(); if that thread
+ * has not yet finished, this method waits for it.
+ *
+ * Note that the program arguments (see getArgs()) are not included,
+ * since subclasses may depend on state set up later in onCreate().
+ *
+ * [Return value]
+ *     Startup snapshot.
+ */
+public StartupSnapshot getStartupSnapshot()
+{
+    if (startup_snapshot_thread != null) {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                startup_snapshot_thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        startup_snapshot_thread = null;
+    }
+    if (startup_snapshot == null) {  // Thread failed to start or died.
+        startup_snapshot = buildStartupSnapshot(System.nanoTime());
+    }
+    return startup_snapshot;
+}
+
+/**
+ * buildStartupSnapshot:  Build a new StartupSnapshot instance.  Helper
+ * for onCreate() and getStartupSnapshot().
+ *
+ * This is normally called on the SILStartupSnapshot thread, concurrently
+ * with the rest of onCreate() and before super.onCreate() has been
+ * called (the snapshot is needed by native code during super.onCreate(),
+ * so building it afterward would defeat the purpose).  Every method it
+ * calls must therefore be thread-safe and must only depend on state which
+ * is available once the activity's base context has been attached; the
+ * documentation of each overridable method called here notes this.  Any
+ * data which depends on state set up in onCreate() (such as the program
+ * arguments) must not be added to the snapshot.
+ *
+ * [Parameters]
+ *     create_time: Time at which onCreate() was called, in
+ *         System.nanoTime() units.
+ * [Return value]
+ *     Newly built snapshot.
+ */
+private StartupSnapshot buildStartupSnapshot(long create_time)
+{
+    final long start = System.nanoTime();
+    traceStartup('B', "buildStartupSnapshot", start);
+    StartupSnapshot snapshot = new StartupSnapshot();
+    snapshot.api_level = getAPILevel();
+    snapshot.manufacturer = Build.MANUFACTURER;
+    snapshot.model = Build.MODEL;
+    snapshot.product = Build.PRODUCT;
+    snapshot.hardware = Build.HARDWARE;
+    snapshot.internal_data_path = getInternalDataPath();
+    snapshot.external_data_path = getExternalDataPath();
+    File external_root = Environment.getExternalStorageDirectory();
+    snapshot.external_root_path =
+        (external_root != null ? external_root.getPath() : "");
+    snapshot.expansion_file_paths = new String[2];
+    for (int i = 0; i < snapshot.expansion_file_paths.length; i++) {
+        snapshot.expansion_file_paths[i] = getExpansionFilePath(i);
+    }
+    snapshot.user_locale = getUserLocale();
+    snapshot.audio_output_rate = getAudioOutputRate();
+    snapshot.audio_frames_per_buffer = getAudioFramesPerBuffer();
+    snapshot.audio_features = getAudioFeatures();
+    snapshot.create_time = create_time;
+    final long end = System.nanoTime();
+    snapshot.build_time = end - start;
+    traceStartup('E', "buildStartupSnapshot", end);
+    return snapshot;
+}
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * traceStartup:  Record a startup trace event.  Sections are also passed
+ * on to android.os.Trace (Jelly Bean MR2 and later), so the begin and end
+ * events for a section must be recorded on the same thread.  Once native
+ * code has called takeStartupTrace(), events are only passed on to
+ * android.os.Trace.
+ *
+ * [Parameters]
+ *     type: Event type: 'B' (begin section), 'E' (end section), or 'M'
+ *         (instantaneous mark).
+ *     name: Event name.
+ *     time: Event timestamp, in System.nanoTime() units.
+ */
+private void traceStartup(char type, String name, long time)
+{
+    synchronized (startup_trace_lock) {
+        if (startup_trace != null) {
+            startup_trace.append(time).append(' ').append(type)
+                .append(' ').append(name).append('\n');
+        }
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+        if (type == 'B') {
+            Trace.beginSection(name);
+        } else if (type == 'E') {
+            Trace.endSection();
+        }
+    }
+}
+
+/**
+ * takeStartupTrace:  Return the startup trace events recorded so far,
+ * and stop recording further events.  The events are returned one per
+ * line, each in the format "<time> <type> <name>", where <time> is the
+ * System.nanoTime() timestamp and <type> is one of the type characters
+ * accepted by traceStartup().
+ *
+ * [Return value]
+ *     Recorded events, or null if they have already been taken.
+ */
+public String takeStartupTrace()
+{
+    synchronized (startup_trace_lock) {
+        final String events =
+            (startup_trace != null ? startup_trace.toString() : null);
+        startup_trace = null;
+        return events;
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
 /**
  * getResourceString:  Return a string from the Android string resources.
  * If a localized version of the string is available for the user's
  * preferred locale, that version is returned.
  *
+ * Names are looked up in the index generated at build time (see
+ * Constants.STRING_RESOURCE_NAMES); reflection is only used for
+ * resources not included in the index.
+ *
  * [Parameters]
  *     name: String resource name.
  * [Return value]
@@ -375,6 +958,11 @@ public String getExpansionFilePath(int index)
  */
 public String getResourceString(String name)
 {
+    final int index = Arrays.binarySearch(Constants.STRING_RESOURCE_NAMES,
+                                          name);
+    if (index >= 0) {
+        return getString(Constants.STRING_RESOURCE_IDS[index]);
+    }
     try {
         return getString(R.string.class.getField(name).getInt(null));
     } catch (NoSuchFieldException e) {
@@ -384,6 +972,25 @@ public String getResourceString(String name)
     }
 }
 
+/**
+ * getResourceStrings:  Return multiple strings from the Android string
+ * resources.  Equivalent to calling getResourceString() for each name,
+ * but requires only a single call from native code.
+ *
+ * [Parameters]
+ *     names: String resource names.
+ * [Return value]
+ *     Array of string texts, with null for each resource not found.
+ */
+public String[] getResourceStrings(String[] names)
+{
+    String[] texts = new String[names.length];
+    for (int i = 0; i < names.length; i++) {
+        texts[i] = getResourceString(names[i]);
+    }
+    return texts;
+}
+
 /*-----------------------------------------------------------------------*/
 
 /**
@@ -392,6 +999,10 @@ public String getResourceString(String name)
  * locale.  "aa" is an ISO 639-1 language code, and "BB" is an ISO 3166-1
  * country code (both exactly two letters if present).
  *
+ * Called from buildStartupSnapshot(), possibly on a background thread
+ * before super.onCreate() has run, so overrides must not depend on state
+ * set up in onCreate().
+ *
  * [Return value]
  *     User's preferred locale.
  */
@@ -407,21 +1018,113 @@ String getUserLocale()
  * When enabled, the device will not go to sleep as long as the app is
  * displayed, regardless of the user's configured idle timeout.
  *
+ * This is equivalent to queueKeepScreenOn() followed by flushUiCommands().
+ *
  * [Parameters]
  *     enable: True to keep the screen on, false to restore normal behavior.
  */
 public void keepScreenOn(boolean enable)
 {
-    if (enable) {
-        runOnUiThread(new Runnable() {public void run() {
+    queueKeepScreenOn(enable);
+    flushUiCommands();
+}
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * queueKeepScreenOn, queueSystemUiVisible:  Queue a change to the
+ * FLAG_KEEP_SCREEN_ON window flag (see keepScreenOn()) or the system UI
+ * visibility (see setSystemUiVisible()), to be applied by the next call
+ * to flushUiCommands().
+ *
+ * Queued changes are coalesced, so that only the most recently queued
+ * state is applied, and a change back to the state currently in effect
+ * cancels the pending change.
+ *
+ * [Parameters]
+ *     enable, visible: New state.
+ */
+public void queueKeepScreenOn(boolean enable)
+{
+    synchronized (ui_command_lock) {
+        keep_screen_on = enable;
+        if ((enable ? 1 : 0) == ui_applied_keep_screen_on) {
+            ui_command_mask &= ~UI_COMMAND_KEEP_SCREEN_ON;
+        } else {
+            ui_command_mask |= UI_COMMAND_KEEP_SCREEN_ON;
+        }
+    }
+}
+
+public void queueSystemUiVisible(boolean visible)
+{
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+        return;
+    }
+    synchronized (ui_command_lock) {
+        system_ui_visible = visible;
+        if ((visible ? 1 : 0) == ui_applied_system_ui_visible) {
+            ui_command_mask &= ~UI_COMMAND_SYSTEM_UI_VISIBLE;
+        } else {
+            ui_command_mask |= UI_COMMAND_SYSTEM_UI_VISIBLE;
+        }
+    }
+}
+
+/**
+ * flushUiCommands:  Apply all queued UI state changes on the UI thread.
+ * All pending changes are applied by a single post to the UI thread, and
+ * nothing is posted if there are no changes to apply.  If called on the
+ * UI thread, the changes are applied immediately.
+ */
+public void flushUiCommands()
+{
+    synchronized (ui_command_lock) {
+        if (ui_command_mask == 0 || ui_command_posted) {
+            return;
+        }
+        ui_command_posted = true;
+    }
+    runOnUiThread(ui_command_runner);
+}
+
+/**
+ * runUiCommands:  Apply all queued UI state changes.  Only called on the
+ * UI thread.
+ */
+private void runUiCommands()
+{
+    int mask;
+    boolean keep_on, visible;
+    synchronized (ui_command_lock) {
+        mask = ui_command_mask;
+        ui_command_mask = 0;
+        ui_command_posted = false;
+        keep_on = keep_screen_on;
+        visible = system_ui_visible;
+        if ((mask & UI_COMMAND_KEEP_SCREEN_ON) != 0) {
+            ui_applied_keep_screen_on = keep_on ? 1 : 0;
+        }
+        if ((mask & UI_COMMAND_SYSTEM_UI_VISIBLE) != 0) {
+            ui_applied_system_ui_visible = visible ? 1 : 0;
+        }
+    }
+
+    if ((mask & UI_COMMAND_KEEP_SCREEN_ON) != 0) {
+        if (keep_on) {
             getWindow().addFlags(
                 WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
-        }});
-    } else {
-        runOnUiThread(new Runnable() {public void run() {
+        } else {
             getWindow().clearFlags(
                 WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
-        }});
+        }
+    }
+    if ((mask & UI_COMMAND_SYSTEM_UI_VISIBLE) != 0) {
+        if (!applySystemUiVisible(visible)) {
+            synchronized (ui_command_lock) {
+                ui_applied_system_ui_visible = -1;
+            }
+        }
     }
 }
 
@@ -431,19 +1134,73 @@ public void keepScreenOn(boolean enable)
  * lockUiThread, unlockUiThread:  Lock or unlock the UI thread so that
  * another thread can modify global UI state.  (Java calls must still be
  * performed on the UI thread itself.)
+ *
+ * lockUiThread() does not return until the UI thread is actually parked
+ * (or the timeout expires), and it does not allocate any objects.  Calls
+ * may be nested; only the outermost call parks the UI thread.  If called
+ * on the UI thread itself, these methods only take the lock, since the
+ * UI thread is by definition not running anything else.
+ *
+ * There is deliberately no way to wait indefinitely: the UI thread may
+ * itself be blocked waiting for the caller (for example, in onPause()
+ * until native code acknowledges the suspend request), so callers must
+ * be prepared to give up and retry.
+ *
+ * [Parameters]
+ *     timeout_ns: Maximum time to wait for the UI thread to park, in
+ *         nanoseconds.  Negative values are treated as zero.
+ * [Return value]
+ *     Time taken to lock the UI thread, in nanoseconds, or -1 if the
+ *     timeout expired (in which case unlockUiThread() must not be called).
  */
-public void lockUiThread()
+public long lockUiThread(long timeout_ns)
 {
-    ui_thread_lock.lock();
+    final long start = System.nanoTime();
+    if (timeout_ns < 0) {
+        timeout_ns = 0;
+    }
+    boolean locked;
+    try {
+        locked = ui_thread_lock.tryLock(timeout_ns, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+        locked = false;
+    }
+    if (!locked) {
+        return -1;
+    }
+    if (ui_thread_lock.getHoldCount() > 1
+     || Looper.myLooper() == Looper.getMainLooper()) {
+        return System.nanoTime() - start;
+    }
 
-    runOnUiThread(new Runnable() {public void run() {
-        ui_thread_lock.lock();    // Blocks until unlockUiThread() is called.
-        ui_thread_lock.unlock();
-    }});
+    ui_park_state.set(UI_PARK_REQUESTED);
+    runOnUiThread(ui_parker);
+    final long remaining = timeout_ns - (System.nanoTime() - start);
+    boolean parked;
+    try {
+        parked = ui_parked.tryAcquire(Math.max(remaining, 0),
+                                      TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+        parked = false;
+    }
+    if (!parked) {
+        if (ui_park_state.compareAndSet(UI_PARK_REQUESTED, UI_PARK_IDLE)) {
+            ui_thread_lock.unlock();
+            return -1;
+        }
+        /* The UI thread parked just as we gave up, so take the lock
+         * after all. */
+        ui_parked.acquireUninterruptibly();
+    }
+    return System.nanoTime() - start;
 }
 
 public void unlockUiThread()
 {
+    if (ui_thread_lock.getHoldCount() == 1
+     && Looper.myLooper() != Looper.getMainLooper()) {
+        ui_resume.release();
+    }
     ui_thread_lock.unlock();
 }
 
@@ -464,142 +1221,460 @@ void openURL(String url)
 /*-----------------------------------------------------------------------*/
 
 /**
- * Synchronously request a permission from the user.
+ * setPermissionBuffer:  Set the buffer into which permission request
+ * results are written, and resolve the names of the permissions which may
+ * be requested.  Called once from native code before the first permission
+ * request.
+ *
+ * The buffer holds one 32-bit integer in native byte order for each
+ * permission, set to one of the PERMISSION_* values defined above.
+ * Permissions which have already been granted (including all permissions
+ * on Android versions before 6.0, which grant permissions at install
+ * time) are set to PERMISSION_GRANTED; all others are set to
+ * PERMISSION_NOT_REQUESTED.
  *
  * [Parameters]
- *     name: Name of permission to request (field name in Manifest.permission).
- * [Return value]
- *     1 if the permission was granted, 0 if it was denied, -1 if the
+ *     buffer: Direct buffer of at least 4*names.length bytes.
+ *     names: Names of permissions (field names in Manifest.permission).
  */
-int requestPermission(String name)
+public void setPermissionBuffer(ByteBuffer buffer, String[] names)
 {
-    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
-        /* Permission granting was done at install time. */
-        return 1;
-    }
-
-    String permission;
-    try {
-        permission = (String)android.Manifest.permission.class.getDeclaredField(name).get(null);
-    } catch (Exception e) {
-        Log.w(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
-              "Failed to look up permission " + name);
-        return 0;
-    }
-    Boolean status = requested_permissions.get(permission);
-    if (status != null) {
-        return status ? 1 : 0;
-    }
-
-    if (!reqperm_waiting) {
-        reqperm_waiting = true;
-        Log.d(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
-              "Requesting permission " + permission);
-        requestPermissions(new String[]{permission}, 0);
+    final String[] ids = new String[names.length];
+    for (int i = 0; i < names.length; i++) {
+        try {
+            ids[i] = (String)android.Manifest.permission.class
+                .getDeclaredField(names[i]).get(null);
+        } catch (Exception e) {
+            Log.w(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
+                  "Failed to look up permission " + names[i]);
+        }
     }
 
-    status = requested_permissions.get(permission);
-    if (status != null) {
-        return status ? 1 : 0;
-    } else {
-        return -1;
+    synchronized (permission_lock) {
+        permission_ids = ids;
+        permission_buffer = buffer.order(ByteOrder.nativeOrder());
+        for (int i = 0; i < ids.length; i++) {
+            final int status;
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+                status = PERMISSION_GRANTED;
+            } else if (ids[i] == null) {
+                status = PERMISSION_DENIED;
+            } else if (checkSelfPermission(ids[i])
+                       == PackageManager.PERMISSION_GRANTED) {
+                status = PERMISSION_GRANTED;
+            } else {
+                status = PERMISSION_NOT_REQUESTED;
+            }
+            permission_buffer.putInt(i*4, status);
+        }
     }
 }
 
-/*************************************************************************/
-/******************* Display-related utility routines ********************/
-/*************************************************************************/
-
 /**
- * getContentView:  Return the content view for the window.  A counterpart
- * to setContentView() that is bizarrely missing from the API.
+ * requestPermission:  Request a permission from the user.  The result
+ * is written to the permission buffer when the user responds.  Native
+ * code sets the permission's status to PERMISSION_PENDING before calling
+ * this method, and only calls it once for each request.  If another
+ * request is in progress, this request is started when that one
+ * completes.
  *
- * [Return value]
- *     Content view, or null if none has been set.
+ * [Parameters]
+ *     index: Index of permission in the array passed to
+ *         setPermissionBuffer().
  */
-public View getContentView()
+public void requestPermission(final int index)
 {
-    View content_view = gcv_recurse(getWindow().getDecorView());
-    if (content_view == null) {
-        Log.w(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
-              "Failed to get content view!");
-        Log.i(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
-              "Current view hierarchy:");
-        gcv_print(getWindow().getDecorView(), "");
-    }
-    return content_view;
+    runOnUiThread(new Runnable() {public void run() {
+        permission_queue.add(index);
+        startNextPermissionRequest();
+    }});
 }
 
-private View gcv_recurse(View view)
+/**
+ * waitForPermission:  Wait until the given permission's request completes,
+ * the activity is paused (as it normally will be when the system shows
+ * the permission dialog), or the timeout expires.  Native code reads the
+ * result from the permission buffer on return.
+ *
+ * [Parameters]
+ *     index: Index of permission in the array passed to
+ *         setPermissionBuffer().
+ *     timeout_ns: Maximum time to wait, in nanoseconds, or a negative
+ *         value to wait indefinitely.
+ */
+public void waitForPermission(int index, long timeout_ns)
 {
-    /* Currently (SDK version 15), the view class is a nested class named
-     * android.app.NativeActivity$NativeContentView.  We assume it will
-     * always contain "ContentView" and test for that to find the view. */
-    if (view.getClass().getName().contains("ContentView")) {
-        return view;
-    }
-    if (view instanceof ViewGroup) {
-        ViewGroup group = (ViewGroup)view;
-        for (int i = 0; i < group.getChildCount(); i++) {
-            View result = gcv_recurse(group.getChildAt(i));
-            if (result != null) {
-                return result;
+    final long deadline = System.nanoTime() + timeout_ns;
+    synchronized (permission_lock) {
+        while (activity_resumed
+               && permission_buffer.getInt(index*4) == PERMISSION_PENDING) {
+            long wait_ms = 0;  // Indefinitely.
+            if (timeout_ns >= 0) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                /* Round up so we don't busy-wait for the last fraction
+                 * of a millisecond. */
+                wait_ms = (remaining + 999999) / 1000000;
+            }
+            try {
+                permission_lock.wait(wait_ms);
+            } catch (InterruptedException e) {
+                break;
             }
         }
     }
-    return null;
 }
 
-private void gcv_print(View view, String indent)
+/**
+ * startNextPermissionRequest:  Start the next queued permission request,
+ * if any, unless a request is already in progress.  Only called on the UI
+ * thread.
+ */
+private void startNextPermissionRequest()
 {
-    Log.i(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
-          indent + view.getClass().getName());
-    if (view instanceof ViewGroup) {
-        ViewGroup group = (ViewGroup)view;
-        for (int i = 0; i < group.getChildCount(); i++) {
-            gcv_print(group.getChildAt(i), indent + "   ");
-        }
+    if (permission_request_active || permission_queue.isEmpty()) {
+        return;
     }
+    final int index = permission_queue.remove();
+    Log.d(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
+          "Requesting permission " + permission_ids[index]);
+    permission_request_active = true;
+    requestPermissions(new String[]{permission_ids[index]}, index);
 }
 
-/*-----------------------------------------------------------------------*/
-
 /**
- * getDisplayWidth, getDisplayHeight:  Return the size of the usable region
- * of the display (the region excluding the system navigation bar) in its
- * current orientation.
+ * setPermissionStatus:  Store a permission's status in the permission
+ * buffer and wake up any threads waiting for it.
  *
- * [Return value]
- *     Display width or height, in pixels.
+ * [Parameters]
+ *     index: Index of permission in the array passed to
+ *         setPermissionBuffer().
+ *     status: New status (PERMISSION_*).
  */
-public int getDisplayWidth()
+private void setPermissionStatus(int index, int status)
 {
-    int tries = 0;
-    while (window_width == 0) {
-        tries++;
-        if (tries >= 1000) {
-            Log.e(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
-                  "Width was not set!");
-            return 0;
+    synchronized (permission_lock) {
+        if (permission_buffer != null
+         && index >= 0 && index < permission_ids.length) {
+            permission_buffer.putInt(index*4, status);
+            permission_lock.notifyAll();
         }
-        try {Thread.sleep(1);} catch (InterruptedException e) {}
     }
-    return window_width;
 }
 
-public int getDisplayHeight()
-{
-    int tries = 0;
-    while (window_height == 0) {
-        tries++;
-        if (tries >= 1000) {
-            Log.e(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
-                  "Width was not set!");
-            return 0;
-        }
-        try {Thread.sleep(1);} catch (InterruptedException e) {}
-    }
-    return window_height;
+/*-----------------------------------------------------------------------*/
+
+/**
+ * setSustainedPerformanceMode:  Enable or disable sustained performance
+ * mode for the activity's window.  In sustained performance mode, the
+ * system limits clock speeds to a level the device can maintain
+ * indefinitely, rather than running fast until it overheats and then
+ * throttling heavily.
+ *
+ * [Parameters]
+ *     enable: True to enable sustained performance mode, false to
+ *         disable it.
+ * [Return value]
+ *     True if the request was accepted, false if sustained performance
+ *     mode is not supported (always true when disabling).
+ */
+public boolean setSustainedPerformanceMode(final boolean enable)
+{
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+        return !enable;
+    }
+    if (enable) {
+        if (power_manager == null
+         || !power_manager.isSustainedPerformanceModeSupported()) {
+            return false;
+        }
+    }
+    runOnUiThread(new Runnable() {public void run() {
+        getWindow().setSustainedPerformanceMode(enable);
+    }});
+    return true;
+}
+
+/**
+ * setThermalStatusBuffer:  Set the buffer into which the system thermal
+ * status is written, and start listening for thermal status changes if
+ * possible.  Called from native code when thermal monitoring starts.
+ *
+ * The buffer holds a single 32-bit integer in native byte order, set to
+ * one of the PowerManager.THERMAL_STATUS_* constants or -1 if the status
+ * is unknown (always the case before Android 10).  The value is only
+ * written from the UI thread.
+ *
+ * [Parameters]
+ *     buffer: Direct buffer of at least 4 bytes.
+ */
+public void setThermalStatusBuffer(final ByteBuffer buffer)
+{
+    runOnUiThread(new Runnable() {public void run() {
+        stopThermalListener();
+        thermal_buffer = buffer.order(ByteOrder.nativeOrder());
+        thermal_buffer.putInt(0, -1);
+        if (activity_resumed) {
+            startThermalListener();
+        }
+    }});
+}
+
+/**
+ * startThermalListener:  Start listening for thermal status changes, if
+ * a buffer has been set and the listener is not already registered.
+ * Only called on the UI thread.
+ */
+private void startThermalListener()
+{
+    if (thermal_listener == null || thermal_buffer == null
+     || thermal_listener_active || power_manager == null) {
+        return;
+    }
+    power_manager.addThermalStatusListener(thermal_listener);
+    thermal_listener_active = true;
+    /* The status may have changed while we were not listening. */
+    thermal_buffer.putInt(0, power_manager.getCurrentThermalStatus());
+}
+
+/**
+ * stopThermalListener:  Stop listening for thermal status changes.  Only
+ * called on the UI thread.
+ */
+private void stopThermalListener()
+{
+    if (thermal_listener_active) {
+        power_manager.removeThermalStatusListener(thermal_listener);
+        thermal_listener_active = false;
+    }
+}
+
+/**
+ * getThermalHeadroom:  Return the system's estimate of the thermal
+ * headroom, where 1.0 indicates severe throttling.  This is a relatively
+ * expensive call which the system rate-limits, so it should not be called
+ * more than once per second.
+ *
+ * [Parameters]
+ *     forecast_seconds: Number of seconds into the future for which to
+ *         forecast the headroom (0 for the current headroom).
+ * [Return value]
+ *     Thermal headroom, or NaN if not available.
+ */
+public float getThermalHeadroom(int forecast_seconds)
+{
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R
+     || power_manager == null) {
+        return Float.NaN;
+    }
+    return power_manager.getThermalHeadroom(forecast_seconds);
+}
+
+/**
+ * startHintSession:  Start a performance hint session for the given
+ * thread, or update the target work duration of the current session if
+ * one is already active for that thread.  Only called from the native
+ * game thread.
+ *
+ * [Parameters]
+ *     tid: Linux thread ID of the thread doing the per-frame work.
+ *     target_ns: Target work duration per frame, in nanoseconds.
+ * [Return value]
+ *     True on success, false if hint sessions are not supported.
+ */
+public boolean startHintSession(int tid, long target_ns)
+{
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) {
+        return false;
+    }
+    if (hint_session != null && hint_session_tid == tid) {
+        hint_session.updateTargetWorkDuration(target_ns);
+        return true;
+    }
+    stopHintSession();
+    PerformanceHintManager manager = (PerformanceHintManager)
+        getSystemService(Context.PERFORMANCE_HINT_SERVICE);
+    if (manager == null) {
+        return false;
+    }
+    hint_session = manager.createHintSession(new int[] {tid}, target_ns);
+    if (hint_session == null) {
+        return false;
+    }
+    hint_session_tid = tid;
+    return true;
+}
+
+/**
+ * stopHintSession:  Close the current performance hint session, if any.
+ * Only called from the native game thread.
+ */
+public void stopHintSession()
+{
+    if (hint_session != null) {
+        hint_session.close();
+        hint_session = null;
+    }
+}
+
+/**
+ * reportWorkDuration:  Report the actual work duration of a frame to the
+ * current performance hint session.  Does nothing if no session is
+ * active.  Called once per frame from the native game thread, so this
+ * must not allocate.
+ *
+ * [Parameters]
+ *     duration_ns: Time spent on the frame, in nanoseconds (must be
+ *         positive).
+ */
+public void reportWorkDuration(long duration_ns)
+{
+    if (hint_session != null) {
+        hint_session.reportActualWorkDuration(duration_ns);
+    }
+}
+
+/*************************************************************************/
+/******************* Display-related utility routines ********************/
+/*************************************************************************/
+
+/**
+ * getContentView:  Return the content view for the window.  A counterpart
+ * to setContentView() that is bizarrely missing from the API.
+ *
+ * The view found is cached, so the view hierarchy is only searched on the
+ * first call and after the window's content changes.
+ *
+ * [Return value]
+ *     Content view, or null if none has been set.
+ */
+public View getContentView()
+{
+    final WeakReference<View> ref = content_view_ref;
+    View content_view = (ref != null) ? ref.get() : null;
+    /* Make sure the view still belongs to our window, in case the window
+     * was re-created without a content change notification. */
+    if (content_view != null
+     && content_view.getRootView() == getWindow().peekDecorView()) {
+        return content_view;
+    }
+
+    content_view = gcv_recurse(getWindow().getDecorView());
+    content_view_ref = (content_view != null)
+        ? new WeakReference<View>(content_view) : null;
+    if (content_view == null) {
+        Log.w(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
+              "Failed to get content view!");
+        Log.i(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
+              "Current view hierarchy:");
+        gcv_print(getWindow().getDecorView(), "");
+    }
+    return content_view;
+}
+
+private View gcv_recurse(View view)
+{
+    /* Currently (SDK version 15), the view class is a nested class named
+     * android.app.NativeActivity$NativeContentView.  We assume it will
+     * always contain "ContentView" and test for that to find the view. */
+    if (view.getClass().getName().contains("ContentView")) {
+        return view;
+    }
+    if (view instanceof ViewGroup) {
+        ViewGroup group = (ViewGroup)view;
+        for (int i = 0; i < group.getChildCount(); i++) {
+            View result = gcv_recurse(group.getChildAt(i));
+            if (result != null) {
+                return result;
+            }
+        }
+    }
+    return null;
+}
+
+private void gcv_print(View view, String indent)
+{
+    Log.i(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
+          indent + view.getClass().getName());
+    if (view instanceof ViewGroup) {
+        ViewGroup group = (ViewGroup)view;
+        for (int i = 0; i < group.getChildCount(); i++) {
+            gcv_print(group.getChildAt(i), indent + "   ");
+        }
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * getDisplayWidth, getDisplayHeight:  Return the size of the usable region
+ * of the display (the region excluding the system navigation bar) in its
+ * current orientation.
+ *
+ * [Return value]
+ *     Display width or height, in pixels.
+ */
+public int getDisplayWidth()
+{
+    return waitForWindowSize() ? window_width : 0;
+}
+
+public int getDisplayHeight()
+{
+    return waitForWindowSize() ? window_height : 0;
+}
+
+/**
+ * setWindowSize:  Record the window size and release any threads waiting
+ * for it, if the size has not already been recorded.  Only called on
+ * the UI thread.
+ *
+ * [Parameters]
+ *     width, height: Window size, in pixels (ignored if zero).
+ * [Return value]
+ *     True if the window size is known, false if not.
+ */
+private boolean setWindowSize(int width, int height)
+{
+    if (window_size_latch.getCount() == 0) {
+        return true;
+    }
+    if (width <= 0 || height <= 0) {
+        return false;
+    }
+    window_width = width;
+    window_height = height;
+    window_size_latch.countDown();
+    invalidateDisplayGeometry();
+    return true;
+}
+
+/**
+ * waitForWindowSize:  Wait up to WINDOW_SIZE_TIMEOUT milliseconds for the
+ * window size to become known.  Returns immediately if the size is
+ * already known.
+ *
+ * [Return value]
+ *     True if the window size is known, false if the wait timed out.
+ */
+private boolean waitForWindowSize()
+{
+    if (window_size_latch.getCount() == 0) {
+        return true;
+    }
+    try {
+        if (window_size_latch.await(WINDOW_SIZE_TIMEOUT,
+                                    TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+    } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+    }
+    Log.e(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
+          "Window size was not set!");
+    return false;
 }
 
 /*-----------------------------------------------------------------------*/
@@ -613,38 +1688,14 @@ public int getDisplayHeight()
  * [Return value]
  *     Display width or height, in pixels.
  */
-@SuppressWarnings("deprecation")  // for getWidth()
 public int getDisplayFullWidth()
 {
-    Display display = getWindowManager().getDefaultDisplay();
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-        Point size = new Point();
-        display.getRealSize(size);
-        return size.x;
-    } else if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-        Point size = new Point();
-        display.getSize(size);
-        return size.x;
-    } else {
-        return display.getWidth();
-    }
+    return getDisplayGeometry(-1).full_width;
 }
 
-@SuppressWarnings("deprecation")  // for getHeight()
 public int getDisplayFullHeight()
 {
-    Display display = getWindowManager().getDefaultDisplay();
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-        Point size = new Point();
-        display.getRealSize(size);
-        return size.y;
-    } else if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-        Point size = new Point();
-        display.getSize(size);
-        return size.y;
-    } else {
-        return display.getHeight();
-    }
+    return getDisplayGeometry(-1).full_height;
 }
 
 /*-----------------------------------------------------------------------*/
@@ -659,55 +1710,439 @@ public int getDisplayFullHeight()
  */
 public float getDisplaySizeInches()
 {
+    return getDisplayGeometry(-1).size_inches;
+}
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * getDisplayGeometry:  Return a snapshot of the current display geometry,
+ * unless the caller already has the current snapshot.  The snapshot is
+ * built on the first call after the display changes (as reported by
+ * onConfigurationChanged() or the display listener) and reused until the
+ * next change, so repeated calls do not query the window manager.
+ *
+ * Unlike getDisplayWidth(), this function never waits for the window
+ * size to become known; if it is not yet known, the usable size fields
+ * are zero, and a new snapshot will be available once the size is set.
+ *
+ * [Parameters]
+ *     known_generation: Generation number of the snapshot the caller
+ *         already has, or -1 if none.
+ * [Return value]
+ *     Display geometry snapshot, or null if known_generation is current.
+ */
+public DisplayGeometry getDisplayGeometry(int known_generation)
+{
+    final int generation = display_geometry_generation;
+    if (generation == known_generation) {
+        return null;
+    }
+    DisplayGeometry geometry = display_geometry;
+    if (geometry == null || geometry.generation != generation) {
+        geometry = buildDisplayGeometry(generation);
+        synchronized (display_geometry_lock) {
+            /* Don't overwrite a newer snapshot or save a stale one. */
+            if (display_geometry_generation == generation) {
+                display_geometry = geometry;
+            }
+        }
+    }
+    return geometry;
+}
+
+/**
+ * invalidateDisplayGeometry:  Mark the current display geometry snapshot
+ * as stale.
+ */
+private void invalidateDisplayGeometry()
+{
+    synchronized (display_geometry_lock) {
+        display_geometry_generation =
+            (display_geometry_generation + 1) & 0x7FFFFFFF;
+        if (display_geometry_buffer != null) {
+            display_geometry_buffer.putInt(0, display_geometry_generation);
+        }
+    }
+}
+
+/**
+ * setDisplayGeometryBuffer:  Set the buffer into which the current
+ * display geometry generation is written.  Called once from native code
+ * before the first display geometry lookup, so that native code only
+ * needs to call getDisplayGeometry() when the geometry has changed.
+ *
+ * The buffer holds a single 32-bit integer in native byte order, updated
+ * (by invalidateDisplayGeometry()) whenever onConfigurationChanged() or
+ * the display listener reports a change.
+ *
+ * [Parameters]
+ *     buffer: Direct buffer of at least 4 bytes.
+ */
+public void setDisplayGeometryBuffer(ByteBuffer buffer)
+{
+    synchronized (display_geometry_lock) {
+        display_geometry_buffer = buffer.order(ByteOrder.nativeOrder());
+        display_geometry_buffer.putInt(0, display_geometry_generation);
+    }
+}
+
+/**
+ * buildDisplayGeometry:  Query the system for the current display
+ * geometry.  Helper for getDisplayGeometry().
+ *
+ * [Parameters]
+ *     generation: Generation number to store in the snapshot.
+ * [Return value]
+ *     New display geometry snapshot.
+ */
+@SuppressWarnings("deprecation")  // for getWidth() and getHeight()
+private DisplayGeometry buildDisplayGeometry(int generation)
+{
+    DisplayGeometry geometry = new DisplayGeometry();
+    geometry.generation = generation;
+
+    Display display = getWindowManager().getDefaultDisplay();
     DisplayMetrics metrics = new DisplayMetrics();
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-        getWindowManager().getDefaultDisplay().getRealMetrics(metrics);
+        display.getRealMetrics(metrics);
+        geometry.full_width = metrics.widthPixels;
+        geometry.full_height = metrics.heightPixels;
+    } else if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+        display.getMetrics(metrics);
+        Point size = new Point();
+        display.getSize(size);
+        geometry.full_width = size.x;
+        geometry.full_height = size.y;
     } else {
-        getWindowManager().getDefaultDisplay().getMetrics(metrics);
+        display.getMetrics(metrics);
+        geometry.full_width = display.getWidth();
+        geometry.full_height = display.getHeight();
     }
-    float width = metrics.widthPixels / metrics.xdpi;
-    float height = metrics.heightPixels / metrics.ydpi;
-    return (float)Math.sqrt(width*width + height*height);
+    geometry.xdpi = metrics.xdpi;
+    geometry.ydpi = metrics.ydpi;
+    float width_inches = metrics.widthPixels / metrics.xdpi;
+    float height_inches = metrics.heightPixels / metrics.ydpi;
+    geometry.size_inches = (float)Math.sqrt(width_inches*width_inches
+                                            + height_inches*height_inches);
+
+    if (window_size_latch.getCount() == 0) {
+        geometry.width = window_width;
+        geometry.height = window_height;
+    }
+    return geometry;
+}
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * getDisplayModes:  Return the list of display modes supported by the
+ * default display.  Each mode is described by four consecutive array
+ * elements: the mode ID, the physical width and height in pixels, and
+ * the refresh rate in frames per second.
+ *
+ * [Return value]
+ *     Array of mode data (empty if mode switching is not supported).
+ */
+public float[] getDisplayModes()
+{
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+        return new float[0];
+    }
+    Display.Mode[] modes =
+        getWindowManager().getDefaultDisplay().getSupportedModes();
+    float[] data = new float[modes.length * 4];
+    for (int i = 0; i < modes.length; i++) {
+        data[i*4+0] = modes[i].getModeId();
+        data[i*4+1] = modes[i].getPhysicalWidth();
+        data[i*4+2] = modes[i].getPhysicalHeight();
+        data[i*4+3] = modes[i].getRefreshRate();
+    }
+    return data;
+}
+
+/**
+ * getDisplayModeId:  Return the ID of the default display's current mode.
+ *
+ * [Return value]
+ *     Current display mode ID, or 0 if mode switching is not supported.
+ */
+public int getDisplayModeId()
+{
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+        return 0;
+    }
+    return getWindowManager().getDefaultDisplay().getMode().getModeId();
+}
+
+/**
+ * setPreferredDisplayMode:  Request that the system switch to the given
+ * display mode while this activity's window is visible.  The request
+ * is applied asynchronously; the display listener picks up the change
+ * once the system has switched modes.
+ *
+ * [Parameters]
+ *     id: Display mode ID, or 0 to let the system choose.
+ */
+public void setPreferredDisplayMode(final int id)
+{
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+        return;
+    }
+    runOnUiThread(new Runnable() {public void run() {
+        Window window = getWindow();
+        WindowManager.LayoutParams params = window.getAttributes();
+        if (params.preferredDisplayModeId != id) {
+            params.preferredDisplayModeId = id;
+            window.setAttributes(params);
+        }
+    }});
+}
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * setVsyncBuffer:  Set the buffer into which vsync timing is written, and
+ * start recording vsync timing if possible.  Called from native code
+ * during graphics initialization.
+ *
+ * The buffer holds three 64-bit integers in native byte order:
+ *    [0] Update sequence counter: odd while an update is in progress,
+ *        incremented again when the update is complete.
+ *    [1] Timestamp of the most recent vsync, in System.nanoTime() units
+ *        (0 if not yet known).
+ *    [2] Estimated vsync period, in nanoseconds (0 if not yet known).
+ * Values are only written from the UI thread.  Native code should retry
+ * its read if the sequence counter is odd or changes during the read.
+ *
+ * Recording requires Choreographer, so on versions of Android earlier
+ * than Jelly Bean, the buffer is never updated.
+ *
+ * [Parameters]
+ *     buffer: Direct buffer of at least 24 bytes.
+ */
+public void setVsyncBuffer(final ByteBuffer buffer)
+{
+    runOnUiThread(new Runnable() {public void run() {
+        stopVsyncCallback();
+        vsync_buffer = buffer.order(ByteOrder.nativeOrder());
+        vsync_sequence = 0;
+        vsync_period = 0;
+        if (activity_resumed) {
+            startVsyncCallback();
+        }
+    }});
+}
+
+/**
+ * startVsyncCallback:  Start recording vsync timing, if a buffer has been
+ * set and recording is not already active.  Only called on the UI thread.
+ */
+private void startVsyncCallback()
+{
+    if (vsync_callback == null || vsync_buffer == null
+     || vsync_callback_active) {
+        return;
+    }
+    vsync_callback_active = true;
+    vsync_last_time = 0;
+    seedVsyncPeriod();
+    Choreographer.getInstance().postFrameCallback(vsync_callback);
+}
+
+/**
+ * seedVsyncPeriod:  Set the vsync period estimate from the display's
+ * nominal refresh rate; the measured value will replace it over the next
+ * few frames.  Called when recording starts and when the display changes
+ * (such as after a refresh rate switch), so that the estimate does not
+ * have to converge from the old rate.  Only called on the UI thread.
+ */
+private void seedVsyncPeriod()
+{
+    final float refresh_rate =
+        getWindowManager().getDefaultDisplay().getRefreshRate();
+    if (refresh_rate >= 1) {
+        vsync_period = (long)(1.0e9 / refresh_rate);
+    }
+}
+
+/**
+ * stopVsyncCallback:  Stop recording vsync timing.  Only called on the UI
+ * thread.
+ */
+private void stopVsyncCallback()
+{
+    if (vsync_callback_active) {
+        Choreographer.getInstance().removeFrameCallback(vsync_callback);
+        vsync_callback_active = false;
+    }
+}
+
+/**
+ * recordVsync:  Update the vsync period estimate and store the current
+ * timing in the vsync buffer.  Only called on the UI thread.
+ *
+ * [Parameters]
+ *     time: Vsync timestamp passed to Choreographer.FrameCallback.
+ */
+private void recordVsync(long time)
+{
+    if (vsync_last_time != 0 && time > vsync_last_time) {
+        /* Callbacks can skip frames if the UI thread is busy, so divide
+         * the interval by the (rounded) number of periods it covers.
+         * Smoothing lets the estimate follow refresh rate changes within
+         * a few dozen frames without being thrown off by jitter. */
+        final long delta = time - vsync_last_time;
+        if (vsync_period == 0) {
+            vsync_period = delta;
+        } else {
+            final long periods = (delta + vsync_period/2) / vsync_period;
+            if (periods >= 1 && periods <= 4) {
+                vsync_period += (delta/periods - vsync_period) / 8;
+            }
+        }
+    }
+    vsync_last_time = time;
+
+    vsync_sequence++;
+    vsync_buffer.putLong(0, vsync_sequence);
+    vsyncFence();
+    vsync_buffer.putLong(8, time);
+    vsync_buffer.putLong(16, vsync_period);
+    vsyncFence();
+    vsync_sequence++;
+    vsync_buffer.putLong(0, vsync_sequence);
+}
+
+/**
+ * vsyncFence:  Act as a full memory barrier, so that writes to
+ * vsync_buffer before and after the call are seen in order by native
+ * code.  A volatile write followed by a volatile read cannot be reordered
+ * with any surrounding memory access.
+ */
+private void vsyncFence()
+{
+    vsync_fence = 0;
+    @SuppressWarnings("unused") int dummy = vsync_fence;
 }
 
 /*************************************************************************/
 /******************** Audio-related utility routines *********************/
 /*************************************************************************/
 
+/* Flags returned by getAudioFeatures().  These must match the
+ * ANDROID_AUDIO_FEATURE_* constants in internal.h. */
+private static final int AUDIO_FEATURE_LOW_LATENCY = 1<<0;
+
 /**
  * getAudioOutputRate:  Return the audio hardware's native output sampling
  * rate.
  *
+ * Called from buildStartupSnapshot(), possibly on a background thread
+ * before super.onCreate() has run, so overrides must not depend on state
+ * set up in onCreate().
+ *
  * [Return value]
  *     Hardware output sampling rate, or zero if unknown.
  */
 public int getAudioOutputRate()
 {
+    /* The primary output's rate (which is what the low-latency path
+     * requires) is only available as a property on Jelly Bean MR1 and
+     * later; fall back to the stream rate on older versions. */
+    final int rate = getAudioManagerIntProperty(
+        AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
+    if (rate > 0) {
+        return rate;
+    }
     return AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_SYSTEM);
 }
 
-/*-----------------------------------------------------------------------*/
+/**
+ * getAudioFramesPerBuffer:  Return the audio hardware's native output
+ * buffer size (the "burst" size).  Output buffers whose size is a
+ * multiple of this value can be passed through the system's low-latency
+ * mixer without resampling or rebuffering.  Called from
+ * buildStartupSnapshot() under the same constraints as
+ * getAudioOutputRate().
+ *
+ * [Return value]
+ *     Native output buffer size, in sample frames, or zero if unknown
+ *     (always the case before Jelly Bean MR1).
+ */
+public int getAudioFramesPerBuffer()
+{
+    return getAudioManagerIntProperty(
+        AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER);
+}
 
 /**
- * getAudioBecameNoisy:  Return whether a headphones-removed event has been
- * detected since the last call to clearAudioBecameNoisy().
+ * getAudioFeatures:  Return which low-latency audio features the device
+ * declares.  Called from buildStartupSnapshot() under the same
+ * constraints as getAudioOutputRate().
  *
  * [Return value]
- *     True if a headphones-removed event has been detected, false if not.
+ *     Bitmask of AUDIO_FEATURE_* flags.
  */
-public boolean getAudioBecameNoisy()
+public int getAudioFeatures()
 {
-    return audio_became_noisy;
+    final PackageManager package_manager = getPackageManager();
+    int features = 0;
+    if (package_manager.hasSystemFeature(
+            PackageManager.FEATURE_AUDIO_LOW_LATENCY)) {
+        features |= AUDIO_FEATURE_LOW_LATENCY;
+    }
+    return features;
+}
+
+/**
+ * getAudioManagerIntProperty:  Return the value of an integer-valued
+ * AudioManager property.  Helper for getAudioOutputRate() and
+ * getAudioFramesPerBuffer().
+ *
+ * [Parameters]
+ *     key: Property name (AudioManager.PROPERTY_*).
+ * [Return value]
+ *     Property value, or zero if unknown.
+ */
+private int getAudioManagerIntProperty(String key)
+{
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
+        return 0;
+    }
+    final AudioManager audio_manager =
+        (AudioManager)getSystemService(Context.AUDIO_SERVICE);
+    final String value =
+        audio_manager != null ? audio_manager.getProperty(key) : null;
+    if (value == null) {
+        return 0;
+    }
+    try {
+        return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+        return 0;
+    }
 }
 
 /*-----------------------------------------------------------------------*/
 
 /**
- * clearAudioBecameNoisy:  Clear the headphones-removed event flag.
+ * setAudioBecameNoisyBuffer:  Set the buffer into which headphones-removed
+ * events are reported.  Called from native code when audio output starts.
+ *
+ * The buffer holds a single 32-bit integer in native byte order, which is
+ * set to 1 (from the UI thread) when a headphones-removed event is
+ * received.  Native code reads and clears the value directly, so that the
+ * audio output callback never needs to call into Java.
+ *
+ * [Parameters]
+ *     buffer: Direct buffer of at least 4 bytes.
  */
-public void clearAudioBecameNoisy()
+public void setAudioBecameNoisyBuffer(final ByteBuffer buffer)
 {
-    audio_became_noisy = false;
+    runOnUiThread(new Runnable() {public void run() {
+        audio_became_noisy_buffer = buffer.order(ByteOrder.nativeOrder());
+    }});
 }
 
 /*************************************************************************/
@@ -745,10 +2180,10 @@ public boolean scanInputDevices()
 
     input_device_info.clear();
     has_joystick = false;
-    has_keyboard = false;
-    has_mouse = false;
 
     if (ids == null) {
+        input_device_table = new int[0];
+        joystick_ids = new int[0];
         return true;
     }
 
@@ -805,196 +2240,287 @@ public boolean scanInputDevices()
         if (info.is_keyboard) {
             Log.d(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
                   "Found keyboard (device " + id + ")");
-            has_keyboard = true;
         }
         if (info.is_mouse) {
             Log.d(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
                   "Found mouse/touchpad (device " + id + ")");
-            has_mouse = true;
         }
     }
 
+    int[] table = new int[input_device_info.size() * 2];
+    for (int i = 0; i < input_device_info.size(); i++) {
+        InputDeviceInfo info = input_device_info.valueAt(i);
+        table[i*2+0] = input_device_info.keyAt(i);
+        table[i*2+1] = (info.is_dpad     ? INPUT_DEVICE_DPAD     : 0)
+                     | (info.is_joystick ? INPUT_DEVICE_JOYSTICK : 0)
+                     | (info.is_keyboard ? INPUT_DEVICE_KEYBOARD : 0)
+                     | (info.is_mouse    ? INPUT_DEVICE_MOUSE    : 0);
+    }
+    input_device_table = table;
+
+    int joy_count = 0;
+    for (int i = 0; i < input_device_info.size(); i++) {
+        InputDeviceInfo info = input_device_info.valueAt(i);
+        if (has_joystick ? info.is_joystick : info.is_dpad) {
+            joy_count++;
+        }
+    }
+    int[] joy_ids = new int[joy_count];
+    joy_count = 0;
+    for (int i = 0; i < input_device_info.size(); i++) {
+        InputDeviceInfo info = input_device_info.valueAt(i);
+        if (has_joystick ? info.is_joystick : info.is_dpad) {
+            joy_ids[joy_count++] = input_device_info.keyAt(i);
+        }
+    }
+    joystick_ids = joy_ids;
+
     return true;
 }
 
 /*-----------------------------------------------------------------------*/
 
 /**
- * hasJoystick, hasKeyboard, hasMouse:  Return whether the device has
- * joystick, keyboard, or mouse input, respectively.
+ * getInputDeviceTable:  Return the classification of all known input
+ * devices as an array of (device ID, flags) pairs, where flags is a
+ * combination of:
+ *     1 = non-joystick D-pad
+ *     2 = full joystick (including gamepads)
+ *     4 = full alphabetic keyboard
+ *     8 = mouse (including touchpads)
+ *
+ * The returned array is replaced (not modified) when scanInputDevices()
+ * detects a change, so the caller only needs to fetch it again after
+ * scanInputDevices() returns true.
  *
  * [Return value]
- *     True if the given type of input is available, false if not.
+ *     Input device table (never null).
  */
-public boolean hasJoystick()
-{
-    return has_joystick;
-}
-
-public boolean hasKeyboard()
+public int[] getInputDeviceTable()
 {
-    return has_keyboard;
-}
-
-public boolean hasMouse()
-{
-    return has_mouse;
+    return input_device_table;
 }
 
 /*-----------------------------------------------------------------------*/
 
 /**
- * getDeviceName:  Return the name of the given input device.
+ * getInputDeviceGeneration:  Return a counter which changes whenever an
+ * input device is added, removed, or reconfigured.  Native code can call
+ * this cheaply on every frame and call scanInputDevices() only when the
+ * value changes.
+ *
+ * If device change notifications are not available (on versions of
+ * Android earlier than Jelly Bean, or while the activity is paused), this
+ * function returns -1, and the caller should fall back to periodically
+ * calling scanInputDevices().
  *
- * [Parameters]
- *     id: Input device ID.
  * [Return value]
- *     Device name.
+ *     Input device generation counter (nonnegative), or -1 if device
+ *     change notifications are not available.
+ */
+public int getInputDeviceGeneration()
+{
+    return input_device_listener_active ? input_device_generation : -1;
+}
+
+/**
+ * bumpInputDeviceGeneration:  Increment the input device generation
+ * counter, keeping it nonnegative.  Only called on the UI thread.
  */
-public String getDeviceName(int id)
+private void bumpInputDeviceGeneration()
 {
-    return InputDevice.getDevice(id).getName();
+    input_device_generation = (input_device_generation + 1) & 0x7FFFFFFF;
 }
 
 /*-----------------------------------------------------------------------*/
 
 /**
- * isInputDeviceDpad, isInputDeviceJoystick, isInputDeviceKeyboard,
- * isInputDeviceMouse:  Return whether the given input device is a
- * non-joystick D-pad, full joystick (including gamepads), full alphabetic
- * keyboard, or mouse (including touchpads), respectively.
+ * setInputLatencyBuffer:  Set the buffer holding native input latency
+ * histograms, for use by dumpInputLatency().  Called from native code
+ * during input initialization.
+ *
+ * The buffer contains num_sources * num_stages histograms, ordered by
+ * source and then by stage, each consisting of num_buckets bucket counts
+ * followed by a total sample count and a reset-request flag, all 32-bit
+ * integers in native byte order.  Bucket 0 counts latencies below 1
+ * microsecond, and bucket i counts latencies up to 2^(i/4) microseconds.
  *
  * [Parameters]
- *     id: Input device ID.
- * [Return value]
- *     True if the given device is of the given type, false if not.
+ *     buffer: Direct buffer wrapping the native histogram array.
+ *     num_sources: Number of input sources.
+ *     num_stages: Number of processing stages per source.
+ *     num_buckets: Number of buckets in each histogram.
  */
-public boolean isInputDeviceDpad(int id)
+public void setInputLatencyBuffer(ByteBuffer buffer, int num_sources,
+                                  int num_stages, int num_buckets)
 {
-    InputDeviceInfo info = input_device_info.get(id);
-    return info != null && info.is_dpad;
+    input_latency_sources = num_sources;
+    input_latency_stages = num_stages;
+    input_latency_buckets = num_buckets;
+    input_latency = buffer.order(ByteOrder.nativeOrder()).asIntBuffer();
 }
 
-public boolean isInputDeviceJoystick(int id)
-{
-    InputDeviceInfo info = input_device_info.get(id);
-    return info != null && info.is_joystick;
-}
+/*-----------------------------------------------------------------------*/
 
-public boolean isInputDeviceKeyboard(int id)
+/**
+ * dumpInputLatency:  Log the 50th, 95th, and 99th percentile input event
+ * latencies for each input source and processing stage.  Latencies are
+ * measured from the system's event timestamp and are reported as bucket
+ * upper bounds, so they may overestimate the true value by up to 19%.
+ * Called from onPause(), but may be called from any thread.
+ */
+public void dumpInputLatency()
 {
-    InputDeviceInfo info = input_device_info.get(id);
-    return info != null && info.is_keyboard;
-}
+    final IntBuffer histograms = input_latency;
+    if (histograms == null) {
+        Log.i(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
+              "Input latency: not available");
+        return;
+    }
 
-public boolean isInputDeviceMouse(int id)
-{
-    InputDeviceInfo info = input_device_info.get(id);
-    return info != null && info.is_mouse;
+    final int stride = input_latency_buckets + 2;
+    final int[] counts = new int[input_latency_buckets];
+    for (int source = 0; source < input_latency_sources; source++) {
+        for (int stage = 0; stage < input_latency_stages; stage++) {
+            final int base =
+                (source * input_latency_stages + stage) * stride;
+            int total = 0;
+            for (int i = 0; i < input_latency_buckets; i++) {
+                counts[i] = histograms.get(base + i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                continue;
+            }
+            Log.i(Constants.SIL_PLATFORM_ANDROID_DLOG_LOG_TAG,
+                  String.format(
+                      Locale.US,
+                      "Input latency %s/%s: %d samples, p50 %.2fms,"
+                      + " p95 %.2fms, p99 %.2fms",
+                      INPUT_LATENCY_SOURCE_NAMES[source],
+                      INPUT_LATENCY_STAGE_NAMES[stage], total,
+                      latencyPercentile(counts, total, 50),
+                      latencyPercentile(counts, total, 95),
+                      latencyPercentile(counts, total, 99)));
+        }
+    }
 }
 
-/*-----------------------------------------------------------------------*/
-
 /**
- * getJoystickId:  Return the input device ID for the index-th joystick,
- * or zero if there is no such joystick.
- *
- * If there are no joystick- or gamepad-class devices connected, this
- * function instead returns the input device ID for the index-th D-pad,
- * or zero if there is none.  This is intended to support devices such as
- * the Xperia Play which have a built-in gamepad but run an older version
- * of Android that does not support the "gamepad" or "joystick" input type.
- *
- * The order of joysticks may change after a scanInputDevices() call that
- * returns true.
+ * latencyPercentile:  Return the given percentile from a latency
+ * histogram.  Helper for dumpInputLatency().
  *
  * [Parameters]
- *     index: Joystick index (zero-based).
+ *     counts: Histogram bucket counts.
+ *     total: Sum of all bucket counts (must be positive).
+ *     percentile: Percentile to return.
  * [Return value]
- *     Input device ID, or zero if index is negative or >= number of joysticks.
+ *     Upper bound of the bucket containing the given percentile, in
+ *     milliseconds.
  */
-public int getJoystickId(int index)
+private static double latencyPercentile(int[] counts, int total,
+                                        double percentile)
 {
-    int joy_count = 0;
-    for (int i = 0; i < input_device_info.size(); i++) {
-        InputDeviceInfo info = input_device_info.valueAt(i);
-        if (has_joystick ? info.is_joystick : info.is_dpad) {
-            if (joy_count == index) {
-                return input_device_info.keyAt(i);
-            }
-            joy_count++;
+    final double target = total * (percentile / 100);
+    int seen = 0;
+    int bucket;
+    for (bucket = 0; bucket < counts.length - 1; bucket++) {
+        seen += counts[bucket];
+        if (seen >= target) {
+            break;
         }
     }
-    return 0;
+    return Math.pow(2.0, bucket * 0.25) * 1.0e-3;
 }
 
 /*-----------------------------------------------------------------------*/
 
 /**
- * getAxisThreshold:  Return the input threshold (dead-zone radius) for
- * the given joystick axis.
+ * getJoystickIds:  Return the input device IDs of all joysticks, in
+ * joystick index order.  Joysticks are ordered by input device ID, so
+ * the order of previously connected joysticks does not change when a
+ * joystick is added or removed.
+ *
+ * If there are no joystick- or gamepad-class devices connected, this
+ * function instead returns the input device IDs of all D-pads.  This is
+ * intended to support devices such as the Xperia Play which have a
+ * built-in gamepad but run an older version of Android that does not
+ * support the "gamepad" or "joystick" input type.
  *
- * This function always returns zero if running on a pre-Honeycomb MR1
- * version of Android.
+ * The returned array is replaced (not modified) when scanInputDevices()
+ * detects a change.
  *
- * [Parameters]
- *     id: Input device ID.
- *     axis: Axis (MotionEvent.AXIS_*).
  * [Return value]
- *     Input threshold for the given axis, or 0.0 if the device is not a
- *     joystick or does not support the given axis.
+ *     Array of joystick input device IDs (never null).
  */
-public float getAxisThreshold(int id, int axis)
+public int[] getJoystickIds()
 {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
-        InputDeviceInfo info = input_device_info.get(id);
-        if (info != null && info.is_joystick) {
-            MotionRange range = InputDevice.getDevice(id).getMotionRange(axis);
-            if (range != null) {
-                return range.getFlat();
-            } else {
-                return 0;
-            }
-        } else {
-            return 0;
-        }
-    } else {
-        return 0;
-    }
+    return joystick_ids;
 }
 
 /*-----------------------------------------------------------------------*/
 
 /**
- * doesJoystickRumble:  Return whether the given input device is a joystick
- * with force feedback support.
+ * getJoystickDescriptor:  Return a descriptor containing all information
+ * needed by native code to set up the given joystick device (name,
+ * device class flags, force feedback support, and motion ranges), so
+ * that native code needs only a single call per device.
  *
- * This function always returns false if running on a pre-Jellybean version
- * of Android.
+ * Motion range data is only available on Android 3.1 (Honeycomb MR1) and
+ * later, and resolution data on Android 4.3 (Jelly Bean MR2) and later;
+ * on earlier versions, the ranges array is empty or the resolution
+ * values are zero, respectively.  If a device reports multiple ranges
+ * for the same axis (for different input sources), all are included in
+ * the order returned by InputDevice.getMotionRanges().
  *
  * [Parameters]
  *     id: Input device ID.
  * [Return value]
- *     True if the device is a joystick with force feedback support,
- *     false otherwise.
+ *     Joystick descriptor, or null if the device does not exist.
  */
-public boolean doesJoystickRumble(int id)
+public JoystickDescriptor getJoystickDescriptor(int id)
 {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-        InputDeviceInfo info = input_device_info.get(id);
-        if (info != null && info.is_joystick) {
-            InputDevice device = InputDevice.getDevice(id);
-            if (device != null) {
-                return device.getVibrator().hasVibrator();
+    InputDevice device = InputDevice.getDevice(id);
+    if (device == null) {
+        return null;
+    }
+    InputDeviceInfo info = input_device_info.get(id);
+
+    JoystickDescriptor desc = new JoystickDescriptor();
+    desc.name = device.getName();
+    desc.flags = 0;
+    desc.can_rumble = false;
+    if (info != null) {
+        desc.flags = (info.is_dpad     ? INPUT_DEVICE_DPAD     : 0)
+                   | (info.is_joystick ? INPUT_DEVICE_JOYSTICK : 0)
+                   | (info.is_keyboard ? INPUT_DEVICE_KEYBOARD : 0)
+                   | (info.is_mouse    ? INPUT_DEVICE_MOUSE    : 0);
+        if (info.is_joystick
+         && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            desc.can_rumble = device.getVibrator().hasVibrator();
+        }
+    }
+
+    if (info != null && info.is_joystick
+     && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+        List<MotionRange> ranges = device.getMotionRanges();
+        desc.ranges = new float[ranges.size() * 4];
+        for (int i = 0; i < ranges.size(); i++) {
+            MotionRange range = ranges.get(i);
+            desc.ranges[i*4+0] = range.getAxis();
+            desc.ranges[i*4+1] = range.getFlat();
+            desc.ranges[i*4+2] = range.getRange();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                desc.ranges[i*4+3] = range.getResolution();
             } else {
-                return false;
+                desc.ranges[i*4+3] = 0;
             }
-        } else {
-            return false;
         }
     } else {
-        return false;
+        desc.ranges = new float[0];
     }
+
+    return desc;
 }
 
 /*************************************************************************/
@@ -1020,39 +2546,66 @@ public boolean doesJoystickRumble(int id)
  *   (These versions of Android only supported devices with physical
  *   navigation buttons.)
  *
+ * This is equivalent to queueSystemUiVisible() followed by
+ * flushUiCommands().
+ *
  * [Parameters]
  *     visible: True to show the system navigation bar, false to hide it
  *         (enables "lights out" mode on Honeycomb and later API versions,
  *         but does not remove the bar itself).
  */
-public void setSystemUiVisible(final boolean visible)
+public void setSystemUiVisible(boolean visible)
 {
-    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
-        return;
+    queueSystemUiVisible(visible);
+    flushUiCommands();
+}
+
+/**
+ * refreshSystemUiVisible:  Reapply the current system UI visibility
+ * state, for use when it may have been changed by the system (such as
+ * when a dialog is dismissed).
+ */
+private void refreshSystemUiVisible()
+{
+    synchronized (ui_command_lock) {
+        ui_applied_system_ui_visible = -1;
+        queueSystemUiVisible(system_ui_visible);
     }
+    flushUiCommands();
+}
 
-    runOnUiThread(new Runnable() {public void run() {
-        View view = getContentView();
-        if (view == null) {
-            return;
-        }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            view.setSystemUiVisibility(
-                visible ? View.SYSTEM_UI_FLAG_VISIBLE
-                        : (View.SYSTEM_UI_FLAG_HIDE_NAVIGATION
-                           | View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY));
-        } else if (Build.VERSION.SDK_INT
-                   >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-            view.setSystemUiVisibility(
-                visible ? View.SYSTEM_UI_FLAG_VISIBLE
-                        : View.SYSTEM_UI_FLAG_LOW_PROFILE);
-        } else {  // Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-            view.setSystemUiVisibility(
-                visible ? 1    // View.STATUS_BAR_VISIBLE
-                        : 0);  // View.STATUS_BAR_HIDDEN
-        }
-    }});
-    system_ui_visible = visible;
+/**
+ * applySystemUiVisible:  Set the system UI visibility state.  Only called
+ * on the UI thread.
+ *
+ * [Parameters]
+ *     visible: True to show the system navigation bar, false to hide it.
+ * [Return value]
+ *     True if the state was applied, false if the content view is not
+ *     available.
+ */
+private boolean applySystemUiVisible(boolean visible)
+{
+    View view = getContentView();
+    if (view == null) {
+        return false;
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+        view.setSystemUiVisibility(
+            visible ? View.SYSTEM_UI_FLAG_VISIBLE
+                    : (View.SYSTEM_UI_FLAG_HIDE_NAVIGATION
+                       | View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY));
+    } else if (Build.VERSION.SDK_INT
+               >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+        view.setSystemUiVisibility(
+            visible ? View.SYSTEM_UI_FLAG_VISIBLE
+                    : View.SYSTEM_UI_FLAG_LOW_PROFILE);
+    } else {  // Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+        view.setSystemUiVisibility(
+            visible ? 1    // View.STATUS_BAR_VISIBLE
+                    : 0);  // View.STATUS_BAR_HIDDEN
+    }
+    return true;
 }
 
 /*-----------------------------------------------------------------------*/
@@ -1098,15 +2651,67 @@ int showAlert(String title, String text,
     int result =
         new Dialog(this, title, text, button_yes, button_no, button_other)
         .showAndWait();
-    if (!system_ui_visible) {
-        // UI visibility state may have been clobbered by the dialog.
-        setSystemUiVisible(false);
-    }
+    // UI visibility state may have been clobbered by the dialog.
+    refreshSystemUiVisible();
     return result;
 }
 
 /*-----------------------------------------------------------------------*/
 
+/**
+ * showAlertAsync:  Show an alert dialog with the given parameters, and
+ * return without waiting for the user to respond.  The dialog's status
+ * can be checked with getAlertResult().
+ *
+ * [Parameters]
+ *     title, text, button_yes, button_no, button_other: As for showAlert().
+ * [Return value]
+ *     New Dialog object.
+ */
+Dialog showAlertAsync(String title, String text,
+                      String button_yes, String button_no,
+                      String button_other)
+{
+    Dialog dialog =
+        new Dialog(this, title, text, button_yes, button_no, button_other);
+    dialog.show();
+    return dialog;
+}
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * getAlertResult:  Return the result of the given alert dialog.
+ *
+ * [Parameters]
+ *     dialog: Dialog object returned from showAlertAsync().
+ * [Return value]
+ *     1 if the positive button was activated; 0 if the negative button was
+ *     activated; -1 if the neutral button was activated; -2 if the dialog
+ *     is still waiting for input.
+ */
+int getAlertResult(Dialog dialog)
+{
+    return dialog.getResult();
+}
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * dismissAlert:  Close the given alert dialog.
+ *
+ * [Parameters]
+ *     dialog: Dialog object returned from showAlertAsync().
+ */
+void dismissAlert(Dialog dialog)
+{
+    dialog.dismiss();
+    // UI visibility state may have been clobbered by the dialog.
+    refreshSystemUiVisible();
+}
+
+/*-----------------------------------------------------------------------*/
+
 /**
  * showInputDialog:  Show an input dialog with the given parameters.
  *
@@ -1171,10 +2776,8 @@ String getInputDialogText(InputDialog dialog)
 void dismissInputDialog(InputDialog dialog)
 {
     dialog.dismiss();
-    if (!system_ui_visible) {
-        // UI visibility state may have been clobbered by the dialog.
-        setSystemUiVisible(false);
-    }
+    // UI visibility state may have been clobbered by the dialog.
+    refreshSystemUiVisible();
 }
 
 /*************************************************************************/
@@ -16,10 +16,13 @@
 #include "src/sysdep.h"
 #include "src/sysdep/android/internal.h"
 #include "src/sysdep/linux/meminfo.h"
+#include "src/sysdep/misc/startup-trace.h"
 #include "src/thread.h"
 #include "src/time.h"
 
+#include <dlfcn.h>
 #include <fcntl.h>
+#include <sys/system_properties.h>
 #include <time.h>
 #include <unistd.h>
 
@@ -37,6 +40,11 @@ ANativeWindow *android_window;
 const char *android_internal_data_path;
 const char *android_external_data_path;
 const char *android_external_root_path;
+const char *android_user_locale;
+uint8_t android_locale_changed;
+int android_audio_output_rate;
+int android_audio_frames_per_buffer;
+int android_audio_features;
 SysSemaphoreID android_suspend_semaphore;
 SysSemaphoreID android_resume_semaphore;
 uint8_t android_suspend_requested;
@@ -52,6 +60,46 @@ jclass activity_class;
 /* Pathnames for downloaded expansion files (NULL if none). */
 static const char *expansion_file_path[2];
 
+/* Names of permissions which can be requested with
+ * android_request_permission() (field names in Manifest.permission). */
+static const char * const permission_names[] = {
+    #define DECLARE_PERMISSION(name) [ANDROID_PERMISSION_##name] = #name
+    DECLARE_PERMISSION(READ_EXTERNAL_STORAGE),
+    DECLARE_PERMISSION(WRITE_EXTERNAL_STORAGE),
+    #undef DECLARE_PERMISSION
+};
+
+/* Status of each permission, shared with Java (see setPermissionBuffer()
+ * in SILActivity.java): 1 if granted, 0 if denied, or one of the
+ * following values.  Only valid if permission_buffer_set is true. */
+#define PERMISSION_NOT_REQUESTED  (-2)
+#define PERMISSION_PENDING        (-1)
+static int32_t permission_status[lenof(permission_names)];
+
+/* Flag: has permission_status been passed to Java? */
+static uint8_t permission_buffer_set;
+
+/* Timestamp at which SILActivity.onCreate() was called, in nanoseconds on
+ * the startup_trace_now() time base (the same as Java's System.nanoTime()),
+ * or zero if not yet known.  The other startup phases are recorded only as
+ * marks in the startup trace. */
+static int64_t java_create_time;
+
+/* System property which, if set to a value other than "0", causes the
+ * startup trace to be written out (see android_finish_startup_trace()). */
+#define STARTUP_TRACE_PROPERTY  "debug.sil.startup_trace"
+
+/* Names of startup phases, used as startup trace mark names. */
+static const char * const startup_phase_names[] = {
+    [ANDROID_STARTUP_JAVA_CREATE]    = "Java onCreate",
+    [ANDROID_STARTUP_NATIVE_CREATE]  = "native onCreate",
+    [ANDROID_STARTUP_SNAPSHOT]       = "startup snapshot",
+    [ANDROID_STARTUP_CREATE_DONE]    = "onCreate done",
+    [ANDROID_STARTUP_WINDOW_CREATED] = "window created",
+    [ANDROID_STARTUP_MAIN_THREAD]    = "main thread",
+    [ANDROID_STARTUP_SIL_MAIN]       = "sil_main",
+};
+
 /* Thread handle for main game thread. */
 static SysThreadID main_thread;
 
@@ -107,6 +155,45 @@ static void do_quit(void);
  */
 static int input_loop(void *param);
 
+/**
+ * load_startup_snapshot:  Retrieve the startup snapshot from Java and
+ * store its contents in the appropriate variables.  Helper for
+ * ANativeActivity_onCreate().
+ *
+ * [Parameters]
+ *     env: JNI environment pointer.
+ *     activity_obj: Activity object.
+ * [Return value]
+ *     True on success, false on error.
+ */
+static int load_startup_snapshot(JNIEnv *env, jobject activity_obj);
+
+/**
+ * copy_jstring:  Store a copy of the given Java string (allocated with
+ * strdup()) in *string_ret.  If the Java string is null or empty, NULL is
+ * stored instead.
+ *
+ * [Parameters]
+ *     env: JNI environment pointer.
+ *     j_string: Java string to copy (may be null).
+ *     string_ret: Pointer to variable to receive the copy.
+ * [Return value]
+ *     True on success, false on error (out of memory).
+ */
+static int copy_jstring(JNIEnv *env, jstring j_string,
+                        const char **string_ret);
+
+/**
+ * init_permission_buffer:  Pass the permission status buffer and the list
+ * of permission names to Java.  Helper for android_request_permission().
+ *
+ * [Parameters]
+ *     env: JNI environment pointer.
+ * [Return value]
+ *     True on success, false on error.
+ */
+static int init_permission_buffer(JNIEnv *env);
+
 /**
  * throw:  Throw a Java exception to force the JVM to terminate.
  *
@@ -140,6 +227,18 @@ void ANativeActivity_onCreate(ANativeActivity *activity,
                               UNUSED void *savedState,
                               UNUSED size_t savedStateSize)
 {
+    /* Pass startup trace sections on to the system trace facility, if
+     * available (Android 6.0 and later). */
+    StartupTraceBeginFunction *p_ATrace_beginSection =
+        (StartupTraceBeginFunction *)dlsym(RTLD_DEFAULT, "ATrace_beginSection");
+    StartupTraceEndFunction *p_ATrace_endSection =
+        (StartupTraceEndFunction *)dlsym(RTLD_DEFAULT, "ATrace_endSection");
+    if (p_ATrace_beginSection && p_ATrace_endSection) {
+        startup_trace_set_section_functions(p_ATrace_beginSection,
+                                            p_ATrace_endSection);
+    }
+
+    android_mark_startup_phase(ANDROID_STARTUP_NATIVE_CREATE);
     DLOG("called");
 
 #ifdef GCOV_PREFIX
@@ -177,50 +276,28 @@ void ANativeActivity_onCreate(ANativeActivity *activity,
     ASSERT(activity_class != 0,
            throw("Failed to take a reference to the activity class"); return);
 
-    /* Grab Java object pointers and method IDs for making JNI calls. */
-    jmethodID getAPILevel = get_method(0, "getAPILevel", "()I");
-    jmethodID getBuildInfo = get_method(
-        0, "getBuildInfo", "(I)Ljava/lang/String;");
-
-    /* ASSERT() that all method IDs are found to avoid mysterious crashes
-     * inside the VM when we try to call them. */
-    #define ASSERT_METHOD_FOUND(name) \
-        ASSERT(name != 0, throw("Method not found: " #name); return)
-    ASSERT_METHOD_FOUND(getAPILevel);
-    ASSERT_METHOD_FOUND(getBuildInfo);
-    #undef ASSERT_METHOD_FOUND
-
-    /* Save the API level and hardware information strings for later
-     * reference by other code.  Also log the information to the debug log. */
-    static const struct {
-        BuildInfoID id;
-        const char **string_ptr;
-        const char *log_header;
-    } info_strings[] = {
-        {BUILD_INFO_MANUFACTURER, &android_info_manufacturer, "Manufacturer"},
-        {BUILD_INFO_MODEL,        &android_info_model,        "       Model"},
-        {BUILD_INFO_PRODUCT,      &android_info_product,      "     Product"},
-        {BUILD_INFO_HARDWARE,     &android_info_hardware,     "    Hardware"},
-    };
-    android_api_level = (*env)->CallIntMethod(
-        env, activity_obj, getAPILevel);
-    DLOG("Android API level: %d", android_api_level);
-    DLOG("Device information:");
-    for (int i = 0; i < lenof(info_strings); i++) {
-        jstring j_info = (*env)->CallObjectMethod(
-            env, activity_obj, getBuildInfo, info_strings[i].id);
-        const char *info = (*env)->GetStringUTFChars(env, j_info, NULL);
-        DLOG("   %s: %s", info_strings[i].log_header, info);
-        if (info) {
-            *(info_strings[i].string_ptr) = strdup(info);
-            (*env)->ReleaseStringUTFChars(env, j_info, info);
-        }
-        (*env)->DeleteLocalRef(env, j_info);
-        if (!*(info_strings[i].string_ptr)) {
-            *(info_strings[i].string_ptr) = "<unknown>";
-        }
+    /* Look up all classes and method IDs we use for making JNI calls.
+     * Abort if anything is missing to avoid mysterious crashes inside the
+     * VM when we try to call them; jni_init_bindings() will have logged
+     * the offending entries. */
+    if (UNLIKELY(!jni_init_bindings())) {
+        throw("JNI method table does not match Java classes");
+        return;
     }
 
+    /* Retrieve everything else we need to know about the environment
+     * with a single call.  The Java side starts gathering this data at
+     * the beginning of SILActivity.onCreate(), so it's normally ready
+     * (or nearly so) by the time we get here. */
+    startup_trace_begin("load_startup_snapshot");
+    const int snapshot_ok = load_startup_snapshot(env, activity_obj);
+    startup_trace_end("load_startup_snapshot");
+    if (UNLIKELY(!snapshot_ok)) {
+        throw("Failed to retrieve startup snapshot");
+        return;
+    }
+    android_mark_startup_phase(ANDROID_STARTUP_SNAPSHOT);
+
     /* We should never get any exceptions in the above code, but check
      * anyway since it's good practice. */
     ASSERT(!clear_exceptions(env));
@@ -243,6 +320,7 @@ void ANativeActivity_onCreate(ANativeActivity *activity,
 
     /* We don't start the main thread until the window has been created,
      * so just return here. */
+    android_mark_startup_phase(ANDROID_STARTUP_CREATE_DONE);
 }
 
 /*************************************************************************/
@@ -253,7 +331,8 @@ static void onConfigurationChanged(UNUSED ANativeActivity *activity)
 {
     DLOG("called");
 
-    /* Nothing to do. */
+    /* We aren't told what changed, so assume the locale may have. */
+    __atomic_store_n(&android_locale_changed, 1, __ATOMIC_RELEASE);
 }
 
 /*-----------------------------------------------------------------------*/
@@ -334,6 +413,7 @@ static void onNativeWindowCreated(UNUSED ANativeActivity *activity,
     /* If this is the first time a window was created for this run of the
      * program, start up sil_main() on a separate thread. */
     if (!main_thread) {
+        android_mark_startup_phase(ANDROID_STARTUP_WINDOW_CREATED);
         static const ThreadAttributes attr;  // All zero.
         main_thread = sys_thread_create(&attr, android_main, NULL);
     }
@@ -349,9 +429,8 @@ static void onNativeWindowDestroyed(UNUSED ANativeActivity *activity,
     int is_finishing;
     JNIEnv *env = activity->env;
     jobject activity_obj = activity->clazz;
-    jmethodID isFinishing = get_method(0, "isFinishing", "()Z");
-    ASSERT(isFinishing != 0, throw("Method not found: isFinishing"); return);
-    is_finishing = (*env)->CallBooleanMethod(env, activity_obj, isFinishing);
+    is_finishing = (*env)->CallBooleanMethod(
+        env, activity_obj, jni_method(JNI_isFinishing));
     ASSERT(!clear_exceptions(env));
 
     /* If this happens without a preceding onPause() or finish(), things
@@ -368,12 +447,14 @@ static void onPause(ANativeActivity *activity)
 {
     DLOG("called");
 
+    /* Report JNI usage since the last pause (debug builds only). */
+    jni_log_call_counts();
+
     int is_finishing;
     JNIEnv *env = activity->env;
     jobject activity_obj = activity->clazz;
-    jmethodID isFinishing = get_method(0, "isFinishing", "()Z");
-    ASSERT(isFinishing != 0, throw("Method not found: isFinishing"); return);
-    is_finishing = (*env)->CallBooleanMethod(env, activity_obj, isFinishing);
+    is_finishing = (*env)->CallBooleanMethod(
+        env, activity_obj, jni_method(JNI_isFinishing));
     ASSERT(!clear_exceptions(env));
 
     if (is_finishing) {
@@ -468,31 +549,87 @@ const char *android_external_mount_point(void)
 
 int android_request_permission(AndroidPermission permission)
 {
-    static const char * const permission_names[] = {
-        #define DECLARE_PERMISSION(name) [ANDROID_PERMISSION_##name] = #name
-        DECLARE_PERMISSION(READ_EXTERNAL_STORAGE),
-        DECLARE_PERMISSION(WRITE_EXTERNAL_STORAGE),
-        #undef DECLARE_PERMISSION
-    };
-
-    PRECOND((int)permission >= 0 && (int)permission <= lenof(permission_names),
+    PRECOND((int)permission >= 0 && (int)permission < lenof(permission_names),
             return 0);
-    ASSERT(permission_names[permission], return 0);
-    const char *name = permission_names[permission];
+
+    if (!permission_buffer_set) {
+        if (!init_permission_buffer(get_jni_env())) {
+            return 0;
+        }
+        permission_buffer_set = 1;
+    }
+
+    /* Java only writes the status after we've requested the permission,
+     * so once the request is underway, this is just a memory read. */
+    int32_t status = PERMISSION_NOT_REQUESTED;
+    if (__atomic_compare_exchange_n(&permission_status[permission], &status,
+                                    PERMISSION_PENDING, 0, __ATOMIC_ACQ_REL,
+                                    __ATOMIC_ACQUIRE)) {
+        JNIEnv *env = get_jni_env();
+        (*env)->CallVoidMethod(env, android_activity->clazz,
+                               jni_method(JNI_requestPermission),
+                               (jint)permission);
+        if (clear_exceptions(env)) {
+            DLOG("Failed to request permission %s",
+                 permission_names[permission]);
+            __atomic_store_n(&permission_status[permission],
+                             PERMISSION_NOT_REQUESTED, __ATOMIC_RELEASE);
+            return 0;
+        }
+        return -1;
+    }
+    return status >= 0 ? status : -1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int android_wait_for_permission(AndroidPermission permission,
+                                double timeout)
+{
+    const int result = android_request_permission(permission);
+    if (result >= 0) {
+        return result;
+    }
 
     JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    jmethodID requestPermission = get_method(
-        0, "requestPermission", "(Ljava/lang/String;)I");
-    ASSERT(requestPermission, return 0);
-    jstring j_name = (*env)->NewStringUTF(env, name);
-    ASSERT(j_name != 0, clear_exceptions(env); return 0);
-    const int result = (*env)->CallIntMethod(env, activity_obj,
-                                             requestPermission, j_name);
-    (*env)->DeleteLocalRef(env, j_name);
-    return result;
+    const jlong timeout_ns = (timeout < 0) ? -1 : (jlong)(timeout * 1.0e9);
+    (*env)->CallVoidMethod(env, android_activity->clazz,
+                           jni_method(JNI_waitForPermission),
+                           (jint)permission, timeout_ns);
+    ASSERT(!clear_exceptions(env));
+
+    /* Just read the status here rather than calling
+     * android_request_permission() again: if the request was cancelled,
+     * Java will have reset the status to PERMISSION_NOT_REQUESTED, and
+     * we leave it to the caller to decide whether to ask again. */
+    const int32_t status =
+        __atomic_load_n(&permission_status[permission], __ATOMIC_ACQUIRE);
+    return status >= 0 ? status : -1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+#ifdef SIL_INCLUDE_TESTS
+
+int TEST_android_set_permission_status(AndroidPermission permission,
+                                       int status)
+{
+    PRECOND((int)permission >= 0 && (int)permission < lenof(permission_names),
+            return 0);
+    PRECOND(status >= PERMISSION_NOT_REQUESTED && status <= 1, return 0);
+
+    if (!permission_buffer_set) {
+        if (!init_permission_buffer(get_jni_env())) {
+            return 0;
+        }
+        permission_buffer_set = 1;
+    }
+    return __atomic_exchange_n(&permission_status[permission], status,
+                               __ATOMIC_ACQ_REL);
 }
 
+#endif  // SIL_INCLUDE_TESTS
+
 /*************************************************************************/
 /******************* Library-internal utility routines *******************/
 /*************************************************************************/
@@ -534,8 +671,7 @@ jclass get_class(const char *name)
     ASSERT(!clear_exceptions(env));
 
     jobject activity_obj = android_activity->clazz;
-    jmethodID getClass = get_method(
-        0, "getClass", "(Ljava/lang/String;)Ljava/lang/Class;");
+    jmethodID getClass = jni_method(JNI_getClass);
     ASSERT(getClass != 0, return 0);
     jstring j_name = (*env)->NewStringUTF(env, name);
     ASSERT(j_name != 0, clear_exceptions(env); return 0);
@@ -602,37 +738,12 @@ int clear_exceptions(JNIEnv *env)
 
 int check_for_expansion_files(void)
 {
-    JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-
-    jmethodID getExpansionFilePath = get_method(
-        0, "getExpansionFilePath", "(I)Ljava/lang/String;");
-    ASSERT(getExpansionFilePath, return 0);
-
-    for (int i = 0; i < 2; i++) {
-        jstring j_path = (*env)->CallObjectMethod(
-            env, activity_obj, getExpansionFilePath, i);
-        if (!j_path) {
+    for (int i = 0; i < lenof(expansion_file_path); i++) {
+        if (!expansion_file_path[i]) {
             DLOG("Expansion file %d does not exist", i);
-            expansion_file_path[i] = NULL;
             continue;
         }
-        const char *path = (*env)->GetStringUTFChars(env, j_path, NULL);
-        if (!path || !*path) {
-            DLOG("Failed to get expansion file %d path", i);
-            if (path) {
-                (*env)->ReleaseStringUTFChars(env, j_path, path);
-            }
-            continue;
-        }
-        DLOG("Expansion file %d path: %s", i, path);
-        expansion_file_path[i] = mem_strdup(path, 0);
-        if (UNLIKELY(!expansion_file_path[i])) {
-            DLOG("Out of memory saving expansion file path %d: %s", i, path);
-            android_show_alert(1, "SIL_error_title",
-                               1, "SIL_error_out_of_memory");
-            return 0;
-        }
+        DLOG("Expansion file %d path: %s", i, expansion_file_path[i]);
         if (access(expansion_file_path[i], R_OK) != 0) {
             DLOG("Failed to access expansion file %d (%s): %s", i,
                  expansion_file_path[i], strerror(errno));
@@ -649,14 +760,127 @@ int check_for_expansion_files(void)
             }
             return 0;
         }
-        (*env)->ReleaseStringUTFChars(env, j_path, path);
-        (*env)->DeleteLocalRef(env, j_path);
     }
 
-    ASSERT(!clear_exceptions(env));
     return 1;
 }
 
+/*-----------------------------------------------------------------------*/
+
+void android_mark_startup_phase(AndroidStartupPhase phase)
+{
+    PRECOND((int)phase > ANDROID_STARTUP_JAVA_CREATE
+            && phase < ANDROID_STARTUP__NUM_PHASES, return);
+    startup_trace_mark(startup_phase_names[phase]);
+}
+
+/*-----------------------------------------------------------------------*/
+
+double android_startup_phase_time(AndroidStartupPhase phase)
+{
+    PRECOND((int)phase >= 0 && phase < ANDROID_STARTUP__NUM_PHASES,
+            return -1);
+    if (!java_create_time) {
+        return -1;
+    }
+    const int64_t time = (phase == ANDROID_STARTUP_JAVA_CREATE
+                          ? java_create_time
+                          : startup_trace_find(STARTUP_TRACE_NATIVE,
+                                               STARTUP_TRACE_MARK,
+                                               startup_phase_names[phase]));
+    if (time < 0) {
+        return -1;
+    }
+    return (time - java_create_time) * 1.0e-9;
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_finish_startup_trace(void)
+{
+    if (!startup_trace_is_recording()) {
+        return;
+    }
+    startup_trace_mark("first frame presented");
+    startup_trace_stop();
+
+    /* Always take the Java events so SILActivity stops recording, but
+     * only write anything out if explicitly requested, so that shipped
+     * programs don't leave stray files in the user's storage. */
+    JNIEnv *env = get_jni_env();
+    jstring j_events = (*env)->CallObjectMethod(
+        env, android_activity->clazz, jni_method(JNI_takeStartupTrace));
+    if (UNLIKELY(clear_exceptions(env))) {
+        DLOG("Failed to retrieve Java startup trace");
+        j_events = 0;
+    }
+    char enabled[PROP_VALUE_MAX];
+    if (__system_property_get(STARTUP_TRACE_PROPERTY, enabled) <= 0
+     || strcmp(enabled, "0") == 0) {
+        if (j_events) {
+            (*env)->DeleteLocalRef(env, j_events);
+        }
+        return;
+    }
+
+    /* Merge in the events recorded by Java code.  Each line is of the
+     * form "<time> <type> <name>". */
+    const char *events =
+        j_events ? (*env)->GetStringUTFChars(env, j_events, NULL) : NULL;
+    if (events) {
+        const char *s = events;
+        while (*s) {
+            char *end;
+            const int64_t time = strtoll(s, &end, 10);
+            const char type = (end > s && *end == ' ') ? end[1] : 0;
+            const char *name = (type && end[2] == ' ') ? end+3 : NULL;
+            if (name && (type == STARTUP_TRACE_BEGIN
+                         || type == STARTUP_TRACE_END
+                         || type == STARTUP_TRACE_MARK)) {
+                startup_trace_add(STARTUP_TRACE_JAVA, type, time, name);
+            } else {
+                DLOG("Invalid Java startup trace line: %.*s",
+                     (int)strcspn(s, "\n"), s);
+            }
+            s += strcspn(s, "\n");
+            s += (*s == '\n');
+        }
+        (*env)->ReleaseStringUTFChars(env, j_events, events);
+    }
+    if (j_events) {
+        (*env)->DeleteLocalRef(env, j_events);
+    }
+
+    /* Write the merged timeline where it can be retrieved with adb. */
+    const char *dir = android_external_data_path
+        ? android_external_data_path : android_internal_data_path;
+    char path[1000];
+    if (dir && strformat_check(path, sizeof(path), "%s/startup-trace.txt",
+                               dir)) {
+        if (startup_trace_write(path)) {
+            DLOG("Startup trace (%d events) written to %s",
+                 startup_trace_num_events(), path);
+        }
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_log_startup_phases(void)
+{
+#ifdef DEBUG
+    DLOG("Startup timing (seconds since Java onCreate):");
+    for (int i = 0; i < lenof(startup_phase_names); i++) {
+        const double time = android_startup_phase_time(i);
+        if (time >= 0) {
+            DLOG("   %8.4f %s", time, startup_phase_names[i]);
+        } else {
+            DLOG("        n/a %s", startup_phase_names[i]);
+        }
+    }
+#endif
+}
+
 /*************************************************************************/
 /**************************** Local routines *****************************/
 /*************************************************************************/
@@ -731,6 +955,165 @@ static int input_loop(void *param)
 
 /*-----------------------------------------------------------------------*/
 
+static int load_startup_snapshot(JNIEnv *env, jobject activity_obj)
+{
+    /* String fields and the variables they are stored in.  Strings marked
+     * with a default value are never NULL. */
+    static const struct {
+        const char *field;
+        const char **string_ptr;
+        const char *default_value;
+        const char *log_header;
+    } string_fields[] = {
+        {"manufacturer", &android_info_manufacturer, "<unknown>",
+         "Manufacturer"},
+        {"model", &android_info_model, "<unknown>", "Model"},
+        {"product", &android_info_product, "<unknown>", "Product"},
+        {"hardware", &android_info_hardware, "<unknown>", "Hardware"},
+        {"internal_data_path", &android_internal_data_path, NULL,
+         "Internal data path"},
+        {"external_data_path", &android_external_data_path, NULL,
+         "External data path"},
+        {"external_root_path", &android_external_root_path, NULL,
+         "External storage mount point"},
+        {"user_locale", &android_user_locale, NULL, "User locale"},
+    };
+
+    int success = 0;
+
+    jobject snapshot = (*env)->CallObjectMethod(
+        env, activity_obj, jni_method(JNI_getStartupSnapshot));
+    if (UNLIKELY(clear_exceptions(env)) || UNLIKELY(!snapshot)) {
+        DLOG("getStartupSnapshot() failed");
+        return 0;
+    }
+    jclass snapshot_class = (*env)->GetObjectClass(env, snapshot);
+    ASSERT(snapshot_class != 0, goto error_delete_snapshot);
+
+    #define GET_FIELD(name, type, signature)  (*env)->Get##type##Field( \
+        env, snapshot, \
+        (*env)->GetFieldID(env, snapshot_class, (name), (signature)))
+
+    android_api_level = GET_FIELD("api_level", Int, "I");
+    android_audio_output_rate = GET_FIELD("audio_output_rate", Int, "I");
+    android_audio_frames_per_buffer =
+        GET_FIELD("audio_frames_per_buffer", Int, "I");
+    android_audio_features = GET_FIELD("audio_features", Int, "I");
+    java_create_time = GET_FIELD("create_time", Long, "J");
+    const int64_t build_time = GET_FIELD("build_time", Long, "J");
+    ASSERT(!clear_exceptions(env), goto error_delete_class);
+    DLOG("Startup snapshot built in %.3f ms", build_time * 1.0e-6);
+
+    DLOG("Android API level: %d", android_api_level);
+    DLOG("Device information:");
+    for (int i = 0; i < lenof(string_fields); i++) {
+        jstring j_string =
+            GET_FIELD(string_fields[i].field, Object, "Ljava/lang/String;");
+        ASSERT(!clear_exceptions(env), goto error_delete_class);
+        const int ok = copy_jstring(env, j_string, string_fields[i].string_ptr);
+        (*env)->DeleteLocalRef(env, j_string);
+        if (UNLIKELY(!ok)) {
+            DLOG("Out of memory copying %s", string_fields[i].field);
+            goto error_delete_class;
+        }
+        if (!*string_fields[i].string_ptr) {
+            *string_fields[i].string_ptr = string_fields[i].default_value;
+        }
+        DLOG("   %s: %s", string_fields[i].log_header,
+             *string_fields[i].string_ptr ? *string_fields[i].string_ptr
+                                          : "(not available)");
+    }
+
+    jobjectArray j_expansion_paths = GET_FIELD(
+        "expansion_file_paths", Object, "[Ljava/lang/String;");
+    ASSERT(!clear_exceptions(env), goto error_delete_class);
+    const int num_expansion_paths =
+        j_expansion_paths ? (*env)->GetArrayLength(env, j_expansion_paths) : 0;
+    for (int i = 0; i < lenof(expansion_file_path); i++) {
+        if (i >= num_expansion_paths) {
+            expansion_file_path[i] = NULL;
+            continue;
+        }
+        jstring j_path =
+            (*env)->GetObjectArrayElement(env, j_expansion_paths, i);
+        const int ok = copy_jstring(env, j_path, &expansion_file_path[i]);
+        (*env)->DeleteLocalRef(env, j_path);
+        if (UNLIKELY(!ok)) {
+            DLOG("Out of memory copying expansion file path %d", i);
+            (*env)->DeleteLocalRef(env, j_expansion_paths);
+            goto error_delete_class;
+        }
+    }
+    (*env)->DeleteLocalRef(env, j_expansion_paths);
+
+    #undef GET_FIELD
+
+    success = 1;
+  error_delete_class:
+    (*env)->DeleteLocalRef(env, snapshot_class);
+  error_delete_snapshot:
+    (*env)->DeleteLocalRef(env, snapshot);
+    return success;
+}
+
+/*-----------------------------------------------------------------------*/
+
+static int copy_jstring(JNIEnv *env, jstring j_string,
+                        const char **string_ret)
+{
+    *string_ret = NULL;
+    if (!j_string) {
+        return 1;
+    }
+    const char *string = (*env)->GetStringUTFChars(env, j_string, NULL);
+    if (UNLIKELY(!string)) {
+        return 0;
+    }
+    int success = 1;
+    if (*string) {
+        *string_ret = strdup(string);
+        success = (*string_ret != NULL);
+    }
+    (*env)->ReleaseStringUTFChars(env, j_string, string);
+    return success;
+}
+
+/*-----------------------------------------------------------------------*/
+
+static int init_permission_buffer(JNIEnv *env)
+{
+    ASSERT((*env)->PushLocalFrame(env, 3) == 0,
+           clear_exceptions(env); return 0);
+
+    int success = 0;
+    jobjectArray j_names = (*env)->NewObjectArray(
+        env, lenof(permission_names), jni_class(JNI_CLASS_String), NULL);
+    ASSERT(!clear_exceptions(env) && j_names != 0, goto out);
+    for (int i = 0; i < lenof(permission_names); i++) {
+        ASSERT(permission_names[i], goto out);
+        jstring j_name = (*env)->NewStringUTF(env, permission_names[i]);
+        ASSERT(!clear_exceptions(env) && j_name != 0, goto out);
+        (*env)->SetObjectArrayElement(env, j_names, i, j_name);
+        (*env)->DeleteLocalRef(env, j_name);
+        ASSERT(!clear_exceptions(env), goto out);
+    }
+
+    jobject j_buffer = (*env)->NewDirectByteBuffer(
+        env, permission_status, sizeof(permission_status));
+    ASSERT(!clear_exceptions(env) && j_buffer != 0, goto out);
+    (*env)->CallVoidMethod(env, android_activity->clazz,
+                           jni_method(JNI_setPermissionBuffer),
+                           j_buffer, j_names);
+    ASSERT(!clear_exceptions(env), goto out);
+    success = 1;
+
+  out:
+    (*env)->PopLocalFrame(env, NULL);
+    return success;
+}
+
+/*-----------------------------------------------------------------------*/
+
 void throw(const char *message)
 {
     JNIEnv *env = android_activity->env;
@@ -17,11 +17,16 @@
 #include "src/memory.h"
 #include "src/sysdep.h"
 #include "src/sysdep/android/internal.h"
+#include "src/sysdep/misc/dynamic-resolution.h"
+#include "src/sysdep/misc/refresh-rate.h"
+#include "src/sysdep/misc/startup-trace.h"
 #include "src/sysdep/opengl/opengl.h"
 #include "src/thread.h"
 
 #include <dlfcn.h>
 #include <EGL/egl.h>
+#include <pthread.h>
+#include <time.h>
 
 /*************************************************************************/
 /****************************** Local data *******************************/
@@ -29,9 +34,13 @@
 
 /* Graphics capability structure returned to high-level code.  We get the
  * actual display size at init time and return that as the only supported
- * mode. */
+ * size, with one mode for each refresh rate the display supports at that
+ * size (or a single mode with refresh rate 0 if the system does not let
+ * us choose). */
 
-static GraphicsDisplayModeEntry display_modes[1];
+#define MAX_DISPLAY_MODES  16
+
+static GraphicsDisplayModeEntry display_modes[MAX_DISPLAY_MODES];
 
 static SysGraphicsInfo graphics_info = {
     .has_windowed_mode = 0,
@@ -42,9 +51,35 @@ static SysGraphicsInfo graphics_info = {
 
 /*-----------------------------------------------------------------------*/
 
-/* Cached Java method IDs. */
-static jmethodID getDisplayWidth, getDisplayHeight, getDisplayFullWidth;
-static jmethodID getDisplayFullHeight, getDisplaySizeInches;
+/* Cached Java field IDs for SILActivity.DisplayGeometry, and a flag
+ * indicating whether they have been looked up.  These are looked up on
+ * first use, since the display geometry may be needed before
+ * sys_graphics_init(). */
+static jfieldID DisplayGeometry_generation, DisplayGeometry_width,
+    DisplayGeometry_height, DisplayGeometry_full_width,
+    DisplayGeometry_full_height, DisplayGeometry_size_inches;
+static uint8_t DisplayGeometry_fields_found;
+
+/* Cached copy of the SILActivity.DisplayGeometry snapshot, updated by
+ * update_display_geometry().  Protected by display_geometry_mutex, since
+ * the display size is also looked up from the input thread. */
+typedef struct DisplayGeometry DisplayGeometry;
+struct DisplayGeometry {
+    int generation;  // -1 if not yet retrieved.
+    int width, height;
+    int full_width, full_height;
+    float size_inches;
+};
+static DisplayGeometry display_geometry = {.generation = -1};
+static pthread_mutex_t display_geometry_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+/* Current display geometry generation, written by SILActivity whenever
+ * the geometry may have changed (see setDisplayGeometryBuffer() in
+ * SILActivity.java), and a flag indicating whether the buffer has been
+ * passed to Java.  If the flag is clear, we fall back to asking Java on
+ * every call. */
+static volatile int32_t display_geometry_generation = -1;
+static uint8_t display_geometry_buffer_set;
 
 /* Have we been initialized? */
 static uint8_t initted;
@@ -78,6 +113,96 @@ static int frame_interval;
 /* Requested OpenGL version (0 if not set). */
 static int desired_opengl_major, desired_opengl_minor;
 
+/* System display modes available at the current display size, sorted by
+ * refresh rate (see refresh_rate_filter_modes()).  The entries correspond
+ * one-to-one with display_modes[] if num_refresh_modes is nonzero. */
+static RefreshMode refresh_modes[MAX_DISPLAY_MODES];
+static int num_refresh_modes;
+
+/* Requested refresh rate (0 = let the system choose). */
+static float refresh_rate;
+
+/* Vsync timing written by SILActivity (see setVsyncBuffer() in
+ * SILActivity.java for the layout): update sequence counter, timestamp
+ * of the most recent vsync, and vsync period, all in nanoseconds on the
+ * CLOCK_MONOTONIC time base. */
+static volatile int64_t vsync_info[3];
+
+/* eglPresentationTimeANDROID() (from the EGL_ANDROID_presentation_time
+ * extension), or NULL if not available. */
+static EGLBoolean (*p_eglPresentationTimeANDROID)(
+    EGLDisplay display, EGLSurface surface, int64_t time);
+
+/* Vsync time targeted for the most recently presented frame, or 0 if
+ * none. */
+static int64_t last_present_target;
+
+/* CLOCK_MONOTONIC time (in nanoseconds) at which the current frame was
+ * started, for reporting frame work durations to the system. */
+static int64_t frame_start_time;
+
+/* Dynamic rendering resolution controller, and bounds on its scale factor
+ * (both 1 if dynamic resolution is disabled). */
+static DynamicResolution dynres;
+static float dynres_min_scale = 1, dynres_max_scale = 1;
+
+/* Flag: has the controller requested a new rendering size which has not
+ * yet been passed to the system? */
+static uint8_t dynres_resize_pending;
+
+/* Flag: has a new buffer size been passed to the system which the EGL
+ * surface has not yet picked up? */
+static uint8_t dynres_resize_in_progress;
+
+/* Maximum time to wait for the UI thread when applying a dynamic
+ * resolution change, in seconds.  If the UI thread doesn't park in time,
+ * we try again on the next frame rather than stalling the frame. */
+#define DYNRES_LOCK_TIMEOUT  0.002
+
+/* Number of GPU timer queries used to measure frame rendering times for
+ * the dynamic resolution controller.  Results are read back a few frames
+ * after they are recorded, so we never have to wait for the GPU. */
+#define NUM_GPU_TIMERS  4
+
+/* Flag: are GPU timer queries (GL_EXT_disjoint_timer_query) available
+ * for dynamic resolution?  The controller is fed GPU time rather than CPU
+ * time because the GPU's rendering cost is the only cost the rendering
+ * resolution affects; a CPU-bound program fed CPU time would shrink the
+ * buffer to the minimum scale without ever meeting its target.  If the
+ * extension is not available, the resolution is left unchanged. */
+static uint8_t gpu_timing_available;
+
+/* Timer query objects, index of the next one to use, and number of
+ * queries which have been ended but whose results have not yet been read
+ * (the oldest being num_pending_gpu_timers entries before next_gpu_timer). */
+static GLuint gpu_timers[NUM_GPU_TIMERS];
+static int next_gpu_timer;
+static int num_pending_gpu_timers;
+
+/* Flag: is a timer query running for the current frame? */
+static uint8_t gpu_timer_running;
+
+/* Timer query functions from GL_EXT_disjoint_timer_query. */
+static void (*p_glGenQueriesEXT)(GLsizei n, GLuint *ids);
+static void (*p_glBeginQueryEXT)(GLenum target, GLuint id);
+static void (*p_glEndQueryEXT)(GLenum target);
+static void (*p_glGetQueryObjectuivEXT)(GLuint id, GLenum pname,
+                                        GLuint *params);
+static void (*p_glGetQueryObjectui64vEXT)(GLuint id, GLenum pname,
+                                          uint64_t *params);
+#ifndef GL_QUERY_RESULT_EXT
+# define GL_QUERY_RESULT_EXT            0x8866
+#endif
+#ifndef GL_QUERY_RESULT_AVAILABLE_EXT
+# define GL_QUERY_RESULT_AVAILABLE_EXT  0x8867
+#endif
+#ifndef GL_TIME_ELAPSED_EXT
+# define GL_TIME_ELAPSED_EXT            0x88BF
+#endif
+#ifndef GL_GPU_DISJOINT_EXT
+# define GL_GPU_DISJOINT_EXT            0x8FBB
+#endif
+
 /*-----------------------------------------------------------------------*/
 
 /* Local routine declarations. */
@@ -115,6 +240,106 @@ static EGLContext create_egl_context(void);
  */
 static int create_gl_shader_compilation_context(void);
 
+/**
+ * get_refresh_modes:  Retrieve the list of display modes from SILActivity
+ * and store the modes matching the current display size in
+ * refresh_modes[].
+ *
+ * [Return value]
+ *     Number of modes stored (zero if the system does not support
+ *     switching display modes).
+ */
+static int get_refresh_modes(void);
+
+/**
+ * get_display_mode_id:  Return the system ID of the current display mode.
+ *
+ * [Return value]
+ *     Current display mode ID, or 0 if unknown.
+ */
+static int get_display_mode_id(void);
+
+/**
+ * apply_refresh_rate:  Ask the system to switch to the display mode whose
+ * refresh rate is closest to refresh_rate.  The change takes effect
+ * asynchronously, and is reflected in the frame period once SILActivity
+ * sees the new vsync timing.
+ */
+static void apply_refresh_rate(void);
+
+/**
+ * apply_pending_resize:  Pass any rendering size change requested by the
+ * dynamic resolution controller to the system, and update the display
+ * size once the EGL surface has been resized.  Must only be called
+ * between frames.
+ */
+static void apply_pending_resize(void);
+
+/**
+ * init_gpu_timing:  Set up GPU timer queries for the dynamic resolution
+ * controller, if dynamic resolution is enabled and the GL implementation
+ * supports them.  Must be called with a newly created context current.
+ */
+static void init_gpu_timing(void);
+
+/**
+ * update_gpu_timing:  Pass the results of any completed GPU timer queries
+ * to the dynamic resolution controller.  Does not wait for queries which
+ * have not yet completed.
+ */
+static void update_gpu_timing(void);
+
+/**
+ * start_gpu_timer, stop_gpu_timer:  Start or stop measuring the GPU time
+ * taken by the current frame.  start_gpu_timer() does nothing if GPU
+ * timing is unavailable or all timer queries are still pending.
+ */
+static void start_gpu_timer(void);
+static void stop_gpu_timer(void);
+
+/**
+ * get_vsync_info:  Return the most recent vsync timestamp and the vsync
+ * period reported by SILActivity.
+ *
+ * [Parameters]
+ *     time_ret: Pointer to variable to receive the timestamp of the most
+ *         recent vsync, in nanoseconds on the CLOCK_MONOTONIC time base.
+ *     period_ret: Pointer to variable to receive the vsync period, in
+ *         nanoseconds.
+ * [Return value]
+ *     True if vsync timing is available, false if not.
+ */
+static int get_vsync_info(int64_t *time_ret, int64_t *period_ret);
+
+/**
+ * set_presentation_time:  Choose a presentation time for the frame about
+ * to be swapped, so that frames are presented at even intervals of
+ * frame_interval vsync periods, and pass it to EGL.  Does nothing if vsync
+ * timing is not available.
+ */
+static void set_presentation_time(void);
+
+/**
+ * get_display_geometry:  Return the current display geometry, calling
+ * into Java only if the geometry has changed since the last call (as
+ * reported through display_geometry_generation).
+ *
+ * [Parameters]
+ *     geometry_ret: Pointer to structure to receive the display geometry.
+ * [Return value]
+ *     True on success, false on error.
+ */
+static int get_display_geometry(DisplayGeometry *geometry_ret);
+
+/**
+ * update_display_geometry:  Refresh display_geometry from Java if the
+ * geometry has changed.  The caller must hold display_geometry_mutex.
+ *
+ * [Return value]
+ *     True on success, false on error.
+ */
+static int update_display_geometry(void);
+
 /**
  * android_eglGetProcAddress:  Wrapper for eglGetProcAddress() which
  * preferentially looks up the symbol via dlsym(), as a workaround for
@@ -135,36 +360,67 @@ const SysGraphicsInfo *sys_graphics_init(void)
 {
     PRECOND(!initted, return NULL);
 
-    getDisplayWidth = get_method(0, "getDisplayWidth", "()I");
-    getDisplayHeight = get_method(0, "getDisplayHeight", "()I");
-    getDisplayFullWidth = get_method(0, "getDisplayFullWidth", "()I");
-    getDisplayFullHeight = get_method(0, "getDisplayFullHeight", "()I");
-    getDisplaySizeInches = get_method(0, "getDisplaySizeInches", "()F");
-    ASSERT(getDisplayWidth != 0, return NULL);
-    ASSERT(getDisplayHeight != 0, return NULL);
-    ASSERT(getDisplayFullWidth != 0, return NULL);
-    ASSERT(getDisplayFullHeight != 0, return NULL);
-    ASSERT(getDisplaySizeInches != 0, return NULL);
-
-    display_modes[0].device = 0;
-    display_modes[0].device_name = NULL;
-    display_modes[0].width = android_display_width();
-    display_modes[0].height = android_display_height();
-    display_modes[0].refresh = 0;
-    graphics_info.num_modes = 1;
+    startup_trace_begin("sys_graphics_init");
+
+    num_refresh_modes = get_refresh_modes();
+    graphics_info.num_modes = lbound(num_refresh_modes, 1);
+    for (int i = 0; i < graphics_info.num_modes; i++) {
+        display_modes[i].device = 0;
+        display_modes[i].device_name = NULL;
+        display_modes[i].width = android_display_width();
+        display_modes[i].height = android_display_height();
+        display_modes[i].refresh =
+            num_refresh_modes ? refresh_modes[i].refresh : 0;
+    }
+    refresh_rate = 0;
 
     /* Set up EGL (making sure the UI thread doesn't get in our way). */
-    android_lock_ui_thread();
+    if (!android_lock_ui_thread()) {
+        DLOG("Failed to lock UI thread");
+        startup_trace_end("sys_graphics_init");
+        return NULL;
+    }
     {
         display = eglGetDisplay(EGL_DEFAULT_DISPLAY);
         if (!eglInitialize(display, NULL, NULL)) {
             DLOG("eglInitialize() failed: %d", eglGetError());
             android_unlock_ui_thread();
+            startup_trace_end("sys_graphics_init");
             return NULL;
         }
     }
     android_unlock_ui_thread();
 
+    p_eglPresentationTimeANDROID = NULL;
+    const char *egl_extensions = eglQueryString(display, EGL_EXTENSIONS);
+    if (egl_extensions
+     && strstr(egl_extensions, "EGL_ANDROID_presentation_time")) {
+        p_eglPresentationTimeANDROID =
+            (void *)eglGetProcAddress("eglPresentationTimeANDROID");
+    }
+    DLOG("Frame presentation time %savailable",
+         p_eglPresentationTimeANDROID ? "" : "NOT ");
+
+    /* Have SILActivity start reporting vsync timing.  If this fails, we
+     * just fall back to the nominal frame period. */
+    mem_clear((void *)vsync_info, sizeof(vsync_info));
+    last_present_target = 0;
+    {
+        JNIEnv *env = get_jni_env();
+        jobject j_buffer = (*env)->NewDirectByteBuffer(
+            env, (void *)vsync_info, sizeof(vsync_info));
+        if (j_buffer) {
+            (*env)->CallVoidMethod(env, android_activity->clazz,
+                                   jni_method(JNI_setVsyncBuffer), j_buffer);
+        } else {
+            DLOG("Failed to set up vsync timing buffer");
+        }
+        if (j_buffer) {
+            (*env)->DeleteLocalRef(env, j_buffer);
+        }
+        clear_exceptions(env);
+    }
+
     android_toggle_navigation_bar(0);
 
     depth_bits = 16;
@@ -177,6 +433,7 @@ const SysGraphicsInfo *sys_graphics_init(void)
 
     initted = 1;
     suspended = 0;
+    startup_trace_end("sys_graphics_init");
     return &graphics_info;
 }
 
@@ -187,7 +444,9 @@ void sys_graphics_cleanup(void)
     PRECOND(initted, return);
     PRECOND(!suspended, return);
 
-    android_lock_ui_thread();
+    /* If we can't lock the UI thread, we're quitting and the UI thread
+     * is waiting for us to exit, so clean up regardless. */
+    const int locked = android_lock_ui_thread();
     {
         if (context) {
             opengl_cleanup();
@@ -195,6 +454,7 @@ void sys_graphics_cleanup(void)
                            EGL_NO_CONTEXT);
             eglDestroyContext(display, context);
             context = 0;
+            gpu_timing_available = 0;
         }
         if (surface) {
             eglDestroySurface(display, surface);
@@ -203,7 +463,9 @@ void sys_graphics_cleanup(void)
         eglTerminate(display);
         display = 0;
     }
-    android_unlock_ui_thread();
+    if (locked) {
+        android_unlock_ui_thread();
+    }
 
     initted = 0;
 }
@@ -256,6 +518,29 @@ int sys_graphics_set_display_attr(const char *name, va_list args)
         return 1;
     }
 
+    /* Android-specific: "dynamic_resolution" takes 2 values of type float
+     * (passed as double), the minimum and maximum scale factors for the
+     * rendering size relative to the size passed to
+     * graphics_set_display_mode().  If the two values differ, the
+     * rendering size is adjusted between frames based on the GPU time
+     * taken to render each frame (if the device does not support GPU
+     * timer queries, the rendering size stays at the maximum scale).
+     * Setting both values to 1 (the default) disables dynamic resolution.
+     * Changes take effect on the next call to
+     * graphics_set_display_mode(). */
+    if (strcmp(name, "dynamic_resolution") == 0) {
+        const float min_scale = (float)va_arg(args, double);
+        const float max_scale = (float)va_arg(args, double);
+        if (!(min_scale > 0 && min_scale <= max_scale && max_scale <= 1)) {
+            DLOG("Invalid values for attribute %s: %g %g",
+                 name, min_scale, max_scale);
+            return 0;
+        }
+        dynres_min_scale = min_scale;
+        dynres_max_scale = max_scale;
+        return 1;
+    }
+
     if (strcmp(name, "multisample") == 0) {
         const int samples = va_arg(args, int);
         if (samples <= 0) {
@@ -283,6 +568,12 @@ int sys_graphics_set_display_attr(const char *name, va_list args)
             DLOG("Invalid value for attribute %s: %g", name, value);
             return 0;
         }
+        refresh_rate = value;
+        /* Android can switch refresh rates without recreating the
+         * surface, so apply the change immediately if we have one. */
+        if (surface != EGL_NO_SURFACE) {
+            apply_refresh_rate();
+        }
         return 1;
     }
 
@@ -332,7 +623,10 @@ GraphicsError sys_graphics_set_display_mode(int width, int height)
         goto error_return;
     }
 
-    if (UNLIKELY(!select_egl_config(&config))) {
+    startup_trace_begin("select_egl_config");
+    const int found_config = select_egl_config(&config);
+    startup_trace_end("select_egl_config");
+    if (UNLIKELY(!found_config)) {
         error = GRAPHICS_ERROR_MODE_NOT_SUPPORTED;
         goto error_return;
     }
@@ -351,7 +645,10 @@ GraphicsError sys_graphics_set_display_mode(int width, int height)
         window_w = window_h = 0;
     }
 
-    android_lock_ui_thread();
+    if (!android_lock_ui_thread()) {
+        DLOG("Failed to lock UI thread");
+        goto error_return;
+    }
     {
         if (context != EGL_NO_CONTEXT) {
             opengl_cleanup();
@@ -359,6 +656,7 @@ GraphicsError sys_graphics_set_display_mode(int width, int height)
                            EGL_NO_CONTEXT);
             eglDestroyContext(display, context);
             context = EGL_NO_CONTEXT;
+            gpu_timing_available = 0;  // The queries went with the context.
         }
         if (surface != EGL_NO_SURFACE) {
             eglDestroySurface(display, surface);
@@ -439,6 +737,13 @@ GraphicsError sys_graphics_set_display_mode(int width, int height)
     }
 
     eglSwapInterval(display, vsync ? frame_interval : 0);
+    apply_refresh_rate();
+
+    dynamic_resolution_init(&dynres, display_width, display_height,
+                            dynres_min_scale, dynres_max_scale);
+    init_gpu_timing();
+    dynres_resize_pending = (dynres_max_scale < 1);
+    dynres_resize_in_progress = 0;
 
     return GRAPHICS_ERROR_SUCCESS;
 
@@ -502,8 +807,15 @@ int sys_graphics_get_mouse_pointer_state(void)
 
 void sys_graphics_get_frame_period(int *numerator_ret, int *denominator_ret)
 {
-    *numerator_ret = 1001 * (vsync ? frame_interval : 0);
-    *denominator_ret = 60000;
+    int64_t vsync_time, period;
+    if (vsync && get_vsync_info(&vsync_time, &period)) {
+        /* Report in microseconds to avoid overflow. */
+        *numerator_ret = (int)((period + 500) / 1000) * frame_interval;
+        *denominator_ret = 1000000;
+    } else {
+        *numerator_ret = 1001 * (vsync ? frame_interval : 0);
+        *denominator_ret = 60000;
+    }
 }
 
 /*-----------------------------------------------------------------------*/
@@ -520,12 +832,24 @@ void sys_graphics_start_frame(int *width_ret, int *height_ret)
 {
     PRECOND(!suspended, return);
 
+    if (context) {
+        update_gpu_timing();
+        if (dynres_resize_pending || dynres_resize_in_progress) {
+            apply_pending_resize();
+        }
+    }
+
     *width_ret = display_width;
     *height_ret = display_height;
 
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    frame_start_time = (int64_t)ts.tv_sec*1000000000 + ts.tv_nsec;
+
     if (context) {
         opengl_start_frame();
         opengl_free_dead_resources(0);
+        start_gpu_timer();
     }
 }
 
@@ -535,8 +859,29 @@ void sys_graphics_finish_frame(void)
 {
     PRECOND(!suspended, return);
 
+    if (frame_start_time) {
+        struct timespec ts;
+        clock_gettime(CLOCK_MONOTONIC, &ts);
+        const int64_t now = (int64_t)ts.tv_sec*1000000000 + ts.tv_nsec;
+        android_report_frame_work(now - frame_start_time);
+        frame_start_time = 0;
+    }
+
     if (context) {
+        stop_gpu_timer();
+        if (vsync && p_eglPresentationTimeANDROID) {
+            set_presentation_time();
+        }
+        /* The startup trace ends with the first presented frame. */
+        const int first_frame = startup_trace_is_recording();
+        if (UNLIKELY(first_frame)) {
+            startup_trace_begin("first eglSwapBuffers");
+        }
         eglSwapBuffers(display, surface);
+        if (UNLIKELY(first_frame)) {
+            startup_trace_end("first eglSwapBuffers");
+            android_finish_startup_trace();
+        }
     }
 }
 
@@ -562,24 +907,18 @@ int android_display_width(void)
 
     /* Note that we have to do this through Java because ANativeWindow
      * returns 1x1 for some devices and/or Android versions. */
-    JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    jmethodID getWidth;
-    if (has_immersive) {
-        if (UNLIKELY(!getDisplayFullWidth)) {  // Might be called before init.
-            getDisplayFullWidth = get_method(0, "getDisplayFullWidth", "()I");
-            ASSERT(getDisplayFullWidth != 0, goto error);
-        }
-        getWidth = getDisplayFullWidth;
-    } else {
-        if (UNLIKELY(!getDisplayWidth)) {
-            getDisplayWidth = get_method(0, "getDisplayWidth", "()I");
-            ASSERT(getDisplayWidth != 0, goto error);
-        }
-        getWidth = getDisplayWidth;
+    DisplayGeometry geometry;
+    if (!get_display_geometry(&geometry)) {
+        goto error;
+    }
+    int width = has_immersive ? geometry.full_width : geometry.width;
+    if (!width && !has_immersive) {
+        /* The window size isn't known yet, so wait for it. */
+        JNIEnv *env = get_jni_env();
+        width = (*env)->CallIntMethod(
+            env, android_activity->clazz, jni_method(JNI_getDisplayWidth));
+        ASSERT(!clear_exceptions(env), goto error);
     }
-    int width = (*env)->CallIntMethod(env, activity_obj, getWidth);
-    ASSERT(!clear_exceptions(env), goto error);
     ASSERT(width > 0, goto error);
     return width;
 
@@ -593,24 +932,17 @@ int android_display_height(void)
 {
     const int has_immersive = (android_api_level >= 19);
 
-    JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    jmethodID getHeight;
-    if (has_immersive) {
-        if (UNLIKELY(!getDisplayFullHeight)) {
-            getDisplayFullHeight = get_method(0, "getDisplayFullHeight", "()I");
-            ASSERT(getDisplayFullHeight != 0, goto error);
-        }
-        getHeight = getDisplayFullHeight;
-    } else {
-        if (UNLIKELY(!getDisplayHeight)) {
-            getDisplayHeight = get_method(0, "getDisplayHeight", "()I");
-            ASSERT(getDisplayHeight != 0, goto error);
-        }
-        getHeight = getDisplayHeight;
+    DisplayGeometry geometry;
+    if (!get_display_geometry(&geometry)) {
+        goto error;
+    }
+    int height = has_immersive ? geometry.full_height : geometry.height;
+    if (!height && !has_immersive) {
+        JNIEnv *env = get_jni_env();
+        height = (*env)->CallIntMethod(
+            env, android_activity->clazz, jni_method(JNI_getDisplayHeight));
+        ASSERT(!clear_exceptions(env), goto error);
     }
-    int height = (*env)->CallIntMethod(env, activity_obj, getHeight);
-    ASSERT(!clear_exceptions(env), goto error);
     ASSERT(height > 0, goto error);
     return height;
 
@@ -629,17 +961,12 @@ int android_using_immersive_mode(void)
 
 float android_display_size_inches(void)
 {
-    JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    if (UNLIKELY(!getDisplaySizeInches)) {  // Might be called before init.
-        getDisplaySizeInches = get_method(0, "getDisplaySizeInches", "()F");
-        ASSERT(getDisplaySizeInches != 0, goto error);
+    DisplayGeometry geometry;
+    if (!get_display_geometry(&geometry)) {
+        goto error;
     }
-    float size = (*env)->CallFloatMethod(
-        env, activity_obj, getDisplaySizeInches);
-    ASSERT(!clear_exceptions(env), goto error);
-    ASSERT(size > 0, goto error);
-    return size;
+    ASSERT(geometry.size_inches > 0, goto error);
+    return geometry.size_inches;
 
   error:
     return 10.0;
@@ -678,6 +1005,13 @@ void android_resume_graphics(void)
     surface = eglCreateWindowSurface(display, config, android_window, NULL);
     ASSERT(surface != EGL_NO_SURFACE);
     ASSERT(eglMakeCurrent(display, surface, surface, context));
+    last_present_target = 0;
+    /* The new surface may not have the size we last requested, so
+     * request it again. */
+    if (dynres_resize_in_progress) {
+        dynres_resize_pending = 1;
+        dynres_resize_in_progress = 0;
+    }
 
     suspended = 0;
 }
@@ -840,6 +1174,415 @@ static int create_gl_shader_compilation_context(void)
 
 /*-----------------------------------------------------------------------*/
 
+static int get_refresh_modes(void)
+{
+    JNIEnv *env = get_jni_env();
+    jfloatArray j_modes = (*env)->CallObjectMethod(
+        env, android_activity->clazz, jni_method(JNI_getDisplayModes));
+    if (clear_exceptions(env) || !j_modes) {
+        DLOG("Failed to get display mode list");
+        return 0;
+    }
+
+    int num_modes = 0;
+    RefreshMode *modes = NULL;
+    const int num_entries = (*env)->GetArrayLength(env, j_modes) / 4;
+    jfloat *data = (*env)->GetFloatArrayElements(env, j_modes, NULL);
+    if (data && num_entries > 0) {
+        modes = mem_alloc(sizeof(*modes) * num_entries, 0, MEM_ALLOC_TEMP);
+        if (UNLIKELY(!modes)) {
+            DLOG("No memory for %d display modes", num_entries);
+        } else {
+            for (int i = 0; i < num_entries; i++) {
+                modes[i].id = (int)data[i*4+0];
+                modes[i].width = (int)data[i*4+1];
+                modes[i].height = (int)data[i*4+2];
+                modes[i].refresh = data[i*4+3];
+            }
+            num_modes = num_entries;
+        }
+    }
+    if (data) {
+        (*env)->ReleaseFloatArrayElements(env, j_modes, data, JNI_ABORT);
+    }
+    (*env)->DeleteLocalRef(env, j_modes);
+
+    num_modes = refresh_rate_filter_modes(modes, num_modes,
+                                          get_display_mode_id());
+    if (num_modes > lenof(refresh_modes)) {
+        DLOG("Too many refresh rates (%d), ignoring the lowest %d",
+             num_modes, num_modes - lenof(refresh_modes));
+        memmove(modes, &modes[num_modes - lenof(refresh_modes)],
+                sizeof(*modes) * lenof(refresh_modes));
+        num_modes = lenof(refresh_modes);
+    }
+    if (num_modes > 0) {
+        memcpy(refresh_modes, modes, sizeof(*modes) * num_modes);
+    }
+    mem_free(modes);
+
+    for (int i = 0; i < num_modes; i++) {
+        DLOG("Display mode %d: %dx%d @ %g Hz", refresh_modes[i].id,
+             refresh_modes[i].width, refresh_modes[i].height,
+             refresh_modes[i].refresh);
+    }
+    return num_modes;
+}
+
+/*-----------------------------------------------------------------------*/
+
+static int get_display_mode_id(void)
+{
+    JNIEnv *env = get_jni_env();
+    const int id = (*env)->CallIntMethod(env, android_activity->clazz,
+                                         jni_method(JNI_getDisplayModeId));
+    if (clear_exceptions(env)) {
+        return 0;
+    }
+    return id;
+}
+
+/*-----------------------------------------------------------------------*/
+
+static void apply_refresh_rate(void)
+{
+    if (num_refresh_modes <= 1) {
+        return;  // Nothing to choose from.
+    }
+
+    const int index = refresh_rate_select_mode(
+        refresh_modes, num_refresh_modes, get_display_mode_id(),
+        refresh_rate);
+    const int mode_id = (index >= 0) ? refresh_modes[index].id : 0;
+    if (index >= 0) {
+        DLOG("Requesting display mode %d (%g Hz) for refresh rate %g",
+             mode_id, refresh_modes[index].refresh, refresh_rate);
+    }
+
+    JNIEnv *env = get_jni_env();
+    (*env)->CallVoidMethod(env, android_activity->clazz,
+                           jni_method(JNI_setPreferredDisplayMode), mode_id);
+    clear_exceptions(env);
+}
+
+/*-----------------------------------------------------------------------*/
+
+static void apply_pending_resize(void)
+{
+    if (dynres_resize_pending) {
+        dynres_resize_pending = 0;
+        int width, height;
+        dynamic_resolution_get_size(&dynres, &width, &height);
+        int window_w = width, window_h = height;
+        if (window_w == display_modes[0].width
+         && window_h == display_modes[0].height) {
+            window_w = window_h = 0;  // As in sys_graphics_set_display_mode().
+        }
+        /* This is called during normal frame processing, so don't block
+         * on the UI thread: skip the resize if a suspend is pending (the
+         * UI thread may be waiting for us in onPause()), and otherwise
+         * retry next frame if the UI thread doesn't park quickly. */
+        BARRIER();
+        if (android_suspend_requested
+         || android_try_lock_ui_thread(DYNRES_LOCK_TIMEOUT) < 0) {
+            dynres_resize_pending = 1;
+            return;
+        }
+        const int android_error = ANativeWindow_setBuffersGeometry(
+            android_window, window_w, window_h, display_format);
+        android_unlock_ui_thread();
+        if (UNLIKELY(android_error != 0)) {
+            DLOG("ANativeWindow_setBuffersGeometry(%d,%d,%d) failed: %d",
+                 window_w, window_h, display_format, android_error);
+            return;
+        }
+        dynres_resize_in_progress = 1;
+    }
+
+    /* The new geometry applies to the next buffer the surface dequeues,
+     * which may not be the one for the frame we're about to draw, so
+     * follow the surface size rather than assuming the change has taken
+     * effect. */
+    EGLint width, height;
+    if (!eglQuerySurface(display, surface, EGL_WIDTH, &width)
+     || !eglQuerySurface(display, surface, EGL_HEIGHT, &height)) {
+        return;
+    }
+    if (width != display_width || height != display_height) {
+        DLOG("Rendering size changed: %dx%d -> %dx%d",
+             display_width, display_height, width, height);
+        display_width = width;
+        display_height = height;
+        opengl_set_display_size(width, height);
+    }
+    int target_width, target_height;
+    dynamic_resolution_get_size(&dynres, &target_width, &target_height);
+    if (width == target_width && height == target_height) {
+        dynres_resize_in_progress = 0;
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+static void init_gpu_timing(void)
+{
+    gpu_timing_available = 0;
+    next_gpu_timer = 0;
+    num_pending_gpu_timers = 0;
+    gpu_timer_running = 0;
+
+    if (!(dynres_min_scale < dynres_max_scale)) {
+        return;
+    }
+    if (!opengl_has_extension("GL_EXT_disjoint_timer_query")) {
+        DLOG("GPU timer queries not available, dynamic resolution disabled");
+        return;
+    }
+    p_glGenQueriesEXT = android_eglGetProcAddress("glGenQueriesEXT");
+    p_glBeginQueryEXT = android_eglGetProcAddress("glBeginQueryEXT");
+    p_glEndQueryEXT = android_eglGetProcAddress("glEndQueryEXT");
+    p_glGetQueryObjectuivEXT =
+        android_eglGetProcAddress("glGetQueryObjectuivEXT");
+    p_glGetQueryObjectui64vEXT =
+        android_eglGetProcAddress("glGetQueryObjectui64vEXT");
+    if (!p_glGenQueriesEXT || !p_glBeginQueryEXT || !p_glEndQueryEXT
+     || !p_glGetQueryObjectuivEXT || !p_glGetQueryObjectui64vEXT) {
+        DLOG("GPU timer query functions missing, dynamic resolution"
+             " disabled");
+        return;
+    }
+
+    (*p_glGenQueriesEXT)(NUM_GPU_TIMERS, gpu_timers);
+    /* Clear any stale disjoint flag. */
+    GLint disjoint;
+    glGetIntegerv(GL_GPU_DISJOINT_EXT, &disjoint);
+    gpu_timing_available = 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+static void update_gpu_timing(void)
+{
+    if (!gpu_timing_available) {
+        return;
+    }
+
+    while (num_pending_gpu_timers > 0) {
+        const int index = (next_gpu_timer + NUM_GPU_TIMERS
+                           - num_pending_gpu_timers) % NUM_GPU_TIMERS;
+        GLuint available = 0;
+        (*p_glGetQueryObjectuivEXT)(gpu_timers[index],
+                                    GL_QUERY_RESULT_AVAILABLE_EXT, &available);
+        if (!available) {
+            break;
+        }
+        uint64_t gpu_time = 0;
+        (*p_glGetQueryObjectui64vEXT)(gpu_timers[index], GL_QUERY_RESULT_EXT,
+                                      &gpu_time);
+        num_pending_gpu_timers--;
+
+        /* A disjoint event (such as a GPU clock change) means the result
+         * may be meaningless, so skip it in that case. */
+        GLint disjoint = 0;
+        glGetIntegerv(GL_GPU_DISJOINT_EXT, &disjoint);
+        if (disjoint) {
+            continue;
+        }
+        int num, den;
+        sys_graphics_get_frame_period(&num, &den);
+        const float target = num ? (float)num / (float)den : 1/60.0f;
+        if (dynamic_resolution_update(&dynres, gpu_time * 1.0e-9f, target)) {
+            dynres_resize_pending = 1;
+        }
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+static void start_gpu_timer(void)
+{
+    if (gpu_timing_available && num_pending_gpu_timers < NUM_GPU_TIMERS) {
+        (*p_glBeginQueryEXT)(GL_TIME_ELAPSED_EXT, gpu_timers[next_gpu_timer]);
+        gpu_timer_running = 1;
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+static void stop_gpu_timer(void)
+{
+    if (gpu_timer_running) {
+        (*p_glEndQueryEXT)(GL_TIME_ELAPSED_EXT);
+        gpu_timer_running = 0;
+        next_gpu_timer = (next_gpu_timer + 1) % NUM_GPU_TIMERS;
+        num_pending_gpu_timers++;
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+static int get_vsync_info(int64_t *time_ret, int64_t *period_ret)
+{
+    int64_t seq, time, period;
+    int tries = 0;
+    do {
+        if (++tries > 100) {
+            return 0;  // The UI thread is probably stuck mid-update.
+        }
+        seq = vsync_info[0];
+        BARRIER();
+        time = vsync_info[1];
+        period = vsync_info[2];
+        BARRIER();
+    } while ((seq & 1) || vsync_info[0] != seq);
+
+    if (time <= 0 || period <= 0) {
+        return 0;
+    }
+    *time_ret = time;
+    *period_ret = period;
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+static void set_presentation_time(void)
+{
+    int64_t vsync_time, period;
+    if (!get_vsync_info(&vsync_time, &period)) {
+        last_present_target = 0;
+        return;
+    }
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    const int64_t now = (int64_t)ts.tv_sec*1000000000 + ts.tv_nsec;
+    /* If we haven't heard from the UI thread in a while (for example,
+     * because the activity is being paused), don't try to guess. */
+    if (now - vsync_time > 1000000000) {
+        last_present_target = 0;
+        return;
+    }
+
+    /* Aim for the earliest vsync which leaves frame_interval periods
+     * since the previous frame's target, but don't let the target run
+     * more than a couple of intervals ahead of the clock (which could
+     * happen if vsync timing drifted while we were rendering quickly). */
+    int64_t next_vsync = vsync_time;
+    if (now > vsync_time) {
+        next_vsync += ((now - vsync_time + period - 1) / period) * period;
+    }
+    const int64_t interval = period * frame_interval;
+    int64_t target = next_vsync + interval - period;
+    if (last_present_target) {
+        const int64_t paced = last_present_target + interval;
+        if (paced > target && paced <= next_vsync + 2*interval) {
+            target = paced;
+        }
+    }
+    last_present_target = target;
+
+    /* Request a time half a period early so that the frame is shown on
+     * the targeted vsync even if the timestamps are slightly off. */
+    (*p_eglPresentationTimeANDROID)(display, surface, target - period/2);
+}
+
+/*-----------------------------------------------------------------------*/
+
+static int get_display_geometry(DisplayGeometry *geometry_ret)
+{
+    pthread_mutex_lock(&display_geometry_mutex);
+    int ok;
+    if (display_geometry_buffer_set
+     && display_geometry.generation >= 0
+     && __atomic_load_n(&display_geometry_generation, __ATOMIC_ACQUIRE)
+            == display_geometry.generation) {
+        ok = 1;
+    } else {
+        ok = update_display_geometry();
+    }
+    *geometry_ret = display_geometry;
+    pthread_mutex_unlock(&display_geometry_mutex);
+    return ok;
+}
+
+/*-----------------------------------------------------------------------*/
+
+static int update_display_geometry(void)
+{
+    JNIEnv *env = get_jni_env();
+
+    if (UNLIKELY(!DisplayGeometry_fields_found)) {
+        jclass DisplayGeometry_class =
+            get_class(".SILActivity$DisplayGeometry");
+        ASSERT(DisplayGeometry_class != 0, return 0);
+        DisplayGeometry_generation = (*env)->GetFieldID(
+            env, DisplayGeometry_class, "generation", "I");
+        DisplayGeometry_width = (*env)->GetFieldID(
+            env, DisplayGeometry_class, "width", "I");
+        DisplayGeometry_height = (*env)->GetFieldID(
+            env, DisplayGeometry_class, "height", "I");
+        DisplayGeometry_full_width = (*env)->GetFieldID(
+            env, DisplayGeometry_class, "full_width", "I");
+        DisplayGeometry_full_height = (*env)->GetFieldID(
+            env, DisplayGeometry_class, "full_height", "I");
+        DisplayGeometry_size_inches = (*env)->GetFieldID(
+            env, DisplayGeometry_class, "size_inches", "F");
+        (*env)->DeleteLocalRef(env, DisplayGeometry_class);
+        ASSERT(!clear_exceptions(env), return 0);
+        ASSERT(DisplayGeometry_generation != 0, return 0);
+        ASSERT(DisplayGeometry_width != 0, return 0);
+        ASSERT(DisplayGeometry_height != 0, return 0);
+        ASSERT(DisplayGeometry_full_width != 0, return 0);
+        ASSERT(DisplayGeometry_full_height != 0, return 0);
+        ASSERT(DisplayGeometry_size_inches != 0, return 0);
+
+        /* Set this last so we retry everything on failure. */
+        DisplayGeometry_fields_found = 1;
+
+        /* If this fails, we just call into Java on every lookup. */
+        jobject j_buffer = (*env)->NewDirectByteBuffer(
+            env, (void *)&display_geometry_generation,
+            sizeof(display_geometry_generation));
+        if (j_buffer) {
+            (*env)->CallVoidMethod(env, android_activity->clazz,
+                                   jni_method(JNI_setDisplayGeometryBuffer),
+                                   j_buffer);
+            (*env)->DeleteLocalRef(env, j_buffer);
+            display_geometry_buffer_set = !clear_exceptions(env);
+        } else {
+            DLOG("Failed to set up display geometry buffer");
+            clear_exceptions(env);
+        }
+    }
+
+    /* This returns null (without querying the system) if nothing has
+     * changed since our last call. */
+    jobject j_geometry = (*env)->CallObjectMethod(
+        env, android_activity->clazz, jni_method(JNI_getDisplayGeometry),
+        display_geometry.generation);
+    ASSERT(!clear_exceptions(env), return 0);
+    if (!j_geometry) {
+        return display_geometry.generation >= 0;
+    }
+
+    display_geometry.generation = (*env)->GetIntField(
+        env, j_geometry, DisplayGeometry_generation);
+    display_geometry.width = (*env)->GetIntField(
+        env, j_geometry, DisplayGeometry_width);
+    display_geometry.height = (*env)->GetIntField(
+        env, j_geometry, DisplayGeometry_height);
+    display_geometry.full_width = (*env)->GetIntField(
+        env, j_geometry, DisplayGeometry_full_width);
+    display_geometry.full_height = (*env)->GetIntField(
+        env, j_geometry, DisplayGeometry_full_height);
+    display_geometry.size_inches = (*env)->GetFloatField(
+        env, j_geometry, DisplayGeometry_size_inches);
+    (*env)->DeleteLocalRef(env, j_geometry);
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
 static void *android_eglGetProcAddress(const char *name)
 {
     void *function = dlsym(RTLD_DEFAULT, name);
@@ -15,6 +15,8 @@
 #include "src/memory.h"
 #include "src/sysdep.h"
 #include "src/sysdep/android/internal.h"
+#include "src/sysdep/misc/input-latency.h"
+#include "src/sysdep/misc/input-ring.h"
 #include "src/sysdep/posix/time.h"
 #include "src/thread.h"
 #include "src/time.h"
@@ -35,11 +37,36 @@
  * devices, in seconds.  Note that even if there are no changes to the
  * input configuration, there is still a moderate penalty (~0.5ms) for the
  * scan.  The default is 1.0 seconds.
+ *
+ * This is only used when the Java side cannot deliver device change
+ * notifications (on Android versions earlier than 4.1 Jelly Bean); when
+ * notifications are available, the device list is rescanned only when
+ * a device is actually added, removed, or changed.
  */
 #ifndef SIL_PLATFORM_ANDROID_INPUT_DEVICE_SCAN_INTERVAL
 # define SIL_PLATFORM_ANDROID_INPUT_DEVICE_SCAN_INTERVAL  1.0
 #endif
 
+/**
+ * SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE:  If nonzero, events received
+ * on the system input thread are stored in a lock-free ring buffer of
+ * this many events (which must be a power of 2) and passed to the input
+ * event callback from sys_input_update() on the game thread, rather than
+ * calling the callback directly from the input thread.  This keeps the
+ * input thread from contending with the game thread for locks (such as
+ * the input coalescing lock in src/input.c).
+ *
+ * If the ring fills up, further events are discarded until the game
+ * thread drains the ring.  The number of discarded events and the
+ * maximum number of events held in the ring are logged (in debug builds)
+ * when events are discarded and when the input subsystem is shut down.
+ *
+ * The default is 0, which passes events directly to the callback.
+ */
+#ifndef SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE
+# define SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE  0
+#endif
+
 /*************************************************************************/
 /****************************** Local data *******************************/
 /*************************************************************************/
@@ -65,16 +92,40 @@ enum {
     ANDROID_JOY_BUTTON__NUM
 };
 
+/* Input device classification flags, as returned in the table from
+ * SILActivity.getInputDeviceTable().  These must match the
+ * INPUT_DEVICE_* constants in SILActivity.java. */
+enum {
+    INPUT_DEVICE_DPAD     = 1<<0,
+    INPUT_DEVICE_JOYSTICK = 1<<1,
+    INPUT_DEVICE_KEYBOARD = 1<<2,
+    INPUT_DEVICE_MOUSE    = 1<<3,
+};
+
+/* Number of MotionEvent axes for which we record joystick input
+ * thresholds (AXIS_X through AXIS_GENERIC_16). */
+#define JOYSTICK_NUM_AXES  48
+
+/* Maximum number of input devices to record in device_table[].  Devices
+ * beyond this limit are treated as generic key sources. */
+#define MAX_INPUT_DEVICES  64
+
 /*-----------------------------------------------------------------------*/
 
 /*
  * Wrappers for functions not statically known to be present:
  *    - AMotionEvent_getAxisValue() (SDK level 12)
+ *    - AMotionEvent_getHistoricalAxisValue() (SDK level 12)
+ * Both functions were added at the same time, so have_getAxisValue()
+ * covers both.
  */
 
 #if SIL_PLATFORM_ANDROID_MIN_SDK_VERSION < 12
 extern __attribute__((weak)) float AMotionEvent_getAxisValue(
     const AInputEvent* motion_event, int32_t axis, size_t pointer_index);
+extern __attribute__((weak)) float AMotionEvent_getHistoricalAxisValue(
+    const AInputEvent* motion_event, int32_t axis, size_t pointer_index,
+    size_t history_index);
 static inline int have_getAxisValue(void)
     {return AMotionEvent_getAxisValue != NULL;}
 #else
@@ -83,12 +134,9 @@ static inline int have_getAxisValue(void) {return 1;}
 
 /*-----------------------------------------------------------------------*/
 
-/* Cached Java method IDs. */
-static jmethodID scanInputDevices, hasJoystick, hasKeyboard, hasMouse,
-    getDeviceName, isInputDeviceDpad, isInputDeviceJoystick,
-    isInputDeviceKeyboard, isInputDeviceMouse, getJoystickId,
-    getAxisThreshold, doesJoystickRumble, showInputDialog, dismissInputDialog,
-    isInputDialogFinished, getInputDialogText;
+/* Cached field IDs for SILActivity.JoystickDescriptor. */
+static jfieldID JoystickDescriptor_name, JoystickDescriptor_can_rumble,
+    JoystickDescriptor_ranges;
 
 /* Flag: Has the input subsystem been initialized? */
 static uint8_t initted;
@@ -104,16 +152,55 @@ static uint8_t nanotime_uses_clock_monotonic;
 static uint8_t java_time_offset_known;  // Have we set it yet?
 static int64_t java_time_offset;
 
-/* Event callback passed to sys_input_init(). */
+/* Callback used to send events.  This is either the callback passed to
+ * sys_input_init() or, if the event ring is enabled, queue_event(). */
 static InputEventCallback event_callback;
 
+#if SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE > 0
+/* Ring buffer for events generated on the input thread. */
+static InputRing event_ring;
+static InputEvent event_ring_buffer[SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE];
+/* Event callback passed to sys_input_init(). */
+static InputEventCallback ring_event_callback;
+/* Thread which called sys_input_init(), assumed to be the thread which
+ * calls sys_input_update(). */
+static pthread_t game_thread;
+/* input_ring_dropped() value last reported via DLOG(). */
+static int event_ring_last_dropped;
+#endif
+
+/* Event latency histograms, indexed by source and stage.  The DEQUEUE
+ * histograms are only updated by the input thread; the DELIVER histograms
+ * are updated by the input thread, or by the game thread if the event
+ * ring is enabled.  This array is also read directly by Java code (see
+ * SILActivity.dumpInputLatency()). */
+static InputLatencyHistogram input_latency
+    [ANDROID_INPUT_LATENCY__NUM_SOURCES][ANDROID_INPUT_LATENCY__NUM_STAGES];
+
 /* Input device info block for sys_input_info(). */
 static SysInputInfo input_info;
 /* Joystick info for sys_input_info(). */
 static SysInputJoystick joystick_info[INPUT_MAX_JOYSTICKS];
 
-/* Timestamp at which we last scanned for new input devices. */
+/* Timestamp at which we last scanned for new input devices.  Only used
+ * if device change notifications are not available. */
 static double last_input_scan;
+/* Input device generation counter value at the time of the last scan
+ * (see SILActivity.getInputDeviceGeneration()), or -1 if unknown. */
+static int last_input_generation;
+
+/* Classification flags (INPUT_DEVICE_*) for each known input device,
+ * copied from SILActivity.getInputDeviceTable() whenever the device list
+ * changes.  This table is written by the game thread and read by the
+ * input thread, so accesses are protected by a sequence counter:
+ * device_table_seq is odd while the table is being updated, and readers
+ * retry if the counter changes during a lookup. */
+static struct {
+    int32_t id;
+    uint32_t flags;
+} device_table[MAX_INPUT_DEVICES];
+static int device_table_size;
+static volatile unsigned int device_table_seq;
 
 /* Joystick index to Android input device ID mapping. */
 static int joystick_device[INPUT_MAX_JOYSTICKS];
@@ -122,6 +209,9 @@ typedef struct JoystickState JoystickState;
 struct JoystickState {
     Vector2f stick[2];
     float stick_threshold[2];
+    /* Input threshold ("flat" value) for each MotionEvent axis, as
+     * reported by the device. */
+    float axis_threshold[JOYSTICK_NUM_AXES];
     uint8_t dpad_up, dpad_down, dpad_left, dpad_right;
     uint8_t button[ANDROID_JOY_BUTTON__NUM];
 
@@ -179,6 +269,55 @@ static unsigned int next_touch_id = 1;
 
 /* Local routine declarations. */
 
+#if SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE > 0
+
+/**
+ * queue_event:  Event callback used when the event ring is enabled.
+ * Events generated on the input thread are appended to the ring; events
+ * generated on the game thread are passed directly to the callback after
+ * draining the ring, so that event order is preserved.
+ *
+ * [Parameters]
+ *     event: Event to send.
+ */
+static void queue_event(const InputEvent *event);
+
+/**
+ * drain_event_ring:  Pass all events in the event ring to the callback
+ * passed to sys_input_init().  Must be called from the game thread.
+ */
+static void drain_event_ring(void);
+
+#endif
+
+/**
+ * dispatch_input_event:  Process an input event from the input queue.
+ * Helper for android_handle_input_event().
+ *
+ * [Parameters]
+ *     event: Input event object.
+ *     source_ret: Pointer to variable to receive the input source for
+ *         latency recording (ANDROID_INPUT_LATENCY_*); only set when the
+ *         function returns true.
+ * [Return value]
+ *     True if the event was processed, false to continue propagating the
+ *     event.
+ */
+static int dispatch_input_event(AInputEvent *event,
+                                AndroidInputLatencySource *source_ret);
+
+/**
+ * latency_source_for_event:  Return the latency recording source
+ * corresponding to the given event's type.
+ *
+ * [Parameters]
+ *     event: InputEvent structure.
+ * [Return value]
+ *     Latency source (ANDROID_INPUT_LATENCY_*), or -1 if latency is not
+ *     recorded for the event type.
+ */
+static PURE_FUNCTION int latency_source_for_event(const InputEvent *event);
+
 /**
  * update_input_devices:  Update internal state based on the current set
  * of connected input devices.
@@ -189,6 +328,23 @@ static unsigned int next_touch_id = 1;
  */
 static void update_input_devices(void);
 
+/**
+ * update_device_table:  Reload device_table[] from the Java side.  Must
+ * be called from the game thread.
+ */
+static void update_device_table(void);
+
+/**
+ * lookup_device_flags:  Return the INPUT_DEVICE_* flags for the given
+ * input device.  Safe to call from the input thread.
+ *
+ * [Parameters]
+ *     device: Android input device ID.
+ * [Return value]
+ *     Device classification flags, or zero if the device is unknown.
+ */
+static uint32_t lookup_device_flags(int device);
+
 /**
  * init_joystick:  Set up joystick_info[] and joystick_state[] data for a
  * newly detected joystick device.
@@ -252,6 +408,34 @@ static int lookup_touch(int32_t pointer, int new);
  */
 static void handle_joystick_stick(AInputEvent *event, int index);
 
+/**
+ * update_joystick_axes:  Process one sample (either a historical sample
+ * or the current sample) from a joystick MotionEvent, sending stick,
+ * D-pad, and trigger events for any changes.  Helper for
+ * handle_joystick_stick().
+ *
+ * [Parameters]
+ *     event: Input event.
+ *     index: Joystick index.
+ *     sample: Historical sample index, or -1 for the current sample.
+ *     timestamp: Timestamp of the sample (compatible with time_now()).
+ */
+static void update_joystick_axes(AInputEvent *event, int index, int sample,
+                                 double timestamp);
+
+/**
+ * get_axis_value:  Return the value of the given axis from the given
+ * sample of a MotionEvent.
+ *
+ * [Parameters]
+ *     event: Input event.
+ *     axis: Axis to retrieve (AMOTION_EVENT_AXIS_*).
+ *     sample: Historical sample index, or -1 for the current sample.
+ * [Return value]
+ *     Axis value.
+ */
+static inline float get_axis_value(AInputEvent *event, int axis, int sample);
+
 /**
  * handle_xperia_touchpad:  Process a MotionEvent for the Xperia Play touchpad.
  *
@@ -347,7 +531,19 @@ int sys_input_init(void (*event_callback_)(const struct InputEvent *))
     PRECOND(event_callback_ != NULL, return 0);
     PRECOND(!initted, return 0);
 
+#if SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE > 0
+    if (!input_ring_init(&event_ring, event_ring_buffer,
+                         lenof(event_ring_buffer))) {
+        DLOG("Failed to initialize event ring");
+        return 0;
+    }
+    ring_event_callback = event_callback_;
+    game_thread = pthread_self();
+    event_ring_last_dropped = 0;
+    event_callback = queue_event;
+#else
     event_callback = event_callback_;
+#endif
 
 #if SIL_PLATFORM_ANDROID_MIN_SDK_VERSION < 12
     if (!have_getAxisValue()) {
@@ -373,12 +569,8 @@ int sys_input_init(void (*event_callback_)(const struct InputEvent *))
      * CLOCK_MONOTONIC.
      */
     nanotime_uses_clock_monotonic = 0;
-    jclass System_class = get_class("java.lang.System");
-    ASSERT(System_class != 0, return 0);
-    jmethodID nanoTime = get_static_method(System_class, "nanoTime", "()J");
-    ASSERT(nanoTime != 0, return 0);
     const uint64_t java_time = (*env)->CallStaticLongMethod(
-        env, System_class, nanoTime);
+        env, jni_class(JNI_CLASS_System), jni_method(JNI_System_nanoTime));
     struct timespec ts;
 #ifdef CLOCK_MONOTONIC
     if (clock_gettime(CLOCK_MONOTONIC, &ts) == 0) {
@@ -397,71 +589,44 @@ int sys_input_init(void (*event_callback_)(const struct InputEvent *))
         set_java_time_offset();
     }
 
-    scanInputDevices = get_method(0, "scanInputDevices", "()Z");
-    hasJoystick = get_method(0, "hasJoystick", "()Z");
-    hasKeyboard = get_method(0, "hasKeyboard", "()Z");
-    hasMouse = get_method(0, "hasMouse", "()Z");
-    getDeviceName = get_method(0, "getDeviceName", "(I)Ljava/lang/String;");
-    isInputDeviceDpad = get_method(0, "isInputDeviceDpad", "(I)Z");
-    isInputDeviceJoystick = get_method(0, "isInputDeviceJoystick", "(I)Z");
-    isInputDeviceKeyboard = get_method(0, "isInputDeviceKeyboard", "(I)Z");
-    isInputDeviceMouse = get_method(0, "isInputDeviceMouse", "(I)Z");
-    getJoystickId = get_method(0, "getJoystickId", "(I)I");
-    getAxisThreshold = get_method(0, "getAxisThreshold", "(II)F");
-    doesJoystickRumble = get_method(0, "doesJoystickRumble", "(I)Z");
-    showInputDialog = get_method(
-        0, "showInputDialog",
-        ("(Ljava/lang/String;Ljava/lang/String;)"
-         "L" SIL_PLATFORM_ANDROID_PACKAGE_JNI "/InputDialog;"));
-    dismissInputDialog = get_method(
-        0, "dismissInputDialog",
-        "(L" SIL_PLATFORM_ANDROID_PACKAGE_JNI "/InputDialog;)V");
-    isInputDialogFinished = get_method(
-        0, "isInputDialogFinished",
-        "(L" SIL_PLATFORM_ANDROID_PACKAGE_JNI "/InputDialog;)Z");
-    getInputDialogText = get_method(
-        0, "getInputDialogText",
-        ("(L" SIL_PLATFORM_ANDROID_PACKAGE_JNI "/InputDialog;)"
-         "Ljava/lang/String;"));
-    ASSERT(scanInputDevices != 0, return 0);
-    ASSERT(hasJoystick != 0, return 0);
-    ASSERT(hasKeyboard != 0, return 0);
-    ASSERT(getDeviceName != 0, return 0);
-    ASSERT(isInputDeviceDpad != 0, return 0);
-    ASSERT(isInputDeviceJoystick != 0, return 0);
-    ASSERT(isInputDeviceKeyboard != 0, return 0);
-    ASSERT(getJoystickId != 0, return 0);
-    ASSERT(getAxisThreshold != 0, return 0);
-    ASSERT(doesJoystickRumble != 0, return 0);
-    ASSERT(showInputDialog != 0, return 0);
-    ASSERT(dismissInputDialog != 0, return 0);
-    ASSERT(isInputDialogFinished != 0, return 0);
-    ASSERT(getInputDialogText != 0, return 0);
-
-    jmethodID getBuildInfo = get_method(
-        0, "getBuildInfo", "(I)Ljava/lang/String;");
-    ASSERT(getBuildInfo != 0, return 0);
-    jstring j_manufacturer = (*env)->CallObjectMethod(
-        env, activity_obj, getBuildInfo, BUILD_INFO_MANUFACTURER);
-    jstring j_model = (*env)->CallObjectMethod(
-        env, activity_obj, getBuildInfo, BUILD_INFO_MODEL);
+    jclass JoystickDescriptor_class =
+        get_class(".SILActivity$JoystickDescriptor");
+    ASSERT(JoystickDescriptor_class != 0, return 0);
+    JoystickDescriptor_name = (*env)->GetFieldID(
+        env, JoystickDescriptor_class, "name", "Ljava/lang/String;");
+    JoystickDescriptor_can_rumble = (*env)->GetFieldID(
+        env, JoystickDescriptor_class, "can_rumble", "Z");
+    JoystickDescriptor_ranges = (*env)->GetFieldID(
+        env, JoystickDescriptor_class, "ranges", "[F");
+    (*env)->DeleteLocalRef(env, JoystickDescriptor_class);
     ASSERT(!clear_exceptions(env), return 0);
-    ASSERT(j_manufacturer != 0 && j_model != 0, return 0);
-    const char *manufacturer =
-        (*env)->GetStringUTFChars(env, j_manufacturer, NULL);
-    const char *model = (*env)->GetStringUTFChars(env, j_model, NULL);
-    is_xperia_play =
-        (manufacturer && strcmp(manufacturer, "Sony Ericsson") == 0)
-        && (model && strcmp(model, "R800i") == 0);
-    if (manufacturer) {
-        (*env)->ReleaseStringUTFChars(env, j_manufacturer, manufacturer);
-    }
-    if (model) {
-        (*env)->ReleaseStringUTFChars(env, j_model, model);
-    }
-    (*env)->DeleteLocalRef(env, j_manufacturer);
-    (*env)->DeleteLocalRef(env, j_model);
+    ASSERT(JoystickDescriptor_name != 0, return 0);
+    ASSERT(JoystickDescriptor_can_rumble != 0, return 0);
+    ASSERT(JoystickDescriptor_ranges != 0, return 0);
 
+    for (int i = 0; i < ANDROID_INPUT_LATENCY__NUM_SOURCES; i++) {
+        for (int j = 0; j < ANDROID_INPUT_LATENCY__NUM_STAGES; j++) {
+            input_latency_reset(&input_latency[i][j]);
+        }
+    }
+    jobject j_latency_buffer = (*env)->NewDirectByteBuffer(
+        env, input_latency, sizeof(input_latency));
+    if (j_latency_buffer) {
+        (*env)->CallVoidMethod(
+            env, activity_obj, jni_method(JNI_setInputLatencyBuffer),
+            j_latency_buffer,
+            ANDROID_INPUT_LATENCY__NUM_SOURCES,
+            ANDROID_INPUT_LATENCY__NUM_STAGES, INPUT_LATENCY_BUCKETS);
+        (*env)->DeleteLocalRef(env, j_latency_buffer);
+    }
+    if (clear_exceptions(env) || !j_latency_buffer) {
+        DLOG("Failed to share input latency buffer with Java");
+    }
+
+    is_xperia_play = (strcmp(android_info_manufacturer, "Sony Ericsson") == 0
+                      && strcmp(android_info_model, "R800i") == 0);
+
+    device_table_size = 0;
     mem_clear(joystick_info, sizeof(joystick_info));
     mem_clear(joystick_device, sizeof(joystick_device));
     mem_clear(joystick_state, sizeof(joystick_state));
@@ -478,6 +643,7 @@ int sys_input_init(void (*event_callback_)(const struct InputEvent *))
 
     last_input_scan =
         time_now() - SIL_PLATFORM_ANDROID_INPUT_DEVICE_SCAN_INTERVAL;
+    last_input_generation = -1;
 
     initted = 1;
     return 1;
@@ -487,6 +653,11 @@ int sys_input_init(void (*event_callback_)(const struct InputEvent *))
 
 void sys_input_cleanup(void)
 {
+#if SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE > 0
+    DLOG("Input event ring: high-water mark %d/%d, %d events dropped",
+         input_ring_high_water(&event_ring), lenof(event_ring_buffer),
+         input_ring_dropped(&event_ring));
+#endif
     initted = 0;
 }
 
@@ -494,26 +665,48 @@ void sys_input_cleanup(void)
 
 void sys_input_update(void)
 {
+#if SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE > 0
+    drain_event_ring();
+#endif
+
     if (text_dialog) {
         update_text_dialog();
     }
+
+    android_update_alerts();
 }
 
 /*-----------------------------------------------------------------------*/
 
 void sys_input_info(SysInputInfo *info_ret)
 {
-    const double now = time_now();
-    if (now - last_input_scan < SIL_PLATFORM_ANDROID_INPUT_DEVICE_SCAN_INTERVAL)
-    {
-        goto out;
-    }
-    last_input_scan = now;
-
     JNIEnv *env = get_jni_env();
     jobject activity_obj = android_activity->clazz;
-    const int devices_changed =
-        (*env)->CallBooleanMethod(env, activity_obj, scanInputDevices);
+
+    /* If the Java side is listening for device changes, we only need to
+     * rescan when the generation counter changes.  Otherwise, fall back
+     * to scanning periodically. */
+    const int generation = (*env)->CallIntMethod(
+        env, activity_obj, jni_method(JNI_getInputDeviceGeneration));
+    ASSERT(!clear_exceptions(env), goto out);
+    if (generation >= 0) {
+        if (generation == last_input_generation) {
+            goto out;
+        }
+        last_input_generation = generation;
+    } else {
+        last_input_generation = -1;
+        const double now = time_now();
+        if (now - last_input_scan
+            < SIL_PLATFORM_ANDROID_INPUT_DEVICE_SCAN_INTERVAL)
+        {
+            goto out;
+        }
+        last_input_scan = now;
+    }
+
+    const int devices_changed = (*env)->CallBooleanMethod(
+        env, activity_obj, jni_method(JNI_scanInputDevices));
     ASSERT(!clear_exceptions(env), goto out);
     if (!devices_changed) {
         goto out;
@@ -567,7 +760,8 @@ void sys_input_acknowledge_suspend_request(void)
     mem_clear(xperia_stick_active, sizeof(xperia_stick_active));
     JNIEnv *env = get_jni_env();
     jobject activity_obj = android_activity->clazz;
-    (*env)->CallBooleanMethod(env, activity_obj, scanInputDevices);
+    (*env)->CallBooleanMethod(env, activity_obj,
+                              jni_method(JNI_scanInputDevices));
     ASSERT(!clear_exceptions(env));
     update_input_devices();
 
@@ -659,8 +853,8 @@ void sys_input_text_set_state(int on, const char *text, const char *prompt)
     jobject activity_obj = android_activity->clazz;
 
     if (text_dialog) {
-        (*env)->CallVoidMethod(env, activity_obj, dismissInputDialog,
-                               text_dialog);
+        (*env)->CallVoidMethod(env, activity_obj,
+                               jni_method(JNI_dismissInputDialog), text_dialog);
         (*env)->DeleteGlobalRef(env, text_dialog);
         ASSERT(!clear_exceptions(env));
         text_dialog = 0;
@@ -672,14 +866,16 @@ void sys_input_text_set_state(int on, const char *text, const char *prompt)
         jstring j_prompt = (*env)->NewStringUTF(env, prompt ? prompt : "");
         ASSERT(j_prompt != 0, clear_exceptions(env); (*env)->DeleteLocalRef(env, j_text); return);
         jobject dialog = (*env)->CallObjectMethod(
-            env, activity_obj, showInputDialog, j_prompt, j_text);
+            env, activity_obj, jni_method(JNI_showInputDialog),
+            j_prompt, j_text);
         (*env)->DeleteLocalRef(env, j_text);
         (*env)->DeleteLocalRef(env, j_prompt);
         if (!clear_exceptions(env) && dialog) {
             text_dialog = (*env)->NewGlobalRef(env, dialog);
             if (!text_dialog) {
                 DLOG("Failed to create global reference to text input dialog!");
-                (*env)->CallVoidMethod(env, activity_obj, dismissInputDialog,
+                (*env)->CallVoidMethod(env, activity_obj,
+                                       jni_method(JNI_dismissInputDialog),
                                        dialog);
                 ASSERT(!clear_exceptions(env));
             }
@@ -700,6 +896,77 @@ int32_t android_handle_input_event(AInputEvent *event)
         return 0;
     }
 
+    const double dequeue_time = time_now();
+    const double event_time = convert_java_timestamp(
+        AInputEvent_getType(event) == AINPUT_EVENT_TYPE_KEY
+            ? AKeyEvent_getEventTime(event)
+            : AMotionEvent_getEventTime(event));
+
+    AndroidInputLatencySource source;
+    if (!dispatch_input_event(event, &source)) {
+        return 0;
+    }
+
+    input_latency_record(&input_latency[source][ANDROID_INPUT_LATENCY_DEQUEUE],
+                         dequeue_time - event_time);
+#if SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE == 0
+    /* With the event ring enabled, delivery latency is recorded when the
+     * game thread drains the ring. */
+    input_latency_record(&input_latency[source][ANDROID_INPUT_LATENCY_DELIVER],
+                         time_now() - event_time);
+#endif
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_forward_input_event(const InputEvent *event)
+{
+    /* This is called from the UI thread, so bypass the event ring (if
+     * enabled) to avoid a second producer. */
+#if SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE > 0
+    (*ring_event_callback)(event);
+#else
+    (*event_callback)(event);
+#endif
+}
+
+/*-----------------------------------------------------------------------*/
+
+double android_input_latency(AndroidInputLatencySource source,
+                             AndroidInputLatencyStage stage,
+                             double percentile, int *count_ret)
+{
+    PRECOND(source >= 0 && source < ANDROID_INPUT_LATENCY__NUM_SOURCES,
+            return 0);
+    PRECOND(stage >= 0 && stage < ANDROID_INPUT_LATENCY__NUM_STAGES,
+            return 0);
+
+    const InputLatencyHistogram *histogram = &input_latency[source][stage];
+    if (count_ret) {
+        *count_ret = input_latency_count(histogram);
+    }
+    return input_latency_percentile(histogram, percentile);
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_reset_input_latency(void)
+{
+    for (int i = 0; i < ANDROID_INPUT_LATENCY__NUM_SOURCES; i++) {
+        for (int j = 0; j < ANDROID_INPUT_LATENCY__NUM_STAGES; j++) {
+            input_latency_request_reset(&input_latency[i][j]);
+        }
+    }
+}
+
+/*************************************************************************/
+/**************************** Local routines *****************************/
+/*************************************************************************/
+
+static int dispatch_input_event(AInputEvent *event,
+                                AndroidInputLatencySource *source_ret)
+{
     const int device = AInputEvent_getDeviceId(event);
     const int type = AInputEvent_getType(event);
     const int source = AInputEvent_getSource(event);
@@ -707,6 +974,7 @@ int32_t android_handle_input_event(AInputEvent *event)
     if (type == AINPUT_EVENT_TYPE_MOTION
      && ((source & AINPUT_SOURCE_TOUCHSCREEN) == AINPUT_SOURCE_TOUCHSCREEN)) {
         handle_touch(event);
+        *source_ret = ANDROID_INPUT_LATENCY_TOUCH;
         return 1;
     }
 
@@ -720,6 +988,7 @@ int32_t android_handle_input_event(AInputEvent *event)
         } else {
             DLOG("Got joystick motion event for unknown device %d", device);
         }
+        *source_ret = ANDROID_INPUT_LATENCY_JOYSTICK;
         return 1;
     }
 
@@ -728,8 +997,10 @@ int32_t android_handle_input_event(AInputEvent *event)
         if (is_xperia_play) {
             /* Special handling for the Xperia Play "analog stick" touchpad. */
             handle_xperia_touchpad(event);
+            *source_ret = ANDROID_INPUT_LATENCY_JOYSTICK;
         } else {
             handle_mouse_motion(event);
+            *source_ret = ANDROID_INPUT_LATENCY_MOUSE;
         }
         return 1;
     }
@@ -737,6 +1008,7 @@ int32_t android_handle_input_event(AInputEvent *event)
     if (type == AINPUT_EVENT_TYPE_MOTION
      && ((source & AINPUT_SOURCE_MOUSE) == AINPUT_SOURCE_MOUSE)) {
         handle_mouse_motion(event);
+        *source_ret = ANDROID_INPUT_LATENCY_MOUSE;
         return 1;
     }
 
@@ -759,17 +1031,11 @@ int32_t android_handle_input_event(AInputEvent *event)
         /* The "source" value doesn't seem to always reflect the actual
          * input source (e.g. Xperia Play D-pad buttons report KEYBOARD
          * instead of DPAD), so we have to check the device itself. */
-        JNIEnv *env = get_jni_env();
-        jobject activity_obj = android_activity->clazz;
-        const int is_dpad = (*env)->CallBooleanMethod(
-            env, activity_obj, isInputDeviceDpad, device);
-        const int is_joystick = (*env)->CallBooleanMethod(
-            env, activity_obj, isInputDeviceJoystick, device);
-        const int is_keyboard = (*env)->CallBooleanMethod(
-            env, activity_obj, isInputDeviceKeyboard, device);
-        const int is_mouse = (*env)->CallBooleanMethod(
-            env, activity_obj, isInputDeviceMouse, device);
-        ASSERT(!clear_exceptions(env));
+        const uint32_t flags = lookup_device_flags(device);
+        const int is_dpad = ((flags & INPUT_DEVICE_DPAD) != 0);
+        const int is_joystick = ((flags & INPUT_DEVICE_JOYSTICK) != 0);
+        const int is_keyboard = ((flags & INPUT_DEVICE_KEYBOARD) != 0);
+        const int is_mouse = ((flags & INPUT_DEVICE_MOUSE) != 0);
         /* A single device might be (for example) both a keyboard and a
          * mouse at the same time, so we need to check all applicable
          * key sets.  For a keyboard/mouse combo, we treat BACK/MENU
@@ -791,6 +1057,11 @@ int32_t android_handle_input_event(AInputEvent *event)
         }
         if (is_keyboard || !(is_dpad || is_joystick || is_mouse)) {
             handle_generic_key(event);
+            *source_ret = ANDROID_INPUT_LATENCY_KEY;
+        } else if (is_dpad || is_joystick) {
+            *source_ret = ANDROID_INPUT_LATENCY_JOYSTICK;
+        } else {
+            *source_ret = ANDROID_INPUT_LATENCY_MOUSE;
         }
         return 1;
     }
@@ -800,24 +1071,90 @@ int32_t android_handle_input_event(AInputEvent *event)
 
 /*-----------------------------------------------------------------------*/
 
-void android_forward_input_event(const InputEvent *event)
+static int latency_source_for_event(const InputEvent *event)
 {
-    (*event_callback)(event);
+    switch (event->type) {
+      case INPUT_EVENT_JOYSTICK: return ANDROID_INPUT_LATENCY_JOYSTICK;
+      case INPUT_EVENT_KEYBOARD: return ANDROID_INPUT_LATENCY_KEY;
+      case INPUT_EVENT_MOUSE:    return ANDROID_INPUT_LATENCY_MOUSE;
+      case INPUT_EVENT_TOUCH:    return ANDROID_INPUT_LATENCY_TOUCH;
+      default:                   return -1;
+    }
 }
 
-/*************************************************************************/
-/**************************** Local routines *****************************/
-/*************************************************************************/
+/*-----------------------------------------------------------------------*/
+
+#if SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE > 0
+
+static void queue_event(const InputEvent *event)
+{
+    if (pthread_equal(pthread_self(), game_thread)) {
+        drain_event_ring();
+        (*ring_event_callback)(event);
+    } else {
+        input_ring_push(&event_ring, event);
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+static void drain_event_ring(void)
+{
+    InputEvent event;
+    while (input_ring_pop(&event_ring, &event)) {
+        (*ring_event_callback)(&event);
+        const int source = latency_source_for_event(&event);
+        if (source >= 0) {
+            input_latency_record(
+                &input_latency[source][ANDROID_INPUT_LATENCY_DELIVER],
+                time_now() - event.timestamp);
+        }
+    }
+
+    const int dropped = input_ring_dropped(&event_ring);
+    if (UNLIKELY(dropped != event_ring_last_dropped)) {
+        DLOG("Input event ring overflowed: %d events dropped (%d total),"
+             " high-water mark %d/%d", dropped - event_ring_last_dropped,
+             dropped, input_ring_high_water(&event_ring),
+             lenof(event_ring_buffer));
+        event_ring_last_dropped = dropped;
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+#endif  // SIL_PLATFORM_ANDROID_INPUT_EVENT_RING_SIZE > 0
 
 static void update_input_devices(void)
 {
     JNIEnv *env = get_jni_env();
     jobject activity_obj = android_activity->clazz;
 
+    update_device_table();
+    uint32_t all_flags = 0;
+    for (int i = 0; i < device_table_size; i++) {
+        all_flags |= device_table[i].flags;
+    }
+
+    /* Fetch the (ordered) list of joystick devices in a single call. */
+    int joystick_ids[lenof(joystick_device)];
+    int num_joystick_ids = 0;
+    jintArray j_joystick_ids = (*env)->CallObjectMethod(
+        env, activity_obj, jni_method(JNI_getJoystickIds));
+    ASSERT(!clear_exceptions(env), j_joystick_ids = 0);
+    if (j_joystick_ids) {
+        num_joystick_ids = ubound((*env)->GetArrayLength(env, j_joystick_ids),
+                                  lenof(joystick_ids));
+        (*env)->GetIntArrayRegion(env, j_joystick_ids, 0, num_joystick_ids,
+                                  joystick_ids);
+        (*env)->DeleteLocalRef(env, j_joystick_ids);
+        ASSERT(!clear_exceptions(env), num_joystick_ids = 0);
+    }
+
     /* Special case for the Xperia Play: the gamepad is reported as a
      * keyboard + D-pad, but treat it as a "joystick" anyway. */
-    int has_joystick = is_xperia_play
-        || (*env)->CallBooleanMethod(env, activity_obj, hasJoystick);
+    int has_joystick =
+        is_xperia_play || (all_flags & INPUT_DEVICE_JOYSTICK) != 0;
     int num_joysticks;
     if (has_joystick) {
         for (int i = 0; i < lenof(joystick_device); i++) {
@@ -826,12 +1163,8 @@ static void update_input_devices(void)
         }
         /* First pass: re-register joysticks that were already known,
          * keeping the same joystick index. */
-        for (int i = 0; i < lenof(joystick_device); i++) {
-            const int device_id = (*env)->CallIntMethod(
-                env, activity_obj, getJoystickId, i);
-            if (!device_id) {
-                break;
-            }
+        for (int i = 0; i < num_joystick_ids; i++) {
+            const int device_id = joystick_ids[i];
             for (int j = 0; j < lenof(joystick_device); j++) {
                 if (device_id == joystick_device[j]) {
                     joystick_info[j].connected = 1;
@@ -855,12 +1188,8 @@ static void update_input_devices(void)
         }
         /* Second pass: assign new joysticks, starting from the lowest
          * currently-unused index. */
-        for (int i = 0; i < lenof(joystick_device); i++) {
-            const int device_id = (*env)->CallIntMethod(
-                env, activity_obj, getJoystickId, i);
-            if (!device_id) {
-                break;
-            }
+        for (int i = 0; i < num_joystick_ids; i++) {
+            const int device_id = joystick_ids[i];
             int found = 0;
             for (int j = 0; j < lenof(joystick_device); j++) {
                 if (device_id == joystick_device[j]) {
@@ -911,10 +1240,8 @@ static void update_input_devices(void)
     input_info.num_joysticks    = num_joysticks;
     input_info.joysticks        = joystick_info;
     input_info.has_keyboard     = 1;  // We always have at least BACK/MENU.
-    input_info.keyboard_is_full =
-        (*env)->CallBooleanMethod(env, activity_obj, hasKeyboard);
-    input_info.has_mouse        =
-        (*env)->CallBooleanMethod(env, activity_obj, hasMouse);
+    input_info.keyboard_is_full = (all_flags & INPUT_DEVICE_KEYBOARD) != 0;
+    input_info.has_mouse        = (all_flags & INPUT_DEVICE_MOUSE) != 0;
     input_info.has_text         = 1;
     input_info.text_uses_custom_interface = 1;
     input_info.text_has_prompt  = 1;
@@ -925,6 +1252,66 @@ static void update_input_devices(void)
 
 /*-----------------------------------------------------------------------*/
 
+static void update_device_table(void)
+{
+    JNIEnv *env = get_jni_env();
+    jobject activity_obj = android_activity->clazz;
+
+    jintArray j_table = (*env)->CallObjectMethod(
+        env, activity_obj, jni_method(JNI_getInputDeviceTable));
+    ASSERT(!clear_exceptions(env), return);
+    ASSERT(j_table != 0, return);
+    const int num_entries = (*env)->GetArrayLength(env, j_table) / 2;
+    jint *table = (*env)->GetIntArrayElements(env, j_table, NULL);
+    ASSERT(table != NULL, (*env)->DeleteLocalRef(env, j_table); return);
+
+    if (num_entries > lenof(device_table)) {
+        DLOG("WARNING: %d input devices found, only recording the first %d",
+             num_entries, lenof(device_table));
+    }
+    const int size = ubound(num_entries, lenof(device_table));
+
+    device_table_seq++;
+    BARRIER();
+    for (int i = 0; i < size; i++) {
+        device_table[i].id = table[i*2+0];
+        device_table[i].flags = table[i*2+1];
+    }
+    device_table_size = size;
+    BARRIER();
+    device_table_seq++;
+
+    (*env)->ReleaseIntArrayElements(env, j_table, table, JNI_ABORT);
+    (*env)->DeleteLocalRef(env, j_table);
+}
+
+/*-----------------------------------------------------------------------*/
+
+static uint32_t lookup_device_flags(int device)
+{
+    unsigned int seq;
+    uint32_t flags;
+    do {
+        while ((seq = device_table_seq) & 1) {
+            /* Spin until the update completes (this should be rare and
+             * very brief). */
+        }
+        BARRIER();
+        flags = 0;
+        const int size = device_table_size;
+        for (int i = 0; i < size; i++) {
+            if (device_table[i].id == device) {
+                flags = device_table[i].flags;
+                break;
+            }
+        }
+        BARRIER();
+    } while (device_table_seq != seq);
+    return flags;
+}
+
+/*-----------------------------------------------------------------------*/
+
 static void init_joystick(int index, int device)
 {
     PRECOND(index >= 0 && index < lenof(joystick_info), return);
@@ -952,9 +1339,18 @@ static void init_joystick(int index, int device)
     ASSERT(lenof(default_button_key)
            == lenof(joystick_state[index].button_key));
 
+    /* Retrieve everything we need to know about the device in a single
+     * call. */
+    jobject j_desc = (*env)->CallObjectMethod(
+        env, activity_obj, jni_method(JNI_getJoystickDescriptor), device);
+    ASSERT(!clear_exceptions(env), j_desc = 0);
+    if (!j_desc) {
+        DLOG("Failed to get descriptor for device %d", device);
+    }
+
     joystick_info[index].connected   = 1;
-    joystick_info[index].can_rumble  = (*env)->CallBooleanMethod(
-        env, activity_obj, doesJoystickRumble, device);
+    joystick_info[index].can_rumble  = j_desc && (*env)->GetBooleanField(
+        env, j_desc, JoystickDescriptor_can_rumble);
     joystick_info[index].num_buttons = lenof(joystick_state[index].button);
     joystick_info[index].num_sticks  = lenof(joystick_state[index].stick);
 
@@ -967,13 +1363,40 @@ static void init_joystick(int index, int device)
         joystick_state[index].button_key[i] = default_button_key[i];
     }
 
-    ASSERT(!clear_exceptions(env), return);
+    /* For each axis, use the first motion range reported for that axis
+     * (this matches the behavior of InputDevice.getMotionRange()). */
+    for (int i = 0; i < lenof(joystick_state[index].axis_threshold); i++) {
+        joystick_state[index].axis_threshold[i] = -1;
+    }
+    jfloatArray j_ranges = j_desc ? (*env)->GetObjectField(
+        env, j_desc, JoystickDescriptor_ranges) : 0;
+    if (j_ranges) {
+        const int num_ranges = (*env)->GetArrayLength(env, j_ranges) / 4;
+        jfloat *ranges = (*env)->GetFloatArrayElements(env, j_ranges, NULL);
+        if (ranges) {
+            for (int i = 0; i < num_ranges; i++) {
+                const int axis = (int)ranges[i*4+0];
+                if (axis >= 0
+                 && axis < lenof(joystick_state[index].axis_threshold)
+                 && joystick_state[index].axis_threshold[axis] < 0) {
+                    joystick_state[index].axis_threshold[axis] =
+                        ranges[i*4+1];
+                }
+            }
+            (*env)->ReleaseFloatArrayElements(env, j_ranges, ranges,
+                                              JNI_ABORT);
+        }
+        (*env)->DeleteLocalRef(env, j_ranges);
+    }
+    for (int i = 0; i < lenof(joystick_state[index].axis_threshold); i++) {
+        joystick_state[index].axis_threshold[i] =
+            lbound(joystick_state[index].axis_threshold[i], 0.0f);
+    }
 
-    jstring j_name = (*env)->CallObjectMethod(
-        env, activity_obj, getDeviceName, device);
-    ASSERT(!clear_exceptions(env), return);
-    ASSERT(j_name != 0, return);
-    const char *name = (*env)->GetStringUTFChars(env, j_name, NULL);
+    jstring j_name = j_desc ? (*env)->GetObjectField(
+        env, j_desc, JoystickDescriptor_name) : 0;
+    const char *name = j_name ? (*env)->GetStringUTFChars(env, j_name, NULL)
+                              : NULL;
     if (name) {
         joystick_state[index].name = mem_strdup(name, 0);
         if (UNLIKELY(!joystick_state[index].name)) {
@@ -983,7 +1406,13 @@ static void init_joystick(int index, int device)
     } else {
         joystick_state[index].name = NULL;
     }
-    (*env)->DeleteLocalRef(env, j_name);
+    if (j_name) {
+        (*env)->DeleteLocalRef(env, j_name);
+    }
+    if (j_desc) {
+        (*env)->DeleteLocalRef(env, j_desc);
+    }
+    ASSERT(!clear_exceptions(env));
 
     name = joystick_state[index].name ? joystick_state[index].name : "";
     if (is_xperia_play && strcmp(name, "keypad-zeus") == 0) {
@@ -1016,14 +1445,11 @@ static void init_joystick(int index, int device)
             AKEYCODE_BUTTON_Y;
 
     } else {
-        const float z_threshold = (*env)->CallFloatMethod(
-            env, activity_obj, getAxisThreshold, device, AMOTION_EVENT_AXIS_Z);
-        const float rx_threshold = (*env)->CallFloatMethod(
-            env, activity_obj, getAxisThreshold, device, AMOTION_EVENT_AXIS_RX);
-        const float ry_threshold = (*env)->CallFloatMethod(
-            env, activity_obj, getAxisThreshold, device, AMOTION_EVENT_AXIS_RY);
-        const float rz_threshold = (*env)->CallFloatMethod(
-            env, activity_obj, getAxisThreshold, device, AMOTION_EVENT_AXIS_RZ);
+        const float *axis_threshold = joystick_state[index].axis_threshold;
+        const float z_threshold = axis_threshold[AMOTION_EVENT_AXIS_Z];
+        const float rx_threshold = axis_threshold[AMOTION_EVENT_AXIS_RX];
+        const float ry_threshold = axis_threshold[AMOTION_EVENT_AXIS_RY];
+        const float rz_threshold = axis_threshold[AMOTION_EVENT_AXIS_RZ];
         DLOG("Guess right stick axes: thresholds Z=%g RX=%g RY=%g RZ=%g",
              z_threshold, rx_threshold, ry_threshold, rz_threshold);
         if (z_threshold != 0) {
@@ -1048,12 +1474,11 @@ static void init_joystick(int index, int device)
         }
     }
 
-    joystick_state[index].stick_threshold[0] = (*env)->CallFloatMethod(
-        env, activity_obj, getAxisThreshold, device, AMOTION_EVENT_AXIS_X);
+    joystick_state[index].stick_threshold[0] =
+        joystick_state[index].axis_threshold[AMOTION_EVENT_AXIS_X];
     if (joystick_state[index].rx_axis >= 0) {
-        joystick_state[index].stick_threshold[1] = (*env)->CallFloatMethod(
-            env, activity_obj, getAxisThreshold, device,
-            joystick_state[index].rx_axis);
+        joystick_state[index].stick_threshold[1] =
+            joystick_state[index].axis_threshold[joystick_state[index].rx_axis];
     }
 
     DLOG("Joystick %d (%s) connected", index, name);
@@ -1131,7 +1556,7 @@ static void handle_touch(AInputEvent *event)
                     .type = INPUT_EVENT_TOUCH, .detail = INPUT_TOUCH_MOVE,
                     .timestamp = 0,  // Placeholder so union initializer works.
                     {.touch = {.id = touch_map[index].id}}};
-                send_motion_events(event, index, &template, &template.touch.x,
+                send_motion_events(event, i, &template, &template.touch.x,
                                    &template.touch.y);
             }
         }
@@ -1209,11 +1634,6 @@ static void handle_joystick_stick(AInputEvent *event, int index)
     }
 #endif
 
-    const float lx_raw =
-        AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_X, 0);
-    const float ly_raw =
-        AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_Y, 0);
-    float rx_raw = 0, ry_raw = 0;
     if (joystick_state[index].rx_axis < 0) {
         const float axis_rx =
             AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_RX, 0);
@@ -1244,16 +1664,34 @@ static void handle_joystick_stick(AInputEvent *event, int index)
             joystick_state[index].ry_axis = AMOTION_EVENT_AXIS_RZ;
         }
         if (joystick_state[index].rx_axis >= 0) {
-            JNIEnv *env = get_jni_env();
-            jobject activity_obj = android_activity->clazz;
-            joystick_state[index].stick_threshold[1] = (*env)->CallFloatMethod(
-                env, activity_obj, getAxisThreshold,
-                AInputEvent_getDeviceId(event), joystick_state[index].rx_axis);
+            joystick_state[index].stick_threshold[1] =
+                joystick_state[index].axis_threshold[
+                    joystick_state[index].rx_axis];
         }
     }
+    /* Android may batch several samples into a single event, so process
+     * each historical sample (oldest first) with its own timestamp before
+     * processing the current sample. */
+    const int history_size = AMotionEvent_getHistorySize(event);
+    for (int i = 0; i < history_size; i++) {
+        const double sample_time = convert_java_timestamp(
+            AMotionEvent_getHistoricalEventTime(event, i));
+        update_joystick_axes(event, index, i, sample_time);
+    }
+    update_joystick_axes(event, index, -1, timestamp);
+}
+
+/*-----------------------------------------------------------------------*/
+
+static void update_joystick_axes(AInputEvent *event, int index, int sample,
+                                 double timestamp)
+{
+    const float lx_raw = get_axis_value(event, AMOTION_EVENT_AXIS_X, sample);
+    const float ly_raw = get_axis_value(event, AMOTION_EVENT_AXIS_Y, sample);
+    float rx_raw = 0, ry_raw = 0;
     if (joystick_state[index].rx_axis >= 0) {
-        rx_raw = AMotionEvent_getAxisValue(event, joystick_state[index].rx_axis, 0);
-        ry_raw = AMotionEvent_getAxisValue(event, joystick_state[index].ry_axis, 0);
+        rx_raw = get_axis_value(event, joystick_state[index].rx_axis, sample);
+        ry_raw = get_axis_value(event, joystick_state[index].ry_axis, sample);
     }
     const float lx =
         filter_axis_input(lx_raw, joystick_state[index].stick_threshold[0]);
@@ -1286,21 +1724,21 @@ static void handle_joystick_stick(AInputEvent *event, int index)
 
     if (joystick_state[index].dpad_is_hat < 0) {
         const float x =
-            AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_HAT_X, 0);
+            get_axis_value(event, AMOTION_EVENT_AXIS_HAT_X, sample);
         const float y =
-            AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_HAT_Y, 0);
+            get_axis_value(event, AMOTION_EVENT_AXIS_HAT_Y, sample);
         if (fabsf(x) >= 0.5f || fabsf(y) >= 0.5f) {
             DLOG("Using hats as D-pad (X=%g, Y=%g)",
-                 AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_HAT_X, 0),
-                 AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_HAT_Y, 0));
+                 get_axis_value(event, AMOTION_EVENT_AXIS_HAT_X, sample),
+                 get_axis_value(event, AMOTION_EVENT_AXIS_HAT_Y, sample));
             joystick_state[index].dpad_is_hat = 1;
         }
     }
     if (joystick_state[index].dpad_is_hat > 0) {
         const float x =
-            AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_HAT_X, 0);
+            get_axis_value(event, AMOTION_EVENT_AXIS_HAT_X, sample);
         const float y =
-            AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_HAT_Y, 0);
+            get_axis_value(event, AMOTION_EVENT_AXIS_HAT_Y, sample);
         const int dpad_up = (y < -0.5f);
         const int dpad_down = (y > 0.5f);
         const int dpad_left = (x < -0.5f);
@@ -1325,9 +1763,9 @@ static void handle_joystick_stick(AInputEvent *event, int index)
 
     if (joystick_state[index].l2r2_axes_only < 0) {
         const float l =
-            AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_LTRIGGER, 0);
+            get_axis_value(event, AMOTION_EVENT_AXIS_LTRIGGER, sample);
         const float r =
-            AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_RTRIGGER, 0);
+            get_axis_value(event, AMOTION_EVENT_AXIS_RTRIGGER, sample);
         if (l >= 0.5f || r >= 0.5f) {
             DLOG("Assuming no L2/R2 buttons (AXIS_LTRIGGER=%.3f,"
                  " AXIS_RTRIGGER=%.3f)", l, r);
@@ -1336,9 +1774,9 @@ static void handle_joystick_stick(AInputEvent *event, int index)
     }
     if (joystick_state[index].l2r2_axes_only > 0) {
         const float l =
-            AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_LTRIGGER, 0);
+            get_axis_value(event, AMOTION_EVENT_AXIS_LTRIGGER, sample);
         const float r =
-            AMotionEvent_getAxisValue(event, AMOTION_EVENT_AXIS_RTRIGGER, 0);
+            get_axis_value(event, AMOTION_EVENT_AXIS_RTRIGGER, sample);
         const int l2 = (l >= 0.5f);
         const int r2 = (r >= 0.5f);
         if (l2 != joystick_state[index].button[ANDROID_JOY_BUTTON_L2]) {
@@ -1366,6 +1804,17 @@ static void handle_joystick_stick(AInputEvent *event, int index)
 
 /*-----------------------------------------------------------------------*/
 
+static inline float get_axis_value(AInputEvent *event, int axis, int sample)
+{
+    if (sample < 0) {
+        return AMotionEvent_getAxisValue(event, axis, 0);
+    } else {
+        return AMotionEvent_getHistoricalAxisValue(event, axis, 0, sample);
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
 static void handle_xperia_touchpad(AInputEvent *event)
 {
     const double timestamp =
@@ -1777,7 +2226,7 @@ static void update_text_dialog(void)
 
     /* If the dialog is still running, there's nothing to do. */
     const int finished = (*env)->CallBooleanMethod(
-        env, activity_obj, isInputDialogFinished, text_dialog);
+        env, activity_obj, jni_method(JNI_isInputDialogFinished), text_dialog);
     ASSERT(!clear_exceptions(env), text_dialog = 0; goto cancel);
     if (!finished) {
         return;
@@ -1786,8 +2235,9 @@ static void update_text_dialog(void)
     /* Grab the text string and close the dialog immediately, so we
      * can get the calls to activity_obj out of the way. */
     jstring j_text = (*env)->CallObjectMethod(
-        env, activity_obj, getInputDialogText, text_dialog);
-    (*env)->CallVoidMethod(env, activity_obj, dismissInputDialog, text_dialog);
+        env, activity_obj, jni_method(JNI_getInputDialogText), text_dialog);
+    (*env)->CallVoidMethod(env, activity_obj,
+                           jni_method(JNI_dismissInputDialog), text_dialog);
     (*env)->DeleteGlobalRef(env, text_dialog);
     text_dialog = 0;
     ASSERT(!clear_exceptions(env), j_text = 0);
@@ -1861,12 +2311,8 @@ static void set_java_time_offset(void)
     }
 
     JNIEnv *env = get_jni_env();
-    jclass System_class = get_class("java.lang.System");
-    ASSERT(System_class != 0, return);
-    jmethodID nanoTime = get_static_method(System_class, "nanoTime", "()J");
-    ASSERT(nanoTime != 0, return);
     const uint64_t java_time = (*env)->CallStaticLongMethod(
-        env, System_class, nanoTime);
+        env, jni_class(JNI_CLASS_System), jni_method(JNI_System_nanoTime));
     uint64_t sys_time = sys_time_now();
     if (sys_time_unit() != 1000000000) {
         ASSERT(sys_time_unit() == 1000000, return);
@@ -1880,14 +2326,16 @@ static void set_java_time_offset(void)
 
 static double convert_java_timestamp(uint64_t time)
 {
-    if (LIKELY(nanotime_uses_clock_monotonic)) {
-        return (time - sys_posix_time_epoch()) * 1.0e-9;
-    }
-
-    if (UNLIKELY(!java_time_offset_known)) {
-        set_java_time_offset();
+    int64_t offset = 0;
+    if (UNLIKELY(!nanotime_uses_clock_monotonic)) {
+        if (UNLIKELY(!java_time_offset_known)) {
+            set_java_time_offset();
+        }
+        offset = java_time_offset;
     }
-    return (time + java_time_offset) * 1.0e-9;
+    return input_latency_convert_timestamp(time, offset,
+                                           sys_posix_time_epoch(),
+                                           sys_time_unit());
 }
 
 /*************************************************************************/
@@ -119,6 +119,38 @@ extern const char *android_external_data_path;
  */
 extern const char *android_external_root_path;
 
+/**
+ * android_user_locale:  The user's preferred locale at startup, in the
+ * format returned by SILActivity.getUserLocale(), or NULL if unknown.
+ */
+extern const char *android_user_locale;
+
+/**
+ * android_locale_changed:  Flag set on every configuration change, since
+ * the user's locale may have changed (if the manifest allows the activity
+ * to handle locale changes itself).  Cleared by sys_get_language().
+ */
+extern uint8_t android_locale_changed;
+
+/**
+ * android_audio_output_rate:  The audio hardware's native output sampling
+ * rate, or zero if unknown.
+ */
+extern int android_audio_output_rate;
+
+/**
+ * android_audio_frames_per_buffer:  The audio hardware's native output
+ * buffer size (burst size) in sample frames, or zero if unknown.
+ */
+extern int android_audio_frames_per_buffer;
+
+/**
+ * android_audio_features:  Bitmask of ANDROID_AUDIO_FEATURE_* flags
+ * indicating which low-latency audio features the device declares.
+ */
+extern int android_audio_features;
+#define ANDROID_AUDIO_FEATURE_LOW_LATENCY  (1<<0)  // FEATURE_AUDIO_LOW_LATENCY
+
 /**
  * android_suspend_semaphore:  Semaphore used to signal that the main thread
  * has acknowledged a suspend request and is ready for the process to be
@@ -212,14 +244,90 @@ extern jmethodID get_static_method(jclass class, const char *method,
 extern int clear_exceptions(JNIEnv *env);
 
 /**
- * check_for_expansion_files:  Check whether any APK expansion files are
- * present, and record their pathnames if so.
+ * check_for_expansion_files:  Check that any APK expansion files found
+ * at startup are accessible, and alert the user if not.
  *
  * [Return value]
  *     False if a fatal error occurred, true otherwise.
  */
 extern int check_for_expansion_files(void);
 
+/**
+ * AndroidStartupPhase:  Milestones in program startup, for measuring
+ * startup time.  Listed in the order in which they are normally reached.
+ */
+typedef enum AndroidStartupPhase {
+    ANDROID_STARTUP_JAVA_CREATE = 0,  // SILActivity.onCreate() called.
+    ANDROID_STARTUP_NATIVE_CREATE,    // ANativeActivity_onCreate() called.
+    ANDROID_STARTUP_SNAPSHOT,         // Startup snapshot retrieved.
+    ANDROID_STARTUP_CREATE_DONE,      // ANativeActivity_onCreate() done.
+    ANDROID_STARTUP_WINDOW_CREATED,   // First native window created.
+    ANDROID_STARTUP_MAIN_THREAD,      // android_main() called.
+    ANDROID_STARTUP_SIL_MAIN,         // sil__main() about to be called.
+    ANDROID_STARTUP__NUM_PHASES
+} AndroidStartupPhase;
+
+/**
+ * android_mark_startup_phase:  Record that the given startup phase has
+ * been reached, as a mark in the startup trace (see
+ * src/sysdep/misc/startup-trace.h).  ANDROID_STARTUP_JAVA_CREATE is
+ * recorded automatically from the startup snapshot and may not be passed
+ * to this function.
+ *
+ * [Parameters]
+ *     phase: Startup phase (ANDROID_STARTUP_*).
+ */
+extern void android_mark_startup_phase(AndroidStartupPhase phase);
+
+/**
+ * android_startup_phase_time:  Return the time at which the given startup
+ * phase was reached, relative to the start of SILActivity.onCreate().
+ *
+ * [Parameters]
+ *     phase: Startup phase (ANDROID_STARTUP_*).
+ * [Return value]
+ *     Time since SILActivity.onCreate() was called, in seconds, or a
+ *     negative value if the phase has not been reached (or was not
+ *     recorded because the startup trace buffer was full).
+ */
+extern double android_startup_phase_time(AndroidStartupPhase phase);
+
+/**
+ * android_finish_startup_trace:  Stop recording the startup trace (see
+ * src/sysdep/misc/startup-trace.h), merge in the events recorded by
+ * SILActivity, and write the result to "startup-trace.txt" in the
+ * external data directory (or the internal data directory if external
+ * storage is not available).  The file is only written if the system
+ * property "debug.sil.startup_trace" is set to a value other than "0".
+ * Called after the first frame has been presented; does nothing if the
+ * trace has already been finished.
+ */
+extern void android_finish_startup_trace(void);
+
+/**
+ * android_log_startup_phases:  Log the time at which each startup phase
+ * was reached.  Does nothing in non-debug builds.
+ */
+extern void android_log_startup_phases(void);
+
+#ifdef SIL_INCLUDE_TESTS
+/**
+ * TEST_android_set_permission_status:  Set the status of the given
+ * permission as if it had been requested (or the request had completed),
+ * without calling into Java.  The caller should restore the previous
+ * status when done.
+ *
+ * [Parameters]
+ *     permission: Permission to modify (ANDROID_PERMISSION_*).
+ *     status: New status: 1 (granted), 0 (denied), -1 (request pending),
+ *         or -2 (not yet requested).
+ * [Return value]
+ *     Previous status, in the same format as the status parameter.
+ */
+extern int TEST_android_set_permission_status(AndroidPermission permission,
+                                              int status);
+#endif
+
 
 /******** files.c ********/
 
@@ -241,16 +349,17 @@ extern int64_t android_file_base_offset(const struct SysFile *fh);
 
 /**
  * android_display_width, android_display_height:  Return the width or
- * height of the display device.  These values will never change while the
- * program is running.
+ * height of the display device.  The values are cached, and Java is only
+ * queried again when SILActivity reports that the display configuration
+ * has changed.  May be called from any thread.
  *
  * These functions assume that the program is running in landscape mode.
  *
  * [Return value]
  *     Width or height of display device, in pixels.
  */
-extern CONST_FUNCTION int android_display_width(void);
-extern CONST_FUNCTION int android_display_height(void);
+extern int android_display_width(void);
+extern int android_display_height(void);
 
 /**
  * android_suspend_graphics:  Suspend the graphics subsystem, terminating
@@ -297,6 +406,148 @@ extern int32_t android_handle_input_event(AInputEvent *event);
  */
 extern void android_forward_input_event(const struct InputEvent *event);
 
+/**
+ * AndroidInputLatencySource:  Input sources for which event latency is
+ * recorded.  The order of these values must match the names used in
+ * SILActivity.dumpInputLatency().
+ */
+typedef enum AndroidInputLatencySource {
+    ANDROID_INPUT_LATENCY_TOUCH = 0,
+    ANDROID_INPUT_LATENCY_MOUSE,
+    ANDROID_INPUT_LATENCY_JOYSTICK,
+    ANDROID_INPUT_LATENCY_KEY,
+    ANDROID_INPUT_LATENCY__NUM_SOURCES
+} AndroidInputLatencySource;
+
+/**
+ * AndroidInputLatencyStage:  Processing stages at which event latency is
+ * recorded.  Each stage measures the time from when the system
+ * timestamped the event to when the event reached that stage.
+ */
+typedef enum AndroidInputLatencyStage {
+    /* The event was received from the input queue by the input thread. */
+    ANDROID_INPUT_LATENCY_DEQUEUE = 0,
+    /* The event was passed to the callback registered with
+     * sys_input_init() (after passing through the event ring, if
+     * enabled). */
+    ANDROID_INPUT_LATENCY_DELIVER,
+    ANDROID_INPUT_LATENCY__NUM_STAGES
+} AndroidInputLatencyStage;
+
+/**
+ * android_input_latency:  Return the given percentile of recorded event
+ * latencies for the given input source and processing stage.  May be
+ * called from any thread.
+ *
+ * [Parameters]
+ *     source: Input source (ANDROID_INPUT_LATENCY_*).
+ *     stage: Processing stage (ANDROID_INPUT_LATENCY_*).
+ *     percentile: Percentile to return (0 < percentile <= 100).
+ *     count_ret: Pointer to variable to receive the number of samples
+ *         recorded (may be NULL).
+ * [Return value]
+ *     Latency at the given percentile, in seconds, or zero if no samples
+ *     have been recorded.
+ */
+extern double android_input_latency(AndroidInputLatencySource source,
+                                    AndroidInputLatencyStage stage,
+                                    double percentile, int *count_ret);
+
+/**
+ * android_reset_input_latency:  Discard all recorded event latencies.
+ * May be called from any thread; the histograms are cleared as new
+ * events arrive.
+ */
+extern void android_reset_input_latency(void);
+
+
+/******** jni.c ********/
+
+/**
+ * AndroidJNIClass, AndroidJNIMethod:  IDs for the Java classes and
+ * methods listed in jni-table.h.
+ */
+typedef enum AndroidJNIClass {
+    #define JNI_CLASS(id, name)  JNI_CLASS_##id,
+    #define JNI_ACTIVITY_METHOD(name, signature)  /*nothing*/
+    #define JNI_METHOD(class, id, name, signature)  /*nothing*/
+    #define JNI_STATIC_METHOD(class, id, name, signature)  /*nothing*/
+    #include "src/sysdep/android/jni-table.h"
+    #undef JNI_CLASS
+    #undef JNI_ACTIVITY_METHOD
+    #undef JNI_METHOD
+    #undef JNI_STATIC_METHOD
+    JNI_NUM_CLASSES
+} AndroidJNIClass;
+
+typedef enum AndroidJNIMethod {
+    #define JNI_CLASS(id, name)  /*nothing*/
+    #define JNI_ACTIVITY_METHOD(name, signature)  JNI_##name,
+    #define JNI_METHOD(class, id, name, signature)  JNI_##class##_##id,
+    #define JNI_STATIC_METHOD(class, id, name, signature) JNI_##class##_##id,
+    #include "src/sysdep/android/jni-table.h"
+    #undef JNI_CLASS
+    #undef JNI_ACTIVITY_METHOD
+    #undef JNI_METHOD
+    #undef JNI_STATIC_METHOD
+    JNI_NUM_METHODS
+} AndroidJNIMethod;
+
+/**
+ * jni_init_bindings:  Look up all classes and methods listed in
+ * jni-table.h.  Must be called from ANativeActivity_onCreate() after the
+ * activity class has been recorded.  Entries which cannot be found are
+ * logged, and their IDs are left at zero.
+ *
+ * [Return value]
+ *     True if all entries were found, false if not.
+ */
+extern int jni_init_bindings(void);
+
+/**
+ * jni_class:  Return a global reference to the given Java class.  The
+ * reference remains valid for the life of the process and should not be
+ * deleted by the caller.
+ *
+ * [Parameters]
+ *     id: Class ID (JNI_CLASS_*).
+ * [Return value]
+ *     Global reference to the class, or zero if the class was not found.
+ */
+extern jclass jni_class(AndroidJNIClass id);
+
+/**
+ * jni_method:  Return the method ID for the given Java method.  In debug
+ * builds, this also increments the call count for the method, so callers
+ * should call this function once for each call to the method rather than
+ * storing the returned ID.
+ *
+ * [Parameters]
+ *     id: Method ID (JNI_*).
+ * [Return value]
+ *     JNI method ID, or zero if the method was not found.
+ */
+extern jmethodID jni_method(AndroidJNIMethod id);
+
+/**
+ * jni_call_count:  Return the number of times jni_method() has been
+ * called for the given method.  Always returns zero if not built in
+ * debug mode.
+ *
+ * [Parameters]
+ *     id: Method ID (JNI_*).
+ * [Return value]
+ *     Number of calls recorded for the method.
+ */
+extern unsigned int jni_call_count(AndroidJNIMethod id);
+
+/**
+ * jni_log_call_counts:  Log the call count of each method which has been
+ * called at least once, and reset all counts to zero.  Does nothing if
+ * not built in debug mode.
+ */
+extern void jni_log_call_counts(void);
+
 
 /******** main.c ********/
 
@@ -325,13 +576,77 @@ extern int android_main(void *param);
  */
 extern char *android_get_resource_string(const char *name);
 
+/**
+ * android_get_resource_strings:  Return the Android string resources with
+ * the given names, using a single call to Java code.  This is more
+ * efficient than calling android_get_resource_string() for each string
+ * when many strings are needed at once.
+ *
+ * [Parameters]
+ *     names: Array of string resource names.
+ *     count: Number of names in the array.
+ *     texts_ret: Array into which the corresponding strings are stored
+ *         (each allocated with mem_alloc(), or NULL if the resource is
+ *         not found).
+ * [Return value]
+ *     Number of strings found.
+ */
+extern int android_get_resource_strings(const char * const *names,
+                                        int count, char **texts_ret);
+
 /**
  * android_lock_ui_thread, android_unlock_ui_thread:  Lock or unlock the
- * UI thread.  Required when modifying UI state.
+ * UI thread.  Required when modifying UI state.  Calls may be nested.
+ *
+ * android_lock_ui_thread() waits until the UI thread is parked.  If a
+ * suspend request arrives in the meantime, the UI thread may be blocked
+ * in onPause() waiting for this thread, so the function acknowledges the
+ * request, waits for the activity to resume, and then tries again; the
+ * caller must therefore not hold an EGL surface it intends to keep using
+ * across the call.  If a quit request arrives, the function gives up and
+ * returns false, in which case the caller must not call
+ * android_unlock_ui_thread().
+ *
+ * [Return value]
+ *     True if the UI thread was locked, false if not.
  */
-extern void android_lock_ui_thread(void);
+extern int android_lock_ui_thread(void);
 extern void android_unlock_ui_thread(void);
 
+/**
+ * android_try_lock_ui_thread:  Lock the UI thread, waiting no longer than
+ * the given time for it to park.  On success, the caller must unlock the
+ * UI thread with android_unlock_ui_thread().
+ *
+ * [Parameters]
+ *     timeout: Maximum time to wait, in seconds.  Negative values are
+ *         treated as zero.
+ * [Return value]
+ *     Time taken to lock the UI thread, in seconds, or a negative value
+ *     if the timeout expired.
+ */
+extern double android_try_lock_ui_thread(double timeout);
+
+/**
+ * android_queue_keep_screen_on, android_queue_system_ui_visible:  Queue a
+ * change to whether the screen is kept on or whether the system UI is
+ * visible.  Queued changes take effect on the next call to
+ * android_flush_ui_commands(), which applies them all with a single post
+ * to the UI thread.  Changes which would not alter the current state are
+ * dropped without involving the UI thread.
+ *
+ * [Parameters]
+ *     enable, visible: New state.
+ */
+extern void android_queue_keep_screen_on(int enable);
+extern void android_queue_system_ui_visible(int visible);
+
+/**
+ * android_flush_ui_commands:  Apply all UI state changes queued with
+ * android_queue_*() functions.
+ */
+extern void android_flush_ui_commands(void);
+
 /**
  * android_get_navigation_bar_state:  Return whether the system navigation
  * bar (with the Back/Home/Recent softkeys) is displayed on Android 3.0+
@@ -357,6 +672,78 @@ extern int android_get_navigation_bar_state(void);
 extern void android_show_alert(int title_is_resource, const char *title,
                                int text_is_resource, const char *text);
 
+/**
+ * AndroidAlertCallback:  Type of a function called when the user dismisses
+ * an alert dialog displayed with android_show_alert_async().
+ *
+ * [Parameters]
+ *     result: Always 1 (the dialog only has an "OK" button).
+ *     userdata: Opaque pointer passed to android_show_alert_async().
+ */
+typedef void AndroidAlertCallback(int result, void *userdata);
+
+/**
+ * ANDROID_ALERT_PENDING:  Value returned from android_get_alert_result()
+ * while an alert dialog is still displayed.
+ */
+#define ANDROID_ALERT_PENDING  (-2)
+
+/**
+ * android_show_alert_async:  Display an alert dialog with the given title
+ * and body text, and return immediately without waiting for the user to
+ * dismiss it.  The caller can either poll for completion with
+ * android_get_alert_result() or pass a callback, which will be called from
+ * android_update_alerts() once the user dismisses the dialog.  In the
+ * latter case, the alert ID becomes invalid once the callback is called.
+ *
+ * Only a small number of alerts can be displayed at once; this function
+ * fails if too many alerts are active.
+ *
+ * [Parameters]
+ *     title_is_resource, title, text_is_resource, text: As for
+ *         android_show_alert().
+ *     callback: Function to call when the dialog is dismissed, or NULL
+ *         to poll with android_get_alert_result() instead.
+ *     userdata: Opaque pointer to pass to the callback function.
+ * [Return value]
+ *     Alert ID (nonzero), or zero on error.
+ */
+extern int android_show_alert_async(
+    int title_is_resource, const char *title,
+    int text_is_resource, const char *text,
+    AndroidAlertCallback *callback, void *userdata);
+
+/**
+ * android_get_alert_result:  Return the result of an alert dialog
+ * displayed with android_show_alert_async() (without a callback).  Once a
+ * result other than ANDROID_ALERT_PENDING is returned, the alert ID
+ * becomes invalid.
+ *
+ * [Parameters]
+ *     id: Alert ID.
+ * [Return value]
+ *     1 if the dialog has been dismissed, ANDROID_ALERT_PENDING if it is
+ *     still displayed, or -1 if the ID is invalid.
+ */
+extern int android_get_alert_result(int id);
+
+/**
+ * android_dismiss_alert:  Close an alert dialog displayed with
+ * android_show_alert_async() without waiting for the user.  The alert ID
+ * becomes invalid, and any callback for the alert is not called.
+ *
+ * [Parameters]
+ *     id: Alert ID.
+ */
+extern void android_dismiss_alert(int id);
+
+/**
+ * android_update_alerts:  Check for alert dialogs which have been
+ * dismissed by the user, and call their callbacks.  Called once per frame
+ * from sys_input_update().
+ */
+extern void android_update_alerts(void);
+
 /**
  * android_stop_idle_timer_thread:  Stop the background thread used to
  * handle resetting the system's idle timer.  This function does nothing
@@ -364,6 +751,47 @@ extern void android_show_alert(int title_is_resource, const char *title,
  */
 extern void android_stop_idle_timer_thread(void);
 
+/**
+ * android_stop_thermal_monitor:  Stop the background thread used to
+ * monitor the device's thermal state.  This function does nothing if the
+ * thread has not been started.
+ */
+extern void android_stop_thermal_monitor(void);
+
+/**
+ * android_report_frame_work:  Report the time spent on a frame to the
+ * system's performance hint session, if one has been started by
+ * sys_set_performance_level().  Must be called from the game thread.
+ *
+ * [Parameters]
+ *     duration_ns: Time spent on the frame, in nanoseconds.
+ */
+extern void android_report_frame_work(int64_t duration_ns);
+
+
+/******** sound.c ********/
+
+/**
+ * android_choose_sound_buffer_size:  Choose the length of each audio
+ * output buffer and the number of buffers to allocate for the audio
+ * driver, given the hardware's native buffer size and low-latency
+ * support.  The buffer length is always a multiple of the native buffer
+ * size (if known), so that the system can route output through its
+ * low-latency mixer path when available.  Low-latency buffering is only
+ * used if the native buffer size is known.
+ *
+ * [Parameters]
+ *     burst: Hardware's native buffer size, in samples, or zero if
+ *         unknown.  Implausibly large values are treated as unknown.
+ *     low_latency: True if the device supports low-latency audio output.
+ *     num_hw_buffers_ret: Pointer to variable to receive the number of
+ *         buffers to allocate for the audio driver.
+ * [Return value]
+ *     Length of each output buffer, in samples.
+ */
+extern int android_choose_sound_buffer_size(int burst, int low_latency,
+                                            int *num_hw_buffers_ret);
+
 /*************************************************************************/
 /*************************************************************************/
 
@@ -0,0 +1,143 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/android/jni-table.h: Table of Java classes and methods
+ * called from native code.
+ */
+
+/*
+ * This file lists every Java class and method which the Android sysdep
+ * code calls through JNI, along with the method's JNI signature.  It is
+ * included multiple times (by internal.h and jni.c) with different
+ * definitions of the following macros:
+ *
+ * JNI_CLASS(id, name)
+ *     Declares a class named "name" (in the format accepted by
+ *     get_class()), referenced as JNI_CLASS_<id>.
+ *
+ * JNI_ACTIVITY_METHOD(name, signature)
+ *     Declares an instance method of the activity class, referenced as
+ *     JNI_<name>.
+ *
+ * JNI_METHOD(class, id, name, signature)
+ *     Declares an instance method of the class JNI_CLASS_<class>,
+ *     referenced as JNI_<class>_<id>.
+ *
+ * JNI_STATIC_METHOD(class, id, name, signature)
+ *     Declares a static method of the class JNI_CLASS_<class>, referenced
+ *     as JNI_<class>_<id>.
+ *
+ * All classes and methods are looked up at startup (see
+ * jni_init_bindings()), so a signature which does not match the Java
+ * source is reported immediately rather than when the method is first
+ * called.  When adding or changing a method in SILActivity.java (or any
+ * of the other classes listed here), update this table to match.
+ */
+
+/* Convenience macro for classes in the application package. */
+#define JNI_PKG(name)  "L" SIL_PLATFORM_ANDROID_PACKAGE_JNI "/" name ";"
+
+/*************************************************************************/
+
+JNI_CLASS(Process,     "android.os.Process")
+JNI_CLASS(String,      "java.lang.String")
+JNI_CLASS(SysFont,     ".SysFont")
+JNI_CLASS(System,      "java.lang.System")
+
+/*-----------------------------------------------------------------------*/
+
+/* activity.c */
+JNI_ACTIVITY_METHOD(getClass,      "(Ljava/lang/String;)Ljava/lang/Class;")
+JNI_ACTIVITY_METHOD(getStartupSnapshot,
+                    "()" JNI_PKG("SILActivity$StartupSnapshot"))
+JNI_ACTIVITY_METHOD(isFinishing,          "()Z")
+JNI_ACTIVITY_METHOD(requestPermission,    "(I)V")
+JNI_ACTIVITY_METHOD(setPermissionBuffer,
+                    "(Ljava/nio/ByteBuffer;[Ljava/lang/String;)V")
+JNI_ACTIVITY_METHOD(takeStartupTrace,     "()Ljava/lang/String;")
+JNI_ACTIVITY_METHOD(waitForPermission,    "(IJ)V")
+
+/* graphics.c */
+JNI_ACTIVITY_METHOD(getDisplayGeometry,
+                    "(I)" JNI_PKG("SILActivity$DisplayGeometry"))
+JNI_ACTIVITY_METHOD(getDisplayHeight,        "()I")
+JNI_ACTIVITY_METHOD(getDisplayModeId,        "()I")
+JNI_ACTIVITY_METHOD(getDisplayModes,         "()[F")
+JNI_ACTIVITY_METHOD(getDisplayWidth,         "()I")
+JNI_ACTIVITY_METHOD(setDisplayGeometryBuffer, "(Ljava/nio/ByteBuffer;)V")
+JNI_ACTIVITY_METHOD(setPreferredDisplayMode, "(I)V")
+JNI_ACTIVITY_METHOD(setVsyncBuffer,          "(Ljava/nio/ByteBuffer;)V")
+
+/* input.c */
+JNI_ACTIVITY_METHOD(dismissInputDialog, "(" JNI_PKG("InputDialog") ")V")
+JNI_ACTIVITY_METHOD(getInputDeviceGeneration, "()I")
+JNI_ACTIVITY_METHOD(getInputDeviceTable,      "()[I")
+JNI_ACTIVITY_METHOD(getInputDialogText,
+                    "(" JNI_PKG("InputDialog") ")Ljava/lang/String;")
+JNI_ACTIVITY_METHOD(getJoystickDescriptor,
+                    "(I)" JNI_PKG("SILActivity$JoystickDescriptor"))
+JNI_ACTIVITY_METHOD(getJoystickIds,           "()[I")
+JNI_ACTIVITY_METHOD(isInputDialogFinished, "(" JNI_PKG("InputDialog") ")Z")
+JNI_ACTIVITY_METHOD(scanInputDevices,         "()Z")
+JNI_ACTIVITY_METHOD(setInputLatencyBuffer, "(Ljava/nio/ByteBuffer;III)V")
+JNI_ACTIVITY_METHOD(showInputDialog,
+                    "(Ljava/lang/String;Ljava/lang/String;)"
+                    JNI_PKG("InputDialog"))
+JNI_STATIC_METHOD(System, nanoTime, "nanoTime", "()J")
+
+/* main.c */
+JNI_ACTIVITY_METHOD(getArgs, "()Ljava/lang/String;")
+
+/* misc.c */
+JNI_ACTIVITY_METHOD(dismissAlert,     "(" JNI_PKG("Dialog") ")V")
+JNI_ACTIVITY_METHOD(flushUiCommands,  "()V")
+JNI_ACTIVITY_METHOD(getAlertResult,   "(" JNI_PKG("Dialog") ")I")
+JNI_ACTIVITY_METHOD(getResourceString,
+                    "(Ljava/lang/String;)Ljava/lang/String;")
+JNI_ACTIVITY_METHOD(getResourceStrings,
+                    "([Ljava/lang/String;)[Ljava/lang/String;")
+JNI_ACTIVITY_METHOD(getSystemUiVisible,   "()Z")
+JNI_ACTIVITY_METHOD(getThermalHeadroom,   "(I)F")
+JNI_ACTIVITY_METHOD(getUserLocale,        "()Ljava/lang/String;")
+JNI_ACTIVITY_METHOD(lockUiThread,         "(J)J")
+JNI_ACTIVITY_METHOD(openURL,              "(Ljava/lang/String;)V")
+JNI_ACTIVITY_METHOD(queueKeepScreenOn,    "(Z)V")
+JNI_ACTIVITY_METHOD(queueSystemUiVisible, "(Z)V")
+JNI_ACTIVITY_METHOD(reportWorkDuration,   "(J)V")
+JNI_ACTIVITY_METHOD(setSustainedPerformanceMode, "(Z)Z")
+JNI_ACTIVITY_METHOD(setThermalStatusBuffer, "(Ljava/nio/ByteBuffer;)V")
+JNI_ACTIVITY_METHOD(showAlert,
+                    "(Ljava/lang/String;Ljava/lang/String;"
+                    "Ljava/lang/String;Ljava/lang/String;"
+                    "Ljava/lang/String;)I")
+JNI_ACTIVITY_METHOD(showAlertAsync,
+                    "(Ljava/lang/String;Ljava/lang/String;"
+                    "Ljava/lang/String;Ljava/lang/String;"
+                    "Ljava/lang/String;)" JNI_PKG("Dialog"))
+JNI_ACTIVITY_METHOD(startHintSession,     "(IJ)Z")
+JNI_ACTIVITY_METHOD(stopHintSession,      "()V")
+JNI_ACTIVITY_METHOD(unlockUiThread,       "()V")
+
+/* sound.c */
+JNI_ACTIVITY_METHOD(setAudioBecameNoisyBuffer, "(Ljava/nio/ByteBuffer;)V")
+
+/* sysfont.c */
+JNI_METHOD(SysFont, init, "<init>", "(Landroid/app/Activity;)V")
+JNI_METHOD(SysFont, ascent,      "ascent",      "(F)F")
+JNI_METHOD(SysFont, baseline,    "baseline",    "(F)F")
+JNI_METHOD(SysFont, descent,     "descent",     "(F)F")
+JNI_METHOD(SysFont, drawText,    "drawText",
+           "(Ljava/lang/String;F)Landroid/graphics/Bitmap;")
+JNI_METHOD(SysFont, height,      "height",      "(F)F")
+JNI_METHOD(SysFont, textAdvance, "textAdvance", "(Ljava/lang/String;F)F")
+JNI_METHOD(SysFont, textWidth,   "textWidth",   "(Ljava/lang/String;F)F")
+
+/* thread.c */
+JNI_STATIC_METHOD(Process, setThreadPriority, "setThreadPriority", "(I)V")
+
+/*************************************************************************/
+
+#undef JNI_PKG
@@ -0,0 +1,225 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/android/jni.c: Registry of Java classes and methods called
+ * through JNI.
+ */
+
+/*
+ * Looking up a method ID is not free (it involves a string search through
+ * the class's method table), and looking up a class goes all the way back
+ * into Java code through SILActivity.getClass(), so rather than looking
+ * things up at each call site, we resolve everything in jni-table.h once
+ * at startup and keep the results here.  Classes are held as global
+ * references, so they (and the method IDs) remain valid for the life of
+ * the process.
+ *
+ * In debug builds, jni_method() also counts the number of times each
+ * method is called, which can be used to find JNI calls on hot paths.
+ */
+
+#define IN_SYSDEP
+
+#include "src/base.h"
+#include "src/sysdep.h"
+#include "src/sysdep/android/internal.h"
+
+/*************************************************************************/
+/****************************** Local data *******************************/
+/*************************************************************************/
+
+/* Class table, generated from jni-table.h. */
+static const char * const class_names[] = {
+    #define JNI_CLASS(id, name)  [JNI_CLASS_##id] = name,
+    #define JNI_ACTIVITY_METHOD(name, signature)  /*nothing*/
+    #define JNI_METHOD(class, id, name, signature)  /*nothing*/
+    #define JNI_STATIC_METHOD(class, id, name, signature)  /*nothing*/
+    #include "src/sysdep/android/jni-table.h"
+    #undef JNI_CLASS
+    #undef JNI_ACTIVITY_METHOD
+    #undef JNI_METHOD
+    #undef JNI_STATIC_METHOD
+};
+
+/* Method table, generated from jni-table.h.  "class" is -1 for methods of
+ * the activity class. */
+static const struct {
+    int16_t class;
+    uint8_t is_static;
+    const char *name;
+    const char *signature;
+} method_info[] = {
+    #define JNI_CLASS(id, name)  /*nothing*/
+    #define JNI_ACTIVITY_METHOD(name, signature) \
+        [JNI_##name] = {-1, 0, #name, signature},
+    #define JNI_METHOD(class, id, name, signature) \
+        [JNI_##class##_##id] = {JNI_CLASS_##class, 0, name, signature},
+    #define JNI_STATIC_METHOD(class, id, name, signature) \
+        [JNI_##class##_##id] = {JNI_CLASS_##class, 1, name, signature},
+    #include "src/sysdep/android/jni-table.h"
+    #undef JNI_CLASS
+    #undef JNI_ACTIVITY_METHOD
+    #undef JNI_METHOD
+    #undef JNI_STATIC_METHOD
+};
+
+/* Global references to each class, and the ID of each method (zero if
+ * not found). */
+static jclass classes[JNI_NUM_CLASSES];
+static jmethodID methods[JNI_NUM_METHODS];
+
+/* Flag: have the tables been initialized? */
+static uint8_t bindings_initialized;
+
+#ifdef DEBUG
+/* Number of calls to jni_method() for each method.  These are updated
+ * from multiple threads, so all accesses use atomic operations. */
+static unsigned int call_counts[JNI_NUM_METHODS];
+#endif
+
+/*-----------------------------------------------------------------------*/
+
+/* Local routine declarations. */
+
+/**
+ * lookup_method:  Look up the method ID for the given table entry.
+ *
+ * [Parameters]
+ *     id: Method ID (JNI_*).
+ * [Return value]
+ *     True if the method was found, false if not.
+ */
+static int lookup_method(AndroidJNIMethod id);
+
+/*************************************************************************/
+/************************** Interface routines ***************************/
+/*************************************************************************/
+
+int jni_init_bindings(void)
+{
+    if (bindings_initialized) {
+        return 1;
+    }
+
+    JNIEnv *env = get_jni_env();
+    int ok = 1;
+
+    /* Activity methods come first, since get_class() depends on
+     * SILActivity.getClass(). */
+    for (int i = 0; i < lenof(method_info); i++) {
+        if (method_info[i].class < 0) {
+            ok &= lookup_method(i);
+        }
+    }
+
+    for (int i = 0; i < lenof(class_names); i++) {
+        jclass class = get_class(class_names[i]);
+        if (class) {
+            classes[i] = (*env)->NewGlobalRef(env, class);
+            (*env)->DeleteLocalRef(env, class);
+        }
+        if (UNLIKELY(!classes[i])) {
+            clear_exceptions(env);
+            DLOG("Class not found: %s", class_names[i]);
+            ok = 0;
+        }
+    }
+
+    for (int i = 0; i < lenof(method_info); i++) {
+        if (method_info[i].class >= 0) {
+            ok &= lookup_method(i);
+        }
+    }
+
+    bindings_initialized = 1;
+    return ok;
+}
+
+/*-----------------------------------------------------------------------*/
+
+jclass jni_class(AndroidJNIClass id)
+{
+    PRECOND((int)id >= 0 && id < JNI_NUM_CLASSES, return 0);
+    return classes[id];
+}
+
+/*-----------------------------------------------------------------------*/
+
+jmethodID jni_method(AndroidJNIMethod id)
+{
+    PRECOND((int)id >= 0 && id < JNI_NUM_METHODS, return 0);
+#ifdef DEBUG
+    __atomic_add_fetch(&call_counts[id], 1, __ATOMIC_RELAXED);
+#endif
+    return methods[id];
+}
+
+/*-----------------------------------------------------------------------*/
+
+unsigned int jni_call_count(AndroidJNIMethod id)
+{
+    PRECOND((int)id >= 0 && id < JNI_NUM_METHODS, return 0);
+#ifdef DEBUG
+    return __atomic_load_n(&call_counts[id], __ATOMIC_RELAXED);
+#else
+    return 0;
+#endif
+}
+
+/*-----------------------------------------------------------------------*/
+
+void jni_log_call_counts(void)
+{
+#ifdef DEBUG
+    DLOG("JNI call counts:");
+    for (int i = 0; i < lenof(call_counts); i++) {
+        const unsigned int count =
+            __atomic_exchange_n(&call_counts[i], 0, __ATOMIC_RELAXED);
+        if (count > 0) {
+            DLOG("   %8u %s%s%s", count,
+                 (method_info[i].class < 0
+                  ? "" : class_names[method_info[i].class]),
+                 (method_info[i].class < 0 ? "" : "."),
+                 method_info[i].name);
+        }
+    }
+#endif
+}
+
+/*************************************************************************/
+/**************************** Local routines *****************************/
+/*************************************************************************/
+
+static int lookup_method(AndroidJNIMethod id)
+{
+    const int class_index = method_info[id].class;
+    jclass class = 0;  // Use the activity class.
+    if (class_index >= 0) {
+        class = classes[class_index];
+        if (!class) {
+            return 0;  // Already reported as missing.
+        }
+    }
+
+    if (method_info[id].is_static) {
+        methods[id] = get_static_method(class, method_info[id].name,
+                                        method_info[id].signature);
+    } else {
+        methods[id] = get_method(class, method_info[id].name,
+                                 method_info[id].signature);
+    }
+    if (UNLIKELY(!methods[id])) {
+        DLOG("Method not found: %s%s%s %s",
+             class_index < 0 ? "" : class_names[class_index],
+             class_index < 0 ? "" : ".",
+             method_info[id].name, method_info[id].signature);
+        return 0;
+    }
+    return 1;
+}
+
+/*************************************************************************/
+/*************************************************************************/
@@ -23,6 +23,7 @@
 #include "src/memory.h"
 #include "src/sysdep.h"
 #include "src/sysdep/android/internal.h"
+#include "src/sysdep/misc/startup-trace.h"
 #include "src/utility/misc.h"
 
 #include <pthread.h>
@@ -33,104 +34,33 @@
 
 int android_main(UNUSED void *param)
 {
+    android_mark_startup_phase(ANDROID_STARTUP_MAIN_THREAD);
     DLOG("Main thread: 0x%lX", (long)pthread_self());
 
     JNIEnv *env = get_jni_env();
     jobject activity_obj = android_activity->clazz;
 
-    jmethodID getInternalDataPath = get_method(
-        0, "getInternalDataPath", "()Ljava/lang/String;");
-    ASSERT(getInternalDataPath, return -1);
-    jmethodID getExternalDataPath = get_method(
-        0, "getExternalDataPath", "()Ljava/lang/String;");
-    ASSERT(getExternalDataPath, return -1);
-    jclass Environment = get_class("android.os.Environment");
-    ASSERT(Environment, return -1);
-    jmethodID getExternalStorageDirectory = get_static_method(
-        Environment, "getExternalStorageDirectory", "()Ljava/io/File;");
-    ASSERT(getExternalStorageDirectory, return -1);
-    jclass File = get_class("java.io.File");
-    ASSERT(File, return -1);
-    jmethodID getPath = get_method(File, "getPath", "()Ljava/lang/String;");
-    ASSERT(getPath, return -1);
-
-    /* Look up the data storage directories.  The paths themselves are
-     * provided to us in the NativeActivity structure, but if a directory
-     * doesn't already exist, it doesn't seem to get created until we call
-     * the associated Java function. */
-    jstring j_path = (*env)->CallObjectMethod(env, activity_obj,
-                                              getInternalDataPath);
-    const char *path = (*env)->GetStringUTFChars(env, j_path, NULL);
-    if (!path || !*path) {  // Should always be available.
+    /* The data storage paths were retrieved (and the directories created,
+     * if necessary) as part of the startup snapshot in activity.c. */
+    if (!android_internal_data_path) {  // Should always be available.
         DLOG("Failed to get internal data path");
         android_show_alert(1, "SIL_error_title",
                            1, "SIL_error_no_internal_data");
-        if (path) {
-            (*env)->ReleaseStringUTFChars(env, j_path, path);
-        }
-        (*env)->DeleteLocalRef(env, j_path);
         return -1;
     }
-    DLOG("Internal data path: %s", path);
-    android_internal_data_path = mem_strdup(path, 0);
-    (*env)->ReleaseStringUTFChars(env, j_path, path);
-    (*env)->DeleteLocalRef(env, j_path);
-
-    j_path = (*env)->CallObjectMethod(env, activity_obj, getExternalDataPath);
-    path = (*env)->GetStringUTFChars(env, j_path, NULL);
-    if (!path || !*path) {
+    if (!android_external_data_path) {
         DLOG("Failed to get external data path (continuing anyway)");
-        if (path) {
-            (*env)->ReleaseStringUTFChars(env, j_path, path);
-        }
-        android_external_data_path = NULL;
-    } else {
-        DLOG("External data path: %s", path);
-        android_external_data_path = mem_strdup(path, 0);
-        if (UNLIKELY(!android_external_data_path)) {
-            DLOG("Out of memory saving external data path: %s", path);
-            android_show_alert(1, "SIL_error_title",
-                               1, "SIL_error_out_of_memory");
-            return -1;
-        }
-        (*env)->ReleaseStringUTFChars(env, j_path, path);
     }
-    (*env)->DeleteLocalRef(env, j_path);
-
-    jobject j_file = (*env)->CallStaticObjectMethod(
-        env, Environment, getExternalStorageDirectory);
-    if (!j_file) {
-        DLOG("Failed to get external storage directory (continuing anyway)");
-        android_external_root_path = NULL;
-    } else {
-        j_path = (*env)->CallObjectMethod(env, j_file, getPath);
-        (*env)->DeleteLocalRef(env, j_file);
-        path = (*env)->GetStringUTFChars(env, j_path, NULL);
-        if (!path || !*path) {
-            DLOG("Failed to get external storage path (continuing anyway)");
-            if (path) {
-                (*env)->ReleaseStringUTFChars(env, j_path, path);
-            }
-            android_external_root_path = NULL;
-        } else {
-            DLOG("External storage mount point: %s", path);
-            android_external_root_path = mem_strdup(path, 0);
-            if (UNLIKELY(!android_external_root_path)) {
-                DLOG("Out of memory saving external mount point: %s", path);
-                android_show_alert(1, "SIL_error_title",
-                                   1, "SIL_error_out_of_memory");
-                return -1;
-            }
-            (*env)->ReleaseStringUTFChars(env, j_path, path);
-        }
-        (*env)->DeleteLocalRef(env, j_path);
+    if (!android_external_root_path) {
+        DLOG("Failed to get external storage path (continuing anyway)");
     }
 
-    ASSERT(!clear_exceptions(env));
-
     /* Check for expansion files.  On pre-ICS devices, this will fail if
      * external storage is unavailable. */
-    if (!check_for_expansion_files()) {
+    startup_trace_begin("check_for_expansion_files");
+    const int expansion_files_ok = check_for_expansion_files();
+    startup_trace_end("check_for_expansion_files");
+    if (!expansion_files_ok) {
         return -1;
     }
 
@@ -146,9 +76,8 @@ int android_main(UNUSED void *param)
 
     char *args = NULL;
 
-    jmethodID getArgs = get_method(0, "getArgs", "()Ljava/lang/String;");
-    ASSERT(getArgs != 0, return -1);
-    jstring j_args = (*env)->CallObjectMethod(env, activity_obj, getArgs);
+    jstring j_args = (*env)->CallObjectMethod(env, activity_obj,
+                                              jni_method(JNI_getArgs));
     ASSERT(!clear_exceptions(env), return -1);
     ASSERT(j_args != 0, return -1);
     const char *c_args = (*env)->GetStringUTFChars(env, j_args, NULL);
@@ -171,6 +100,8 @@ int android_main(UNUSED void *param)
         argv[1] = NULL;
     }
 
+    android_mark_startup_phase(ANDROID_STARTUP_SIL_MAIN);
+    android_log_startup_phases();
     const int exitcode = sil__main(argc, argv);
     if (exitcode == 2) {
         /* Trigger the "Unfortunately, X has stopped." dialog. */
@@ -10,10 +10,16 @@
 #define IN_SYSDEP
 
 #include "src/base.h"
+#include "src/math.h"
 #include "src/memory.h"
 #include "src/sysdep.h"
 #include "src/sysdep/android/internal.h"
+#include "src/sysdep/misc/thermal-monitor.h"
 #include "src/thread.h"
+#include "src/time.h"
+#include "src/utility/misc.h"
+
+#include <unistd.h>
 
 /*************************************************************************/
 /****************************** Local data *******************************/
@@ -25,6 +31,10 @@
  * idle timer. */
 #define IDLE_TIMEOUT  3
 
+/* Time to wait for the UI thread to park in each attempt made by
+ * android_lock_ui_thread(), in seconds. */
+#define UI_LOCK_SLICE  0.05
+
 /* Thread ID for the idle timer thread, or 0 if the thread is not running. */
 static int idle_timer_thread_id;
 
@@ -34,10 +44,105 @@ static SysSemaphoreID idle_reset_trigger;
 /* Shared flag used to signal the idle timer thread to stop. */
 static uint8_t idle_timer_thread_stop;
 
+/* Maximum number of asynchronous alert dialogs which can be active at
+ * once. */
+#define MAX_ALERTS  4
+
+/* Asynchronous alert dialogs started by android_show_alert_async().  An
+ * alert's ID is its index in this array plus 1.  Only accessed from the
+ * game thread. */
+typedef struct AlertInfo AlertInfo;
+struct AlertInfo {
+    jobject dialog;  // Global reference to Dialog object, or 0 if unused.
+    AndroidAlertCallback *callback;
+    void *userdata;
+};
+static AlertInfo alerts[MAX_ALERTS];
+
+/* Target work duration per frame for the current performance hint
+ * session, in nanoseconds, or 0 if no session is active.  Only accessed
+ * from the game thread. */
+static int64_t hint_target_ns;
+
+/* Number of seconds ahead for which to request a thermal headroom
+ * forecast.  We use the maximum polling interval so that we see throttling
+ * coming before the next poll. */
+#define THERMAL_FORECAST_SECONDS  ((int)THERMAL_MONITOR_MAX_INTERVAL)
+
+/* Thread ID for the thermal monitor thread, or 0 if the thread is not
+ * running. */
+static int thermal_thread_id;
+
+/* Semaphore used to signal the thermal monitor thread to stop. */
+static SysSemaphoreID thermal_stop_trigger;
+
+/* System thermal status written by SILActivity (see
+ * setThermalStatusBuffer() in SILActivity.java), or -1 if unknown. */
+static volatile int32_t thermal_status = -1;
+
+/* Thermal headroom and headroom-based thermal level published by the
+ * thermal monitor thread, along with an update sequence counter which is
+ * odd while an update is in progress.  The monitor thread is the only
+ * writer, so readers only need to retry if the counter changes. */
+static volatile uint32_t thermal_sequence;
+static volatile float thermal_headroom = -1;
+static volatile int thermal_level;
+
+/* User's locale as looked up by update_user_locale(), or NULL to use
+ * the locale from the startup snapshot. */
+static char *updated_locale;
+
 /*-----------------------------------------------------------------------*/
 
 /* Local routine declarations. */
 
+/**
+ * copy_resource_string:  Return a newly allocated copy of the given Java
+ * string returned as a string resource.
+ *
+ * [Parameters]
+ *     env: JNI environment pointer.
+ *     j_text: Java string, or 0 if the resource was not found.
+ *     name: Resource name (for log messages).
+ * [Return value]
+ *     Copy of the string (allocated with mem_alloc()), or NULL if the
+ *     resource was not found or an error occurred.
+ */
+static char *copy_resource_string(JNIEnv *env, jstring j_text,
+                                  const char *name);
+
+/**
+ * update_user_locale:  Look up the user's current locale and store it in
+ * updated_locale.
+ */
+static void update_user_locale(void);
+
+/**
+ * create_alert_strings:  Create Java string objects for the parameters to
+ * SILActivity.showAlert() or showAlertAsync().
+ *
+ * [Parameters]
+ *     title_is_resource, title, text_is_resource, text: As for
+ *         android_show_alert().
+ *     j_title_ret, j_text_ret, j_button_ret: Pointers to variables to
+ *         receive local references to the title, text, and button label.
+ * [Return value]
+ *     True on success, false on error.
+ */
+static int create_alert_strings(
+    int title_is_resource, const char *title,
+    int text_is_resource, const char *text,
+    jstring *j_title_ret, jstring *j_text_ret, jstring *j_button_ret);
+
+/**
+ * finish_alert:  Close the given alert dialog (if it is still displayed)
+ * and release its slot in alerts[].
+ *
+ * [Parameters]
+ *     alert: Alert to finish.
+ */
+static void finish_alert(AlertInfo *alert);
+
 /**
  * idle_timer_thread:  Thread which implements an idle timer using a wake
  * lock.  Needed because Android denies non-system applications access to
@@ -50,6 +155,48 @@ static uint8_t idle_timer_thread_stop;
  */
 static int idle_timer_thread(void *unused);
 
+/**
+ * start_thermal_monitor:  Start the thermal monitor thread if it is not
+ * already running.
+ *
+ * [Return value]
+ *     True if the thread is running, false if it could not be started.
+ */
+static int start_thermal_monitor(void);
+
+/**
+ * get_thermal_state:  Return the current thermal headroom and
+ * headroom-based thermal level published by the thermal monitor thread.
+ *
+ * [Parameters]
+ *     headroom_ret: Pointer to variable to receive the thermal headroom
+ *         (negative if unknown).
+ *     level_ret: Pointer to variable to receive the thermal level.
+ */
+static void get_thermal_state(float *headroom_ret, int *level_ret);
+
+/**
+ * thermal_monitor_thread:  Thread which periodically queries the thermal
+ * headroom and publishes the result for get_thermal_state().
+ *
+ * [Parameters]
+ *     unused: Thread parameter (unused).
+ * [Return value]
+ *     0
+ */
+static int thermal_monitor_thread(void *unused);
+
+/**
+ * java_get_thermal_headroom:  ThermalHeadroomFunction implementation
+ * which calls SILActivity.getThermalHeadroom().
+ *
+ * [Parameters]
+ *     userdata: JNI environment for the calling thread.
+ * [Return value]
+ *     Thermal headroom, or NaN if not available.
+ */
+static float java_get_thermal_headroom(void *userdata);
+
 /*************************************************************************/
 /************************** Interface routines ***************************/
 /*************************************************************************/
@@ -74,16 +221,13 @@ int sys_get_language(int index, char *language_ret, char *dialect_ret)
         return 0;
     }
 
-    JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    jmethodID getUserLocale = get_method(
-        NULL, "getUserLocale", "()Ljava/lang/String;");
-    ASSERT(getUserLocale != 0, return 0);
-    jstring j_locale = (*env)->CallObjectMethod(env, activity_obj,
-                                                getUserLocale);
-    ASSERT(!clear_exceptions(env), return 0);
-    ASSERT(j_locale != 0, return 0);
-    const char *locale = (*env)->GetStringUTFChars(env, j_locale, NULL);
+    /* Normally we use the locale from the startup snapshot, but if the
+     * activity handles locale changes itself, the locale can change while
+     * we're running, so look it up again after a configuration change. */
+    if (__atomic_exchange_n(&android_locale_changed, 0, __ATOMIC_ACQUIRE)) {
+        update_user_locale();
+    }
+    const char *locale = updated_locale ? updated_locale : android_user_locale;
     if (!locale || !*locale) {
         static uint8_t warned = 0;
         if (!warned) {
@@ -109,10 +253,6 @@ int sys_get_language(int index, char *language_ret, char *dialect_ret)
         }
         retval = 1;
     }
-    if (locale) {
-        (*env)->ReleaseStringUTFChars(env, j_locale, locale);
-    }
-    (*env)->DeleteLocalRef(env, j_locale);
     return retval;
 }
 
@@ -141,11 +281,9 @@ int sys_open_url(const char *url)
 
     JNIEnv *env = get_jni_env();
     jobject activity_obj = android_activity->clazz;
-    jmethodID openURL = get_method(0, "openURL", "(Ljava/lang/String;)V");
-    ASSERT(openURL != 0, return 0);
     jstring j_url = (*env)->NewStringUTF(env, url);
     ASSERT(j_url != 0, clear_exceptions(env); return 0);
-    (*env)->CallVoidMethod(env, activity_obj, openURL, j_url);
+    (*env)->CallVoidMethod(env, activity_obj, jni_method(JNI_openURL), j_url);
     (*env)->DeleteLocalRef(env, j_url);
     return !clear_exceptions(env);
 }
@@ -174,7 +312,76 @@ void sys_reset_idle_timer(void)
 
 int sys_set_performance_level(int level)
 {
-    return level == 0;  // Alternate performance levels not supported.
+    /* PERFORMANCE_LEVEL_HIGH enables sustained performance mode and asks
+     * the system (via a hint session) for enough speed to finish each
+     * frame within one frame period.  PERFORMANCE_LEVEL_LOW allows twice
+     * that time, letting the system run at lower clock speeds.  A
+     * positive value enables sustained performance mode with a target
+     * frame work duration of that many microseconds. */
+    int sustained;
+    int64_t target_ns;
+    if (level > 0) {
+        sustained = 1;
+        target_ns = (int64_t)level * 1000;
+    } else {
+        int numerator, denominator;
+        sys_graphics_get_frame_period(&numerator, &denominator);
+        const int64_t period_ns = (numerator > 0 && denominator > 0)
+            ? (int64_t)numerator * 1000000000 / denominator
+            : 1000000000 / 60;
+        switch (level) {
+          case PERFORMANCE_LEVEL_DEFAULT:
+            sustained = 0;
+            target_ns = 0;
+            break;
+          case PERFORMANCE_LEVEL_HIGH:
+            sustained = 1;
+            target_ns = period_ns;
+            break;
+          default:
+            ASSERT(level == PERFORMANCE_LEVEL_LOW, return 0);
+            sustained = 0;
+            target_ns = period_ns * 2;
+            break;
+        }
+    }
+
+    JNIEnv *env = get_jni_env();
+
+    const int sustained_ok = (*env)->CallBooleanMethod(
+        env, android_activity->clazz,
+        jni_method(JNI_setSustainedPerformanceMode), sustained);
+    if (clear_exceptions(env)) {
+        return 0;
+    }
+
+    int hint_ok = 0;
+    if (target_ns > 0) {
+        /* SIL renders from the thread which drives the game, so that is
+         * the thread whose performance we want the system to manage. */
+        hint_ok = (*env)->CallBooleanMethod(
+            env, android_activity->clazz, jni_method(JNI_startHintSession),
+            (jint)gettid(), (jlong)target_ns);
+        if (clear_exceptions(env)) {
+            hint_ok = 0;
+        }
+    }
+    if (hint_ok) {
+        hint_target_ns = target_ns;
+    } else if (hint_target_ns) {
+        (*env)->CallVoidMethod(env, android_activity->clazz,
+                               jni_method(JNI_stopHintSession));
+        clear_exceptions(env);
+        hint_target_ns = 0;
+    }
+
+    if (level == PERFORMANCE_LEVEL_DEFAULT) {
+        return 1;
+    } else if (level == PERFORMANCE_LEVEL_LOW) {
+        return hint_ok;
+    } else {
+        return (sustained_ok || hint_ok);
+    }
 }
 
 /*************************************************************************/
@@ -189,14 +396,8 @@ void android_toggle_navigation_bar(int state)
 
     const int has_immersive = (android_api_level >= 19);
 
-    JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    jmethodID setSystemUiVisible = get_method(
-        0, "setSystemUiVisible", "(Z)V");
-    ASSERT(setSystemUiVisible != 0, return);
-    (*env)->CallVoidMethod(env, activity_obj, setSystemUiVisible,
-                           state && !has_immersive);
-    ASSERT(!clear_exceptions(env));
+    android_queue_system_ui_visible(state && !has_immersive);
+    android_flush_ui_commands();
 }
 
 /*-----------------------------------------------------------------------*/
@@ -234,6 +435,46 @@ const char *android_get_product(void)
     return android_info_product;
 }
 
+/*-----------------------------------------------------------------------*/
+
+int android_thermal_level(void)
+{
+    if (!start_thermal_monitor()) {
+        return ANDROID_THERMAL_LEVEL_NORMAL;
+    }
+    float headroom;
+    int level;
+    get_thermal_state(&headroom, &level);
+    STATIC_ASSERT((int)ANDROID_THERMAL_LEVEL_NORMAL == THERMAL_LEVEL_NORMAL
+                  && (int)ANDROID_THERMAL_LEVEL_WARM == THERMAL_LEVEL_WARM
+                  && (int)ANDROID_THERMAL_LEVEL_HOT == THERMAL_LEVEL_HOT,
+                  "AndroidThermalLevel does not match ThermalLevel");
+    return thermal_level_for_status(level, thermal_status);
+}
+
+/*-----------------------------------------------------------------------*/
+
+float android_thermal_headroom(void)
+{
+    if (!start_thermal_monitor()) {
+        return -1;
+    }
+    float headroom;
+    int level;
+    get_thermal_state(&headroom, &level);
+    return headroom;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int android_thermal_status(void)
+{
+    if (!start_thermal_monitor()) {
+        return -1;
+    }
+    return thermal_status;
+}
+
 /*************************************************************************/
 /*********************** Library-internal routines ***********************/
 /*************************************************************************/
@@ -241,47 +482,126 @@ const char *android_get_product(void)
 char *android_get_resource_string(const char *name)
 {
     JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    jmethodID getResourceString = get_method(
-        NULL, "getResourceString", "(Ljava/lang/String;)Ljava/lang/String;");
-    ASSERT(getResourceString != 0, return NULL);
 
     jstring j_name = (*env)->NewStringUTF(env, name);
     ASSERT(!clear_exceptions(env) && j_name != 0, return NULL;);
 
     jstring j_text = (*env)->CallObjectMethod(
-        env, activity_obj, getResourceString, j_name);
+        env, android_activity->clazz, jni_method(JNI_getResourceString),
+        j_name);
     (*env)->DeleteLocalRef(env, j_name);
     ASSERT(!clear_exceptions(env), return NULL);
-    if (!j_text) {
-        DLOG("String resource \"%s\" not found", name);
-        return NULL;
+    char *text = copy_resource_string(env, j_text, name);
+    if (j_text) {
+        (*env)->DeleteLocalRef(env, j_text);
     }
-    const char *const_text = (*env)->GetStringUTFChars(env, j_text, NULL);
-    char *text = NULL;
-    if (clear_exceptions(env) || !const_text) {
-        DLOG("Failed to retrieve string resource \"%s\"", name);
-    } else {
-        text = mem_strdup(const_text, 0);
-        if (!text) {
-            DLOG("No memory for copy of string resource \"%s\"", name);
+    return text;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int android_get_resource_strings(const char * const *names, int count,
+                                 char **texts_ret)
+{
+    PRECOND(names != NULL, return 0);
+    PRECOND(texts_ret != NULL, return 0);
+    PRECOND(count >= 0, return 0);
+
+    for (int i = 0; i < count; i++) {
+        texts_ret[i] = NULL;
+    }
+    if (!count) {
+        return 0;
+    }
+
+    JNIEnv *env = get_jni_env();
+
+    /* We may need more local references than the JVM guarantees by
+     * default (16), so explicitly reserve enough for one name or text
+     * at a time plus the two arrays. */
+    ASSERT((*env)->PushLocalFrame(env, 4) == 0,
+           clear_exceptions(env); return 0);
+
+    int num_found = 0;
+    jobjectArray j_names = (*env)->NewObjectArray(
+        env, count, jni_class(JNI_CLASS_String), NULL);
+    ASSERT(!clear_exceptions(env) && j_names != 0, goto out);
+    for (int i = 0; i < count; i++) {
+        jstring j_name = (*env)->NewStringUTF(env, names[i]);
+        ASSERT(!clear_exceptions(env) && j_name != 0, goto out);
+        (*env)->SetObjectArrayElement(env, j_names, i, j_name);
+        (*env)->DeleteLocalRef(env, j_name);
+        ASSERT(!clear_exceptions(env), goto out);
+    }
+
+    jobjectArray j_texts = (*env)->CallObjectMethod(
+        env, android_activity->clazz, jni_method(JNI_getResourceStrings),
+        j_names);
+    ASSERT(!clear_exceptions(env) && j_texts != 0, goto out);
+    for (int i = 0; i < count; i++) {
+        jstring j_text = (*env)->GetObjectArrayElement(env, j_texts, i);
+        ASSERT(!clear_exceptions(env), break);
+        texts_ret[i] = copy_resource_string(env, j_text, names[i]);
+        if (texts_ret[i]) {
+            num_found++;
+        }
+        if (j_text) {
+            (*env)->DeleteLocalRef(env, j_text);
+        }
+    }
+
+  out:
+    (*env)->PopLocalFrame(env, NULL);
+    return num_found;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int android_lock_ui_thread(void)
+{
+    /* If the UI thread is blocked in onPause() waiting for us to
+     * acknowledge a suspend request, it will never park, so wait in short
+     * slices.  If a suspend request arrives, acknowledge it and wait for
+     * the activity to resume before trying again; we only give up if the
+     * program is quitting. */
+    double start = time_now();
+    for (;;) {
+        if (android_try_lock_ui_thread(UI_LOCK_SLICE) >= 0) {
+            const double wait = time_now() - start;
+            if (wait >= 0.005) {
+                DLOG("Waited %.1f ms for UI thread", wait * 1000);
+            }
+            return 1;
+        }
+        BARRIER();
+        if (android_quit_requested) {
+            DLOG("Quit requested, not locking UI thread");
+            return 0;
+        }
+        if (android_suspend_requested) {
+            DLOG("Suspend requested while waiting for UI thread");
+            sys_semaphore_signal(android_suspend_semaphore);
+            sys_semaphore_wait(android_resume_semaphore, -1);
+            BARRIER();
+            if (android_quit_requested) {
+                return 0;
+            }
+            start = time_now();
         }
-        (*env)->ReleaseStringUTFChars(env, j_text, const_text);
     }
-    (*env)->DeleteLocalRef(env, j_text);
-    return text;
 }
 
 /*-----------------------------------------------------------------------*/
 
-void android_lock_ui_thread(void)
+double android_try_lock_ui_thread(double timeout)
 {
     JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    jmethodID lockUiThread = get_method(0, "lockUiThread", "()V");
-    ASSERT(lockUiThread != 0, return);
-    (*env)->CallVoidMethod(env, activity_obj, lockUiThread);
-    ASSERT(!clear_exceptions(env));
+    const jlong timeout_ns = (timeout < 0) ? 0 : (jlong)(timeout * 1.0e9);
+    const jlong wait_ns = (*env)->CallLongMethod(
+        env, android_activity->clazz, jni_method(JNI_lockUiThread),
+        timeout_ns);
+    ASSERT(!clear_exceptions(env), return -1);
+    return (wait_ns < 0) ? -1 : wait_ns * 1.0e-9;
 }
 
 /*-----------------------------------------------------------------------*/
@@ -289,10 +609,39 @@ void android_lock_ui_thread(void)
 void android_unlock_ui_thread(void)
 {
     JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    jmethodID unlockUiThread = get_method(0, "unlockUiThread", "()V");
-    ASSERT(unlockUiThread != 0, return);
-    (*env)->CallVoidMethod(env, activity_obj, unlockUiThread);
+    (*env)->CallVoidMethod(env, android_activity->clazz,
+                           jni_method(JNI_unlockUiThread));
+    ASSERT(!clear_exceptions(env));
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_queue_keep_screen_on(int enable)
+{
+    JNIEnv *env = get_jni_env();
+    (*env)->CallVoidMethod(env, android_activity->clazz,
+                           jni_method(JNI_queueKeepScreenOn), enable != 0);
+    ASSERT(!clear_exceptions(env));
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_queue_system_ui_visible(int visible)
+{
+    JNIEnv *env = get_jni_env();
+    (*env)->CallVoidMethod(env, android_activity->clazz,
+                           jni_method(JNI_queueSystemUiVisible),
+                           visible != 0);
+    ASSERT(!clear_exceptions(env));
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_flush_ui_commands(void)
+{
+    JNIEnv *env = get_jni_env();
+    (*env)->CallVoidMethod(env, android_activity->clazz,
+                           jni_method(JNI_flushUiCommands));
     ASSERT(!clear_exceptions(env));
 }
 
@@ -302,9 +651,8 @@ int android_get_navigation_bar_state(void)
 {
     JNIEnv *env = get_jni_env();
     jobject activity_obj = android_activity->clazz;
-    jmethodID getSystemUiVisible = get_method(0, "getSystemUiVisible", "()Z");
-    ASSERT(getSystemUiVisible != 0, return 1);
-    return (*env)->CallBooleanMethod(env, activity_obj, getSystemUiVisible);
+    return (*env)->CallBooleanMethod(env, activity_obj,
+                                     jni_method(JNI_getSystemUiVisible));
     ASSERT(!clear_exceptions(env));
 }
 
@@ -312,6 +660,219 @@ int android_get_navigation_bar_state(void)
 
 void android_show_alert(int title_is_resource, const char *title,
                         int text_is_resource, const char *text)
+{
+    JNIEnv *env = get_jni_env();
+    jobject activity_obj = android_activity->clazz;
+    jstring j_title, j_text, j_button;
+    if (!create_alert_strings(title_is_resource, title,
+                              text_is_resource, text,
+                              &j_title, &j_text, &j_button)) {
+        return;
+    }
+    (*env)->CallIntMethod(env, activity_obj, jni_method(JNI_showAlert),
+                          j_title, j_text, j_button, NULL, NULL);
+    ASSERT(!clear_exceptions(env));
+    (*env)->DeleteLocalRef(env, j_button);
+    (*env)->DeleteLocalRef(env, j_text);
+    (*env)->DeleteLocalRef(env, j_title);
+}
+
+/*-----------------------------------------------------------------------*/
+
+int android_show_alert_async(
+    int title_is_resource, const char *title,
+    int text_is_resource, const char *text,
+    AndroidAlertCallback *callback, void *userdata)
+{
+    int index;
+    for (index = 0; index < lenof(alerts); index++) {
+        if (!alerts[index].dialog) {
+            break;
+        }
+    }
+    if (index >= lenof(alerts)) {
+        DLOG("Too many alerts active");
+        return 0;
+    }
+
+    JNIEnv *env = get_jni_env();
+    jobject activity_obj = android_activity->clazz;
+    jstring j_title, j_text, j_button;
+    if (!create_alert_strings(title_is_resource, title,
+                              text_is_resource, text,
+                              &j_title, &j_text, &j_button)) {
+        return 0;
+    }
+    jobject dialog = (*env)->CallObjectMethod(
+        env, activity_obj, jni_method(JNI_showAlertAsync),
+        j_title, j_text, j_button, NULL, NULL);
+    (*env)->DeleteLocalRef(env, j_button);
+    (*env)->DeleteLocalRef(env, j_text);
+    (*env)->DeleteLocalRef(env, j_title);
+    if (clear_exceptions(env) || !dialog) {
+        DLOG("Failed to open alert dialog!");
+        return 0;
+    }
+
+    alerts[index].dialog = (*env)->NewGlobalRef(env, dialog);
+    if (!alerts[index].dialog) {
+        DLOG("Failed to create global reference to alert dialog!");
+        (*env)->CallVoidMethod(env, activity_obj, jni_method(JNI_dismissAlert),
+                               dialog);
+        ASSERT(!clear_exceptions(env));
+        (*env)->DeleteLocalRef(env, dialog);
+        return 0;
+    }
+    (*env)->DeleteLocalRef(env, dialog);
+    alerts[index].callback = callback;
+    alerts[index].userdata = userdata;
+    return index + 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int android_get_alert_result(int id)
+{
+    if (id <= 0 || id > lenof(alerts) || !alerts[id-1].dialog) {
+        DLOG("Invalid alert ID %d", id);
+        return -1;
+    }
+    AlertInfo *alert = &alerts[id-1];
+
+    JNIEnv *env = get_jni_env();
+    const int result = (*env)->CallIntMethod(
+        env, android_activity->clazz, jni_method(JNI_getAlertResult),
+        alert->dialog);
+    if (clear_exceptions(env)) {
+        DLOG("Failed to get alert result, assuming dismissed");
+    } else if (result == ANDROID_ALERT_PENDING) {
+        return ANDROID_ALERT_PENDING;
+    }
+    finish_alert(alert);
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_dismiss_alert(int id)
+{
+    if (id <= 0 || id > lenof(alerts) || !alerts[id-1].dialog) {
+        DLOG("Invalid alert ID %d", id);
+        return;
+    }
+    finish_alert(&alerts[id-1]);
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_update_alerts(void)
+{
+    for (int i = 0; i < lenof(alerts); i++) {
+        AlertInfo *alert = &alerts[i];
+        if (alert->dialog && alert->callback) {
+            AndroidAlertCallback *callback = alert->callback;
+            void *userdata = alert->userdata;
+            if (android_get_alert_result(i+1) != ANDROID_ALERT_PENDING) {
+                (*callback)(1, userdata);
+            }
+        }
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_stop_idle_timer_thread(void)
+{
+    if (idle_timer_thread_id) {
+        idle_timer_thread_stop = 1;
+        thread_wait(idle_timer_thread_id);
+        idle_timer_thread_id = 0;
+        sys_semaphore_destroy(idle_reset_trigger);
+        idle_reset_trigger = 0;
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_stop_thermal_monitor(void)
+{
+    if (thermal_thread_id) {
+        sys_semaphore_signal(thermal_stop_trigger);
+        thread_wait(thermal_thread_id);
+        thermal_thread_id = 0;
+        sys_semaphore_destroy(thermal_stop_trigger);
+        thermal_stop_trigger = 0;
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+void android_report_frame_work(int64_t duration_ns)
+{
+    if (!hint_target_ns || duration_ns <= 0) {
+        return;
+    }
+    JNIEnv *env = get_jni_env();
+    (*env)->CallVoidMethod(env, android_activity->clazz,
+                           jni_method(JNI_reportWorkDuration),
+                           (jlong)duration_ns);
+    clear_exceptions(env);
+}
+
+/*************************************************************************/
+/**************************** Local routines *****************************/
+/*************************************************************************/
+
+static char *copy_resource_string(JNIEnv *env, jstring j_text,
+                                  const char *name)
+{
+    if (!j_text) {
+        DLOG("String resource \"%s\" not found", name);
+        return NULL;
+    }
+    const char *const_text = (*env)->GetStringUTFChars(env, j_text, NULL);
+    char *text = NULL;
+    if (clear_exceptions(env) || !const_text) {
+        DLOG("Failed to retrieve string resource \"%s\"", name);
+    } else {
+        text = mem_strdup(const_text, 0);
+        if (!text) {
+            DLOG("No memory for copy of string resource \"%s\"", name);
+        }
+        (*env)->ReleaseStringUTFChars(env, j_text, const_text);
+    }
+    return text;
+}
+
+/*-----------------------------------------------------------------------*/
+
+static void update_user_locale(void)
+{
+    JNIEnv *env = get_jni_env();
+    jstring j_locale = (*env)->CallObjectMethod(
+        env, android_activity->clazz, jni_method(JNI_getUserLocale));
+    ASSERT(!clear_exceptions(env), return);
+    ASSERT(j_locale != 0, return);
+    const char *locale = (*env)->GetStringUTFChars(env, j_locale, NULL);
+    if (locale) {
+        char *new_locale = mem_strdup(locale, 0);
+        if (new_locale) {
+            mem_free(updated_locale);
+            updated_locale = new_locale;
+        } else {
+            DLOG("Out of memory copying locale: %s", locale);
+        }
+        (*env)->ReleaseStringUTFChars(env, j_locale, locale);
+    }
+    (*env)->DeleteLocalRef(env, j_locale);
+}
+
+/*-----------------------------------------------------------------------*/
+
+static int create_alert_strings(
+    int title_is_resource, const char *title,
+    int text_is_resource, const char *text,
+    jstring *j_title_ret, jstring *j_text_ret, jstring *j_button_ret)
 {
     char *alloced_title = NULL, *alloced_text = NULL;
     if (title_is_resource) {
@@ -327,77 +888,160 @@ void android_show_alert(int title_is_resource, const char *title,
         }
     }
 
+    int success = 0;
     JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    jmethodID showAlert = get_method(0, "showAlert",
-                                     "(Ljava/lang/String;"
-                                     "Ljava/lang/String;"
-                                     "Ljava/lang/String;"
-                                     "Ljava/lang/String;"
-                                     "Ljava/lang/String;"
-                                     ")I");
-    ASSERT(showAlert != 0, goto error_return);
     jstring j_title = (*env)->NewStringUTF(env, title);
-    ASSERT(!clear_exceptions(env) && j_title != 0, goto error_free_title);
+    ASSERT(!clear_exceptions(env) && j_title != 0, goto out);
     jstring j_text = (*env)->NewStringUTF(env, text);
-    ASSERT(!clear_exceptions(env) && j_text != 0, goto error_free_text);
+    ASSERT(!clear_exceptions(env) && j_text != 0, goto error_free_title);
     jstring j_button = (*env)->NewStringUTF(env, "OK");
-    ASSERT(!clear_exceptions(env) && j_button != 0, goto error_free_button);
-    (*env)->CallIntMethod(env, activity_obj, showAlert,
-                          j_title, j_text, j_button, NULL, NULL);
-    ASSERT(!clear_exceptions(env));
-  error_free_button:
-    (*env)->DeleteLocalRef(env, j_button);
+    ASSERT(!clear_exceptions(env) && j_button != 0, goto error_free_text);
+    *j_title_ret = j_title;
+    *j_text_ret = j_text;
+    *j_button_ret = j_button;
+    success = 1;
+    goto out;
+
   error_free_text:
     (*env)->DeleteLocalRef(env, j_text);
   error_free_title:
     (*env)->DeleteLocalRef(env, j_title);
-  error_return:
+  out:
     mem_free(alloced_title);
     mem_free(alloced_text);
-    return;
+    return success;
 }
 
 /*-----------------------------------------------------------------------*/
 
-void android_stop_idle_timer_thread(void)
+static void finish_alert(AlertInfo *alert)
 {
-    if (idle_timer_thread_id) {
-        idle_timer_thread_stop = 1;
-        thread_wait(idle_timer_thread_id);
-        idle_timer_thread_id = 0;
-        sys_semaphore_destroy(idle_reset_trigger);
-        idle_reset_trigger = 0;
-    }
+    PRECOND(alert->dialog != NULL, return);
+
+    JNIEnv *env = get_jni_env();
+    (*env)->CallVoidMethod(env, android_activity->clazz,
+                           jni_method(JNI_dismissAlert), alert->dialog);
+    ASSERT(!clear_exceptions(env));
+    (*env)->DeleteGlobalRef(env, alert->dialog);
+    alert->dialog = 0;
+    alert->callback = NULL;
+    alert->userdata = NULL;
 }
 
-/*************************************************************************/
-/**************************** Local routines *****************************/
-/*************************************************************************/
+/*-----------------------------------------------------------------------*/
 
 static int idle_timer_thread(UNUSED void *unused)
 {
-    JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    jmethodID keepScreenOn = get_method(0, "keepScreenOn", "(Z)V");
-    ASSERT(keepScreenOn != 0, return 0);
-
     while (!idle_timer_thread_stop) {
         sys_semaphore_wait(idle_reset_trigger, -1);
 
         DLOG("Acquiring screen lock");
-        (*env)->CallVoidMethod(env, activity_obj, keepScreenOn, 1);
-        ASSERT(!clear_exceptions(env));
+        android_queue_keep_screen_on(1);
+        android_flush_ui_commands();
 
         while (sys_semaphore_wait(idle_reset_trigger, IDLE_TIMEOUT)) {/*spin*/}
 
         DLOG("Releasing screen lock");
-        (*env)->CallVoidMethod(env, activity_obj, keepScreenOn, 0);
-        ASSERT(!clear_exceptions(env));
+        android_queue_keep_screen_on(0);
+        android_flush_ui_commands();
+    }
+
+    return 0;
+}
+
+/*-----------------------------------------------------------------------*/
+
+static int start_thermal_monitor(void)
+{
+    if (thermal_thread_id) {
+        return 1;
+    }
+
+    JNIEnv *env = get_jni_env();
+
+    if (!(thermal_stop_trigger = sys_semaphore_create(0, 1))) {
+        DLOG("Failed to create thermal monitor stop trigger");
+        return 0;
+    }
+    thermal_headroom = -1;
+    thermal_level = THERMAL_LEVEL_NORMAL;
+    if (!(thermal_thread_id = thread_create(thermal_monitor_thread, NULL))) {
+        DLOG("Failed to create thermal monitor thread");
+        sys_semaphore_destroy(thermal_stop_trigger);
+        thermal_stop_trigger = 0;
+        return 0;
+    }
+
+    /* If this fails, we just go without the status value. */
+    thermal_status = -1;
+    jobject j_buffer = (*env)->NewDirectByteBuffer(
+        env, (void *)&thermal_status, sizeof(thermal_status));
+    if (j_buffer) {
+        (*env)->CallVoidMethod(env, android_activity->clazz,
+                               jni_method(JNI_setThermalStatusBuffer),
+                               j_buffer);
+        (*env)->DeleteLocalRef(env, j_buffer);
+    } else {
+        DLOG("Failed to set up thermal status buffer");
     }
+    clear_exceptions(env);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+static void get_thermal_state(float *headroom_ret, int *level_ret)
+{
+    uint32_t seq;
+    do {
+        seq = thermal_sequence;
+        BARRIER();
+        *headroom_ret = thermal_headroom;
+        *level_ret = thermal_level;
+        BARRIER();
+    } while ((seq & 1) || thermal_sequence != seq);
+}
+
+/*-----------------------------------------------------------------------*/
+
+static int thermal_monitor_thread(UNUSED void *unused)
+{
+    JNIEnv *env = get_jni_env();
+    ThermalMonitor monitor;
+    thermal_monitor_init(&monitor);
+
+    double delay;
+    do {
+        delay = thermal_monitor_poll(&monitor, time_now(),
+                                     java_get_thermal_headroom, env);
+        if (monitor.headroom != thermal_headroom
+         || (int)monitor.level != thermal_level) {
+            thermal_sequence++;
+            BARRIER();
+            thermal_headroom = monitor.headroom;
+            thermal_level = monitor.level;
+            BARRIER();
+            thermal_sequence++;
+        }
+    } while (!sys_semaphore_wait(thermal_stop_trigger, (float)delay));
 
     return 0;
 }
 
+/*-----------------------------------------------------------------------*/
+
+static float java_get_thermal_headroom(void *userdata)
+{
+    JNIEnv *env = (JNIEnv *)userdata;
+    const float headroom = (*env)->CallFloatMethod(
+        env, android_activity->clazz, jni_method(JNI_getThermalHeadroom),
+        THERMAL_FORECAST_SECONDS);
+    if (clear_exceptions(env)) {
+        return NAN;
+    }
+    return headroom;
+}
+
 /*************************************************************************/
 /*************************************************************************/
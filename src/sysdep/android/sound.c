@@ -14,6 +14,7 @@
 #include "src/sound/mixer.h"
 #include "src/sysdep.h"
 #include "src/sysdep/android/internal.h"
+#include "src/sysdep/misc/startup-trace.h"
 #include "src/thread.h"
 #include "src/time.h"
 
@@ -25,23 +26,43 @@
 /*************************************************************************/
 
 /**
- * SOUND_BUFLEN:  Number of samples to send to the hardware in a single
- * output call.  Should be the same as the mixer buffer length (in
- * sound/mixer.c) for best performance.
+ * SOUND_BUFLEN:  Minimum number of samples to send to the hardware in a
+ * single output call when not using low-latency output.  The actual
+ * buffer length is this value rounded up to a multiple of the hardware's
+ * native buffer size, if known.  This matches the mixer's accumulation
+ * buffer length (MIX_ACCUM_BUFLEN in sound/mixer.c), so that in the
+ * common case each buffer is mixed in a single pass; rounding up (or
+ * low-latency output, see below) may cause buffers to be mixed in
+ * several passes or with a partially used accumulation buffer.
  */
 #define SOUND_BUFLEN  1024
 
 /**
- * SOUND_MIXER_BUFFERS:  Number of SOUND_BUFLEN-sized buffers to use for
- * buffering audio data.
+ * SOUND_LOW_LATENCY_BUFLEN:  Minimum buffer length to use instead of
+ * SOUND_BUFLEN on devices which declare support for low-latency audio and
+ * report their native buffer size.
+ */
+#define SOUND_LOW_LATENCY_BUFLEN  256
+
+/**
+ * SOUND_MAX_BUFLEN:  Maximum buffer length.  If the hardware reports a
+ * native buffer size larger than this, it is ignored.
+ */
+#define SOUND_MAX_BUFLEN  8192
+
+/**
+ * SOUND_MIXER_BUFFERS:  Number of output buffers to use for buffering
+ * audio data.
  */
 #define SOUND_MIXER_BUFFERS  5
 
 /**
- * SOUND_HW_BUFFERS:  Number of SOUND_BUFLEN-sized buffers to allocate
- * for the audio driver.
+ * SOUND_HW_BUFFERS, SOUND_LOW_LATENCY_HW_BUFFERS:  Number of output
+ * buffers to allocate for the audio driver in normal and low-latency
+ * modes.
  */
 #define SOUND_HW_BUFFERS  4
+#define SOUND_LOW_LATENCY_HW_BUFFERS  2
 
 /**
  * MIXER_THREAD_PRIORITY:  Thread priority used for the mixer thread,
@@ -54,12 +75,14 @@
 /****************************** Local data *******************************/
 /*************************************************************************/
 
-/* Cached Java method IDs. */
-static jmethodID getAudioBecameNoisy, clearAudioBecameNoisy;
-
 /* Output sampling rate used by the hardware. */
 static int output_rate;
 
+/* Length of each output buffer, in samples, and number of buffers
+ * allocated for the audio driver (see choose_buffer_size()). */
+static int buffer_len;
+static int num_hw_buffers;
+
 /* Various OpenSL handles. */
 static SLObjectItf engine_Object;
 static SLEngineItf engine_Engine;
@@ -69,13 +92,11 @@ static SLObjectItf player_Object;
 /* Quick macro to run Query(excuse-me-I-mean-Get)Interface on an object. */
 #define QI(from,iid,to_ptr)  ((*(from))->GetInterface((from), (iid), (to_ptr)))
 
-/* Zero-filled buffer used when we want to send out silence. */
-static const uint16_t silence_buffer[2*SOUND_BUFLEN];
-
 /*-----------------------------------------------------------------------*/
 
 /* Audio data buffer.  Samples from the software mixer are buffered here
- * before being sent to the hardware. */
+ * before being sent to the hardware.  One extra buffer is allocated at
+ * the end to hold silence. */
 static void *output_buffer_mem;
 static struct {
     uint8_t full;  // Is this buffer ready to be played?
@@ -88,6 +109,9 @@ static int buffer_playing;
 /* Next buffer to send to the hardware (used by audio render callback). */
 static unsigned int next_buffer_to_play;
 
+/* Zero-filled buffer used when we want to send out silence. */
+static const void *silence_buffer;
+
 /* Thread ID of mixer thread, and flag used to tell it to stop. */
 static int mixer_thread_id;
 static uint8_t mixer_thread_stop;
@@ -95,6 +119,12 @@ static uint8_t mixer_thread_stop;
 /* Flag indicating whether we should act on headphone disconnect events. */
 static uint8_t check_headphone_disconnect;
 
+/* Flag set (to a nonzero value) by Java when a headphone disconnect event
+ * is received.  This is shared with Java through a direct buffer (see
+ * setAudioBecameNoisyBuffer() in SILActivity.java) so that the audio
+ * callback can check it without making any JNI calls. */
+static int32_t audio_became_noisy;
+
 /*-----------------------------------------------------------------------*/
 
 /* Convenience macro for error-checking system calls, which calls a
@@ -150,22 +180,11 @@ int sys_sound_init(const char *device_name)
 {
     PRECOND(device_name != NULL);
 
-    /* Cache various Java method IDs we'll use later. */
-
-    jmethodID getAudioOutputRate;
-    JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    getAudioOutputRate = get_method(0, "getAudioOutputRate", "()I");
-    getAudioBecameNoisy = get_method(0, "getAudioBecameNoisy", "()Z");
-    clearAudioBecameNoisy = get_method(0, "clearAudioBecameNoisy", "()V");
-    ASSERT(getAudioOutputRate != 0, goto error_return);
-    ASSERT(getAudioBecameNoisy != 0, goto error_return);
-    ASSERT(clearAudioBecameNoisy != 0, goto error_return);
+    startup_trace_begin("sys_sound_init");
 
     /* Set up the Android audio output chain. */
 
-    output_rate = (*env)->CallIntMethod(env, activity_obj, getAudioOutputRate);
-    ASSERT(!clear_exceptions(env), output_rate = 48000);
+    output_rate = android_audio_output_rate;
     if (output_rate < 8000) {
         if (output_rate > 0) {
             DLOG("Bizarre audio output rate %d, using 48000", output_rate);
@@ -175,6 +194,16 @@ int sys_sound_init(const char *device_name)
         output_rate = 48000;
     }
 
+    buffer_len = android_choose_sound_buffer_size(
+        android_audio_frames_per_buffer,
+        (android_audio_features & ANDROID_AUDIO_FEATURE_LOW_LATENCY) != 0,
+        &num_hw_buffers);
+    DLOG("Native buffer size %d, low latency %s: using %d buffers of %d"
+         " samples", android_audio_frames_per_buffer,
+         (android_audio_features & ANDROID_AUDIO_FEATURE_LOW_LATENCY)
+             ? "supported" : "not supported",
+         num_hw_buffers, buffer_len);
+
     if (!CHECK(slCreateEngine(&engine_Object, 0, NULL, 0, NULL, NULL))) {
         goto error_return;
     }
@@ -202,7 +231,7 @@ int sys_sound_init(const char *device_name)
         engine_Engine, &player_Object,
         &(SLDataSource){
             &(SLDataLocator_AndroidSimpleBufferQueue){
-                SL_DATALOCATOR_ANDROIDSIMPLEBUFFERQUEUE, SOUND_HW_BUFFERS},
+                SL_DATALOCATOR_ANDROIDSIMPLEBUFFERQUEUE, num_hw_buffers},
             &(SLDataFormat_PCM){SL_DATAFORMAT_PCM, 2, output_rate*1000, 16, 16,
                 SL_SPEAKER_FRONT_LEFT | SL_SPEAKER_FRONT_RIGHT,
                 /* How can you not have a NATIVEENDIAN flag??? */
@@ -236,18 +265,37 @@ int sys_sound_init(const char *device_name)
 
     /* Set up output buffers for the software mixer. */
 
-    output_buffer_mem =
-        mem_alloc((4*SOUND_BUFLEN) * SOUND_MIXER_BUFFERS, 0, 0);
+    output_buffer_mem = mem_alloc((4*buffer_len) * (SOUND_MIXER_BUFFERS+1),
+                                  0, MEM_ALLOC_CLEAR);
     if (!output_buffer_mem) {
         DLOG("No memory for output buffers (%d bytes)",
-             (4*SOUND_BUFLEN) * SOUND_MIXER_BUFFERS);
+             (4*buffer_len) * (SOUND_MIXER_BUFFERS+1));
         goto error_destroy_player;
     }
     for (int i = 0; i < SOUND_MIXER_BUFFERS; i++) {
         output_buffers[i].full = 0;
         output_buffers[i].data =
-            (uint8_t *)output_buffer_mem + (4*SOUND_BUFLEN)*i;
+            (uint8_t *)output_buffer_mem + (4*buffer_len)*i;
     }
+    silence_buffer =
+        (uint8_t *)output_buffer_mem + (4*buffer_len)*SOUND_MIXER_BUFFERS;
+
+    /* Have Java report headphone disconnect events directly to our flag.
+     * If this fails, we just won't see any such events. */
+
+    audio_became_noisy = 0;
+    JNIEnv *env = get_jni_env();
+    jobject j_buffer = (*env)->NewDirectByteBuffer(
+        env, (void *)&audio_became_noisy, sizeof(audio_became_noisy));
+    if (j_buffer) {
+        (*env)->CallVoidMethod(env, android_activity->clazz,
+                               jni_method(JNI_setAudioBecameNoisyBuffer),
+                               j_buffer);
+        (*env)->DeleteLocalRef(env, j_buffer);
+    } else {
+        DLOG("Failed to set up headphone disconnect buffer");
+    }
+    clear_exceptions(env);
 
     /* Start playback. */
 
@@ -267,15 +315,16 @@ int sys_sound_init(const char *device_name)
         goto error_stop_mixer_thread;
     }
     /* Prime playback with empty buffers. */
-    for (int i = 0; i < SOUND_HW_BUFFERS; i++) {
+    for (int i = 0; i < num_hw_buffers; i++) {
         if (!CHECK((*player_Queue)->Enqueue(player_Queue, silence_buffer,
-                                            sizeof(silence_buffer)))) {
+                                            4*buffer_len))) {
             goto error_stop_mixer_thread;
         }
     }
 
     /* All done. */
 
+    startup_trace_end("sys_sound_init");
     return 1;
 
 
@@ -287,6 +336,7 @@ int sys_sound_init(const char *device_name)
   error_free_output_buffer_mem:
     mem_free(output_buffer_mem);
     output_buffer_mem = NULL;
+    silence_buffer = NULL;
   error_destroy_player:
     (*player_Object)->Destroy(player_Object);
     player_Object = NULL;
@@ -298,6 +348,7 @@ int sys_sound_init(const char *device_name)
     engine_Object = NULL;
     engine_Engine = NULL;
   error_return:
+    startup_trace_end("sys_sound_init");
     return 0;
 }
 
@@ -313,7 +364,7 @@ int sys_sound_playback_rate(void)
 float sys_sound_set_latency(UNUSED float latency)
 {
     /* We don't support changing the latency. */
-    return ((float)(SOUND_BUFLEN * (SOUND_HW_BUFFERS-1) + SOUND_BUFLEN/2)
+    return ((float)(buffer_len * (num_hw_buffers-1) + buffer_len/2)
             / (float)output_rate);
 }
 
@@ -328,22 +379,14 @@ void sys_sound_enable_headphone_disconnect_check(int enable)
 
 int sys_sound_check_headphone_disconnect(void)
 {
-    JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    const int became_noisy =
-        (*env)->CallBooleanMethod(env, activity_obj, getAudioBecameNoisy);
-    ASSERT(!clear_exceptions(env), return 0);
-    return became_noisy;
+    return __atomic_load_n(&audio_became_noisy, __ATOMIC_RELAXED) != 0;
 }
 
 /*-----------------------------------------------------------------------*/
 
 void sys_sound_acknowledge_headphone_disconnect(void)
 {
-    JNIEnv *env = get_jni_env();
-    jobject activity_obj = android_activity->clazz;
-    (*env)->CallVoidMethod(env, activity_obj, clearAudioBecameNoisy);
-    ASSERT(!clear_exceptions(env));
+    __atomic_store_n(&audio_became_noisy, 0, __ATOMIC_RELAXED);
 }
 
 /*-----------------------------------------------------------------------*/
@@ -364,6 +407,31 @@ void sys_sound_cleanup(void)
 
     mem_free(output_buffer_mem);
     output_buffer_mem = NULL;
+    silence_buffer = NULL;
+}
+
+/*************************************************************************/
+/******************* Library-internal utility routines *******************/
+/*************************************************************************/
+
+int android_choose_sound_buffer_size(int burst, int low_latency,
+                                     int *num_hw_buffers_ret)
+{
+    PRECOND(num_hw_buffers_ret != NULL, return SOUND_BUFLEN);
+
+    if (burst < 0 || burst > SOUND_MAX_BUFLEN) {
+        burst = 0;
+    }
+    /* Low-latency output is only possible if our buffers are a multiple
+     * of the native buffer size, so we need to know what that is. */
+    if (!burst) {
+        low_latency = 0;
+    }
+
+    const int min_len = low_latency ? SOUND_LOW_LATENCY_BUFLEN : SOUND_BUFLEN;
+    *num_hw_buffers_ret =
+        low_latency ? SOUND_LOW_LATENCY_HW_BUFFERS : SOUND_HW_BUFFERS;
+    return burst ? (int)align_up(min_len, burst) : min_len;
 }
 
 /*************************************************************************/
@@ -383,23 +451,15 @@ static void audio_callback(SLAndroidSimpleBufferQueueItf queue,
         buffer = output_buffers[next_buffer_to_play].data;
         buffer_playing = next_buffer_to_play;
         next_buffer_to_play = (next_buffer_to_play + 1) % SOUND_MIXER_BUFFERS;
-        if (check_headphone_disconnect) {
-            JavaVM *vm = android_activity->vm;
-            JNIEnv *env = NULL;
-            (*vm)->GetEnv(vm, (void **)&env, JNI_VERSION_1_6);
-            if (!env) {
-                (*vm)->AttachCurrentThread(vm, &env, NULL);
-                ASSERT(env);
-            }
-            if (sys_sound_check_headphone_disconnect()) {
-                buffer = silence_buffer;
-            }
+        if (check_headphone_disconnect
+         && sys_sound_check_headphone_disconnect()) {
+            buffer = silence_buffer;
         }
     } else {
         buffer = silence_buffer;
         buffer_playing = -1;
     }
-    CHECK((*queue)->Enqueue(queue, buffer, 4*SOUND_BUFLEN));
+    CHECK((*queue)->Enqueue(queue, buffer, 4*buffer_len));
 }
 
 /*************************************************************************/
@@ -408,7 +468,7 @@ static void audio_callback(SLAndroidSimpleBufferQueueItf queue,
 
 static int mixer_thread(UNUSED void *userdata)
 {
-    const float buffer_time = (float)SOUND_BUFLEN / (float)output_rate;
+    const float buffer_time = (float)buffer_len / (float)output_rate;
 
     unsigned int next_buffer_to_fill = 0;
     do {
@@ -463,7 +523,7 @@ static int mixer_thread(UNUSED void *userdata)
         }
         if (!output_buffers[next_buffer_to_fill].full) {
             sound_mixer_get_pcm(output_buffers[next_buffer_to_fill].data,
-                                SOUND_BUFLEN);
+                                buffer_len);
             output_buffers[next_buffer_to_fill].full = 1;
             next_buffer_to_fill =
                 (next_buffer_to_fill + 1) % SOUND_MIXER_BUFFERS;
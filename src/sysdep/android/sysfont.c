@@ -27,14 +27,8 @@
 
 /* Data structure for Android fonts. */
 struct SysFont {
-    /* Java object pointers. */
-    jclass class;       // SysFont class object (from Java).
-    jobject instance;   // SysFont (Java) instance created for this object.
-
-    /* Java method IDs for SysFont methods. */
-    jmethodID height, baseline, ascent, descent, textAdvance, textWidth;
-    jmethodID drawText;
-
+    /* SysFont (Java) instance created for this object. */
+    jobject instance;
 };
 
 /*************************************************************************/
@@ -51,34 +45,12 @@ SysFont *sys_sysfont_create(UNUSED const char *name, UNUSED float size,
     }
 
     JNIEnv *env = get_jni_env();
-    const jclass class = get_class(".SysFont");
-    ASSERT(class != 0, goto error_free_font);
-
-    const jmethodID constructor = get_method(
-        class, "<init>", "(Landroid/app/Activity;)V");
-    font->height = (*env)->GetMethodID(env, class, "height", "(F)F");
-    font->baseline = (*env)->GetMethodID(env, class, "baseline", "(F)F");
-    font->ascent = (*env)->GetMethodID(env, class, "ascent", "(F)F");
-    font->descent = (*env)->GetMethodID(env, class, "descent", "(F)F");
-    font->textAdvance = get_method(
-        class, "textAdvance", "(Ljava/lang/String;F)F");
-    font->textWidth = get_method(class, "textWidth", "(Ljava/lang/String;F)F");
-    font->drawText = get_method(
-        class, "drawText", "(Ljava/lang/String;F)Landroid/graphics/Bitmap;");
-    ASSERT(constructor, goto error_unref_class);
-    ASSERT(font->height, goto error_unref_class);
-    ASSERT(font->baseline, goto error_unref_class);
-    ASSERT(font->ascent, goto error_unref_class);
-    ASSERT(font->descent, goto error_unref_class);
-    ASSERT(font->textAdvance, goto error_unref_class);
-    ASSERT(font->textWidth, goto error_unref_class);
-    ASSERT(font->drawText, goto error_unref_class);
-
     const jobject instance = (*env)->NewObject(
-        env, class, constructor, android_activity->clazz);
+        env, jni_class(JNI_CLASS_SysFont), jni_method(JNI_SysFont_init),
+        android_activity->clazz);
     if (UNLIKELY(clear_exceptions(env)) || UNLIKELY(!instance)) {
         DLOG("Failed to create SysFont instance");
-        goto error_unref_class;
+        goto error_free_font;
     }
 
     font->instance = (*env)->NewGlobalRef(env, instance);
@@ -86,15 +58,11 @@ SysFont *sys_sysfont_create(UNUSED const char *name, UNUSED float size,
     if (UNLIKELY(!font->instance)) {
         clear_exceptions(env);
         DLOG("Failed to create global reference for SysFont instance");
-        goto error_unref_class;
+        goto error_free_font;
     }
 
-    (*env)->DeleteLocalRef(env, class);
     return font;
 
-  error_unref_class:
-    clear_exceptions(env);
-    (*env)->DeleteLocalRef(env, class);
   error_free_font:
     mem_free(font);
   error_return:
@@ -127,23 +95,24 @@ void sys_sysfont_get_metrics(
 
     if (height_ret) {
         *height_ret = (*env)->CallFloatMethod(
-            env, font->instance, font->height, size);
+            env, font->instance, jni_method(JNI_SysFont_height), size);
         ASSERT(!clear_exceptions(env), *height_ret = 0);
     }
     if (baseline_ret) {
         /* Round up to match render behavior. */
         *baseline_ret = ceilf((*env)->CallFloatMethod(
-                                  env, font->instance, font->baseline, size));
+                                  env, font->instance,
+                                  jni_method(JNI_SysFont_baseline), size));
         ASSERT(!clear_exceptions(env), *baseline_ret = 0);
     }
     if (ascent_ret) {
         *ascent_ret = (*env)->CallFloatMethod(
-            env, font->instance, font->ascent, size);
+            env, font->instance, jni_method(JNI_SysFont_ascent), size);
         ASSERT(!clear_exceptions(env), *ascent_ret = 0);
     }
     if (descent_ret) {
         *descent_ret = (*env)->CallFloatMethod(
-            env, font->instance, font->descent, size);
+            env, font->instance, jni_method(JNI_SysFont_descent), size);
         ASSERT(!clear_exceptions(env), *descent_ret = 0);
     }
 }
@@ -198,7 +167,7 @@ float sys_sysfont_text_advance(SysFont *font, const char *str, float size)
     jstring j_str = (*env)->NewStringUTF(env, str);
     ASSERT(j_str != 0, clear_exceptions(env); return 0);
     const float advance = (*env)->CallFloatMethod(
-        env, font->instance, font->textAdvance, j_str, size);
+        env, font->instance, jni_method(JNI_SysFont_textAdvance), j_str, size);
     (*env)->DeleteLocalRef(env, j_str);
     ASSERT(!clear_exceptions(env));
     return advance;
@@ -214,7 +183,7 @@ void sys_sysfont_get_text_bounds(
     jstring j_str = (*env)->NewStringUTF(env, str);
     ASSERT(j_str != 0, clear_exceptions(env); *left_ret = 0; *right_ret = 0; return);
     const float width = (*env)->CallFloatMethod(
-        env, font->instance, font->textWidth, j_str, size);
+        env, font->instance, jni_method(JNI_SysFont_textWidth), j_str, size);
     (*env)->DeleteLocalRef(env, j_str);
     *left_ret = 0;
     *right_ret = width;
@@ -231,7 +200,7 @@ SysTexture *sys_sysfont_render(
     jstring j_str = (*env)->NewStringUTF(env, str);
     ASSERT(j_str != 0, clear_exceptions(env); return 0);
     jobject bitmap = (*env)->CallObjectMethod(
-        env, font->instance, font->drawText, j_str, size);
+        env, font->instance, jni_method(JNI_SysFont_drawText), j_str, size);
     (*env)->DeleteLocalRef(env, j_str);
     if (clear_exceptions(env) || !bitmap) {
         DLOG("Failed to render text (Java exception?)");
@@ -26,13 +26,9 @@ void posix_thread_runner_init(SysThread *thread)
     JNIEnv *env;
     (*vm)->AttachCurrentThread(vm, &env, NULL);
 
-    jclass android_os_Process = get_class("android.os.Process");
-    ASSERT(android_os_Process, return);
-    jmethodID setThreadPriority = (*env)->GetStaticMethodID(
-        env, android_os_Process, "setThreadPriority", "(I)V");
-    ASSERT(setThreadPriority != 0, return);
-    (*env)->CallStaticVoidMethod(env, android_os_Process,
-                                 setThreadPriority, thread->initial_priority);
+    (*env)->CallStaticVoidMethod(
+        env, jni_class(JNI_CLASS_Process),
+        jni_method(JNI_Process_setThreadPriority), thread->initial_priority);
     if (UNLIKELY(clear_exceptions(env))) {
         DLOG("Failed to set thread priority to %d", thread->initial_priority);
     }
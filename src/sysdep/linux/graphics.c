@@ -157,6 +157,7 @@
 #include "src/memory.h"
 #include "src/sysdep.h"
 #include "src/sysdep/linux/internal.h"
+#include "src/sysdep/misc/startup-trace.h"
 #include "src/sysdep/opengl/opengl.h"
 #include "src/sysdep/posix/path_max.h"
 #include "src/time.h"
@@ -977,6 +978,8 @@ static void *linux_glXGetProcAddress(const char *name);
 
 const SysGraphicsInfo *sys_graphics_init(void)
 {
+    startup_trace_begin("sys_graphics_init");
+
     PRECOND(!initted, goto error_return);
     PRECOND(x11_display != NULL, goto error_return);
 
@@ -1230,6 +1233,7 @@ const SysGraphicsInfo *sys_graphics_init(void)
     x11_window = None;
 
     initted = 1;
+    startup_trace_end("sys_graphics_init");
     return &graphics_info;
 
   error_free_video_modes:
@@ -1249,6 +1253,7 @@ const SysGraphicsInfo *sys_graphics_init(void)
         xrandr_screen0_res = NULL;
     }
   error_return:
+    startup_trace_end("sys_graphics_init");
     return NULL;
 }
 
@@ -1879,7 +1884,15 @@ void sys_graphics_start_frame(int *width_ret, int *height_ret)
 
 void sys_graphics_finish_frame(void)
 {
-    glXSwapBuffers(x11_display, glx_window);
+    /* The startup trace ends with the first presented frame. */
+    if (UNLIKELY(startup_trace_is_recording())) {
+        startup_trace_begin("first glXSwapBuffers");
+        glXSwapBuffers(x11_display, glx_window);
+        startup_trace_end("first glXSwapBuffers");
+        linux_finish_startup_trace();
+    } else {
+        glXSwapBuffers(x11_display, glx_window);
+    }
 }
 
 /*-----------------------------------------------------------------------*/
@@ -221,6 +221,15 @@ extern void linux_set_quit_requested(void);
  */
 extern const char *linux_executable_dir(void);
 
+/**
+ * linux_finish_startup_trace:  Stop recording the startup trace (see
+ * src/sysdep/misc/startup-trace.h) and, if the SIL_STARTUP_TRACE
+ * environment variable is set to a nonempty string, write the trace to
+ * the file named by that variable.  Called after the first frame has been
+ * presented; does nothing if the trace has already been finished.
+ */
+extern void linux_finish_startup_trace(void);
+
 /*************************************************************************/
 /************************ Test control variables *************************/
 /*************************************************************************/
@@ -11,6 +11,7 @@
 #include "src/main.h"
 #include "src/math/fpu.h"
 #include "src/sysdep/linux/internal.h"
+#include "src/sysdep/misc/startup-trace.h"
 #include "src/sysdep/posix/path_max.h"
 #include "src/utility/misc.h"
 
@@ -58,6 +59,8 @@ int main(int argc, char **argv_)
 {
     const char **argv = (const char **)argv_;
 
+    startup_trace_mark("main");
+
     /* Install signal handlers to avoid being terminated with the display
      * in an unusable state.  We set SA_RESTART so we don't have to worry
      * about handling EINTR from system calls (but see inotify handling in
@@ -151,6 +154,7 @@ int main(int argc, char **argv_)
     }
 
     /* Call the common SIL entry point. */
+    startup_trace_mark("sil_main");
     const int exitcode = sil__main(argc, argv);
 
     /* Shut down the display and exit. */
@@ -167,6 +171,25 @@ const char *linux_executable_dir(void)
     return executable_dir;
 }
 
+/*-----------------------------------------------------------------------*/
+
+void linux_finish_startup_trace(void)
+{
+    if (!startup_trace_is_recording()) {
+        return;
+    }
+    startup_trace_mark("first frame presented");
+    startup_trace_stop();
+
+    const char *path = getenv("SIL_STARTUP_TRACE");
+    if (path && *path) {
+        if (startup_trace_write(path)) {
+            DLOG("Startup trace (%d events) written to %s",
+                 startup_trace_num_events(), path);
+        }
+    }
+}
+
 /*************************************************************************/
 /**************************** Local routines *****************************/
 /*************************************************************************/
@@ -0,0 +1,132 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/dynamic-resolution.c: Dynamic rendering resolution
+ * controller.
+ */
+
+#include "src/base.h"
+#include "src/math.h"
+#include "src/sysdep/misc/dynamic-resolution.h"
+
+/*************************************************************************/
+/*************************************************************************/
+
+void dynamic_resolution_init(DynamicResolution *dr, int width, int height,
+                             float min_scale, float max_scale)
+{
+    PRECOND(dr != NULL, return);
+    PRECOND(width > 0, width = 1);
+    PRECOND(height > 0, height = 1);
+    PRECOND(min_scale > 0, min_scale = DYNAMIC_RESOLUTION_STEP);
+    PRECOND(max_scale >= min_scale, max_scale = min_scale);
+
+    dr->base_width = width;
+    dr->base_height = height;
+    dr->min_scale = min_scale;
+    dr->max_scale = max_scale;
+    dr->scale = max_scale;
+    dr->load = -1;
+    dr->frames_since_change = 0;
+    dr->ceiling = 0;
+    dr->up_delay = DYNAMIC_RESOLUTION_SETTLE_FRAMES;
+    dr->last_change_was_up = 0;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int dynamic_resolution_update(DynamicResolution *dr,
+                              float frame_time, float target_time)
+{
+    PRECOND(dr != NULL, return 0);
+
+    if (!(target_time > 0) || !(frame_time >= 0)) {
+        return 0;
+    }
+
+    const float sample = frame_time / target_time;
+    if (dr->load < 0) {
+        dr->load = sample;
+    } else {
+        dr->load += (sample - dr->load) * DYNAMIC_RESOLUTION_SMOOTHING;
+    }
+    dr->frames_since_change++;
+
+    /* If an increase to the ceiling has held, forget the ceiling. */
+    if (dr->ceiling > 0 && dr->last_change_was_up
+     && dr->frames_since_change >= DYNAMIC_RESOLUTION_REVERSAL_WINDOW
+     && dr->scale >= dr->ceiling) {
+        dr->ceiling = 0;
+        dr->up_delay = DYNAMIC_RESOLUTION_SETTLE_FRAMES;
+    }
+
+    float new_scale = dr->scale;
+    int is_up = 0;
+    if (dr->load > DYNAMIC_RESOLUTION_HIGH_LOAD
+     && dr->frames_since_change >= DYNAMIC_RESOLUTION_SETTLE_FRAMES
+     && dr->scale > dr->min_scale) {
+        /* Rendering cost is roughly proportional to the number of pixels,
+         * so choose the scale which would bring the load to the middle of
+         * the no-change band, rounding down to a multiple of the step
+         * size (but always reducing by at least one step). */
+        const float target_load =
+            (DYNAMIC_RESOLUTION_HIGH_LOAD + DYNAMIC_RESOLUTION_LOW_LOAD) / 2;
+        const float ideal = dr->scale * sqrtf(target_load / dr->load);
+        const float quantized = floorf(ideal / DYNAMIC_RESOLUTION_STEP
+                                       + 0.001f) * DYNAMIC_RESOLUTION_STEP;
+        new_scale = lbound(ubound(quantized,
+                                  dr->scale - DYNAMIC_RESOLUTION_STEP),
+                           dr->min_scale);
+        if (dr->last_change_was_up
+         && dr->frames_since_change < DYNAMIC_RESOLUTION_REVERSAL_WINDOW) {
+            dr->ceiling = dr->scale;
+            dr->up_delay = ubound(dr->up_delay * 2,
+                                  DYNAMIC_RESOLUTION_MAX_UP_DELAY);
+        } else {
+            /* The load went up on its own, so earlier experience is no
+             * longer relevant. */
+            dr->ceiling = 0;
+            dr->up_delay = DYNAMIC_RESOLUTION_SETTLE_FRAMES;
+        }
+    } else if (dr->load < DYNAMIC_RESOLUTION_LOW_LOAD
+            && dr->frames_since_change >= DYNAMIC_RESOLUTION_SETTLE_FRAMES
+            && dr->scale < dr->max_scale) {
+        const float quantized = roundf(dr->scale / DYNAMIC_RESOLUTION_STEP)
+                              * DYNAMIC_RESOLUTION_STEP;
+        const float candidate = ubound(quantized + DYNAMIC_RESOLUTION_STEP,
+                                       dr->max_scale);
+        if (!(dr->ceiling > 0 && candidate >= dr->ceiling - 0.001f)
+         || dr->frames_since_change >= dr->up_delay) {
+            new_scale = candidate;
+            is_up = 1;
+        }
+    }
+
+    if (new_scale == dr->scale) {
+        return 0;
+    }
+    dr->scale = new_scale;
+    dr->load = -1;
+    dr->frames_since_change = 0;
+    dr->last_change_was_up = is_up;
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+void dynamic_resolution_get_size(const DynamicResolution *dr,
+                                 int *width_ret, int *height_ret)
+{
+    PRECOND(dr != NULL, return);
+    PRECOND(width_ret != NULL, return);
+    PRECOND(height_ret != NULL, return);
+
+    *width_ret = lbound(iroundf(dr->base_width * dr->scale), 1);
+    *height_ret = lbound(iroundf(dr->base_height * dr->scale), 1);
+}
+
+/*************************************************************************/
+/*************************************************************************/
@@ -0,0 +1,143 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/dynamic-resolution.h: Header for the dynamic rendering
+ * resolution controller.
+ */
+
+/*
+ * This header declares a controller which adjusts the rendering
+ * resolution based on measured frame times, for systems which can change
+ * the size of the display buffer cheaply (such as Android, where the
+ * system compositor scales the buffer to the window).  The controller
+ * keeps a smoothed measurement of the frame time relative to a target
+ * time, and:
+ *
+ * - scales the resolution down (in proportion to the excess load) when
+ *   the load stays above DYNAMIC_RESOLUTION_HIGH_LOAD;
+ *
+ * - scales the resolution up by one DYNAMIC_RESOLUTION_STEP when the load
+ *   stays below DYNAMIC_RESOLUTION_LOW_LOAD; and
+ *
+ * - otherwise leaves the resolution unchanged.
+ *
+ * To avoid oscillating between two sizes when the load sits near a
+ * threshold, the controller waits for the measurement to settle after
+ * each change.  Additionally, when an increase is immediately followed
+ * by a decrease, the controller remembers the scale at which that
+ * happened and doubles the time the load must stay low before it tries
+ * that scale again; increases to lower scales proceed at the normal rate.
+ * Once an increase to that scale sticks, the controller forgets it.
+ *
+ * The controller does not measure time or resize anything itself; the
+ * caller feeds it frame times and applies the resulting size at a safe
+ * point, which allows the policy to be tested with synthetic frame-time
+ * traces.
+ */
+
+#ifndef SIL_SRC_SYSDEP_MISC_DYNAMIC_RESOLUTION_H
+#define SIL_SRC_SYSDEP_MISC_DYNAMIC_RESOLUTION_H
+
+/*************************************************************************/
+/*************************************************************************/
+
+/* Load (frame time divided by target time) above which the resolution is
+ * decreased, and below which it is increased. */
+#define DYNAMIC_RESOLUTION_HIGH_LOAD  0.90f
+#define DYNAMIC_RESOLUTION_LOW_LOAD   0.65f
+
+/* Granularity of the resolution scale factor. */
+#define DYNAMIC_RESOLUTION_STEP  0.05f
+
+/* Weight given to each new frame time in the smoothed load. */
+#define DYNAMIC_RESOLUTION_SMOOTHING  0.1f
+
+/* Number of frames to wait after a change before considering another. */
+#define DYNAMIC_RESOLUTION_SETTLE_FRAMES  30
+
+/* Number of frames after an increase within which a decrease is treated
+ * as a reversal of that increase. */
+#define DYNAMIC_RESOLUTION_REVERSAL_WINDOW \
+    (DYNAMIC_RESOLUTION_SETTLE_FRAMES*4)
+
+/* Maximum number of low-load frames required before retrying an increase
+ * which was reversed. */
+#define DYNAMIC_RESOLUTION_MAX_UP_DELAY  (DYNAMIC_RESOLUTION_SETTLE_FRAMES*32)
+
+/**
+ * DynamicResolution:  State of a dynamic resolution controller.  All
+ * fields should be treated as read-only by callers.
+ */
+typedef struct DynamicResolution DynamicResolution;
+struct DynamicResolution {
+    /* Full-resolution size, in pixels. */
+    int base_width, base_height;
+    /* Bounds on the scale factor. */
+    float min_scale, max_scale;
+    /* Current scale factor. */
+    float scale;
+    /* Smoothed load (frame time divided by target time), or negative if
+     * no frames have been measured since the last change. */
+    float load;
+    /* Number of frames measured since the last change. */
+    int frames_since_change;
+    /* Scale factor at which an increase was most recently reversed, or
+     * zero if none. */
+    float ceiling;
+    /* Number of frames the load must stay low before an increase to
+     * "ceiling" or higher. */
+    int up_delay;
+    /* Flag: was the last change an increase? */
+    uint8_t last_change_was_up;
+};
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * dynamic_resolution_init:  Initialize a dynamic resolution controller.
+ * The initial scale factor is max_scale.
+ *
+ * [Parameters]
+ *     dr: Controller to initialize.
+ *     width, height: Full-resolution size, in pixels.
+ *     min_scale, max_scale: Bounds on the scale factor (0 < min_scale
+ *         <= max_scale).  Setting both to 1 effectively disables scaling.
+ */
+extern void dynamic_resolution_init(DynamicResolution *dr,
+                                    int width, int height,
+                                    float min_scale, float max_scale);
+
+/**
+ * dynamic_resolution_update:  Record the time taken by a frame and
+ * update the scale factor if appropriate.
+ *
+ * [Parameters]
+ *     dr: Controller to update.
+ *     frame_time: Time taken by the frame, in seconds.
+ *     target_time: Time available for each frame, in seconds.
+ * [Return value]
+ *     True if the scale factor (and thus the rendering size) changed,
+ *     false if not.
+ */
+extern int dynamic_resolution_update(DynamicResolution *dr,
+                                     float frame_time, float target_time);
+
+/**
+ * dynamic_resolution_get_size:  Return the rendering size for the
+ * controller's current scale factor.
+ *
+ * [Parameters]
+ *     dr: Controller to check.
+ *     width_ret, height_ret: Pointers to variables to receive the
+ *         rendering size, in pixels (always at least 1).
+ */
+extern void dynamic_resolution_get_size(const DynamicResolution *dr,
+                                        int *width_ret, int *height_ret);
+
+/*************************************************************************/
+/*************************************************************************/
+
+#endif  // SIL_SRC_SYSDEP_MISC_DYNAMIC_RESOLUTION_H
@@ -0,0 +1,125 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/input-latency.c: Input latency measurement utilities.
+ */
+
+#include "src/base.h"
+#include "src/math.h"
+#include "src/sysdep/misc/input-latency.h"
+
+/*************************************************************************/
+/*************************************************************************/
+
+void input_latency_reset(InputLatencyHistogram *histogram)
+{
+    PRECOND(histogram != NULL, return);
+
+    for (int i = 0; i < lenof(histogram->bucket); i++) {
+        histogram->bucket[i] = 0;
+    }
+    histogram->count = 0;
+    histogram->reset_requested = 0;
+}
+
+/*-----------------------------------------------------------------------*/
+
+void input_latency_request_reset(InputLatencyHistogram *histogram)
+{
+    PRECOND(histogram != NULL, return);
+    histogram->reset_requested = 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+void input_latency_record(InputLatencyHistogram *histogram, double latency)
+{
+    PRECOND(histogram != NULL, return);
+
+    if (UNLIKELY(histogram->reset_requested)) {
+        input_latency_reset(histogram);
+    }
+
+    const double usec = latency * 1.0e6;
+    int bucket;
+    if (!(usec >= 1)) {  // Also catches negative values and NaN.
+        bucket = 0;
+    } else if (usec >= 1.0e9) {  // Avoid overflow in the conversion below.
+        bucket = INPUT_LATENCY_BUCKETS - 1;
+    } else {
+        /* log2() is exact at powers of 2, so a latency of exactly 2^n
+         * microseconds lands at the bottom of bucket 4n+1. */
+        bucket = 1 + ifloor(4 * log2(usec));
+        bucket = ubound(bucket, INPUT_LATENCY_BUCKETS - 1);
+    }
+    histogram->bucket[bucket]++;
+    histogram->count++;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int input_latency_count(const InputLatencyHistogram *histogram)
+{
+    PRECOND(histogram != NULL, return 0);
+    return (int)histogram->count;
+}
+
+/*-----------------------------------------------------------------------*/
+
+double input_latency_percentile(const InputLatencyHistogram *histogram,
+                                double percentile)
+{
+    PRECOND(histogram != NULL, return 0);
+    PRECOND(percentile > 0 && percentile <= 100, return 0);
+
+    /* Take a snapshot so the result is self-consistent even if another
+     * thread is updating the histogram. */
+    uint32_t bucket[INPUT_LATENCY_BUCKETS];
+    uint32_t total = 0;
+    for (int i = 0; i < lenof(bucket); i++) {
+        bucket[i] = histogram->bucket[i];
+        total += bucket[i];
+    }
+    if (!total) {
+        return 0;
+    }
+
+    const double target = total * (percentile / 100);
+    uint32_t seen = 0;
+    for (int i = 0; i < lenof(bucket); i++) {
+        seen += bucket[i];
+        if (seen >= target) {
+            return input_latency_bucket_limit(i);
+        }
+    }
+    return input_latency_bucket_limit(lenof(bucket) - 1);
+}
+
+/*-----------------------------------------------------------------------*/
+
+double input_latency_bucket_limit(int bucket)
+{
+    PRECOND(bucket >= 0 && bucket < INPUT_LATENCY_BUCKETS, return 0);
+    return pow(2.0, bucket * 0.25) * 1.0e-6;
+}
+
+/*-----------------------------------------------------------------------*/
+
+double input_latency_convert_timestamp(uint64_t event_time, int64_t offset,
+                                       uint64_t epoch, uint64_t unit)
+{
+    PRECOND(unit > 0 && unit <= 1000000000, return 0);
+    PRECOND(1000000000 % unit == 0, return 0);
+
+    const uint64_t epoch_ns = epoch * (1000000000 / unit);
+    /* The difference may be negative if the event was timestamped before
+     * time_now() was initialized. */
+    const int64_t delta = (int64_t)(event_time + offset - epoch_ns);
+    return delta * 1.0e-9;
+}
+
+/*************************************************************************/
+/*************************************************************************/
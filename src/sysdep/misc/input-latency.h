@@ -0,0 +1,154 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/input-latency.h: Header for input latency measurement
+ * utilities.
+ */
+
+/*
+ * This header declares a simple histogram type for recording input event
+ * latencies (the time from when the system timestamped an event to when
+ * some stage of SIL's input processing saw it), along with a helper for
+ * converting system event timestamps to the time_now() time base.
+ *
+ * Histograms use logarithmically sized buckets, with four buckets per
+ * power of two starting at 1 microsecond: bucket 0 holds latencies below
+ * 1us, and bucket i (i >= 1) holds latencies in the range
+ * [2^((i-1)/4), 2^(i/4)) microseconds.  Latencies too large for the
+ * last bucket are counted in the last bucket.  Negative latencies (which
+ * can occur if the two clocks are slightly out of sync) are counted in
+ * bucket 0.
+ *
+ * Each histogram may only be updated by one thread at a time, but may be
+ * read from any thread without locking; a reader running concurrently
+ * with an update may see a count which is off by one.  To clear a
+ * histogram from a thread other than the one updating it, call
+ * input_latency_request_reset(); the histogram will be cleared on the
+ * next call to input_latency_record().
+ *
+ * All fields of InputLatencyHistogram are 32-bit integers, so an array of
+ * histograms can be read as a flat array of integers (for example, by
+ * Java code through a direct ByteBuffer).
+ */
+
+#ifndef SIL_SRC_SYSDEP_MISC_INPUT_LATENCY_H
+#define SIL_SRC_SYSDEP_MISC_INPUT_LATENCY_H
+
+/*************************************************************************/
+/*************************************************************************/
+
+/**
+ * INPUT_LATENCY_BUCKETS:  Number of buckets in each histogram.  With four
+ * buckets per power of two, the last bucket starts at 2^21.5 microseconds
+ * (about 3 seconds).
+ */
+#define INPUT_LATENCY_BUCKETS  88
+
+/**
+ * InputLatencyHistogram:  Histogram of latency values.
+ */
+typedef struct InputLatencyHistogram InputLatencyHistogram;
+struct InputLatencyHistogram {
+    volatile uint32_t bucket[INPUT_LATENCY_BUCKETS];
+    /* Total number of samples recorded. */
+    volatile uint32_t count;
+    /* Nonzero if the histogram should be cleared before the next sample
+     * is recorded. */
+    volatile uint32_t reset_requested;
+};
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * input_latency_reset:  Clear all samples from the given histogram.  The
+ * caller must ensure that no other thread is recording samples to the
+ * histogram.
+ *
+ * [Parameters]
+ *     histogram: Histogram to clear.
+ */
+extern void input_latency_reset(InputLatencyHistogram *histogram);
+
+/**
+ * input_latency_request_reset:  Request that the given histogram be
+ * cleared on the next call to input_latency_record().  May be called from
+ * any thread.
+ *
+ * [Parameters]
+ *     histogram: Histogram to clear.
+ */
+extern void input_latency_request_reset(InputLatencyHistogram *histogram);
+
+/**
+ * input_latency_record:  Record a latency sample.
+ *
+ * [Parameters]
+ *     histogram: Histogram in which to record the sample.
+ *     latency: Latency, in seconds.
+ */
+extern void input_latency_record(InputLatencyHistogram *histogram,
+                                 double latency);
+
+/**
+ * input_latency_count:  Return the number of samples recorded in the
+ * given histogram.
+ *
+ * [Parameters]
+ *     histogram: Histogram to examine.
+ * [Return value]
+ *     Number of samples.
+ */
+extern int input_latency_count(const InputLatencyHistogram *histogram);
+
+/**
+ * input_latency_percentile:  Return an upper bound on the given
+ * percentile latency from the given histogram.  The value returned is
+ * the upper limit of the bucket containing the requested percentile, so
+ * it may overestimate the true value by up to about 19%.
+ *
+ * [Parameters]
+ *     histogram: Histogram to examine.
+ *     percentile: Percentile to return (0 < percentile <= 100).
+ * [Return value]
+ *     Latency at the given percentile, in seconds, or zero if the
+ *     histogram contains no samples.
+ */
+extern double input_latency_percentile(const InputLatencyHistogram *histogram,
+                                       double percentile);
+
+/**
+ * input_latency_bucket_limit:  Return the upper limit of the given
+ * histogram bucket.
+ *
+ * [Parameters]
+ *     bucket: Bucket index (0 <= bucket < INPUT_LATENCY_BUCKETS).
+ * [Return value]
+ *     Upper limit of the bucket's latency range, in seconds.
+ */
+extern CONST_FUNCTION double input_latency_bucket_limit(int bucket);
+
+/**
+ * input_latency_convert_timestamp:  Convert a system event timestamp in
+ * nanoseconds to a timestamp compatible with time_now().
+ *
+ * [Parameters]
+ *     event_time: Event timestamp, in nanoseconds.
+ *     offset: Offset (in nanoseconds) to add to event_time to obtain a
+ *         time in the sys_time_now() time base; zero if the event clock
+ *         is the same clock used by sys_time_now().
+ *     epoch: time_now() epoch, in sys_time_now() units.
+ *     unit: Number of sys_time_now() units per second (must evenly
+ *         divide 1000000000).
+ * [Return value]
+ *     Equivalent timestamp compatible with time_now().
+ */
+extern CONST_FUNCTION double input_latency_convert_timestamp(
+    uint64_t event_time, int64_t offset, uint64_t epoch, uint64_t unit);
+
+/*************************************************************************/
+/*************************************************************************/
+
+#endif  // SIL_SRC_SYSDEP_MISC_INPUT_LATENCY_H
@@ -0,0 +1,109 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/input-ring.c: Lock-free single-producer, single-consumer
+ * ring buffer for input events.
+ */
+
+#include "src/base.h"
+#include "src/input.h"
+#include "src/sysdep/misc/input-ring.h"
+
+/*************************************************************************/
+/*************************************************************************/
+
+int input_ring_init(InputRing *ring, InputEvent *buffer, int size)
+{
+    PRECOND(ring != NULL, return 0);
+    PRECOND(buffer != NULL, return 0);
+    if (size <= 0 || (size & (size-1)) != 0) {
+        DLOG("Invalid ring size %d (must be a power of 2)", size);
+        return 0;
+    }
+
+    ring->buffer = buffer;
+    ring->mask = size - 1;
+    ring->head = 0;
+    ring->tail = 0;
+    ring->high_water = 0;
+    ring->dropped = 0;
+    BARRIER();
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int input_ring_push(InputRing *ring, const InputEvent *event)
+{
+    PRECOND(ring != NULL, return 0);
+    PRECOND(event != NULL, return 0);
+
+    const unsigned int head = ring->head;
+    const unsigned int count = head - ring->tail;
+    if (UNLIKELY(count > ring->mask)) {
+        ring->dropped++;
+        return 0;
+    }
+
+    ring->buffer[head & ring->mask] = *event;
+    /* Make sure the event data is visible before the new head value. */
+    BARRIER();
+    ring->head = head + 1;
+
+    if (count + 1 > ring->high_water) {
+        ring->high_water = count + 1;
+    }
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int input_ring_pop(InputRing *ring, InputEvent *event_ret)
+{
+    PRECOND(ring != NULL, return 0);
+    PRECOND(event_ret != NULL, return 0);
+
+    const unsigned int tail = ring->tail;
+    if (tail == ring->head) {
+        return 0;
+    }
+    /* Make sure we don't read the event data before the head value. */
+    BARRIER();
+
+    *event_ret = ring->buffer[tail & ring->mask];
+    /* Make sure we've finished reading the event before the slot can be
+     * reused. */
+    BARRIER();
+    ring->tail = tail + 1;
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int input_ring_count(const InputRing *ring)
+{
+    PRECOND(ring != NULL, return 0);
+    return (int)(ring->head - ring->tail);
+}
+
+/*-----------------------------------------------------------------------*/
+
+int input_ring_high_water(const InputRing *ring)
+{
+    PRECOND(ring != NULL, return 0);
+    return (int)ring->high_water;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int input_ring_dropped(const InputRing *ring)
+{
+    PRECOND(ring != NULL, return 0);
+    return (int)ring->dropped;
+}
+
+/*************************************************************************/
+/*************************************************************************/
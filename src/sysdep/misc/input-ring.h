@@ -0,0 +1,137 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/input-ring.h: Header for the lock-free input event ring.
+ */
+
+/*
+ * This header declares a fixed-size ring buffer for passing InputEvent
+ * structures from one thread (the "producer", typically a system input
+ * thread) to another (the "consumer", typically the thread which calls
+ * input_update()) without locks or memory allocation.  Exactly one
+ * thread may call input_ring_push() and exactly one thread may call
+ * input_ring_pop() on a given ring at any one time; the statistics
+ * functions may be called from any thread.
+ *
+ * The caller provides the event buffer, whose length must be a power of
+ * two.  If the producer pushes an event while the ring is full, the new
+ * event is discarded and counted; the contents of the ring are never
+ * modified by the producer, so events which have already been queued are
+ * always delivered in order.  The number of discarded events and the
+ * maximum number of events ever held in the ring (the "high-water mark")
+ * can be retrieved with input_ring_dropped() and input_ring_high_water()
+ * to help choose an appropriate buffer size.
+ */
+
+#ifndef SIL_SRC_SYSDEP_MISC_INPUT_RING_H
+#define SIL_SRC_SYSDEP_MISC_INPUT_RING_H
+
+#include "src/input.h"  // For InputEvent.
+
+/*************************************************************************/
+/*************************************************************************/
+
+/**
+ * InputRing:  Ring buffer state.  Callers should treat this structure as
+ * opaque; it is declared here only so that rings can be statically
+ * allocated.
+ */
+typedef struct InputRing InputRing;
+struct InputRing {
+    /* Event buffer and size mask (buffer length - 1). */
+    InputEvent *buffer;
+    unsigned int mask;
+    /* Free-running index of the next slot to write.  Only modified by
+     * the producer. */
+    volatile unsigned int head;
+    /* Free-running index of the next slot to read.  Only modified by the
+     * consumer. */
+    volatile unsigned int tail;
+    /* Maximum number of events held at once, and number of events
+     * discarded because the ring was full.  Only modified by the
+     * producer. */
+    volatile unsigned int high_water;
+    volatile unsigned int dropped;
+};
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * input_ring_init:  Initialize a ring buffer.  This must not be called
+ * while any other thread is accessing the ring.
+ *
+ * [Parameters]
+ *     ring: Ring to initialize.
+ *     buffer: Buffer for storing events.
+ *     size: Length of buffer, in events (must be a power of 2).
+ * [Return value]
+ *     True on success, false if size is invalid.
+ */
+extern int input_ring_init(InputRing *ring, InputEvent *buffer, int size);
+
+/**
+ * input_ring_push:  Append an event to the ring.  Only the producer
+ * thread may call this function.
+ *
+ * [Parameters]
+ *     ring: Ring buffer.
+ *     event: Event to append.
+ * [Return value]
+ *     True if the event was stored, false if it was discarded because the
+ *     ring was full.
+ */
+extern int input_ring_push(InputRing *ring, const InputEvent *event);
+
+/**
+ * input_ring_pop:  Remove the oldest event from the ring.  Only the
+ * consumer thread may call this function.
+ *
+ * [Parameters]
+ *     ring: Ring buffer.
+ *     event_ret: Pointer to variable to receive the event.
+ * [Return value]
+ *     True if an event was returned, false if the ring was empty.
+ */
+extern int input_ring_pop(InputRing *ring, InputEvent *event_ret);
+
+/**
+ * input_ring_count:  Return the number of events currently in the ring.
+ * If called from a thread other than the consumer, the value may be
+ * outdated by the time it is returned.
+ *
+ * [Parameters]
+ *     ring: Ring buffer.
+ * [Return value]
+ *     Number of events in the ring.
+ */
+extern int input_ring_count(const InputRing *ring);
+
+/**
+ * input_ring_high_water:  Return the maximum number of events which have
+ * been held in the ring at one time since it was initialized.
+ *
+ * [Parameters]
+ *     ring: Ring buffer.
+ * [Return value]
+ *     High-water mark, in events.
+ */
+extern int input_ring_high_water(const InputRing *ring);
+
+/**
+ * input_ring_dropped:  Return the number of events which have been
+ * discarded because the ring was full since it was initialized.
+ *
+ * [Parameters]
+ *     ring: Ring buffer.
+ * [Return value]
+ *     Number of discarded events.
+ */
+extern int input_ring_dropped(const InputRing *ring);
+
+/*************************************************************************/
+/*************************************************************************/
+
+#endif  // SIL_SRC_SYSDEP_MISC_INPUT_RING_H
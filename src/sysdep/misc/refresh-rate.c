@@ -0,0 +1,103 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/refresh-rate.c: Display refresh rate selection
+ * utilities.
+ */
+
+#include "src/base.h"
+#include "src/math.h"
+#include "src/sysdep/misc/refresh-rate.h"
+
+/*************************************************************************/
+/*************************************************************************/
+
+int refresh_rate_filter_modes(RefreshMode *modes, int num_modes,
+                              int current_id)
+{
+    PRECOND(modes != NULL || num_modes == 0, return 0);
+
+    int current = -1;
+    for (int i = 0; i < num_modes; i++) {
+        if (modes[i].id == current_id) {
+            current = i;
+            break;
+        }
+    }
+    if (current < 0) {
+        return 0;
+    }
+    const int width = modes[current].width;
+    const int height = modes[current].height;
+
+    /* Insertion sort on the matching modes; the list is short, and this
+     * lets us drop duplicates as we go. */
+    int count = 0;
+    for (int i = 0; i < num_modes; i++) {
+        if (modes[i].width != width || modes[i].height != height) {
+            continue;
+        }
+        const RefreshMode mode = modes[i];
+        int pos = count;
+        while (pos > 0 && modes[pos-1].refresh > mode.refresh) {
+            pos--;
+        }
+        if (pos > 0 && modes[pos-1].refresh == mode.refresh) {
+            if (mode.id == current_id) {
+                modes[pos-1] = mode;
+            }
+            continue;
+        }
+        /* Entries at or after index i have not yet been examined, but
+         * count <= i, so shifting entries [pos,count) up by one never
+         * overwrites an unexamined entry other than modes[i] itself,
+         * which we saved above. */
+        for (int j = count; j > pos; j--) {
+            modes[j] = modes[j-1];
+        }
+        modes[pos] = mode;
+        count++;
+    }
+    return count;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int refresh_rate_select_mode(const RefreshMode *modes, int num_modes,
+                             int current_id, float refresh_rate)
+{
+    PRECOND(modes != NULL || num_modes == 0, return -1);
+
+    if (!(refresh_rate > 0) || num_modes == 0) {
+        return -1;
+    }
+
+    int best = -1;
+    float best_diff = 0;
+    for (int i = 0; i < num_modes; i++) {
+        const float diff = fabsf(modes[i].refresh - refresh_rate);
+        int better;
+        if (best < 0 || diff < best_diff) {
+            better = 1;
+        } else if (diff > best_diff) {
+            better = 0;
+        } else if (modes[best].id == current_id) {
+            better = 0;
+        } else if (modes[i].id == current_id) {
+            better = 1;
+        } else {
+            better = (modes[i].refresh > modes[best].refresh);
+        }
+        if (better) {
+            best = i;
+            best_diff = diff;
+        }
+    }
+    return best;
+}
+
+/*************************************************************************/
+/*************************************************************************/
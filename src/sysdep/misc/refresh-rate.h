@@ -0,0 +1,81 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/refresh-rate.h: Header for display refresh rate
+ * selection utilities.
+ */
+
+/*
+ * This header declares helper functions for systems which allow the
+ * display refresh rate to be changed without changing the display size,
+ * such as Android 6.0 and later.  The system-specific code is responsible
+ * for retrieving the list of display modes from the system and applying
+ * the selected mode; these functions implement the selection policy, so
+ * that it can be tested independently of any particular system.
+ */
+
+#ifndef SIL_SRC_SYSDEP_MISC_REFRESH_RATE_H
+#define SIL_SRC_SYSDEP_MISC_REFRESH_RATE_H
+
+/*************************************************************************/
+/*************************************************************************/
+
+/**
+ * RefreshMode:  Structure describing a single system display mode.
+ */
+typedef struct RefreshMode RefreshMode;
+struct RefreshMode {
+    /* System identifier for the mode. */
+    int id;
+    /* Display size, in pixels. */
+    int width, height;
+    /* Refresh rate, in frames per second. */
+    float refresh;
+};
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * refresh_rate_filter_modes:  Remove from the given array all modes whose
+ * size differs from that of the given current mode, and sort the
+ * remaining modes in order of increasing refresh rate.  Modes with
+ * duplicate refresh rates are also removed, keeping the current mode if
+ * it is one of the duplicates.
+ *
+ * [Parameters]
+ *     modes: Array of modes (modified in place).
+ *     num_modes: Number of entries in the array.
+ *     current_id: System identifier of the current mode.
+ * [Return value]
+ *     Number of modes remaining in the array, or zero if the current mode
+ *     is not present in the array.
+ */
+extern int refresh_rate_filter_modes(RefreshMode *modes, int num_modes,
+                                     int current_id);
+
+/**
+ * refresh_rate_select_mode:  Select the mode whose refresh rate is
+ * closest to the requested rate.  If two modes are equally close, the
+ * current mode is preferred, and otherwise the mode with the higher
+ * refresh rate is selected.
+ *
+ * [Parameters]
+ *     modes: Array of modes (as returned by refresh_rate_filter_modes()).
+ *     num_modes: Number of entries in the array.
+ *     current_id: System identifier of the current mode.
+ *     refresh_rate: Requested refresh rate, or zero to let the system
+ *         choose.
+ * [Return value]
+ *     Index of the selected mode in the array, or -1 if the system should
+ *     choose the mode (refresh_rate is zero or the array is empty).
+ */
+extern int refresh_rate_select_mode(const RefreshMode *modes, int num_modes,
+                                    int current_id, float refresh_rate);
+
+/*************************************************************************/
+/*************************************************************************/
+
+#endif  // SIL_SRC_SYSDEP_MISC_REFRESH_RATE_H
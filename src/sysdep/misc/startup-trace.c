@@ -0,0 +1,322 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/startup-trace.c: Program startup tracing.
+ */
+
+#include "src/base.h"
+#include "src/memory.h"
+#include "src/sysdep/misc/startup-trace.h"
+
+#include <stdio.h>
+#include <time.h>
+
+/*************************************************************************/
+/****************************** Local data *******************************/
+/*************************************************************************/
+
+/* Data for a single event. */
+typedef struct StartupTraceEvent StartupTraceEvent;
+struct StartupTraceEvent {
+    int64_t time;
+    char source;  // StartupTraceSource
+    char type;    // StartupTraceType
+    /* Nonzero once the event has been completely stored.  Set with
+     * release semantics, so a reader which sees it set (with acquire
+     * semantics) will see the rest of the event data. */
+    uint8_t ready;
+    char name[STARTUP_TRACE_NAME_SIZE];
+};
+
+/* Event buffer. */
+static StartupTraceEvent events[STARTUP_TRACE_MAX_EVENTS];
+
+/* Number of event slots which have been claimed by recording functions.
+ * Incremented atomically, so this may exceed STARTUP_TRACE_MAX_EVENTS if
+ * events are recorded after the buffer fills up. */
+static int num_claimed;
+
+/* Flag: has recording of native events been stopped? */
+static uint8_t stopped;
+
+/* Functions for passing sections to the system's trace facility, or NULL
+ * if none. */
+static StartupTraceBeginFunction *begin_function;
+static StartupTraceEndFunction *end_function;
+
+/* Section nesting depth for the current thread, and a bitmask of which
+ * currently open sections (indexed by depth) were passed to
+ * begin_function, so that such sections are still ended if recording is
+ * stopped while they are open.  Sections nested more than 32 deep are not
+ * passed to the system. */
+static __thread int section_depth;
+static __thread uint32_t section_passed;
+
+/*-----------------------------------------------------------------------*/
+
+/* Local routine declarations. */
+
+/**
+ * record_event:  Store an event in the event buffer, if space is
+ * available.
+ *
+ * [Parameters]
+ *     source: Event source.
+ *     type: Event type.
+ *     time: Event timestamp.
+ *     name: Event name.
+ */
+static void record_event(StartupTraceSource source, StartupTraceType type,
+                         int64_t time, const char *name);
+
+/*************************************************************************/
+/************************** Interface routines ***************************/
+/*************************************************************************/
+
+int64_t startup_trace_now(void)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t)ts.tv_sec*1000000000 + ts.tv_nsec;
+}
+
+/*-----------------------------------------------------------------------*/
+
+void startup_trace_set_section_functions(
+    StartupTraceBeginFunction *begin_function_,
+    StartupTraceEndFunction *end_function_)
+{
+    PRECOND((begin_function_ != NULL) == (end_function_ != NULL), return);
+    begin_function = begin_function_;
+    end_function = end_function_;
+}
+
+/*-----------------------------------------------------------------------*/
+
+void startup_trace_begin(const char *name)
+{
+    PRECOND(name != NULL, return);
+    const int depth = section_depth++;
+    if (__atomic_load_n(&stopped, __ATOMIC_RELAXED)) {
+        return;
+    }
+    record_event(STARTUP_TRACE_NATIVE, STARTUP_TRACE_BEGIN,
+                 startup_trace_now(), name);
+    if (begin_function && depth < 32) {
+        section_passed |= 1u << depth;
+        (*begin_function)(name);
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+void startup_trace_end(const char *name)
+{
+    PRECOND(name != NULL, return);
+    PRECOND(section_depth > 0, return);
+    const int depth = --section_depth;
+    if (depth < 32 && (section_passed & (1u << depth))) {
+        section_passed &= ~(1u << depth);
+        if (end_function) {
+            (*end_function)();
+        }
+    }
+    if (__atomic_load_n(&stopped, __ATOMIC_RELAXED)) {
+        return;
+    }
+    record_event(STARTUP_TRACE_NATIVE, STARTUP_TRACE_END,
+                 startup_trace_now(), name);
+}
+
+/*-----------------------------------------------------------------------*/
+
+void startup_trace_mark(const char *name)
+{
+    PRECOND(name != NULL, return);
+    if (__atomic_load_n(&stopped, __ATOMIC_RELAXED)) {
+        return;
+    }
+    record_event(STARTUP_TRACE_NATIVE, STARTUP_TRACE_MARK,
+                 startup_trace_now(), name);
+    if (begin_function) {
+        (*begin_function)(name);
+        (*end_function)();
+    }
+}
+
+/*-----------------------------------------------------------------------*/
+
+void startup_trace_add(StartupTraceSource source, StartupTraceType type,
+                       int64_t time, const char *name)
+{
+    PRECOND(source == STARTUP_TRACE_NATIVE || source == STARTUP_TRACE_JAVA,
+            return);
+    PRECOND(type == STARTUP_TRACE_BEGIN || type == STARTUP_TRACE_END
+            || type == STARTUP_TRACE_MARK, return);
+    PRECOND(name != NULL, return);
+    record_event(source, type, time, name);
+}
+
+/*-----------------------------------------------------------------------*/
+
+void startup_trace_stop(void)
+{
+    __atomic_store_n(&stopped, 1, __ATOMIC_RELAXED);
+}
+
+/*-----------------------------------------------------------------------*/
+
+int startup_trace_is_recording(void)
+{
+    return !__atomic_load_n(&stopped, __ATOMIC_RELAXED);
+}
+
+/*-----------------------------------------------------------------------*/
+
+int startup_trace_num_events(void)
+{
+    const int count = __atomic_load_n(&num_claimed, __ATOMIC_RELAXED);
+    return ubound(count, STARTUP_TRACE_MAX_EVENTS);
+}
+
+/*-----------------------------------------------------------------------*/
+
+int64_t startup_trace_find(StartupTraceSource source, StartupTraceType type,
+                           const char *name)
+{
+    PRECOND(name != NULL, return -1);
+
+    int64_t time = -1;
+    const int num_events = startup_trace_num_events();
+    for (int i = 0; i < num_events; i++) {
+        if (!__atomic_load_n(&events[i].ready, __ATOMIC_ACQUIRE)) {
+            continue;
+        }
+        const StartupTraceEvent *event = &events[i];
+        if (event->source == (char)source && event->type == (char)type
+         && strncmp(event->name, name, sizeof(event->name)-1) == 0
+         && (time < 0 || event->time < time)) {
+            time = event->time;
+        }
+    }
+    return time;
+}
+
+/*-----------------------------------------------------------------------*/
+
+char *startup_trace_dump(void)
+{
+    /* Collect the completed events and sort them by time.  There are
+     * only a few events, so an insertion sort (which is stable, thus
+     * preserving the recorded order of events with equal timestamps)
+     * is good enough. */
+    const StartupTraceEvent *sorted[STARTUP_TRACE_MAX_EVENTS];
+    int num_sorted = 0;
+    const int num_events = startup_trace_num_events();
+    for (int i = 0; i < num_events; i++) {
+        if (!__atomic_load_n(&events[i].ready, __ATOMIC_ACQUIRE)) {
+            continue;
+        }
+        const StartupTraceEvent *event = &events[i];
+        int j = num_sorted;
+        while (j > 0 && sorted[j-1]->time > event->time) {
+            sorted[j] = sorted[j-1];
+            j--;
+        }
+        sorted[j] = event;
+        num_sorted++;
+    }
+
+    char *buf = NULL;
+    int len = 0;
+    if (!strformat_append(&buf, &len, 0, "# SIL startup trace\n")) {
+        return NULL;
+    }
+    const int64_t base = num_sorted > 0 ? sorted[0]->time : 0;
+    for (int i = 0; i < num_sorted; i++) {
+        const StartupTraceEvent *event = sorted[i];
+        if (!strformat_append(&buf, &len, 0, "%lld %c %c %s\n",
+                              (long long)((event->time - base) / 1000),
+                              event->source, event->type, event->name)) {
+            mem_free(buf);
+            return NULL;
+        }
+    }
+    return buf;
+}
+
+/*-----------------------------------------------------------------------*/
+
+int startup_trace_write(const char *path)
+{
+    PRECOND(path != NULL, return 0);
+
+    char *dump = startup_trace_dump();
+    if (!dump) {
+        DLOG("Out of memory generating startup trace");
+        return 0;
+    }
+
+    int success = 0;
+    FILE *fh = fopen(path, "w");
+    if (!fh) {
+        DLOG("Failed to open %s: %s", path, strerror(errno));
+    } else {
+        const size_t len = strlen(dump);
+        if (fwrite(dump, 1, len, fh) != len) {
+            DLOG("Failed to write %s: %s", path, strerror(errno));
+            fclose(fh);
+        } else if (fclose(fh) != 0) {
+            DLOG("Failed to close %s: %s", path, strerror(errno));
+        } else {
+            success = 1;
+        }
+    }
+
+    mem_free(dump);
+    return success;
+}
+
+/*-----------------------------------------------------------------------*/
+
+void startup_trace_reset(void)
+{
+    mem_clear(events, sizeof(events));
+    num_claimed = 0;
+    stopped = 0;
+    section_depth = 0;
+    section_passed = 0;
+}
+
+/*************************************************************************/
+/**************************** Local routines *****************************/
+/*************************************************************************/
+
+static void record_event(StartupTraceSource source, StartupTraceType type,
+                         int64_t time, const char *name)
+{
+    const int index = __atomic_fetch_add(&num_claimed, 1, __ATOMIC_RELAXED);
+    if (index >= STARTUP_TRACE_MAX_EVENTS) {
+        return;
+    }
+
+    StartupTraceEvent *event = &events[index];
+    event->time = time;
+    event->source = (char)source;
+    event->type = (char)type;
+    /* Stop at a newline, since that would break the dump format. */
+    int i;
+    for (i = 0; name[i] && name[i] != '\n' && i < (int)sizeof(event->name)-1;
+         i++)
+    {
+        event->name[i] = name[i];
+    }
+    event->name[i] = 0;
+    __atomic_store_n(&event->ready, 1, __ATOMIC_RELEASE);
+}
+
+/*************************************************************************/
+/*************************************************************************/
@@ -0,0 +1,227 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/startup-trace.h: Header for program startup tracing.
+ */
+
+/*
+ * This header declares a lightweight recorder for events during program
+ * startup (from process creation to the first presented frame), used to
+ * find out where startup time is going and to catch regressions in
+ * automated runs.
+ *
+ * Events are timestamped in nanoseconds on the CLOCK_MONOTONIC time base,
+ * which on Android is also the time base of Java's System.nanoTime(), so
+ * events recorded by Java code can be merged into the same timeline with
+ * startup_trace_add().  Events may be recorded from any thread without
+ * locking; recording does not allocate memory, so it may be used before
+ * the memory subsystem has been initialized.
+ *
+ * Recording stops when startup_trace_stop() is called (normally after
+ * the first frame has been presented) or when the event buffer fills up.
+ * The recorded events can then be written out in a simple text format,
+ * one event per line sorted by time:
+ *
+ *     # SIL startup trace
+ *     <time> <source> <type> <name>
+ *
+ * where <time> is the time in microseconds relative to the earliest
+ * event, <source> is "N" for native events or "J" for Java events, <type>
+ * is "B" for the beginning of a section, "E" for the end of a section,
+ * or "M" for an instantaneous mark, and <name> is the event name (which
+ * may contain spaces but not newlines).
+ *
+ * If the system has a trace facility (such as Android's ATrace), the
+ * system-specific code can register functions with
+ * startup_trace_set_section_functions() to have sections passed on to
+ * that facility as well.
+ */
+
+#ifndef SIL_SRC_SYSDEP_MISC_STARTUP_TRACE_H
+#define SIL_SRC_SYSDEP_MISC_STARTUP_TRACE_H
+
+/*************************************************************************/
+/*************************************************************************/
+
+/**
+ * STARTUP_TRACE_MAX_EVENTS:  Maximum number of events which can be
+ * recorded.  Events recorded after the buffer fills up are discarded.
+ */
+#define STARTUP_TRACE_MAX_EVENTS  128
+
+/**
+ * STARTUP_TRACE_NAME_SIZE:  Size of the buffer used to store each event
+ * name, including the trailing null.  Longer names are truncated.
+ */
+#define STARTUP_TRACE_NAME_SIZE  48
+
+/**
+ * StartupTraceSource:  Constants identifying where an event was recorded.
+ * The values are the characters used in the text dump.
+ */
+typedef enum StartupTraceSource {
+    STARTUP_TRACE_NATIVE = 'N',
+    STARTUP_TRACE_JAVA   = 'J',
+} StartupTraceSource;
+
+/**
+ * StartupTraceType:  Constants identifying the type of an event.  The
+ * values are the characters used in the text dump.
+ */
+typedef enum StartupTraceType {
+    STARTUP_TRACE_BEGIN = 'B',
+    STARTUP_TRACE_END   = 'E',
+    STARTUP_TRACE_MARK  = 'M',
+} StartupTraceType;
+
+/**
+ * StartupTraceBeginFunction, StartupTraceEndFunction:  Types of functions
+ * called to begin and end a section in the system's trace facility.  As
+ * with ATrace, sections must be properly nested within each thread.
+ */
+typedef void StartupTraceBeginFunction(const char *name);
+typedef void StartupTraceEndFunction(void);
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * startup_trace_now:  Return the current time on the startup trace time
+ * base.
+ *
+ * [Return value]
+ *     Current time, in nanoseconds.
+ */
+extern int64_t startup_trace_now(void);
+
+/**
+ * startup_trace_set_section_functions:  Set functions to be called when
+ * a native section begins or ends.  Marks are passed on as empty sections.
+ * Pass NULL for both functions to stop passing sections to the system.
+ *
+ * [Parameters]
+ *     begin_function: Function to call at the beginning of a section.
+ *     end_function: Function to call at the end of a section.
+ */
+extern void startup_trace_set_section_functions(
+    StartupTraceBeginFunction *begin_function,
+    StartupTraceEndFunction *end_function);
+
+/**
+ * startup_trace_begin, startup_trace_end:  Record the beginning or end of
+ * a section of native startup processing.  Calls to these functions must
+ * be paired (and properly nested) within each thread.  Sections begun
+ * after recording has been stopped are not recorded or passed to the
+ * system, but a section passed to the system before recording stopped is
+ * always ended in the system's trace facility, so the system never sees
+ * an unterminated section.
+ *
+ * [Parameters]
+ *     name: Section name.
+ */
+extern void startup_trace_begin(const char *name);
+extern void startup_trace_end(const char *name);
+
+/**
+ * startup_trace_mark:  Record an instantaneous event during native
+ * startup processing.  Does nothing if recording has been stopped.
+ *
+ * [Parameters]
+ *     name: Event name.
+ */
+extern void startup_trace_mark(const char *name);
+
+/**
+ * startup_trace_add:  Record an event with an explicit source and
+ * timestamp, such as an event recorded by Java code.  The event is not
+ * passed on to the system's trace facility.  Unlike the other recording
+ * functions, this function records events even after recording has been
+ * stopped (as long as the buffer is not full), so that events recorded
+ * elsewhere can be merged in afterward.
+ *
+ * [Parameters]
+ *     source: Event source (STARTUP_TRACE_NATIVE or STARTUP_TRACE_JAVA).
+ *     type: Event type (STARTUP_TRACE_BEGIN, _END, or _MARK).
+ *     time: Event timestamp, in nanoseconds on the startup_trace_now()
+ *         time base.
+ *     name: Event name.
+ */
+extern void startup_trace_add(StartupTraceSource source,
+                              StartupTraceType type, int64_t time,
+                              const char *name);
+
+/**
+ * startup_trace_stop:  Stop recording native events.  Events already
+ * recorded are retained.
+ */
+extern void startup_trace_stop(void);
+
+/**
+ * startup_trace_is_recording:  Return whether native events are still
+ * being recorded (that is, startup_trace_stop() has not been called).
+ *
+ * [Return value]
+ *     True if native events are being recorded, false if not.
+ */
+extern int startup_trace_is_recording(void);
+
+/**
+ * startup_trace_num_events:  Return the number of events recorded.
+ *
+ * [Return value]
+ *     Number of events recorded.
+ */
+extern int startup_trace_num_events(void);
+
+/**
+ * startup_trace_find:  Return the timestamp of the earliest recorded event
+ * with the given source, type, and name.  Events which are still being
+ * recorded by another thread are ignored.
+ *
+ * [Parameters]
+ *     source: Event source (STARTUP_TRACE_NATIVE or STARTUP_TRACE_JAVA).
+ *     type: Event type (STARTUP_TRACE_BEGIN, _END, or _MARK).
+ *     name: Event name.
+ * [Return value]
+ *     Event timestamp, in nanoseconds on the startup_trace_now() time
+ *     base, or a negative value if no such event has been recorded.
+ */
+extern int64_t startup_trace_find(StartupTraceSource source,
+                                  StartupTraceType type, const char *name);
+
+/**
+ * startup_trace_dump:  Return the recorded events in the text format
+ * described at the top of this file.  Events which are still being
+ * recorded by another thread may be omitted.
+ *
+ * [Return value]
+ *     Newly allocated string containing the dump (to be freed with
+ *     mem_free()), or NULL on error (out of memory).
+ */
+extern char *startup_trace_dump(void);
+
+/**
+ * startup_trace_write:  Write the recorded events to the given file in
+ * the text format described at the top of this file.
+ *
+ * [Parameters]
+ *     path: Pathname of file to write.
+ * [Return value]
+ *     True on success, false on error.
+ */
+extern int startup_trace_write(const char *path);
+
+/**
+ * startup_trace_reset:  Discard all recorded events and restart
+ * recording.  The caller must ensure that no other thread is recording
+ * events and that the calling thread has no open sections.  Intended for
+ * use by tests.
+ */
+extern void startup_trace_reset(void);
+
+/*************************************************************************/
+/*************************************************************************/
+
+#endif  // SIL_SRC_SYSDEP_MISC_STARTUP_TRACE_H
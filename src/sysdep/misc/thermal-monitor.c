@@ -0,0 +1,126 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/thermal-monitor.c: Thermal headroom monitoring
+ * utilities.
+ */
+
+#include "src/base.h"
+#include "src/sysdep/misc/thermal-monitor.h"
+
+/*************************************************************************/
+/*************************************************************************/
+
+void thermal_monitor_init(ThermalMonitor *monitor)
+{
+    PRECOND(monitor != NULL, return);
+
+    monitor->next_poll = -1;
+    monitor->headroom = -1;
+    monitor->failures = 0;
+    monitor->level = THERMAL_LEVEL_NORMAL;
+}
+
+/*-----------------------------------------------------------------------*/
+
+double thermal_monitor_poll(ThermalMonitor *monitor, double now,
+                            ThermalHeadroomFunction *get_headroom,
+                            void *userdata)
+{
+    PRECOND(monitor != NULL, return THERMAL_MONITOR_MAX_INTERVAL);
+    PRECOND(get_headroom != NULL, return THERMAL_MONITOR_MAX_INTERVAL);
+
+    if (monitor->next_poll >= 0 && now < monitor->next_poll) {
+        return monitor->next_poll - now;
+    }
+
+    const float headroom = (*get_headroom)(userdata);
+    if (headroom >= 0) {  // Also false for NaN.
+        monitor->failures = 0;
+        thermal_monitor_update(monitor, headroom);
+    } else if (monitor->failures < THERMAL_MONITOR_MAX_FAILURES) {
+        monitor->failures++;
+    }
+
+    const double interval = thermal_monitor_poll_interval(monitor);
+    monitor->next_poll = now + interval;
+    return interval;
+}
+
+/*-----------------------------------------------------------------------*/
+
+void thermal_monitor_update(ThermalMonitor *monitor, float headroom)
+{
+    PRECOND(monitor != NULL, return);
+
+    monitor->headroom = headroom;
+
+    ThermalLevel level = monitor->level;
+    if (level == THERMAL_LEVEL_NORMAL) {
+        if (headroom >= THERMAL_MONITOR_HOT_ENTER) {
+            level = THERMAL_LEVEL_HOT;
+        } else if (headroom >= THERMAL_MONITOR_WARM_ENTER) {
+            level = THERMAL_LEVEL_WARM;
+        }
+    } else if (level == THERMAL_LEVEL_WARM) {
+        if (headroom >= THERMAL_MONITOR_HOT_ENTER) {
+            level = THERMAL_LEVEL_HOT;
+        } else if (headroom < THERMAL_MONITOR_WARM_EXIT) {
+            level = THERMAL_LEVEL_NORMAL;
+        }
+    } else {  // THERMAL_LEVEL_HOT
+        if (headroom < THERMAL_MONITOR_WARM_EXIT) {
+            level = THERMAL_LEVEL_NORMAL;
+        } else if (headroom < THERMAL_MONITOR_HOT_EXIT) {
+            level = THERMAL_LEVEL_WARM;
+        }
+    }
+    monitor->level = level;
+}
+
+/*-----------------------------------------------------------------------*/
+
+double thermal_monitor_poll_interval(const ThermalMonitor *monitor)
+{
+    PRECOND(monitor != NULL, return THERMAL_MONITOR_MAX_INTERVAL);
+
+    /* A failed query may just mean we asked too soon (Android returns NaN
+     * in that case), so retry quickly until we've seen enough failures
+     * to conclude that headroom is not available at all. */
+    if (monitor->failures > 0) {
+        return (monitor->failures >= THERMAL_MONITOR_MAX_FAILURES
+                ? THERMAL_MONITOR_MAX_INTERVAL
+                : THERMAL_MONITOR_MIN_INTERVAL);
+    }
+    if (monitor->headroom < 0) {
+        return THERMAL_MONITOR_MIN_INTERVAL;
+    }
+
+    /* Poll at the maximum interval while the headroom is at half or less
+     * of the throttling point, then shorten the interval linearly until
+     * we reach the minimum at the threshold for THERMAL_LEVEL_WARM. */
+    const float low = 0.5f;
+    const float high = THERMAL_MONITOR_WARM_ENTER;
+    const float t = bound((monitor->headroom - low) / (high - low), 0, 1);
+    return THERMAL_MONITOR_MAX_INTERVAL
+         - (THERMAL_MONITOR_MAX_INTERVAL - THERMAL_MONITOR_MIN_INTERVAL) * t;
+}
+
+/*-----------------------------------------------------------------------*/
+
+ThermalLevel thermal_level_for_status(ThermalLevel level, int status)
+{
+    if (status >= 3) {  // THERMAL_STATUS_SEVERE
+        return THERMAL_LEVEL_HOT;
+    } else if (status == 2) {  // THERMAL_STATUS_MODERATE
+        return lbound(level, THERMAL_LEVEL_WARM);
+    } else {
+        return level;
+    }
+}
+
+/*************************************************************************/
+/*************************************************************************/
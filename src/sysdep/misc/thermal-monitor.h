@@ -0,0 +1,159 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/sysdep/misc/thermal-monitor.h: Header for thermal headroom
+ * monitoring utilities.
+ */
+
+/*
+ * This header declares helper functions for tracking how close a device
+ * is to thermal throttling, for systems (such as Android 11 and later)
+ * which report a "thermal headroom" value: a value of 1.0 indicates that
+ * the device has reached the point of severe throttling, and lower values
+ * indicate proportionally more room before that point.
+ *
+ * Headroom queries can be expensive and are typically rate-limited by the
+ * system, so the monitor decides when the next query should be made,
+ * polling more often as the headroom shrinks.  It also converts the raw
+ * headroom into a coarse ThermalLevel with hysteresis, so that callers
+ * reducing their workload in response do not flip back and forth when
+ * the headroom hovers around a threshold.
+ *
+ * The monitor does not query the system itself; the caller passes in a
+ * function which returns the current headroom, which allows the policy to
+ * be tested with a fake thermal source.  ThermalMonitor is not
+ * thread-safe; callers must publish the results to other threads
+ * themselves.
+ */
+
+#ifndef SIL_SRC_SYSDEP_MISC_THERMAL_MONITOR_H
+#define SIL_SRC_SYSDEP_MISC_THERMAL_MONITOR_H
+
+/*************************************************************************/
+/*************************************************************************/
+
+/* Minimum and maximum intervals between headroom queries, in seconds. */
+#define THERMAL_MONITOR_MIN_INTERVAL  1.0
+#define THERMAL_MONITOR_MAX_INTERVAL  10.0
+
+/* Headroom thresholds for entering and leaving each thermal level. */
+#define THERMAL_MONITOR_WARM_ENTER  0.85f
+#define THERMAL_MONITOR_WARM_EXIT   0.75f
+#define THERMAL_MONITOR_HOT_ENTER   0.95f
+#define THERMAL_MONITOR_HOT_EXIT    0.85f
+
+/* Number of consecutive failed queries after which the monitor assumes
+ * headroom is not available and polls at the maximum interval. */
+#define THERMAL_MONITOR_MAX_FAILURES  3
+
+/**
+ * ThermalLevel:  Coarse thermal state of the device.
+ */
+typedef enum ThermalLevel {
+    THERMAL_LEVEL_NORMAL = 0,  // No thermal pressure.
+    THERMAL_LEVEL_WARM,        // Approaching throttling.
+    THERMAL_LEVEL_HOT,         // Throttling or about to throttle.
+} ThermalLevel;
+
+/**
+ * ThermalHeadroomFunction:  Type of a function which returns the current
+ * thermal headroom.
+ *
+ * [Parameters]
+ *     userdata: Opaque pointer passed to thermal_monitor_poll().
+ * [Return value]
+ *     Current thermal headroom, or NaN (or a negative value) if not
+ *     available.
+ */
+typedef float ThermalHeadroomFunction(void *userdata);
+
+/**
+ * ThermalMonitor:  State of a thermal headroom monitor.  All fields
+ * should be treated as read-only by callers.
+ */
+typedef struct ThermalMonitor ThermalMonitor;
+struct ThermalMonitor {
+    /* Time at which the next query should be made (in the time base
+     * passed to thermal_monitor_poll()), or negative if a query should
+     * be made immediately. */
+    double next_poll;
+    /* Most recent valid headroom value, or negative if none. */
+    float headroom;
+    /* Number of consecutive failed queries. */
+    int failures;
+    /* Current thermal level, based on headroom only. */
+    ThermalLevel level;
+};
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * thermal_monitor_init:  Initialize a ThermalMonitor structure.
+ *
+ * [Parameters]
+ *     monitor: Monitor to initialize.
+ */
+extern void thermal_monitor_init(ThermalMonitor *monitor);
+
+/**
+ * thermal_monitor_poll:  Query the current headroom if a query is due,
+ * and update the monitor state accordingly.
+ *
+ * [Parameters]
+ *     monitor: Monitor to update.
+ *     now: Current time, in seconds (any monotonic time base).
+ *     get_headroom: Function to call to query the headroom.
+ *     userdata: Opaque pointer to pass to get_headroom().
+ * [Return value]
+ *     Number of seconds until the next query is due (always positive).
+ */
+extern double thermal_monitor_poll(ThermalMonitor *monitor, double now,
+                                   ThermalHeadroomFunction *get_headroom,
+                                   void *userdata);
+
+/**
+ * thermal_monitor_update:  Update the monitor's thermal level for the
+ * given headroom value.  Called by thermal_monitor_poll(); exposed
+ * separately for callers which receive headroom values by other means.
+ *
+ * [Parameters]
+ *     monitor: Monitor to update.
+ *     headroom: New headroom value.
+ */
+extern void thermal_monitor_update(ThermalMonitor *monitor, float headroom);
+
+/**
+ * thermal_monitor_poll_interval:  Return the interval until the next
+ * headroom query, given the monitor's current state.
+ *
+ * [Parameters]
+ *     monitor: Monitor to check.
+ * [Return value]
+ *     Interval until the next query, in seconds.
+ */
+extern PURE_FUNCTION double thermal_monitor_poll_interval(
+    const ThermalMonitor *monitor);
+
+/**
+ * thermal_level_for_status:  Combine a headroom-based thermal level with
+ * a system thermal status value, returning whichever indicates more
+ * thermal pressure.  Status values follow the Android PowerManager
+ * THERMAL_STATUS_* constants: 0 = none, 1 = light, 2 = moderate,
+ * 3 = severe, and higher values are more severe still.
+ *
+ * [Parameters]
+ *     level: Headroom-based thermal level.
+ *     status: System thermal status, or negative if unknown.
+ * [Return value]
+ *     Combined thermal level.
+ */
+extern CONST_FUNCTION ThermalLevel thermal_level_for_status(
+    ThermalLevel level, int status);
+
+/*************************************************************************/
+/*************************************************************************/
+
+#endif  // SIL_SRC_SYSDEP_MISC_THERMAL_MONITOR_H
@@ -918,10 +918,16 @@ extern int test_macosx_input(void);
 extern int test_macosx_util(void);
 
 /* sysdep/misc/... */
+extern int test_misc_dynamic_resolution(void);
+extern int test_misc_input_latency(void);
+extern int test_misc_input_ring(void);
 extern int test_misc_ioqueue(void);
 extern int test_misc_joystick_db(void);
 extern int test_misc_joystick_hid(void);
 extern int test_misc_log_stdio(void);
+extern int test_misc_refresh_rate(void);
+extern int test_misc_startup_trace(void);
+extern int test_misc_thermal_monitor(void);
 
 /* sysdep/opengl/... */
 /* The test_opengl_features_*() functions are all defined in
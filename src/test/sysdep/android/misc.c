@@ -15,6 +15,7 @@
 #include "src/sysdep.h"
 #include "src/sysdep/android/internal.h"
 #include "src/test/base.h"
+#include "src/utility/misc.h"
 
 #include <time.h>
 
@@ -68,6 +69,294 @@ TEST(test_reset_idle_timer)
 
 /*-----------------------------------------------------------------------*/
 
+TEST(test_lock_ui_thread)
+{
+    /* The UI thread should be idle during tests, so a lock request with
+     * a generous timeout should succeed. */
+    const double wait = android_try_lock_ui_thread(1.0);
+    CHECK_TRUE(wait >= 0);
+    CHECK_TRUE(wait < 1.0);
+    /* Nested locks should succeed immediately. */
+    CHECK_TRUE(android_try_lock_ui_thread(0) >= 0);
+    CHECK_TRUE(android_lock_ui_thread());
+    android_unlock_ui_thread();
+    android_unlock_ui_thread();
+    android_unlock_ui_thread();
+
+    /* Repeated lock/unlock cycles should not interfere with each other. */
+    for (int i = 0; i < 100; i++) {
+        CHECK_TRUE(android_try_lock_ui_thread(1.0) >= 0);
+        android_unlock_ui_thread();
+    }
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_ui_commands)
+{
+    /* We can't observe the window state directly, so just check that
+     * queued changes (including redundant and cancelled ones) can be
+     * flushed without problems, and that flushing an empty queue is
+     * harmless. */
+    android_flush_ui_commands();
+    android_queue_keep_screen_on(1);
+    android_queue_keep_screen_on(1);
+    android_queue_system_ui_visible(android_get_navigation_bar_state());
+    android_flush_ui_commands();
+    android_queue_keep_screen_on(0);
+    android_queue_keep_screen_on(1);
+    android_flush_ui_commands();
+    android_queue_keep_screen_on(0);
+    android_flush_ui_commands();
+    android_flush_ui_commands();
+
+    /* Make sure the UI thread has processed everything before we move
+     * on. */
+    CHECK_TRUE(android_lock_ui_thread());
+    android_unlock_ui_thread();
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_async_alert)
+{
+    /* We can't press buttons on the dialog, so just check that it stays
+     * pending until dismissed and that the game thread isn't blocked. */
+    int id;
+    CHECK_TRUE(id = android_show_alert_async(0, "Title", 0, "Text",
+                                             NULL, NULL));
+    CHECK_INTEQUAL(android_get_alert_result(id), ANDROID_ALERT_PENDING);
+    android_update_alerts();
+    CHECK_INTEQUAL(android_get_alert_result(id), ANDROID_ALERT_PENDING);
+    android_dismiss_alert(id);
+    CHECK_INTEQUAL(android_get_alert_result(id), -1);
+
+    /* Check that the alert table fills up and is freed properly. */
+    int ids[4];
+    for (int i = 0; i < lenof(ids); i++) {
+        CHECK_TRUE(ids[i] = android_show_alert_async(0, "Title", 0, "Text",
+                                                     NULL, NULL));
+    }
+    CHECK_FALSE(android_show_alert_async(0, "Title", 0, "Text", NULL, NULL));
+    for (int i = 0; i < lenof(ids); i++) {
+        android_dismiss_alert(ids[i]);
+    }
+    CHECK_TRUE(id = android_show_alert_async(0, "Title", 0, "Text",
+                                             NULL, NULL));
+    android_dismiss_alert(id);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_jni_bindings)
+{
+    /* Everything in the binding table should have been found at startup. */
+    for (int i = 0; i < JNI_NUM_CLASSES; i++) {
+        CHECK_TRUE(jni_class(i));
+    }
+    for (int i = 0; i < JNI_NUM_METHODS; i++) {
+        if (!jni_method(i)) {
+            FAIL("Method %d not found", i);
+        }
+    }
+
+    /* Each lookup should be counted (tests are always built in debug
+     * mode), and logging the counts should reset them. */
+    const unsigned int count = jni_call_count(JNI_getSystemUiVisible);
+    android_get_navigation_bar_state();
+    android_get_navigation_bar_state();
+    CHECK_INTEQUAL(jni_call_count(JNI_getSystemUiVisible), count + 2);
+    jni_log_call_counts();
+    CHECK_INTEQUAL(jni_call_count(JNI_getSystemUiVisible), 0);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_startup_snapshot)
+{
+    /* These should all have been filled in from the startup snapshot. */
+    CHECK_TRUE(android_api_level > 0);
+    CHECK_TRUE(android_internal_data_path);
+    CHECK_TRUE(android_audio_output_rate >= 0);
+
+    /* Every startup phase should have been reached by now, in order. */
+    double last_time = 0;
+    for (int i = 0; i < ANDROID_STARTUP__NUM_PHASES; i++) {
+        const double time = android_startup_phase_time(i);
+        if (time < last_time) {
+            FAIL("Phase %d time %g is earlier than previous phase (%g)",
+                 i, time, last_time);
+        }
+        last_time = time;
+    }
+    CHECK_DOUBLEEQUAL(android_startup_phase_time(ANDROID_STARTUP_JAVA_CREATE),
+                      0);
+    android_log_startup_phases();
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_request_permission)
+{
+    /* We can't respond to the permission dialog, so we can only check
+     * the pre-6.0 case, where permissions are granted at install time. */
+    if (android_api_level < 23) {
+        CHECK_INTEQUAL(android_request_permission(
+                           ANDROID_PERMISSION_READ_EXTERNAL_STORAGE), 1);
+        CHECK_INTEQUAL(android_wait_for_permission(
+                           ANDROID_PERMISSION_WRITE_EXTERNAL_STORAGE, 0), 1);
+    }
+
+    /* Checking a request which is still pending should not call into
+     * Java (and in particular should not request the permission again),
+     * and neither should returning from a wait which times out. */
+    const int saved_status = TEST_android_set_permission_status(
+        ANDROID_PERMISSION_READ_EXTERNAL_STORAGE, -1);
+    const unsigned int request_count = jni_call_count(JNI_requestPermission);
+    CHECK_INTEQUAL(android_request_permission(
+                       ANDROID_PERMISSION_READ_EXTERNAL_STORAGE), -1);
+    CHECK_INTEQUAL(android_request_permission(
+                       ANDROID_PERMISSION_READ_EXTERNAL_STORAGE), -1);
+    CHECK_INTEQUAL(android_wait_for_permission(
+                       ANDROID_PERMISSION_READ_EXTERNAL_STORAGE, 0), -1);
+    CHECK_INTEQUAL(jni_call_count(JNI_requestPermission), request_count);
+    TEST_android_set_permission_status(
+        ANDROID_PERMISSION_READ_EXTERNAL_STORAGE, saved_status);
+
+    /* Invalid permissions should be treated as denied. */
+    CHECK_FALSE(android_request_permission((AndroidPermission)-1));
+    CHECK_FALSE(android_wait_for_permission((AndroidPermission)100, -1));
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_set_performance_level)
+{
+    /* Whether the alternate levels are supported depends on the device
+     * and Android version, so we can only check that they don't fail
+     * unexpectedly and that frame reporting works in either case. */
+    const int high_ok = sys_set_performance_level(PERFORMANCE_LEVEL_HIGH);
+    if (android_api_level < 24) {
+        CHECK_FALSE(high_ok);
+    }
+    android_report_frame_work(1000000);
+    const int low_ok = sys_set_performance_level(PERFORMANCE_LEVEL_LOW);
+    if (android_api_level < 31) {
+        CHECK_FALSE(low_ok);
+    }
+    android_report_frame_work(1000000);
+    if (low_ok) {
+        CHECK_TRUE(sys_set_performance_level(5000));
+    }
+
+    CHECK_TRUE(sys_set_performance_level(PERFORMANCE_LEVEL_DEFAULT));
+    android_report_frame_work(1000000);
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_thermal_monitor)
+{
+    /* We can't control the device temperature, so just check that the
+     * values are in range and that the monitor thread can be stopped and
+     * restarted. */
+    for (int pass = 0; pass < 2; pass++) {
+        const int level = android_thermal_level();
+        CHECK_TRUE(level >= ANDROID_THERMAL_LEVEL_NORMAL
+                   && level <= ANDROID_THERMAL_LEVEL_HOT);
+        /* The status is reported asynchronously by the UI thread once the
+         * monitor has started, so give it plenty of time to show up
+         * (5 seconds in 10 ms steps) rather than depending on scheduling
+         * latency. */
+        int status = android_thermal_status();
+        if (android_api_level < 29) {
+            CHECK_INTEQUAL(status, -1);
+        } else {
+            for (int i = 0; status < 0 && i < 500; i++) {
+                nanosleep(&(struct timespec){.tv_sec = 0,
+                                             .tv_nsec = 10000000}, NULL);
+                status = android_thermal_status();
+            }
+            CHECK_TRUE(status >= 0);
+        }
+        const float headroom = android_thermal_headroom();
+        if (android_api_level < 30) {
+            CHECK_TRUE(headroom < 0);
+        }
+        android_stop_thermal_monitor();
+    }
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_sound_buffer_size)
+{
+    int num_hw_buffers;
+
+    /* With an unknown native buffer size, the default length should be
+     * used even if low latency is supported. */
+    CHECK_INTEQUAL(android_choose_sound_buffer_size(0, 0, &num_hw_buffers),
+                   1024);
+    CHECK_INTEQUAL(num_hw_buffers, 4);
+    CHECK_INTEQUAL(android_choose_sound_buffer_size(0, 1, &num_hw_buffers),
+                   1024);
+    CHECK_INTEQUAL(num_hw_buffers, 4);
+
+    /* The length should be rounded up to a multiple of the native buffer
+     * size, including sizes which are not powers of 2. */
+    CHECK_INTEQUAL(android_choose_sound_buffer_size(256, 0, &num_hw_buffers),
+                   1024);
+    CHECK_INTEQUAL(num_hw_buffers, 4);
+    CHECK_INTEQUAL(android_choose_sound_buffer_size(240, 0, &num_hw_buffers),
+                   1200);
+    CHECK_INTEQUAL(num_hw_buffers, 4);
+    CHECK_INTEQUAL(android_choose_sound_buffer_size(2000, 0,
+                                                    &num_hw_buffers), 2000);
+    CHECK_INTEQUAL(num_hw_buffers, 4);
+
+    /* With low latency, the minimum length should be shorter and fewer
+     * hardware buffers should be used. */
+    CHECK_INTEQUAL(android_choose_sound_buffer_size(256, 1, &num_hw_buffers),
+                   256);
+    CHECK_INTEQUAL(num_hw_buffers, 2);
+    CHECK_INTEQUAL(android_choose_sound_buffer_size(240, 1, &num_hw_buffers),
+                   480);
+    CHECK_INTEQUAL(num_hw_buffers, 2);
+    CHECK_INTEQUAL(android_choose_sound_buffer_size(96, 1, &num_hw_buffers),
+                   288);
+    CHECK_INTEQUAL(num_hw_buffers, 2);
+
+    /* Implausible native buffer sizes should be ignored. */
+    CHECK_INTEQUAL(android_choose_sound_buffer_size(8192, 1,
+                                                    &num_hw_buffers), 8192);
+    CHECK_INTEQUAL(num_hw_buffers, 2);
+    CHECK_INTEQUAL(android_choose_sound_buffer_size(8193, 1,
+                                                    &num_hw_buffers), 1024);
+    CHECK_INTEQUAL(num_hw_buffers, 4);
+    CHECK_INTEQUAL(android_choose_sound_buffer_size(-1, 1, &num_hw_buffers),
+                   1024);
+    CHECK_INTEQUAL(num_hw_buffers, 4);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
 TEST(test_toggle_navigation_bar)
 {
     ASSERT(graphics_init());
@@ -124,5 +413,30 @@ TEST(test_get_resource_string)
     return 1;
 }
 
+/*-----------------------------------------------------------------------*/
+
+TEST(test_get_resource_strings)
+{
+    static const char * const names[] =
+        {"appName", "SIL_error_title", "no_such_string"};
+    char *texts[lenof(names)];
+    CHECK_INTEQUAL(android_get_resource_strings(names, lenof(names), texts),
+                   2);
+    CHECK_TRUE(texts[0]);
+    CHECK_TRUE(texts[1]);
+    CHECK_FALSE(texts[2]);
+
+    /* The results should match those from the single-string function. */
+    char *appName;
+    CHECK_TRUE(appName = android_get_resource_string("appName"));
+    CHECK_STREQUAL(texts[0], appName);
+    mem_free(appName);
+
+    for (int i = 0; i < lenof(texts); i++) {
+        mem_free(texts[i]);
+    }
+    return 1;
+}
+
 /*************************************************************************/
 /*************************************************************************/
@@ -0,0 +1,312 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/test/sysdep/misc/dynamic-resolution.c: Tests for the dynamic
+ * rendering resolution controller.
+ */
+
+#include "src/base.h"
+#include "src/math.h"
+#include "src/sysdep/misc/dynamic-resolution.h"
+#include "src/test/base.h"
+
+/*************************************************************************/
+/****************************** Local data *******************************/
+/*************************************************************************/
+
+/* Target frame time used for all tests (60fps). */
+#define TARGET  (1.0f/60.0f)
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * run_trace:  Feed the controller a synthetic frame-time trace in which
+ * each frame's time is proportional to the number of pixels rendered,
+ * with the given full-resolution load.
+ *
+ * [Parameters]
+ *     dr: Controller to update.
+ *     full_load: Frame time at scale 1.0, as a fraction of TARGET.
+ *     num_frames: Number of frames to simulate.
+ * [Return value]
+ *     Number of times the scale factor changed.
+ */
+static int run_trace(DynamicResolution *dr, float full_load, int num_frames)
+{
+    int changes = 0;
+    for (int i = 0; i < num_frames; i++) {
+        const float frame_time = TARGET * full_load * dr->scale * dr->scale;
+        changes += dynamic_resolution_update(dr, frame_time, TARGET);
+    }
+    return changes;
+}
+
+/*************************************************************************/
+/****************************** Test runner ******************************/
+/*************************************************************************/
+
+DEFINE_GENERIC_TEST_RUNNER(test_misc_dynamic_resolution)
+
+/*************************************************************************/
+/***************************** Test routines *****************************/
+/*************************************************************************/
+
+TEST(test_init)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1920, 1080, 0.5f, 1.0f);
+    CHECK_FLOATEQUAL(dr.scale, 1.0f);
+
+    int width, height;
+    dynamic_resolution_get_size(&dr, &width, &height);
+    CHECK_INTEQUAL(width, 1920);
+    CHECK_INTEQUAL(height, 1080);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_steady_load)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1920, 1080, 0.5f, 1.0f);
+
+    /* A load within the no-change band should never change the scale. */
+    CHECK_INTEQUAL(run_trace(&dr, 0.8f, 1000), 0);
+    CHECK_FLOATEQUAL(dr.scale, 1.0f);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_scale_down)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1920, 1080, 0.5f, 1.0f);
+
+    /* At 1.5x the target, the controller should settle at a scale where
+     * the load is within the no-change band. */
+    CHECK_TRUE(run_trace(&dr, 1.5f, 600) > 0);
+    const float load = 1.5f * dr.scale * dr.scale;
+    CHECK_TRUE(load <= DYNAMIC_RESOLUTION_HIGH_LOAD);
+    CHECK_TRUE(load >= DYNAMIC_RESOLUTION_LOW_LOAD);
+    CHECK_INTEQUAL(run_trace(&dr, 1.5f, 1000), 0);
+
+    int width, height;
+    dynamic_resolution_get_size(&dr, &width, &height);
+    CHECK_INTEQUAL(width, iroundf(1920 * dr.scale));
+    CHECK_INTEQUAL(height, iroundf(1080 * dr.scale));
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_scale_down_waits_for_settle)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1920, 1080, 0.5f, 1.0f);
+
+    CHECK_INTEQUAL(run_trace(&dr, 2.0f, DYNAMIC_RESOLUTION_SETTLE_FRAMES - 1),
+                   0);
+    CHECK_INTEQUAL(run_trace(&dr, 2.0f, 1), 1);
+    CHECK_TRUE(dr.scale < 1.0f);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_min_bound)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1920, 1080, 0.5f, 1.0f);
+
+    run_trace(&dr, 10.0f, 1000);
+    CHECK_FLOATEQUAL(dr.scale, 0.5f);
+    int width, height;
+    dynamic_resolution_get_size(&dr, &width, &height);
+    CHECK_INTEQUAL(width, 960);
+    CHECK_INTEQUAL(height, 540);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_scale_up)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1920, 1080, 0.5f, 1.0f);
+    run_trace(&dr, 10.0f, 1000);
+    CHECK_FLOATEQUAL(dr.scale, 0.5f);
+
+    /* With a light load, the controller should work its way back up to
+     * the maximum one step at a time. */
+    const int expected_steps = iroundf(0.5f / DYNAMIC_RESOLUTION_STEP);
+    CHECK_INTEQUAL(run_trace(&dr, 0.3f, 2000), expected_steps);
+    CHECK_FLOATEQUAL(dr.scale, 1.0f);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_max_bound)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1000, 1000, 0.25f, 0.8f);
+    CHECK_FLOATEQUAL(dr.scale, 0.8f);
+
+    CHECK_INTEQUAL(run_trace(&dr, 0.1f, 1000), 0);
+    CHECK_FLOATEQUAL(dr.scale, 0.8f);
+
+    /* Steps down from a non-multiple of the step size should still stay
+     * within bounds. */
+    run_trace(&dr, 10.0f, 1000);
+    CHECK_FLOATEQUAL(dr.scale, 0.25f);
+    run_trace(&dr, 0.1f, 3000);
+    CHECK_FLOATEQUAL(dr.scale, 0.8f);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_spikes_ignored)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1920, 1080, 0.5f, 1.0f);
+
+    /* An occasional dropped frame in an otherwise steady load should not
+     * trigger a change. */
+    int changes = 0;
+    for (int i = 0; i < 1000; i++) {
+        const float load = (i % 60 == 0) ? 2.0f : 0.75f;
+        changes += dynamic_resolution_update(&dr, TARGET * load, TARGET);
+    }
+    CHECK_INTEQUAL(changes, 0);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_oscillation_damped)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1920, 1080, 0.5f, 1.0f);
+
+    /* Simulate a scene whose cost jumps sharply above a certain
+     * resolution (for example, because a texture no longer fits in
+     * cache), so that every increase past that point is immediately
+     * undone.  The controller should retry that increase less and less
+     * often, while still using the highest scale which works. */
+    int attempts = 0, frames_at_high = 0, last_attempt = 0;
+    int last_interval = 0;
+    const int num_frames = 60*60*5;
+    for (int i = 0; i < num_frames; i++) {
+        const float load = (dr.scale > 0.76f) ? 1.2f : 0.5f;
+        if (dynamic_resolution_update(&dr, TARGET * load, TARGET)
+         && dr.scale > 0.76f) {
+            attempts++;
+            const int interval = i - last_attempt;
+            CHECK_TRUE(interval >= last_interval);
+            last_interval = interval;
+            last_attempt = i;
+        }
+        frames_at_high += (dr.scale > 0.76f);
+    }
+    CHECK_TRUE(attempts <= 25);
+    CHECK_TRUE(frames_at_high < num_frames / 20);
+    CHECK_INTEQUAL(dr.up_delay, DYNAMIC_RESOLUTION_MAX_UP_DELAY);
+    CHECK_FLOATEQUAL(dr.ceiling, 0.8f);
+    /* The scale below the ceiling should be reached quickly after each
+     * attempt, so the controller spends most of its time there. */
+    CHECK_FLOATEQUAL(dr.scale, 0.75f);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_ceiling_cleared)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1920, 1080, 0.5f, 1.0f);
+
+    /* Force a reversal to set a ceiling. */
+    for (int i = 0; i < 1000 && dr.ceiling == 0; i++) {
+        const float load = (dr.scale > 0.76f) ? 1.2f : 0.5f;
+        dynamic_resolution_update(&dr, TARGET * load, TARGET);
+    }
+    CHECK_FLOATEQUAL(dr.ceiling, 0.8f);
+    CHECK_TRUE(dr.up_delay > DYNAMIC_RESOLUTION_SETTLE_FRAMES);
+
+    /* Once the load drops enough that the increase sticks, the ceiling
+     * should be forgotten and later increases should be quick.  (A full
+     * load of 1.1 gives a load within the no-change band at scale 0.8.) */
+    for (int i = 0; i < 1000 && dr.scale < 0.76f; i++) {
+        run_trace(&dr, 1.1f, 1);
+    }
+    CHECK_FLOATEQUAL(dr.scale, 0.8f);
+    CHECK_INTEQUAL(run_trace(&dr, 1.1f,
+                             DYNAMIC_RESOLUTION_REVERSAL_WINDOW - 1), 0);
+    CHECK_FLOATEQUAL(dr.ceiling, 0.8f);
+    CHECK_INTEQUAL(run_trace(&dr, 1.1f, 1), 0);
+    CHECK_FLOATEQUAL(dr.ceiling, 0);
+    CHECK_INTEQUAL(dr.up_delay, DYNAMIC_RESOLUTION_SETTLE_FRAMES);
+    CHECK_INTEQUAL(run_trace(&dr, 0.3f, DYNAMIC_RESOLUTION_SETTLE_FRAMES * 4),
+                   4);
+    CHECK_FLOATEQUAL(dr.scale, 1.0f);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_ceiling_reset_on_load_increase)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1920, 1080, 0.5f, 1.0f);
+
+    for (int i = 0; i < 1000 && dr.ceiling == 0; i++) {
+        const float load = (dr.scale > 0.76f) ? 1.2f : 0.5f;
+        dynamic_resolution_update(&dr, TARGET * load, TARGET);
+    }
+    CHECK_FLOATEQUAL(dr.ceiling, 0.8f);
+
+    /* A decrease which is not a reversal should reset the ceiling. */
+    run_trace(&dr, 0.75f / (0.6f*0.6f), DYNAMIC_RESOLUTION_REVERSAL_WINDOW);
+    CHECK_INTEQUAL(run_trace(&dr, 3.0f, DYNAMIC_RESOLUTION_SETTLE_FRAMES), 1);
+    CHECK_FLOATEQUAL(dr.ceiling, 0);
+    CHECK_INTEQUAL(dr.up_delay, DYNAMIC_RESOLUTION_SETTLE_FRAMES);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_invalid_times)
+{
+    DynamicResolution dr;
+    dynamic_resolution_init(&dr, 1920, 1080, 0.5f, 1.0f);
+
+    for (int i = 0; i < 1000; i++) {
+        CHECK_FALSE(dynamic_resolution_update(&dr, 1.0f, 0));
+        CHECK_FALSE(dynamic_resolution_update(&dr, -1.0f, TARGET));
+        CHECK_FALSE(dynamic_resolution_update(&dr, NAN, TARGET));
+    }
+    CHECK_FLOATEQUAL(dr.scale, 1.0f);
+    CHECK_FLOATEQUAL(dr.load, -1);
+
+    return 1;
+}
+
+/*************************************************************************/
+/*************************************************************************/
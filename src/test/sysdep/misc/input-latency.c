@@ -0,0 +1,219 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/test/sysdep/misc/input-latency.c: Tests for the input latency
+ * measurement utilities.
+ */
+
+#include "src/base.h"
+#include "src/math.h"
+#include "src/sysdep/misc/input-latency.h"
+#include "src/test/base.h"
+
+/*************************************************************************/
+/****************************** Test runner ******************************/
+/*************************************************************************/
+
+DEFINE_GENERIC_TEST_RUNNER(test_misc_input_latency)
+
+/*************************************************************************/
+/***************************** Test routines *****************************/
+/*************************************************************************/
+
+TEST(test_bucket_limit)
+{
+    CHECK_DOUBLEEQUAL(input_latency_bucket_limit(0), 1.0e-6);
+    CHECK_DOUBLEEQUAL(input_latency_bucket_limit(4), 2.0e-6);
+    CHECK_DOUBLEEQUAL(input_latency_bucket_limit(40), 1024.0e-6);
+    CHECK_DOUBLEEQUAL(input_latency_bucket_limit(INPUT_LATENCY_BUCKETS - 1),
+                      pow(2.0, (INPUT_LATENCY_BUCKETS - 1) * 0.25) * 1.0e-6);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_record_buckets)
+{
+    InputLatencyHistogram histogram;
+    input_latency_reset(&histogram);
+    CHECK_INTEQUAL(input_latency_count(&histogram), 0);
+
+    input_latency_record(&histogram, 0.5e-6);
+    CHECK_INTEQUAL(histogram.bucket[0], 1);
+    /* Exact powers of 2 should land at the bottom of the bucket above
+     * the corresponding limit. */
+    input_latency_record(&histogram, 1.0e-6);
+    CHECK_INTEQUAL(histogram.bucket[1], 1);
+    input_latency_record(&histogram, 1024.0e-6);
+    CHECK_INTEQUAL(histogram.bucket[41], 1);
+    input_latency_record(&histogram, 1000.0e-6);
+    CHECK_INTEQUAL(histogram.bucket[40], 1);
+    CHECK_INTEQUAL(input_latency_count(&histogram), 4);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_record_out_of_range)
+{
+    InputLatencyHistogram histogram;
+    input_latency_reset(&histogram);
+
+    input_latency_record(&histogram, -0.001);
+    input_latency_record(&histogram, -1.0e30);
+    CHECK_INTEQUAL(histogram.bucket[0], 2);
+
+    input_latency_record(&histogram, 10.0);
+    input_latency_record(&histogram, 1.0e30);
+    CHECK_INTEQUAL(histogram.bucket[INPUT_LATENCY_BUCKETS - 1], 2);
+
+    CHECK_INTEQUAL(input_latency_count(&histogram), 4);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_percentile)
+{
+    InputLatencyHistogram histogram;
+    input_latency_reset(&histogram);
+    CHECK_DOUBLEEQUAL(input_latency_percentile(&histogram, 50), 0);
+
+    /* 90 samples at 1.5ms, 9 at 10ms, and 1 at 100ms. */
+    for (int i = 0; i < 90; i++) {
+        input_latency_record(&histogram, 0.0015);
+    }
+    for (int i = 0; i < 9; i++) {
+        input_latency_record(&histogram, 0.010);
+    }
+    input_latency_record(&histogram, 0.100);
+    CHECK_INTEQUAL(input_latency_count(&histogram), 100);
+
+    /* Each result should be an upper bound no more than one bucket
+     * (a factor of 2^0.25) above the true value. */
+    const double p50 = input_latency_percentile(&histogram, 50);
+    CHECK_TRUE(p50 > 0.0015);
+    CHECK_TRUE(p50 <= 0.0015 * pow(2.0, 0.25));
+    const double p90 = input_latency_percentile(&histogram, 90);
+    CHECK_DOUBLEEQUAL(p90, p50);
+    const double p95 = input_latency_percentile(&histogram, 95);
+    CHECK_TRUE(p95 > 0.010);
+    CHECK_TRUE(p95 <= 0.010 * pow(2.0, 0.25));
+    const double p99 = input_latency_percentile(&histogram, 99);
+    CHECK_DOUBLEEQUAL(p99, p95);
+    const double p100 = input_latency_percentile(&histogram, 100);
+    CHECK_TRUE(p100 > 0.100);
+    CHECK_TRUE(p100 <= 0.100 * pow(2.0, 0.25));
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_request_reset)
+{
+    InputLatencyHistogram histogram;
+    input_latency_reset(&histogram);
+
+    input_latency_record(&histogram, 0.001);
+    input_latency_record(&histogram, 0.001);
+    input_latency_request_reset(&histogram);
+    /* The histogram should not be cleared until the next sample. */
+    CHECK_INTEQUAL(input_latency_count(&histogram), 2);
+
+    input_latency_record(&histogram, 0.100);
+    CHECK_INTEQUAL(input_latency_count(&histogram), 1);
+    const double p50 = input_latency_percentile(&histogram, 50);
+    CHECK_TRUE(p50 > 0.100);
+    CHECK_TRUE(p50 <= 0.100 * pow(2.0, 0.25));
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_convert_timestamp_same_clock)
+{
+    /* Nanosecond system clock with epoch 5 seconds after zero. */
+    CHECK_DOUBLEEQUAL(
+        input_latency_convert_timestamp(7500000000ULL, 0, 5000000000ULL,
+                                        1000000000),
+        2.5);
+    /* Microsecond system clock with the same epoch. */
+    CHECK_DOUBLEEQUAL(
+        input_latency_convert_timestamp(7500000000ULL, 0, 5000000ULL,
+                                        1000000),
+        2.5);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_convert_timestamp_offset)
+{
+    /* Event clock runs 100 seconds behind the system clock. */
+    CHECK_DOUBLEEQUAL(
+        input_latency_convert_timestamp(1000000000ULL, 100000000000LL,
+                                        100000000000ULL, 1000000000),
+        1.0);
+    /* Event clock runs 3 seconds ahead of the system clock. */
+    CHECK_DOUBLEEQUAL(
+        input_latency_convert_timestamp(13000000000ULL, -3000000000LL,
+                                        4000000000ULL, 1000000000),
+        6.0);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_convert_timestamp_before_epoch)
+{
+    CHECK_DOUBLEEQUAL(
+        input_latency_convert_timestamp(4000000000ULL, 0, 5000000000ULL,
+                                        1000000000),
+        -1.0);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_latency_from_synthetic_timestamps)
+{
+    InputLatencyHistogram histogram;
+    input_latency_reset(&histogram);
+
+    /* Simulate events timestamped on a clock offset from the system
+     * clock and received 2ms, 4ms, ..., 20ms later. */
+    const int64_t offset = 12345678901LL;
+    const uint64_t epoch = 20000000000ULL;
+    for (int i = 1; i <= 10; i++) {
+        const uint64_t event_time = 10000000000ULL + i * 100000000ULL;
+        const double event_ts =
+            input_latency_convert_timestamp(event_time, offset, epoch,
+                                            1000000000);
+        const double now = (event_time + offset - epoch) * 1.0e-9
+                         + i * 0.002;
+        input_latency_record(&histogram, now - event_ts);
+    }
+    CHECK_INTEQUAL(input_latency_count(&histogram), 10);
+    const double p50 = input_latency_percentile(&histogram, 50);
+    CHECK_TRUE(p50 > 0.010);
+    CHECK_TRUE(p50 <= 0.010 * pow(2.0, 0.25));
+    const double p99 = input_latency_percentile(&histogram, 99);
+    CHECK_TRUE(p99 > 0.020);
+    CHECK_TRUE(p99 <= 0.020 * pow(2.0, 0.25));
+
+    return 1;
+}
+
+/*************************************************************************/
+/*************************************************************************/
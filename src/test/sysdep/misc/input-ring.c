@@ -0,0 +1,299 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/test/sysdep/misc/input-ring.c: Tests for the input event ring buffer.
+ */
+
+#include "src/base.h"
+#include "src/input.h"
+#include "src/sysdep/misc/input-ring.h"
+#include "src/test/base.h"
+#include "src/thread.h"
+
+/*************************************************************************/
+/****************************** Local data *******************************/
+/*************************************************************************/
+
+/* Number of events to pass through the ring in the threaded stress test. */
+#define STRESS_COUNT  100000
+
+/* Ring and buffer used by the threaded stress test. */
+static InputRing stress_ring;
+static InputEvent stress_buffer[16];
+
+/*************************************************************************/
+/**************************** Helper routines ****************************/
+/*************************************************************************/
+
+/**
+ * make_event:  Return a key event with the given sequence number stored
+ * in the keycode field.
+ *
+ * [Parameters]
+ *     seq: Sequence number.
+ * [Return value]
+ *     InputEvent structure.
+ */
+static InputEvent make_event(int seq)
+{
+    return (InputEvent){.type = INPUT_EVENT_KEYBOARD,
+                        .detail = INPUT_KEYBOARD_KEY_DOWN,
+                        .timestamp = seq, {.keyboard = {.key = seq}}};
+}
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * stress_producer:  Thread routine for the stress test.  Pushes
+ * STRESS_COUNT events with sequential sequence numbers into stress_ring,
+ * retrying each push until it succeeds.
+ *
+ * [Parameters]
+ *     unused: Thread parameter (unused).
+ * [Return value]
+ *     Number of failed push attempts.
+ */
+static int stress_producer(UNUSED void *unused)
+{
+    int failures = 0;
+    for (int i = 0; i < STRESS_COUNT; i++) {
+        const InputEvent event = make_event(i);
+        while (!input_ring_push(&stress_ring, &event)) {
+            failures++;
+            thread_yield();
+        }
+    }
+    return failures;
+}
+
+/*************************************************************************/
+/****************************** Test runner ******************************/
+/*************************************************************************/
+
+DEFINE_GENERIC_TEST_RUNNER(test_misc_input_ring)
+
+/*************************************************************************/
+/***************************** Test routines *****************************/
+/*************************************************************************/
+
+TEST(test_init_invalid_size)
+{
+    InputRing ring;
+    InputEvent buffer[4];
+
+    CHECK_FALSE(input_ring_init(&ring, buffer, 0));
+    CHECK_FALSE(input_ring_init(&ring, buffer, -4));
+    CHECK_FALSE(input_ring_init(&ring, buffer, 3));
+    CHECK_TRUE(input_ring_init(&ring, buffer, 1));
+    CHECK_TRUE(input_ring_init(&ring, buffer, 4));
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_push_pop)
+{
+    InputRing ring;
+    InputEvent buffer[4];
+    InputEvent event;
+
+    CHECK_TRUE(input_ring_init(&ring, buffer, lenof(buffer)));
+    CHECK_INTEQUAL(input_ring_count(&ring), 0);
+    CHECK_FALSE(input_ring_pop(&ring, &event));
+
+    for (int i = 0; i < 3; i++) {
+        event = make_event(i);
+        CHECK_TRUE(input_ring_push(&ring, &event));
+    }
+    CHECK_INTEQUAL(input_ring_count(&ring), 3);
+
+    for (int i = 0; i < 3; i++) {
+        CHECK_TRUE(input_ring_pop(&ring, &event));
+        CHECK_INTEQUAL(event.type, INPUT_EVENT_KEYBOARD);
+        CHECK_INTEQUAL(event.detail, INPUT_KEYBOARD_KEY_DOWN);
+        CHECK_DOUBLEEQUAL(event.timestamp, i);
+        CHECK_INTEQUAL(event.keyboard.key, i);
+    }
+    CHECK_INTEQUAL(input_ring_count(&ring), 0);
+    CHECK_FALSE(input_ring_pop(&ring, &event));
+
+    CHECK_INTEQUAL(input_ring_high_water(&ring), 3);
+    CHECK_INTEQUAL(input_ring_dropped(&ring), 0);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_overflow)
+{
+    InputRing ring;
+    InputEvent buffer[4];
+    InputEvent event;
+
+    CHECK_TRUE(input_ring_init(&ring, buffer, lenof(buffer)));
+    for (int i = 0; i < 4; i++) {
+        event = make_event(i);
+        CHECK_TRUE(input_ring_push(&ring, &event));
+    }
+    /* The ring is now full, so further events should be discarded
+     * without disturbing the events already queued. */
+    event = make_event(4);
+    CHECK_FALSE(input_ring_push(&ring, &event));
+    event = make_event(5);
+    CHECK_FALSE(input_ring_push(&ring, &event));
+    CHECK_INTEQUAL(input_ring_count(&ring), 4);
+    CHECK_INTEQUAL(input_ring_dropped(&ring), 2);
+    CHECK_INTEQUAL(input_ring_high_water(&ring), 4);
+
+    /* Freeing one slot should allow one more event to be stored. */
+    CHECK_TRUE(input_ring_pop(&ring, &event));
+    CHECK_INTEQUAL(event.keyboard.key, 0);
+    event = make_event(6);
+    CHECK_TRUE(input_ring_push(&ring, &event));
+    event = make_event(7);
+    CHECK_FALSE(input_ring_push(&ring, &event));
+    CHECK_INTEQUAL(input_ring_dropped(&ring), 3);
+
+    static const int expected[] = {1, 2, 3, 6};
+    for (int i = 0; i < lenof(expected); i++) {
+        CHECK_TRUE(input_ring_pop(&ring, &event));
+        CHECK_INTEQUAL(event.keyboard.key, expected[i]);
+    }
+    CHECK_FALSE(input_ring_pop(&ring, &event));
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_high_water)
+{
+    InputRing ring;
+    InputEvent buffer[8];
+    InputEvent event;
+
+    CHECK_TRUE(input_ring_init(&ring, buffer, lenof(buffer)));
+    event = make_event(0);
+    CHECK_TRUE(input_ring_push(&ring, &event));
+    CHECK_TRUE(input_ring_push(&ring, &event));
+    CHECK_INTEQUAL(input_ring_high_water(&ring), 2);
+    CHECK_TRUE(input_ring_pop(&ring, &event));
+    CHECK_TRUE(input_ring_pop(&ring, &event));
+    CHECK_INTEQUAL(input_ring_high_water(&ring), 2);
+    CHECK_TRUE(input_ring_push(&ring, &event));
+    CHECK_INTEQUAL(input_ring_high_water(&ring), 2);
+    CHECK_TRUE(input_ring_push(&ring, &event));
+    CHECK_TRUE(input_ring_push(&ring, &event));
+    CHECK_INTEQUAL(input_ring_high_water(&ring), 3);
+
+    /* Reinitializing the ring should reset the statistics. */
+    CHECK_TRUE(input_ring_init(&ring, buffer, lenof(buffer)));
+    CHECK_INTEQUAL(input_ring_count(&ring), 0);
+    CHECK_INTEQUAL(input_ring_high_water(&ring), 0);
+    CHECK_INTEQUAL(input_ring_dropped(&ring), 0);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_wraparound)
+{
+    InputRing ring;
+    InputEvent buffer[4];
+    InputEvent event;
+
+    /* Push and pop enough events to wrap around the buffer many times,
+     * with a varying number of events in the ring. */
+    CHECK_TRUE(input_ring_init(&ring, buffer, lenof(buffer)));
+    int next_push = 0, next_pop = 0;
+    for (int i = 0; i < 1000; i++) {
+        const int num_push = 1 + i % 4;
+        for (int j = 0; j < num_push; j++) {
+            event = make_event(next_push++);
+            CHECK_TRUE(input_ring_push(&ring, &event));
+        }
+        for (int j = 0; j < num_push; j++) {
+            CHECK_TRUE(input_ring_pop(&ring, &event));
+            CHECK_INTEQUAL(event.keyboard.key, next_pop);
+            next_pop++;
+        }
+        CHECK_INTEQUAL(input_ring_count(&ring), 0);
+    }
+    CHECK_INTEQUAL(input_ring_high_water(&ring), 4);
+    CHECK_INTEQUAL(input_ring_dropped(&ring), 0);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_wraparound_index_overflow)
+{
+    InputRing ring;
+    InputEvent buffer[4];
+    InputEvent event;
+
+    /* Force the free-running indices close to the unsigned int limit to
+     * check that counts remain correct when the indices wrap. */
+    CHECK_TRUE(input_ring_init(&ring, buffer, lenof(buffer)));
+    ring.head = ring.tail = 0U - 2;
+    for (int i = 0; i < 4; i++) {
+        event = make_event(i);
+        CHECK_TRUE(input_ring_push(&ring, &event));
+    }
+    CHECK_INTEQUAL(input_ring_count(&ring), 4);
+    event = make_event(4);
+    CHECK_FALSE(input_ring_push(&ring, &event));
+    for (int i = 0; i < 4; i++) {
+        CHECK_TRUE(input_ring_pop(&ring, &event));
+        CHECK_INTEQUAL(event.keyboard.key, i);
+    }
+    CHECK_FALSE(input_ring_pop(&ring, &event));
+    CHECK_INTEQUAL(input_ring_count(&ring), 0);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_threaded_stress)
+{
+    CHECK_TRUE(input_ring_init(&stress_ring, stress_buffer,
+                               lenof(stress_buffer)));
+
+    int thread;
+    CHECK_TRUE(thread = thread_create(stress_producer, NULL));
+
+    /* Every event must arrive exactly once and in order, regardless of
+     * how the two threads are interleaved. */
+    int next = 0;
+    while (next < STRESS_COUNT) {
+        InputEvent event;
+        if (input_ring_pop(&stress_ring, &event)) {
+            if (event.keyboard.key != next) {
+                thread_wait(thread);
+                FAIL("Got event %d, expected %d", event.keyboard.key, next);
+            }
+            next++;
+        } else {
+            thread_yield();
+        }
+    }
+
+    const int failures = thread_wait(thread);
+    CHECK_FALSE(input_ring_pop(&stress_ring, &(InputEvent){0}));
+    CHECK_INTEQUAL(input_ring_dropped(&stress_ring), failures);
+    CHECK_TRUE(input_ring_high_water(&stress_ring) >= 1);
+    CHECK_TRUE(input_ring_high_water(&stress_ring) <= lenof(stress_buffer));
+
+    return 1;
+}
+
+/*************************************************************************/
+/*************************************************************************/
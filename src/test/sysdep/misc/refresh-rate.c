@@ -0,0 +1,159 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/test/sysdep/misc/refresh-rate.c: Tests for the display refresh rate
+ * selection utilities.
+ */
+
+#include "src/base.h"
+#include "src/sysdep/misc/refresh-rate.h"
+#include "src/test/base.h"
+
+/*************************************************************************/
+/****************************** Local data *******************************/
+/*************************************************************************/
+
+/* Fake mode list resembling that of a phone with a 1080x2400 panel which
+ * also supports a lower resolution, listed in arbitrary order. */
+static const RefreshMode fake_modes[] = {
+    {.id = 1, .width = 1080, .height = 2400, .refresh = 60},
+    {.id = 2, .width = 1080, .height = 2400, .refresh = 120},
+    {.id = 3, .width =  720, .height = 1600, .refresh = 60},
+    {.id = 4, .width = 1080, .height = 2400, .refresh = 90},
+    {.id = 5, .width =  720, .height = 1600, .refresh = 120},
+    {.id = 6, .width = 1080, .height = 2400, .refresh = 30},
+};
+
+/*************************************************************************/
+/****************************** Test runner ******************************/
+/*************************************************************************/
+
+DEFINE_GENERIC_TEST_RUNNER(test_misc_refresh_rate)
+
+/*************************************************************************/
+/***************************** Test routines *****************************/
+/*************************************************************************/
+
+TEST(test_filter_modes)
+{
+    RefreshMode modes[lenof(fake_modes)];
+    memcpy(modes, fake_modes, sizeof(modes));
+
+    CHECK_INTEQUAL(refresh_rate_filter_modes(modes, lenof(modes), 1), 4);
+    static const int expected_ids[] = {6, 1, 4, 2};
+    for (int i = 0; i < lenof(expected_ids); i++) {
+        CHECK_INTEQUAL(modes[i].id, expected_ids[i]);
+        CHECK_INTEQUAL(modes[i].width, 1080);
+        CHECK_INTEQUAL(modes[i].height, 2400);
+    }
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_filter_modes_other_size)
+{
+    RefreshMode modes[lenof(fake_modes)];
+    memcpy(modes, fake_modes, sizeof(modes));
+
+    CHECK_INTEQUAL(refresh_rate_filter_modes(modes, lenof(modes), 5), 2);
+    CHECK_INTEQUAL(modes[0].id, 3);
+    CHECK_INTEQUAL(modes[1].id, 5);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_filter_modes_unknown_current)
+{
+    RefreshMode modes[lenof(fake_modes)];
+    memcpy(modes, fake_modes, sizeof(modes));
+
+    CHECK_INTEQUAL(refresh_rate_filter_modes(modes, lenof(modes), 99), 0);
+    CHECK_INTEQUAL(refresh_rate_filter_modes(NULL, 0, 1), 0);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_filter_modes_duplicates)
+{
+    RefreshMode modes[] = {
+        {.id = 10, .width = 800, .height = 480, .refresh = 60},
+        {.id = 11, .width = 800, .height = 480, .refresh = 60},
+        {.id = 12, .width = 800, .height = 480, .refresh = 50},
+        {.id = 13, .width = 800, .height = 480, .refresh = 60},
+    };
+
+    /* The current mode should be kept in preference to its duplicates. */
+    CHECK_INTEQUAL(refresh_rate_filter_modes(modes, lenof(modes), 11), 2);
+    CHECK_INTEQUAL(modes[0].id, 12);
+    CHECK_INTEQUAL(modes[1].id, 11);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_select_mode)
+{
+    RefreshMode modes[lenof(fake_modes)];
+    memcpy(modes, fake_modes, sizeof(modes));
+    const int num_modes = refresh_rate_filter_modes(modes, lenof(modes), 1);
+    CHECK_INTEQUAL(num_modes, 4);
+
+    /* Exact matches. */
+    CHECK_INTEQUAL(modes[refresh_rate_select_mode(modes, num_modes, 1, 120)]
+                       .id, 2);
+    CHECK_INTEQUAL(modes[refresh_rate_select_mode(modes, num_modes, 1, 30)]
+                       .id, 6);
+    /* Closest match. */
+    CHECK_INTEQUAL(modes[refresh_rate_select_mode(modes, num_modes, 1, 59.94)]
+                       .id, 1);
+    CHECK_INTEQUAL(modes[refresh_rate_select_mode(modes, num_modes, 1, 144)]
+                       .id, 2);
+    CHECK_INTEQUAL(modes[refresh_rate_select_mode(modes, num_modes, 1, 1)]
+                       .id, 6);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_select_mode_tie)
+{
+    RefreshMode modes[] = {
+        {.id = 1, .width = 1080, .height = 2400, .refresh = 60},
+        {.id = 2, .width = 1080, .height = 2400, .refresh = 120},
+    };
+
+    /* With no current mode in the tie, the higher rate should win. */
+    CHECK_INTEQUAL(refresh_rate_select_mode(modes, lenof(modes), 99, 90), 1);
+    /* The current mode should be preferred in a tie. */
+    CHECK_INTEQUAL(refresh_rate_select_mode(modes, lenof(modes), 1, 90), 0);
+    CHECK_INTEQUAL(refresh_rate_select_mode(modes, lenof(modes), 2, 90), 1);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_select_mode_system_default)
+{
+    CHECK_INTEQUAL(refresh_rate_select_mode(fake_modes, lenof(fake_modes),
+                                            1, 0), -1);
+    CHECK_INTEQUAL(refresh_rate_select_mode(fake_modes, lenof(fake_modes),
+                                            1, -60), -1);
+    CHECK_INTEQUAL(refresh_rate_select_mode(NULL, 0, 1, 60), -1);
+
+    return 1;
+}
+
+/*************************************************************************/
+/*************************************************************************/
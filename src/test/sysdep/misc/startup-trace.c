@@ -0,0 +1,272 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/test/sysdep/misc/startup-trace.c: Tests for the startup tracing
+ * utilities.
+ */
+
+#include "src/base.h"
+#include "src/memory.h"
+#include "src/sysdep/misc/startup-trace.h"
+#include "src/test/base.h"
+
+/*************************************************************************/
+/****************************** Local data *******************************/
+/*************************************************************************/
+
+/* Record of calls to the section functions: "B<name>" for each begin and
+ * "E" for each end, concatenated. */
+static char section_log[1000];
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * log_begin, log_end:  Section functions which record their calls in
+ * section_log.
+ */
+static void log_begin(const char *name)
+{
+    ASSERT(strformat_check(section_log + strlen(section_log),
+                           sizeof(section_log) - strlen(section_log),
+                           "B%s", name));
+}
+
+static void log_end(void)
+{
+    ASSERT(strformat_check(section_log + strlen(section_log),
+                           sizeof(section_log) - strlen(section_log), "E"));
+}
+
+/*************************************************************************/
+/****************************** Test runner ******************************/
+/*************************************************************************/
+
+DEFINE_GENERIC_TEST_RUNNER(test_misc_startup_trace)
+
+/*-----------------------------------------------------------------------*/
+
+TEST_INIT(init)
+{
+    startup_trace_reset();
+    startup_trace_set_section_functions(NULL, NULL);
+    *section_log = 0;
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST_CLEANUP(cleanup)
+{
+    startup_trace_set_section_functions(NULL, NULL);
+    startup_trace_stop();
+    return 1;
+}
+
+/*************************************************************************/
+/***************************** Test routines *****************************/
+/*************************************************************************/
+
+TEST(test_empty)
+{
+    CHECK_INTEQUAL(startup_trace_num_events(), 0);
+    CHECK_TRUE(startup_trace_is_recording());
+
+    char *dump;
+    CHECK_TRUE(dump = startup_trace_dump());
+    CHECK_STREQUAL(dump, "# SIL startup trace\n");
+    mem_free(dump);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_record_and_dump)
+{
+    const int64_t start = startup_trace_now();
+    startup_trace_begin("native");
+    startup_trace_mark("mark");
+    startup_trace_end("native");
+    /* This should be sorted before all the native events. */
+    startup_trace_add(STARTUP_TRACE_JAVA, STARTUP_TRACE_BEGIN,
+                      start - 2000000, "java");
+    startup_trace_add(STARTUP_TRACE_JAVA, STARTUP_TRACE_END,
+                      start - 1000000, "java");
+    CHECK_INTEQUAL(startup_trace_num_events(), 5);
+
+    char *dump;
+    CHECK_TRUE(dump = startup_trace_dump());
+    CHECK_STRSTARTS(dump, "# SIL startup trace\n"
+                    "0 J B java\n"
+                    "1000 J E java\n");
+    /* The native events could take any amount of time, so just check
+     * their order and format. */
+    const char *s = dump + strlen("# SIL startup trace\n0 J B java\n"
+                                  "1000 J E java\n");
+    static const char * const expected[] =
+        {" N B native\n", " N M mark\n", " N E native\n"};
+    long last_time = 1000;
+    for (int i = 0; i < lenof(expected); i++) {
+        char *end;
+        const long time = strtol(s, &end, 10);
+        CHECK_TRUE(end > s);
+        CHECK_TRUE(time >= last_time);
+        CHECK_STRSTARTS(end, expected[i]);
+        last_time = time;
+        s = end + strlen(expected[i]);
+    }
+    CHECK_STREQUAL(s, "");
+    mem_free(dump);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_find)
+{
+    startup_trace_add(STARTUP_TRACE_NATIVE, STARTUP_TRACE_MARK, 3000, "a");
+    startup_trace_add(STARTUP_TRACE_NATIVE, STARTUP_TRACE_MARK, 1000, "a");
+    startup_trace_add(STARTUP_TRACE_NATIVE, STARTUP_TRACE_BEGIN, 500, "a");
+    startup_trace_add(STARTUP_TRACE_JAVA, STARTUP_TRACE_MARK, 200, "a");
+    startup_trace_add(STARTUP_TRACE_NATIVE, STARTUP_TRACE_MARK, 100, "b");
+
+    /* The earliest event matching all of source, type, and name should
+     * be returned. */
+    CHECK_INTEQUAL(startup_trace_find(STARTUP_TRACE_NATIVE,
+                                      STARTUP_TRACE_MARK, "a"), 1000);
+    CHECK_INTEQUAL(startup_trace_find(STARTUP_TRACE_NATIVE,
+                                      STARTUP_TRACE_BEGIN, "a"), 500);
+    CHECK_INTEQUAL(startup_trace_find(STARTUP_TRACE_JAVA,
+                                      STARTUP_TRACE_MARK, "a"), 200);
+    CHECK_INTEQUAL(startup_trace_find(STARTUP_TRACE_NATIVE,
+                                      STARTUP_TRACE_MARK, "b"), 100);
+    CHECK_TRUE(startup_trace_find(STARTUP_TRACE_NATIVE,
+                                  STARTUP_TRACE_END, "a") < 0);
+    CHECK_TRUE(startup_trace_find(STARTUP_TRACE_NATIVE,
+                                  STARTUP_TRACE_MARK, "c") < 0);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_stop)
+{
+    startup_trace_mark("before");
+    startup_trace_stop();
+    CHECK_FALSE(startup_trace_is_recording());
+
+    /* Native events should no longer be recorded, but explicitly added
+     * events should. */
+    startup_trace_begin("after");
+    startup_trace_mark("after");
+    startup_trace_end("after");
+    CHECK_INTEQUAL(startup_trace_num_events(), 1);
+    startup_trace_add(STARTUP_TRACE_JAVA, STARTUP_TRACE_MARK,
+                      startup_trace_now(), "java");
+    CHECK_INTEQUAL(startup_trace_num_events(), 2);
+
+    /* Resetting should restart recording. */
+    startup_trace_reset();
+    CHECK_TRUE(startup_trace_is_recording());
+    CHECK_INTEQUAL(startup_trace_num_events(), 0);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_buffer_full)
+{
+    for (int i = 0; i < STARTUP_TRACE_MAX_EVENTS + 10; i++) {
+        startup_trace_add(STARTUP_TRACE_NATIVE, STARTUP_TRACE_MARK,
+                          (int64_t)i * 1000, "event");
+    }
+    CHECK_INTEQUAL(startup_trace_num_events(), STARTUP_TRACE_MAX_EVENTS);
+
+    char *dump;
+    CHECK_TRUE(dump = startup_trace_dump());
+    int num_lines = 0;
+    for (const char *s = dump; *s; s++) {
+        num_lines += (*s == '\n');
+    }
+    CHECK_INTEQUAL(num_lines, 1 + STARTUP_TRACE_MAX_EVENTS);
+    mem_free(dump);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_long_name)
+{
+    char name[STARTUP_TRACE_NAME_SIZE + 10];
+    memset(name, 'a', sizeof(name) - 1);
+    name[sizeof(name) - 1] = 0;
+    startup_trace_add(STARTUP_TRACE_NATIVE, STARTUP_TRACE_MARK, 0, name);
+    startup_trace_add(STARTUP_TRACE_NATIVE, STARTUP_TRACE_MARK, 0,
+                      "two\nlines");
+
+    char expected[STARTUP_TRACE_NAME_SIZE + 50];
+    ASSERT(strformat_check(expected, sizeof(expected),
+                           "# SIL startup trace\n0 N M %.*s\n0 N M two\n",
+                           STARTUP_TRACE_NAME_SIZE - 1, name));
+    char *dump;
+    CHECK_TRUE(dump = startup_trace_dump());
+    CHECK_STREQUAL(dump, expected);
+    mem_free(dump);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_section_functions)
+{
+    startup_trace_set_section_functions(log_begin, log_end);
+    startup_trace_begin("outer");
+    startup_trace_mark("mark");
+    startup_trace_end("outer");
+    /* Explicitly added events should not be passed through. */
+    startup_trace_add(STARTUP_TRACE_JAVA, STARTUP_TRACE_MARK,
+                      startup_trace_now(), "java");
+    CHECK_STREQUAL(section_log, "BouterBmarkEE");
+
+    /* Sections begun after recording is stopped should not be passed
+     * through, but a section which was already open should still be
+     * ended. */
+    startup_trace_begin("open");
+    startup_trace_stop();
+    startup_trace_begin("after");
+    startup_trace_mark("after");
+    startup_trace_end("after");
+    CHECK_STREQUAL(section_log, "BouterBmarkEEBopen");
+    startup_trace_end("open");
+    CHECK_STREQUAL(section_log, "BouterBmarkEEBopenE");
+
+    /* Clearing the functions should stop passing sections through. */
+    startup_trace_reset();
+    startup_trace_set_section_functions(NULL, NULL);
+    startup_trace_mark("mark");
+    CHECK_STREQUAL(section_log, "BouterBmarkEEBopenE");
+    CHECK_INTEQUAL(startup_trace_num_events(), 1);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_write_error)
+{
+    startup_trace_mark("mark");
+    CHECK_FALSE(startup_trace_write("/nonexistent/startup-trace.txt"));
+
+    return 1;
+}
+
+/*************************************************************************/
+/*************************************************************************/
@@ -0,0 +1,274 @@
+/*
+ * System Interface Library for games
+ * Copyright (c) 2007-2020 Andrew Church <achurch@achurch.org>
+ * Released under the GNU GPL version 3 or later; NO WARRANTY is provided.
+ * See the file COPYING.txt for details.
+ *
+ * src/test/sysdep/misc/thermal-monitor.c: Tests for the thermal headroom
+ * monitoring utilities.
+ */
+
+#include "src/base.h"
+#include "src/math.h"
+#include "src/sysdep/misc/thermal-monitor.h"
+#include "src/test/base.h"
+
+/*************************************************************************/
+/****************************** Local data *******************************/
+/*************************************************************************/
+
+/* Fake thermal source state: the headroom value to return, and the
+ * number of times the source has been queried. */
+typedef struct FakeThermalSource FakeThermalSource;
+struct FakeThermalSource {
+    float headroom;
+    int num_queries;
+};
+
+/*-----------------------------------------------------------------------*/
+
+/**
+ * fake_get_headroom:  ThermalHeadroomFunction implementation for the
+ * fake thermal source.
+ */
+static float fake_get_headroom(void *userdata)
+{
+    FakeThermalSource *source = (FakeThermalSource *)userdata;
+    source->num_queries++;
+    return source->headroom;
+}
+
+/*************************************************************************/
+/****************************** Test runner ******************************/
+/*************************************************************************/
+
+DEFINE_GENERIC_TEST_RUNNER(test_misc_thermal_monitor)
+
+/*************************************************************************/
+/***************************** Test routines *****************************/
+/*************************************************************************/
+
+TEST(test_init)
+{
+    ThermalMonitor monitor;
+    thermal_monitor_init(&monitor);
+    CHECK_FLOATEQUAL(monitor.headroom, -1);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_NORMAL);
+    CHECK_DOUBLEEQUAL(thermal_monitor_poll_interval(&monitor),
+                      THERMAL_MONITOR_MIN_INTERVAL);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_poll_schedule)
+{
+    ThermalMonitor monitor;
+    thermal_monitor_init(&monitor);
+    FakeThermalSource source = {.headroom = 0.25f};
+
+    /* The first poll should always query the source. */
+    CHECK_DOUBLEEQUAL(
+        thermal_monitor_poll(&monitor, 100, fake_get_headroom, &source),
+        THERMAL_MONITOR_MAX_INTERVAL);
+    CHECK_INTEQUAL(source.num_queries, 1);
+    CHECK_FLOATEQUAL(monitor.headroom, 0.25f);
+
+    /* Polls before the interval expires should not query the source. */
+    CHECK_DOUBLEEQUAL(
+        thermal_monitor_poll(&monitor, 104, fake_get_headroom, &source),
+        THERMAL_MONITOR_MAX_INTERVAL - 4);
+    CHECK_INTEQUAL(source.num_queries, 1);
+
+    /* A poll once the interval has expired should query again. */
+    source.headroom = THERMAL_MONITOR_WARM_ENTER;
+    CHECK_DOUBLEEQUAL(
+        thermal_monitor_poll(&monitor, 100 + THERMAL_MONITOR_MAX_INTERVAL,
+                             fake_get_headroom, &source),
+        THERMAL_MONITOR_MIN_INTERVAL);
+    CHECK_INTEQUAL(source.num_queries, 2);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_poll_rate_bounded)
+{
+    ThermalMonitor monitor;
+    thermal_monitor_init(&monitor);
+    FakeThermalSource source = {.headroom = 0.99f};
+
+    /* Simulate a caller polling every 10ms for 10 seconds.  Even at the
+     * hottest level, the source should be queried no more than once per
+     * minimum interval. */
+    for (int i = 0; i < 1000; i++) {
+        const double delay = thermal_monitor_poll(
+            &monitor, i * 0.01, fake_get_headroom, &source);
+        CHECK_TRUE(delay > 0);
+        CHECK_TRUE(delay <= THERMAL_MONITOR_MAX_INTERVAL);
+    }
+    CHECK_INTEQUAL(source.num_queries,
+                   (int)ceil(10 / THERMAL_MONITOR_MIN_INTERVAL));
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_poll_interval)
+{
+    ThermalMonitor monitor;
+    thermal_monitor_init(&monitor);
+
+    thermal_monitor_update(&monitor, 0);
+    CHECK_DOUBLEEQUAL(thermal_monitor_poll_interval(&monitor),
+                      THERMAL_MONITOR_MAX_INTERVAL);
+    thermal_monitor_update(&monitor, 0.5f);
+    CHECK_DOUBLEEQUAL(thermal_monitor_poll_interval(&monitor),
+                      THERMAL_MONITOR_MAX_INTERVAL);
+
+    /* The interval should shrink as the headroom increases. */
+    double last_interval = THERMAL_MONITOR_MAX_INTERVAL;
+    for (float headroom = 0.55f; headroom < THERMAL_MONITOR_WARM_ENTER;
+         headroom += 0.05f)
+    {
+        thermal_monitor_update(&monitor, headroom);
+        const double interval = thermal_monitor_poll_interval(&monitor);
+        CHECK_TRUE(interval < last_interval);
+        CHECK_TRUE(interval > THERMAL_MONITOR_MIN_INTERVAL);
+        last_interval = interval;
+    }
+
+    thermal_monitor_update(&monitor, THERMAL_MONITOR_WARM_ENTER);
+    CHECK_DOUBLEEQUAL(thermal_monitor_poll_interval(&monitor),
+                      THERMAL_MONITOR_MIN_INTERVAL);
+    thermal_monitor_update(&monitor, 1.5f);
+    CHECK_DOUBLEEQUAL(thermal_monitor_poll_interval(&monitor),
+                      THERMAL_MONITOR_MIN_INTERVAL);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_poll_failure)
+{
+    ThermalMonitor monitor;
+    thermal_monitor_init(&monitor);
+    FakeThermalSource source = {.headroom = 0.9f};
+    double now = 0;
+
+    now += thermal_monitor_poll(&monitor, now, fake_get_headroom, &source);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_WARM);
+
+    /* A NaN result (such as from querying too often) should leave the
+     * previous state alone and retry at the minimum interval. */
+    source.headroom = NAN;
+    CHECK_DOUBLEEQUAL(
+        thermal_monitor_poll(&monitor, now, fake_get_headroom, &source),
+        THERMAL_MONITOR_MIN_INTERVAL);
+    now += THERMAL_MONITOR_MIN_INTERVAL;
+    CHECK_FLOATEQUAL(monitor.headroom, 0.9f);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_WARM);
+
+    /* After enough consecutive failures, the monitor should back off to
+     * the maximum interval. */
+    for (int i = 1; i < THERMAL_MONITOR_MAX_FAILURES - 1; i++) {
+        CHECK_DOUBLEEQUAL(
+            thermal_monitor_poll(&monitor, now, fake_get_headroom, &source),
+            THERMAL_MONITOR_MIN_INTERVAL);
+        now += THERMAL_MONITOR_MIN_INTERVAL;
+    }
+    source.headroom = -1;  // Negative values should also count as failure.
+    CHECK_DOUBLEEQUAL(
+        thermal_monitor_poll(&monitor, now, fake_get_headroom, &source),
+        THERMAL_MONITOR_MAX_INTERVAL);
+    now += THERMAL_MONITOR_MAX_INTERVAL;
+    CHECK_INTEQUAL(source.num_queries, 1 + THERMAL_MONITOR_MAX_FAILURES);
+
+    /* A successful query should restore the normal schedule. */
+    source.headroom = 0.5f;
+    CHECK_DOUBLEEQUAL(
+        thermal_monitor_poll(&monitor, now, fake_get_headroom, &source),
+        THERMAL_MONITOR_MAX_INTERVAL);
+    CHECK_INTEQUAL(monitor.failures, 0);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_NORMAL);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_hysteresis)
+{
+    ThermalMonitor monitor;
+    thermal_monitor_init(&monitor);
+
+    thermal_monitor_update(&monitor, 0.80f);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_NORMAL);
+    thermal_monitor_update(&monitor, THERMAL_MONITOR_WARM_ENTER);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_WARM);
+
+    /* Values between the exit and enter thresholds should not change
+     * the level in either direction. */
+    thermal_monitor_update(&monitor, 0.80f);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_WARM);
+    thermal_monitor_update(&monitor, 0.90f);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_WARM);
+
+    thermal_monitor_update(&monitor, THERMAL_MONITOR_HOT_ENTER);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_HOT);
+    thermal_monitor_update(&monitor, 0.90f);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_HOT);
+    thermal_monitor_update(&monitor, 0.84f);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_WARM);
+    thermal_monitor_update(&monitor, THERMAL_MONITOR_WARM_EXIT);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_WARM);
+    thermal_monitor_update(&monitor, 0.74f);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_NORMAL);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_hysteresis_jumps)
+{
+    ThermalMonitor monitor;
+    thermal_monitor_init(&monitor);
+
+    /* Large changes should move directly between NORMAL and HOT. */
+    thermal_monitor_update(&monitor, 1.2f);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_HOT);
+    thermal_monitor_update(&monitor, 0.3f);
+    CHECK_INTEQUAL(monitor.level, THERMAL_LEVEL_NORMAL);
+
+    return 1;
+}
+
+/*-----------------------------------------------------------------------*/
+
+TEST(test_level_for_status)
+{
+    CHECK_INTEQUAL(thermal_level_for_status(THERMAL_LEVEL_NORMAL, -1),
+                   THERMAL_LEVEL_NORMAL);
+    CHECK_INTEQUAL(thermal_level_for_status(THERMAL_LEVEL_WARM, 0),
+                   THERMAL_LEVEL_WARM);
+    CHECK_INTEQUAL(thermal_level_for_status(THERMAL_LEVEL_NORMAL, 1),
+                   THERMAL_LEVEL_NORMAL);
+    CHECK_INTEQUAL(thermal_level_for_status(THERMAL_LEVEL_NORMAL, 2),
+                   THERMAL_LEVEL_WARM);
+    CHECK_INTEQUAL(thermal_level_for_status(THERMAL_LEVEL_HOT, 2),
+                   THERMAL_LEVEL_HOT);
+    CHECK_INTEQUAL(thermal_level_for_status(THERMAL_LEVEL_NORMAL, 3),
+                   THERMAL_LEVEL_HOT);
+    CHECK_INTEQUAL(thermal_level_for_status(THERMAL_LEVEL_WARM, 6),
+                   THERMAL_LEVEL_HOT);
+
+    return 1;
+}
+
+/*************************************************************************/
+/*************************************************************************/
@@ -218,6 +218,11 @@ static TestInfo tests[] = {
 #endif
 
     /* sysdep/misc/... */
+#if defined(SIL_PLATFORM_ANDROID) || defined(SIL_PLATFORM_LINUX)
+    DEFINE_TEST (misc_dynamic_resolution, ""),
+    DEFINE_TEST (misc_input_latency, ""),
+    DEFINE_TEST (misc_input_ring,   "thread"),
+#endif
 #if !defined(SIL_PLATFORM_PSP)
     DEFINE_TEST (misc_ioqueue,      "condvar memory mutex thread"),
 #endif
@@ -230,6 +235,11 @@ static TestInfo tests[] = {
 #if defined(SIL_PLATFORM_LINUX) || defined(SIL_PLATFORM_MACOSX)
     DEFINE_TEST (misc_log_stdio,    "sys_files posix_fileutil posix_userdata"),
 #endif
+#if defined(SIL_PLATFORM_ANDROID) || defined(SIL_PLATFORM_LINUX)
+    DEFINE_TEST (misc_refresh_rate, ""),
+    DEFINE_TEST (misc_startup_trace, ""),
+    DEFINE_TEST (misc_thermal_monitor, ""),
+#endif
 
     /* sysdep/opengl/... */
 #if defined(SIL_PLATFORM_ANDROID) || defined(SIL_PLATFORM_IOS) || defined(SIL_PLATFORM_LINUX) || defined(SIL_PLATFORM_MACOSX) || defined(SIL_PLATFORM_WINDOWS)